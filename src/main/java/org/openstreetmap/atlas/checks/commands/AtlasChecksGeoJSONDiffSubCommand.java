@@ -1,7 +1,6 @@
 package org.openstreetmap.atlas.checks.commands;
 
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.FEATURES;
-import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERTIES;
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.TYPE;
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonType.FEATURE_COLLECTION;
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonUtils.IDENTIFIER;
@@ -10,25 +9,25 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Collection;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.openstreetmap.atlas.streaming.resource.File;
-import org.openstreetmap.atlas.streaming.writers.JsonWriter;
 import org.openstreetmap.atlas.utilities.collections.Iterables;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Takes 2 sets of atlas-checks geoJSON flag files and reports the number of additions,
@@ -52,53 +51,89 @@ public class AtlasChecksGeoJSONDiffSubCommand extends JSONFlagDiffSubCommand
     }
 
     @Override
-    protected Map<String, Map<Set<String>, JsonObject>> mapFeatures(final File file)
+    protected void forEachFlag(final File file, final FlagConsumer consumer)
     {
-        final Map<String, Map<Set<String>, JsonObject>> checkFeatureMap = new HashMap<>();
         try (InputStream inputStream = file.isGzipped()
                 ? new GZIPInputStream(new FileInputStream(file.getFile()))
-                : file.read())
+                : file.read();
+                JsonReader reader = new JsonReader(new InputStreamReader(inputStream)))
         {
-            // Parse the json
-            final JsonObject json = getGson()
-                    .fromJson(new JsonReader(new InputStreamReader(inputStream)), JsonObject.class);
-            // Map each feature
-            json.get(FEATURES).getAsJsonArray().forEach(feature ->
+            // Stream the features of the collection, fingerprinting each without parsing it
+            reader.beginObject();
+            while (reader.hasNext())
             {
-                final JsonObject jsonFeature = feature.getAsJsonObject();
-                // Get the check name. Use regex to disregard the appended highway tag values.
-                final Matcher nameMatch = NAME_PATTERN.matcher(
-                        jsonFeature.get(PROPERTIES).getAsJsonObject().get(NAME).getAsString());
-                nameMatch.find();
-                final String checkName = nameMatch.group(1);
-                // Add the check name as a key
-                checkFeatureMap.putIfAbsent(checkName, new HashMap<>());
-                // Add the geoJSON as a value
-                checkFeatureMap.get(checkName)
-                        .put(this.getIdentifiers(
-                                feature.getAsJsonObject().get(PROPERTIES).getAsJsonObject()),
-                                jsonFeature);
-            });
+                if (!FEATURES.equals(reader.nextName()))
+                {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext())
+                {
+                    final FlagDigest feature = FlagDigest.read(reader);
+                    final JsonObject properties = feature.getProperties();
+                    // Get the check name. Use regex to disregard the appended highway tag values.
+                    final Matcher nameMatch = NAME_PATTERN
+                            .matcher(properties.get(NAME).getAsString());
+                    nameMatch.find();
+                    consumer.accept(nameMatch.group(1), this.getIdentifiers(properties), feature);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
         }
         catch (final IOException exception)
         {
             logger.warn("File read failed with exception", exception);
         }
-        return checkFeatureMap;
     }
 
     @Override
-    protected void writeSetToGeoJSON(final Map<String, Set<JsonObject>> flags, final File output)
+    protected Map<String, Map<Set<String>, JsonObject>> mapFeatures(final File file)
     {
-        final JsonArray featureArray = new JsonArray();
-        flags.values().stream().flatMap(Collection::stream).forEach(featureArray::add);
-        final JsonObject featureCollection = new JsonObject();
-        featureCollection.add(TYPE, new JsonPrimitive(FEATURE_COLLECTION.toString()));
-        featureCollection.add(FEATURES, featureArray);
+        final Map<String, Map<Set<String>, JsonObject>> checkFeatureMap = new HashMap<>();
+        this.forEachFlag(file, (checkName, identifiers, feature) ->
+        {
+            // Add the check name as a key
+            checkFeatureMap.putIfAbsent(checkName, new HashMap<>());
+            // Add the geoJSON as a value
+            checkFeatureMap.get(checkName).put(identifiers, feature.parse());
+        });
+        return checkFeatureMap;
+    }
 
+    @Override
+    protected void writeLinesToGeoJSON(final Stream<String> flags, final Writer output)
+            throws IOException
+    {
+        // Stream the features into a single FeatureCollection, without parsing them
         final JsonWriter writer = new JsonWriter(output);
-        writer.writeLine(featureCollection);
-        writer.close();
+        writer.beginObject();
+        writer.name(TYPE).value(FEATURE_COLLECTION.toString());
+        writer.name(FEATURES);
+        writer.beginArray();
+        try
+        {
+            flags.forEach(flag ->
+            {
+                try
+                {
+                    writer.jsonValue(flag);
+                }
+                catch (final IOException exception)
+                {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        }
+        catch (final UncheckedIOException exception)
+        {
+            throw exception.getCause();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+        output.write(System.lineSeparator());
     }
 
     /**
@@ -13,8 +13,11 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagFormat;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagReader;
 import org.openstreetmap.atlas.streaming.resource.File;
 import org.openstreetmap.atlas.utilities.collections.Iterables;
 import org.slf4j.Logger;
@@ -44,9 +47,28 @@ public class AtlasChecksLogDiffSubCommand extends JSONFlagDiffSubCommand
     }
 
     @Override
-    protected Map<String, Map<Set<String>, JsonObject>> mapFeatures(final File file)
+    protected boolean checkFileExtension(final File file)
     {
-        final Map<String, Map<Set<String>, JsonObject>> checkFeatureMap = new HashMap<>();
+        return super.checkFileExtension(file) || BinaryFlagFormat.isBinaryFlagFile(file.getName());
+    }
+
+    @Override
+    protected void forEachFlag(final File file, final FlagConsumer consumer)
+    {
+        if (BinaryFlagFormat.isBinaryFlagFile(file.getName()))
+        {
+            // Binary flags decode straight to json, without parsing any text
+            try (BinaryFlagReader reader = new BinaryFlagReader(file.toAbsolutePath()))
+            {
+                reader.read().forEachRemaining(
+                        source -> this.acceptFlag(consumer, FlagDigest.of(source)));
+            }
+            catch (final IOException exception)
+            {
+                logger.warn("File read failed with exception", exception);
+            }
+            return;
+        }
         try (InputStreamReader inputStreamReader = file.isGzipped()
                 ? new InputStreamReader(
                         new GZIPInputStream(Files.newInputStream(file.toAbsolutePath())))
@@ -58,20 +80,8 @@ public class AtlasChecksLogDiffSubCommand extends JSONFlagDiffSubCommand
                 // Read each line (flag) from the log file
                 while ((line = reader.readLine()) != null)
                 {
-                    // Parse the json
-                    final JsonObject source = getGson().fromJson(line, JsonObject.class);
-                    // Get the check name
-                    final String checkName = source.get(PROPERTIES).getAsJsonObject().get(GENERATOR)
-                            .getAsString();
-                    // Add the check name as a key
-                    checkFeatureMap.putIfAbsent(checkName, new HashMap<>());
-                    // Add the geoJSON as a value
-                    if (checkFeatureMap.get(checkName).containsKey(this.getIdentifiers(source)))
-                    {
-                        logger.info("Duplicate flag found in {}: {}", file.getAbsolutePathString(),
-                                source);
-                    }
-                    checkFeatureMap.get(checkName).put(this.getIdentifiers(source), source);
+                    // Fingerprint the json, without parsing it
+                    this.acceptFlag(consumer, FlagDigest.of(line));
                 }
             }
         }
@@ -79,26 +89,65 @@ public class AtlasChecksLogDiffSubCommand extends JSONFlagDiffSubCommand
         {
             logger.warn("File read failed with exception", exception);
         }
+    }
+
+    @Override
+    protected Map<String, Map<Set<String>, JsonObject>> mapFeatures(final File file)
+    {
+        final Map<String, Map<Set<String>, JsonObject>> checkFeatureMap = new HashMap<>();
+        this.forEachFlag(file, (checkName, identifiers, flag) ->
+        {
+            final JsonObject source = flag.parse();
+            // Add the check name as a key
+            checkFeatureMap.putIfAbsent(checkName, new HashMap<>());
+            // Add the geoJSON as a value
+            if (checkFeatureMap.get(checkName).containsKey(identifiers))
+            {
+                logger.info("Duplicate flag found in {}: {}", file.getAbsolutePathString(),
+                        source);
+            }
+            checkFeatureMap.get(checkName).put(identifiers, source);
+        });
         return checkFeatureMap;
     }
 
+    /**
+     * Pass a flag to a consumer, with its check name and ids.
+     *
+     * @param consumer
+     *            a {@link FlagConsumer} of flags
+     * @param flag
+     *            a {@link FlagDigest} of a flag
+     */
+    private void acceptFlag(final FlagConsumer consumer, final FlagDigest flag)
+    {
+        // Get the check name
+        final String checkName = flag.getProperties().get(GENERATOR).getAsString();
+        consumer.accept(checkName, this.getIdentifiers(flag.getProperties(), flag::parse), flag);
+    }
+
     /**
      * Get the unique ids for a flag. Fall back to getting the atlas ids from the features for
      * reverse compatibility.
      *
-     * @param flagJson
-     *            a {@link JsonObject} of a flag
+     * @param flagProperties
+     *            a {@link JsonObject} of the properties of a flag
+     * @param flag
+     *            a {@link Supplier} of the {@link JsonObject} of the flag, only parsed when its
+     *            properties have no ids
      * @return a {@link Set} of {@link String} ids
      */
-    private Set<String> getIdentifiers(final JsonObject flagJson)
+    private Set<String> getIdentifiers(final JsonObject flagProperties,
+            final Supplier<JsonObject> flag)
     {
-        final JsonObject flagProperties = flagJson.get(PROPERTIES).getAsJsonObject();
         return flagProperties.has(IDENTIFIERS)
                 ? Iterables.stream(flagProperties.get(IDENTIFIERS).getAsJsonArray())
                         .map(JsonElement::getAsString).collectToSet()
-                : Iterables.stream(flagJson.get(FEATURES).getAsJsonArray()).filter(object -> object
-                        .getAsJsonObject().get(PROPERTIES).getAsJsonObject().has(IDENTIFIER)
-                        || object.getAsJsonObject().get(PROPERTIES).getAsJsonObject().has("ItemId"))
+                : Iterables.stream(flag.get().get(FEATURES).getAsJsonArray())
+                        .filter(object -> object.getAsJsonObject().get(PROPERTIES)
+                                .getAsJsonObject().has(IDENTIFIER)
+                                || object.getAsJsonObject().get(PROPERTIES).getAsJsonObject()
+                                        .has("ItemId"))
                         .map(object -> Optional
                                 .ofNullable(object.getAsJsonObject().get(PROPERTIES)
                                         .getAsJsonObject().get(IDENTIFIER))
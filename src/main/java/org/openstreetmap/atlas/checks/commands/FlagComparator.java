@@ -0,0 +1,315 @@
+package org.openstreetmap.atlas.checks.commands;
+
+import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERTIES;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.openstreetmap.atlas.utilities.scalars.Duration;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Finds flags that changed between two runs, fingerprint first. The fingerprint of a flag is a
+ * canonical 64 bit hash of its content: members of objects are hashed regardless of their order,
+ * and the timestamp of the flag, which changes every run, is left out. Fingerprints are taken from
+ * the token stream of a flag, before any tree of it is built. Flags with equal fingerprints are
+ * unchanged. Only flags whose fingerprints differ are parsed and compared member by member, as json
+ * can differ in text and still be equal, such as {@code 1.0} and {@code 1}.
+ * <p>
+ * The number of comparisons of each kind, and the time spent comparing flags member by member, are
+ * counted across all the threads using the comparator.
+ *
+ * @author mkalender
+ */
+final class FlagComparator
+{
+    private static final String TIMESTAMP = "timestamp";
+    private static final long OBJECT_SEED = 0x9E3779B97F4A7C15L;
+    private static final long ARRAY_SEED = 0xC2B2AE3D27D4EB4FL;
+    private static final long STRING_SEED = 0x165667B19E3779F9L;
+    private static final long PRIMITIVE_SEED = 0x27D4EB2F165667C5L;
+    private static final long NULL_HASH = 0x85EBCA77C2B2AE63L;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final long ARRAY_PRIME = 31;
+
+    private static final Gson GSON = new Gson();
+
+    private final LongAdder fingerprintComparisons = new LongAdder();
+    private final LongAdder payloadComparisons = new LongAdder();
+    private final LongAdder payloadNanoseconds = new LongAdder();
+
+    /**
+     * Get the fingerprint of a flag
+     *
+     * @param flag
+     *            a flag {@link JsonObject}, either a FeatureCollection or a Feature
+     * @return the canonical hash of the content of the flag
+     */
+    static long fingerprint(final JsonObject flag)
+    {
+        return hash(withoutFlagTimestamp(flag));
+    }
+
+    /**
+     * Read the next flag of a token stream and get its fingerprint, the same as
+     * {@link #fingerprint(JsonObject)} gives once the flag is parsed. The flag is copied to a
+     * writer token by token, and only its properties, which are small next to its features, are
+     * read into a tree.
+     *
+     * @param reader
+     *            a {@link JsonReader} before a flag, either a FeatureCollection or a Feature
+     * @param copy
+     *            a {@link JsonWriter} to copy the flag to
+     * @param properties
+     *            a {@link JsonObject} the properties of the flag are added to
+     * @return the canonical hash of the content of the flag
+     * @throws IOException
+     *             when unable to read or copy the flag
+     */
+    static long fingerprint(final JsonReader reader, final JsonWriter copy,
+            final JsonObject properties) throws IOException
+    {
+        long hash = OBJECT_SEED;
+        reader.beginObject();
+        copy.beginObject();
+        while (reader.hasNext())
+        {
+            final String name = reader.nextName();
+            copy.name(name);
+            final long value;
+            if (PROPERTIES.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT)
+            {
+                final JsonObject flagProperties = new JsonParser().parse(reader)
+                        .getAsJsonObject();
+                GSON.toJson(flagProperties, copy);
+                flagProperties.entrySet()
+                        .forEach(member -> properties.add(member.getKey(), member.getValue()));
+                value = hash(withoutTimestamp(flagProperties));
+            }
+            else
+            {
+                value = hash(reader, copy);
+            }
+            hash += mix(hashString(name) * ARRAY_PRIME + value);
+        }
+        reader.endObject();
+        copy.endObject();
+        return mix(hash);
+    }
+
+    /**
+     * @param fingerprint
+     *            a fingerprint
+     * @return the fingerprint as a string without separators, for spill files
+     */
+    static String toString(final long fingerprint)
+    {
+        return Long.toHexString(fingerprint);
+    }
+
+    private static long hash(final JsonElement element)
+    {
+        if (element.isJsonObject())
+        {
+            // A sum of the hashes of the members, so that their order does not matter
+            long hash = OBJECT_SEED;
+            for (final Map.Entry<String, JsonElement> member : element.getAsJsonObject()
+                    .entrySet())
+            {
+                hash += mix(hashString(member.getKey()) * ARRAY_PRIME + hash(member.getValue()));
+            }
+            return mix(hash);
+        }
+        if (element.isJsonArray())
+        {
+            long hash = ARRAY_SEED;
+            for (final JsonElement value : (JsonArray) element)
+            {
+                hash = hash * ARRAY_PRIME + hash(value);
+            }
+            return mix(hash);
+        }
+        if (element.isJsonNull())
+        {
+            return NULL_HASH;
+        }
+        // Numbers and booleans are hashed by their text, strings apart from them
+        return mix(hashString(element.getAsString())
+                ^ (element.getAsJsonPrimitive().isString() ? STRING_SEED : PRIMITIVE_SEED));
+    }
+
+    private static long hash(final JsonReader reader, final JsonWriter copy) throws IOException
+    {
+        // The same hash as for a tree, taken token by token
+        final JsonToken token = reader.peek();
+        switch (token)
+        {
+            case BEGIN_OBJECT:
+                long objectHash = OBJECT_SEED;
+                reader.beginObject();
+                copy.beginObject();
+                while (reader.hasNext())
+                {
+                    final String name = reader.nextName();
+                    copy.name(name);
+                    objectHash += mix(hashString(name) * ARRAY_PRIME + hash(reader, copy));
+                }
+                reader.endObject();
+                copy.endObject();
+                return mix(objectHash);
+            case BEGIN_ARRAY:
+                long arrayHash = ARRAY_SEED;
+                reader.beginArray();
+                copy.beginArray();
+                while (reader.hasNext())
+                {
+                    arrayHash = arrayHash * ARRAY_PRIME + hash(reader, copy);
+                }
+                reader.endArray();
+                copy.endArray();
+                return mix(arrayHash);
+            case NULL:
+                reader.nextNull();
+                copy.nullValue();
+                return NULL_HASH;
+            case STRING:
+                final String string = reader.nextString();
+                copy.value(string);
+                return mix(hashString(string) ^ STRING_SEED);
+            case NUMBER:
+                final String number = reader.nextString();
+                copy.jsonValue(number);
+                return mix(hashString(number) ^ PRIMITIVE_SEED);
+            case BOOLEAN:
+                final boolean bool = reader.nextBoolean();
+                copy.value(bool);
+                return mix(hashString(String.valueOf(bool)) ^ PRIMITIVE_SEED);
+            default:
+                throw new IOException("Unexpected " + token + " in a flag");
+        }
+    }
+
+    private static long hashString(final String value)
+    {
+        long hash = FNV_OFFSET;
+        for (int index = 0; index < value.length(); index++)
+        {
+            hash = (hash ^ value.charAt(index)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(final long value)
+    {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static JsonObject withoutFlagTimestamp(final JsonObject flag)
+    {
+        if (!flag.has(PROPERTIES) || !flag.get(PROPERTIES).isJsonObject())
+        {
+            return flag;
+        }
+        final JsonObject copy = new JsonObject();
+        flag.entrySet().forEach(member -> copy.add(member.getKey(),
+                PROPERTIES.equals(member.getKey())
+                        ? withoutTimestamp(member.getValue().getAsJsonObject())
+                        : member.getValue()));
+        return copy;
+    }
+
+    private static JsonObject withoutTimestamp(final JsonObject properties)
+    {
+        if (!properties.has(TIMESTAMP))
+        {
+            return properties;
+        }
+        final JsonObject copy = new JsonObject();
+        properties.entrySet().stream().filter(member -> !TIMESTAMP.equals(member.getKey()))
+                .forEach(member -> copy.add(member.getKey(), member.getValue()));
+        return copy;
+    }
+
+    /**
+     * @return the number of flags compared by fingerprint
+     */
+    long getFingerprintComparisons()
+    {
+        return this.fingerprintComparisons.sum();
+    }
+
+    /**
+     * @return the number of flags parsed and compared member by member
+     */
+    long getPayloadComparisons()
+    {
+        return this.payloadComparisons.sum();
+    }
+
+    /**
+     * @return the time spent parsing and comparing flags member by member, summed across threads
+     */
+    Duration getPayloadDuration()
+    {
+        return Duration.milliseconds(
+                TimeUnit.NANOSECONDS.toMillis(this.payloadNanoseconds.sum()));
+    }
+
+    /**
+     * Compare two flags by fingerprint, and only get the flags themselves when their fingerprints
+     * differ
+     *
+     * @param referenceFingerprint
+     *            the fingerprint of the reference flag
+     * @param inputFingerprint
+     *            the fingerprint of the input flag
+     * @param reference
+     *            a {@link Supplier} of the reference flag, parsing it if needed
+     * @param input
+     *            a {@link Supplier} of the input flag, parsing it if needed
+     * @return true if the content of the flags differs
+     */
+    boolean isChanged(final long referenceFingerprint, final long inputFingerprint,
+            final Supplier<JsonObject> reference, final Supplier<JsonObject> input)
+    {
+        this.fingerprintComparisons.increment();
+        if (referenceFingerprint == inputFingerprint)
+        {
+            return false;
+        }
+        return this.isPayloadChanged(reference, input);
+    }
+
+    private boolean isPayloadChanged(final Supplier<JsonObject> reference,
+            final Supplier<JsonObject> input)
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            this.payloadComparisons.increment();
+            return !withoutFlagTimestamp(reference.get()).equals(withoutFlagTimestamp(input.get()));
+        }
+        finally
+        {
+            this.payloadNanoseconds.add(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.openstreetmap.atlas.checks.commands;
+
+import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERTIES;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A flag read as text, with its {@link FlagComparator} fingerprint and its properties, which carry
+ * its check name and ids. The flag itself is only parsed when asked to, which a diff does only for
+ * flags whose fingerprints differ.
+ *
+ * @author agent
+ */
+final class FlagDigest
+{
+    private static final Gson GSON = new Gson();
+
+    private final String text;
+    private final long fingerprint;
+    private final JsonObject properties;
+
+    /**
+     * @param flag
+     *            a parsed flag, either a FeatureCollection or a Feature
+     * @return the digest of the flag
+     */
+    static FlagDigest of(final JsonObject flag)
+    {
+        return new FlagDigest(GSON.toJson(flag), FlagComparator.fingerprint(flag),
+                flag.has(PROPERTIES) && flag.get(PROPERTIES).isJsonObject()
+                        ? flag.getAsJsonObject(PROPERTIES)
+                        : new JsonObject());
+    }
+
+    /**
+     * @param text
+     *            a serialized flag, either a FeatureCollection or a Feature
+     * @return the digest of the flag, keeping its text as it is
+     * @throws IOException
+     *             when the text is not a flag
+     */
+    static FlagDigest of(final String text) throws IOException
+    {
+        final JsonObject properties = new JsonObject();
+        final long fingerprint = FlagComparator.fingerprint(
+                new JsonReader(new StringReader(text)), new JsonWriter(Writer.nullWriter()),
+                properties);
+        return new FlagDigest(text, fingerprint, properties);
+    }
+
+    /**
+     * @param reader
+     *            a {@link JsonReader} before a flag, either a FeatureCollection or a Feature
+     * @return the digest of the flag, with the flag serialized again on a single line
+     * @throws IOException
+     *             when unable to read the flag
+     */
+    static FlagDigest read(final JsonReader reader) throws IOException
+    {
+        final StringWriter text = new StringWriter();
+        final JsonObject properties = new JsonObject();
+        final long fingerprint = FlagComparator.fingerprint(reader, new JsonWriter(text),
+                properties);
+        return new FlagDigest(text.toString(), fingerprint, properties);
+    }
+
+    private FlagDigest(final String text, final long fingerprint, final JsonObject properties)
+    {
+        this.text = text;
+        this.fingerprint = fingerprint;
+        this.properties = properties;
+    }
+
+    /**
+     * @return the canonical hash of the content of the flag
+     */
+    long getFingerprint()
+    {
+        return this.fingerprint;
+    }
+
+    /**
+     * @return the properties of the flag, empty if it has none
+     */
+    JsonObject getProperties()
+    {
+        return this.properties;
+    }
+
+    /**
+     * @return the flag serialized on a single line
+     */
+    String getText()
+    {
+        return this.text;
+    }
+
+    /**
+     * @return the flag parsed into a tree
+     */
+    JsonObject parse()
+    {
+        return new JsonParser().parse(this.text).getAsJsonObject();
+    }
+}
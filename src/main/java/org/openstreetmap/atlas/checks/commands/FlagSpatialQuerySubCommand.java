@@ -0,0 +1,166 @@
+package org.openstreetmap.atlas.checks.commands;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openstreetmap.atlas.checks.constants.CommonConstants;
+import org.openstreetmap.atlas.checks.flag.index.IndexedFlagFile;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexFormat;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.openstreetmap.atlas.utilities.command.abstractcommand.AbstractAtlasShellToolsCommand;
+import org.openstreetmap.atlas.utilities.command.abstractcommand.CommandOutputDelegate;
+import org.openstreetmap.atlas.utilities.command.abstractcommand.OptionAndArgumentDelegate;
+import org.openstreetmap.atlas.utilities.command.parsing.OptionOptionality;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Reads the flags within a bounding box from atlas-checks flag, binary flag and GeoJson files that
+ * have a spatial index. Only the flags in the box are read, by seeking to them in each file,
+ * instead of scanning every file. Matching flags are written as line delimited json.
+ *
+ * @author mkalender
+ */
+public class FlagSpatialQuerySubCommand extends AbstractAtlasShellToolsCommand
+{
+    private static final String INPUT_OPTION = "input";
+    private static final String BOUNDS_OPTION = "bounds";
+    private static final String OUTPUT_OPTION = "output";
+    private final OptionAndArgumentDelegate optionAndArgumentDelegate;
+    private final CommandOutputDelegate outputDelegate;
+
+    public static void main(final String[] args)
+    {
+        new FlagSpatialQuerySubCommand().runSubcommandAndExit(args);
+    }
+
+    public FlagSpatialQuerySubCommand()
+    {
+        this.optionAndArgumentDelegate = this.getOptionAndArgumentDelegate();
+        this.outputDelegate = this.getCommandOutputDelegate();
+    }
+
+    @Override
+    @SuppressWarnings("squid:S3655")
+    public int execute()
+    {
+        final Path input = Paths
+                .get(this.optionAndArgumentDelegate.getOptionArgument(INPUT_OPTION).get());
+        final Rectangle bounds = Rectangle
+                .forString(this.optionAndArgumentDelegate.getOptionArgument(BOUNDS_OPTION).get());
+        final Optional<String> output = this.optionAndArgumentDelegate
+                .getOptionArgument(OUTPUT_OPTION);
+
+        final Writer writer;
+        try
+        {
+            writer = new BufferedWriter(output.isPresent()
+                    ? Files.newBufferedWriter(Paths.get(output.get()), StandardCharsets.UTF_8)
+                    : new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+        catch (final IOException exception)
+        {
+            this.outputDelegate.printlnStderr(exception.toString());
+            return 1;
+        }
+        try
+        {
+            long flags = 0;
+            final List<Path> flagFiles = getIndexedFlagFiles(input);
+            for (final Path flagFile : flagFiles)
+            {
+                try (IndexedFlagFile indexedFile = new IndexedFlagFile(flagFile))
+                {
+                    for (final JsonObject flag : indexedFile.query(bounds))
+                    {
+                        writer.write(flag.toString());
+                        writer.write(CommonConstants.LINE_SEPARATOR);
+                        flags++;
+                    }
+                }
+            }
+            writer.flush();
+            this.outputDelegate.printlnStderr(String
+                    .format("Found %s flags in %s indexed files", flags, flagFiles.size()));
+            // The standard output stays open for the shell
+            if (output.isPresent())
+            {
+                writer.close();
+            }
+        }
+        catch (final IOException exception)
+        {
+            this.outputDelegate.printlnStderr(exception.toString());
+            return 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public String getCommandName()
+    {
+        return "flag-query";
+    }
+
+    @Override
+    public String getSimpleDescription()
+    {
+        return "read the flags within a bounding box from spatially indexed atlas checks files";
+    }
+
+    @Override
+    public void registerManualPageSections()
+    {
+        this.addManualPageSection("DESCRIPTION", FlagSpatialQuerySubCommand.class
+                .getResourceAsStream("FlagSpatialQuerySubCommandDescriptionSection.txt"));
+        this.addManualPageSection("EXAMPLES", FlagSpatialQuerySubCommand.class
+                .getResourceAsStream("FlagSpatialQuerySubCommandExamplesSection.txt"));
+    }
+
+    @Override
+    public void registerOptionsAndArguments()
+    {
+        this.registerOptionWithRequiredArgument(INPUT_OPTION, 'i',
+                "A flag file, or a directory searched for flag files, with spatial indexes.",
+                OptionOptionality.REQUIRED, INPUT_OPTION);
+        this.registerOptionWithRequiredArgument(BOUNDS_OPTION, 'b',
+                "The bounding box to query, as minLat,minLon:maxLat,maxLon.",
+                OptionOptionality.REQUIRED, BOUNDS_OPTION);
+        this.registerOptionWithRequiredArgument(OUTPUT_OPTION, 'o',
+                "A file to write the flags to, instead of the standard output.",
+                OptionOptionality.OPTIONAL, OUTPUT_OPTION);
+        super.registerOptionsAndArguments();
+    }
+
+    /**
+     * @param input
+     *            a flag file or a directory
+     * @return the flag files that have a spatial index, in path order
+     * @throws IOException
+     *             if the directory cannot be walked
+     */
+    private static List<Path> getIndexedFlagFiles(final Path input) throws IOException
+    {
+        if (!Files.isDirectory(input))
+        {
+            return IndexedFlagFile.hasIndex(input) ? List.of(input) : List.of();
+        }
+        try (Stream<Path> paths = Files.walk(input))
+        {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> !SpatialIndexFormat
+                            .isSpatialIndexFile(path.getFileName().toString()))
+                    .filter(IndexedFlagFile::hasIndex).sorted().collect(Collectors.toList());
+        }
+    }
+}
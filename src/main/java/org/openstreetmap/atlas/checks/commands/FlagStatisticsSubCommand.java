@@ -6,10 +6,11 @@ import static org.openstreetmap.atlas.checks.constants.CommonConstants.LINE_SEPA
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERTIES;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -18,12 +19,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.openstreetmap.atlas.checks.configuration.ConfigurationResolver;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagFormat;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagReader;
+import org.openstreetmap.atlas.checks.utility.FileUtility;
+import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.streaming.resource.File;
 import org.openstreetmap.atlas.utilities.command.abstractcommand.AbstractAtlasShellToolsCommand;
 import org.openstreetmap.atlas.utilities.command.abstractcommand.CommandOutputDelegate;
@@ -33,8 +40,7 @@ import org.openstreetmap.atlas.utilities.scalars.Counter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 /**
  * This command takes a folder of directories of atlas-checks log files and counts the number of
@@ -59,6 +65,7 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
     private static final String REFERENCE_OPTION = "reference";
     private static final String OUTPUT_OPTION = "output";
     private static final String OUTPUT_TYPES_OPTION = "output-types";
+    private static final String THREADS_OPTION = "threads";
     private static final String GENERATOR = "generator";
     private static final String CHECK = "Check";
     private static final String INPUT = "Input";
@@ -66,8 +73,8 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
     private static final String DIFFERENCE = "Difference";
     private static final String TOTAL = "Total";
     private static final String SUM_SUFFIX = "(sum)";
+    private static final int BUFFER_SIZE = 64 * 1024;
     private static final Logger logger = LoggerFactory.getLogger(ConfigurationResolver.class);
-    private final Gson gson = new Gson();
     private final OptionAndArgumentDelegate optionAndArgumentDelegate;
     private final CommandOutputDelegate outputDelegate;
 
@@ -86,9 +93,12 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
     @SuppressWarnings("squid:S3655")
     public int execute()
     {
+        // Get the number of threads to read files with
+        final int threads = this.optionAndArgumentDelegate.getOptionArgument(THREADS_OPTION)
+                .map(Integer::parseInt).orElse(Runtime.getRuntime().availableProcessors());
         // Read the main input folder
         final Map<String, Map<String, Counter>> inputCounts = this.getCountryCheckCounts(
-                this.optionAndArgumentDelegate.getOptionArgument(INPUT_OPTION).get());
+                this.optionAndArgumentDelegate.getOptionArgument(INPUT_OPTION).get(), threads);
         // Get the output folder path
         final String outputFolder = this.optionAndArgumentDelegate.getOptionArgument(OUTPUT_OPTION)
                 .get();
@@ -123,7 +133,7 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
             {
                 // Read the second input
                 final Map<String, Map<String, Counter>> referenceCounts = this
-                        .getCountryCheckCounts(referenceFilePath.get());
+                        .getCountryCheckCounts(referenceFilePath.get(), threads);
 
                 // Get the difference
                 final Map<String, Map<String, Counter>> differenceCounts = this
@@ -199,9 +209,87 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
         this.registerOptionWithRequiredArgument(OUTPUT_TYPES_OPTION, 't',
                 "A comma separated list of outputs to generate: run_summary,check_summary,check_by_country",
                 OptionOptionality.OPTIONAL, OUTPUT_TYPES_OPTION);
+        this.registerOptionWithRequiredArgument(THREADS_OPTION, 'p',
+                "The number of threads to read files with. Defaults to the number of processors.",
+                OptionOptionality.OPTIONAL, THREADS_OPTION);
         super.registerOptionsAndArguments();
     }
 
+    /**
+     * Add the flag counts of a log or binary flag file to a map of counts per check per country.
+     *
+     * @param countryCheckMap
+     *            a 2D {@link Map} of flag {@link Counter}s per check {@link String} per country
+     *            {@link String}
+     * @param file
+     *            a log or binary flag {@link File}
+     */
+    private void addCountryCheckCounts(final Map<String, Map<String, Counter>> countryCheckMap,
+            final File file)
+    {
+        logger.info("Reading: {}", file.getName());
+        // Get the country folder name and assume it is a county code
+        final String country = FileUtility.getCountryFolderName(file);
+        final Optional<String> partitionCheckName = FileUtility.getPartitionCheckName(file);
+        // Add the country to the map
+        final Map<String, Counter> checkMap = countryCheckMap.computeIfAbsent(country,
+                key -> new HashMap<>());
+
+        // Binary flag files are counted from their footer index, without reading any flag
+        if (BinaryFlagFormat.isBinaryFlagFile(file.getName()))
+        {
+            try (BinaryFlagReader reader = new BinaryFlagReader(file.toAbsolutePath()))
+            {
+                reader.getCountryCheckCounts().values()
+                        .forEach(checkCounts -> checkCounts.forEach((checkName,
+                                count) -> checkMap.computeIfAbsent(checkName, key -> new Counter())
+                                        .add(count)));
+            }
+            catch (final IOException exception)
+            {
+                this.outputDelegate.printlnWarnMessage(
+                        String.format("Exception thrown while reading file %s: %s",
+                                file.getName(), exception.getMessage()));
+            }
+            return;
+        }
+
+        // Read the log file
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.isGzipped()
+                ? new GZIPInputStream(Files.newInputStream(file.toAbsolutePath()), BUFFER_SIZE)
+                : Files.newInputStream(file.toAbsolutePath()), StandardCharsets.UTF_8),
+                BUFFER_SIZE))
+        {
+            String line;
+            int lineNumber = 0;
+            // Read each line (flag) from the log file
+            while ((line = reader.readLine()) != null)
+            {
+                lineNumber++;
+                if (line.isBlank())
+                {
+                    logger.warn("Skipping blank line {} of {}", lineNumber, file.getName());
+                    continue;
+                }
+                // Flags in a check partition need not be parsed
+                final Optional<String> checkName = partitionCheckName.isPresent()
+                        ? partitionCheckName
+                        : this.getCheckName(line, lineNumber, file);
+                if (checkName.isPresent())
+                {
+                    // Increment the counter for the check/country
+                    checkMap.computeIfAbsent(checkName.get(), key -> new Counter()).increment();
+                }
+            }
+        }
+        catch (final IOException exception)
+        {
+            this.outputDelegate.printlnWarnMessage(
+                    String.format("Exception thrown while reading file %s: %s", file.getName(),
+                            exception.getMessage()));
+        }
+    }
+
     /**
      * Appends the counts of two maps of flag counts per check per country to the output of
      * {@link #generateCountsOutput(Map)}.
@@ -465,6 +553,41 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
         return outputLines;
     }
 
+    /**
+     * Get the check name of a flag by reading its json tokens up to the generator property only.
+     * Features are skipped without being parsed, and the rest of the line is not read at all. A
+     * line that is not a flag is logged and skipped.
+     *
+     * @param line
+     *            a flag as a GeoJson FeatureCollection {@link String}
+     * @param lineNumber
+     *            the number of the line in its file, for logging
+     * @param file
+     *            the {@link File} of the line, for logging
+     * @return the check name, if the line is a flag with one
+     */
+    private Optional<String> getCheckName(final String line, final int lineNumber,
+            final File file)
+    {
+        final Optional<String> checkName;
+        try
+        {
+            checkName = this.readCheckName(line);
+        }
+        catch (final IOException | IllegalStateException | NumberFormatException exception)
+        {
+            logger.warn("Skipping malformed line {} of {}: {}", lineNumber, file.getName(),
+                    exception.getMessage());
+            return Optional.empty();
+        }
+        if (checkName.isEmpty())
+        {
+            logger.warn("Skipping a flag without a check name on line {} of {}", lineNumber,
+                    file.getName());
+        }
+        return checkName;
+    }
+
     /**
      * Given a map of flag counts per check per country, get the total count for a single check.
      *
@@ -508,67 +631,53 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
     }
 
     /**
-     * Given a path to a folder, read all log files and map the counts of each check by country.
+     * Given a path to a folder, read all log and binary flag files and map the counts of each check
+     * by country. Files are read on a work stealing pool, each thread adding the counts of the
+     * files it reads to a map of its own, and the maps of the threads are merged at the end.
      *
      * @param path
      *            {@link String} folder path
+     * @param threads
+     *            number of threads to read files with
      * @return a 2D {@link Map} of flag {@link Counter}s per check {@link String} per country
      *         {@link String}
      */
-    private Map<String, Map<String, Counter>> getCountryCheckCounts(final String path)
+    private Map<String, Map<String, Counter>> getCountryCheckCounts(final String path,
+            final int threads)
     {
-
         logger.info("Reading files from: {}", path);
 
-        // Check all files in the folder and all sub-folders
-        return new File(path, FileSystems.getDefault()).listFilesRecursively().parallelStream()
-                // Filter the files to only include log files, either gzipped or uncompressed
+        // Check all files in the folder and all sub-folders, filtered to only include log files,
+        // either gzipped or uncompressed, and binary flag files
+        final List<File> files = new File(path, FileSystems.getDefault()).listFilesRecursively()
+                .stream()
                 .filter(file -> FilenameUtils
                         .getExtension(file.isGzipped() ? FilenameUtils.getBaseName(file.getName())
                                 : file.getName())
-                        .equalsIgnoreCase("log"))
-                .map(file ->
-                {
-                    final Map<String, Map<String, Counter>> countryCheckMap = new HashMap<>();
-                    logger.info("Reading: {}", file.getName());
-                    // Get the parent folder name and assume it is a county code
-                    final String country = FilenameUtils.getName(file.getParentPathString());
-                    // Add the country to the map
-                    countryCheckMap.putIfAbsent(country, new HashMap<>());
-
-                    // Read the log file
-                    try (InputStreamReader inputStreamReader = file.isGzipped()
-                            ? new InputStreamReader(new GZIPInputStream(
-                                    Files.newInputStream(file.toAbsolutePath())))
-                            : new FileReader(file.getPathString()))
-                    {
-                        try (BufferedReader reader = new BufferedReader(inputStreamReader))
-                        {
-                            String line;
-                            // Read each line (flag) from the log file
-                            while ((line = reader.readLine()) != null)
-                            {
-                                // Parse the json
-                                final JsonObject source = this.gson.fromJson(line,
-                                        JsonObject.class);
-                                // Get the check name
-                                final String checkName = source.get(PROPERTIES).getAsJsonObject()
-                                        .get(GENERATOR).getAsString();
-                                // Add the check to the map
-                                countryCheckMap.get(country).putIfAbsent(checkName, new Counter());
-                                // Increment the counter for the check/country
-                                countryCheckMap.get(country).get(checkName).increment();
-                            }
-                        }
-                    }
-                    catch (final IOException exception)
-                    {
-                        this.outputDelegate.printlnWarnMessage(
-                                String.format("Exception thrown while reading file %s: %s",
-                                        file.getName(), exception.getMessage()));
-                    }
-                    return countryCheckMap;
-                }).collect(HashMap::new, this::mergeMaps, this::mergeMaps);
+                        .equalsIgnoreCase("log")
+                        || BinaryFlagFormat.isBinaryFlagFile(file.getName()))
+                .collect(Collectors.toList());
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            return pool.submit(() -> files.parallelStream().collect(
+                    HashMap<String, Map<String, Counter>>::new, this::addCountryCheckCounts,
+                    this::mergeMaps)).get();
+        }
+        catch (final ExecutionException exception)
+        {
+            throw new CoreException("Unable to read files from {}", path, exception);
+        }
+        catch (final InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while reading files from {}", path, exception);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
     }
 
     /**
@@ -641,6 +750,42 @@ public class FlagStatisticsSubCommand extends AbstractAtlasShellToolsCommand
         return place;
     }
 
+    /**
+     * Read the check name of a flag from the json tokens of its line
+     *
+     * @param line
+     *            a flag as a GeoJson FeatureCollection {@link String}
+     * @return the check name, if the flag has one
+     * @throws IOException
+     *             when the flag is not valid json
+     */
+    private Optional<String> readCheckName(final String line) throws IOException
+    {
+        try (JsonReader reader = new JsonReader(new StringReader(line)))
+        {
+            reader.beginObject();
+            while (reader.hasNext())
+            {
+                if (!PROPERTIES.equals(reader.nextName()))
+                {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    if (GENERATOR.equals(reader.nextName()))
+                    {
+                        return Optional.of(reader.nextString());
+                    }
+                    reader.skipValue();
+                }
+                return Optional.empty();
+            }
+        }
+        return Optional.empty();
+    }
+
     /**
      * Convert a 2D {@link List} of {@link String}s into a csv {@link String}, and write to a file.
      *
@@ -1,22 +1,34 @@
 package org.openstreetmap.atlas.checks.commands;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Collection;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FilenameUtils;
+import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.streaming.resource.File;
-import org.openstreetmap.atlas.streaming.writers.JsonWriter;
 import org.openstreetmap.atlas.utilities.runtime.Command;
 import org.openstreetmap.atlas.utilities.runtime.CommandMap;
 import org.openstreetmap.atlas.utilities.runtime.FlexibleSubCommand;
+import org.openstreetmap.atlas.utilities.scalars.Duration;
+import org.openstreetmap.atlas.utilities.time.Time;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -28,6 +40,23 @@ import com.google.gson.JsonObject;
  */
 public abstract class JSONFlagDiffSubCommand implements FlexibleSubCommand
 {
+    /**
+     * Consumer of the flags read from a file
+     */
+    @FunctionalInterface
+    protected interface FlagConsumer
+    {
+        /**
+         * @param checkName
+         *            the name of the check that produced the flag
+         * @param identifiers
+         *            the unique ids of the flag
+         * @param flag
+         *            the {@link FlagDigest} of the flag
+         */
+        void accept(String checkName, Set<String> identifiers, FlagDigest flag);
+    }
+
     static final String CHECK_COUNT_FORMAT = "%s: %d%n";
     // Atlas Checks' GeoJSON strings
     static final String FEATURE_PROPERTIES = "feature_properties";
@@ -45,9 +74,20 @@ public abstract class JSONFlagDiffSubCommand implements FlexibleSubCommand
             "output",
             "A directory to place output log files in. If not included no outputs files will be written.",
             String::new, Command.Optionality.OPTIONAL);
+    private static final Command.Switch<Integer> PARTITIONS_PARAMETER = new Command.Switch<>(
+            "partitions",
+            "Diff on disk, spilling the flags into this many partitions. Each partition is diffed in memory on its own.",
+            Integer::valueOf, Command.Optionality.OPTIONAL);
+    private static final Command.Switch<Integer> THREADS_PARAMETER = new Command.Switch<>(
+            "threads",
+            "The number of threads to spill and diff partitions with. Defaults to the number of processors.",
+            Integer::valueOf, Command.Optionality.OPTIONAL,
+            String.valueOf(Runtime.getRuntime().availableProcessors()));
+    private static final Command.Switch<String> SPILL_FOLDER_PARAMETER = new Command.Switch<>(
+            "spill",
+            "A directory to write partition spill files to. Defaults to the temporary directory.",
+            String::new, Command.Optionality.OPTIONAL);
     private final Gson gson = new Gson();
-    private Map<String, Map<Set<String>, JsonObject>> reference = new HashMap<>();
-    private Map<String, Map<Set<String>, JsonObject>> input = new HashMap<>();
 
     private final String commandName;
     private final String description;
@@ -62,43 +102,21 @@ public abstract class JSONFlagDiffSubCommand implements FlexibleSubCommand
     }
 
     @Override
-    // Allow System.out for clean printing.
-    @SuppressWarnings({ "squid:S106", "squid:S2234" })
     public int execute(final CommandMap command)
     {
-        // Get files and parse to maps
-        this.getFilesOfType((File) command.get(REFERENCE_FILE_PARAMETER)).forEach(
-                path -> this.reference = this.mergeMaps(this.mapFeatures(path), this.reference));
-        this.getFilesOfType((File) command.get(INPUT_FILE_PARAMETER))
-                .forEach(path -> this.input = this.mergeMaps(this.mapFeatures(path), this.input));
-
-        // Get changes from reference to input
-        final Map<String, Set<JsonObject>> additions = this.getDiff(this.input, this.reference);
-        final Map<String, Set<JsonObject>> subtractions = this.getDiff(this.reference, this.input);
-
-        // Write outputs
-        System.out.printf("%nTotal Items: %d%n",
-                this.getReferenceSize() + this.countMapValues(additions));
-        System.out.printf("%nAdditions: %d%n", this.countMapValues(additions));
-        additions.forEach((check, set) -> System.out.printf(CHECK_COUNT_FORMAT, check, set.size()));
-        System.out.printf("%nSubtractions: %d%n", this.countMapValues(subtractions));
-        subtractions
-                .forEach((check, set) -> System.out.printf(CHECK_COUNT_FORMAT, check, set.size()));
-
-        final Optional<String> output = (Optional<String>) command
-                .getOption(OUTPUT_FOLDER_PARAMETER);
-        if (output.isPresent())
+        final Optional<Integer> partitions = (Optional<Integer>) command
+                .getOption(PARTITIONS_PARAMETER);
+        if (partitions.isPresent())
         {
-            this.writeSetToGeoJSON(additions,
-                    new File(String.format("%s/additions-%d-%d.%s", output.get(),
-                            new Date().getTime(), this.countMapValues(additions),
-                            this.fileExtension)));
-            this.writeSetToGeoJSON(subtractions,
-                    new File(String.format("%s/subtractions-%d-%d.%s", output.get(),
-                            new Date().getTime(), this.countMapValues(subtractions),
-                            this.fileExtension)));
+            return this.executePartitioned(command, partitions.get());
         }
 
+        // Diff in memory, still parsing only the flags whose fingerprints differ
+        final FlagComparator comparator = new FlagComparator();
+        final PartitionedFlagDiff.Result result = new PartitionedFlagDiff(this, comparator).diff(
+                this.getFilesOfType((File) command.get(REFERENCE_FILE_PARAMETER)),
+                this.getFilesOfType((File) command.get(INPUT_FILE_PARAMETER)));
+        this.report(command, result, comparator, "Read");
         return 0;
     }
 
@@ -118,7 +136,8 @@ public abstract class JSONFlagDiffSubCommand implements FlexibleSubCommand
     public Command.SwitchList switches()
     {
         return new Command.SwitchList().with(REFERENCE_FILE_PARAMETER, INPUT_FILE_PARAMETER,
-                OUTPUT_FOLDER_PARAMETER);
+                OUTPUT_FOLDER_PARAMETER, PARTITIONS_PARAMETER, THREADS_PARAMETER,
+                SPILL_FOLDER_PARAMETER);
     }
 
     @Override
@@ -130,33 +149,43 @@ public abstract class JSONFlagDiffSubCommand implements FlexibleSubCommand
                 "-input=path/to/first/flag/file,path/to/second/flag/file : file of flags to compare changes from the baseline\n");
         writer.print(
                 "-output=path/to/output/folder : optional directory to write output files to\n");
+        writer.print(
+                "-partitions=256 : optional number of partitions to diff on disk with, for runs larger than memory\n");
+        writer.print(
+                "-threads=8 : optional number of threads to diff partitions with, defaults to the number of processors\n");
+        writer.print(
+                "-spill=path/to/spill/folder : optional directory to write partition spill files to\n");
     }
 
     /**
-     * Takes two 2d {@link HashMap}s containing atlas-checks flags mapped by id mapped by check.
-     * Finds missing elements in the input based on ids.
+     * Checks the file extension of the input file
      *
-     * @param reference
-     *            {@link HashMap} of the flags to compare from
-     * @param input
-     *            {@link HashMap} of the flags to compare to
-     * @return a {@link Map} of {@link JsonObject} by check
+     * @param file
+     *            Input file
+     * @return true if the file has the given extension
      */
-    protected Map<String, Set<JsonObject>> getDiff(
-            final Map<String, Map<Set<String>, JsonObject>> reference,
-            final Map<String, Map<Set<String>, JsonObject>> input)
+    protected boolean checkFileExtension(final File file)
     {
-        final Map<String, Set<JsonObject>> diff = new HashMap<>();
-        reference.forEach((check, flags) -> flags.forEach((identifier, flag) ->
-        {
-            // Get missing
-            if (!input.containsKey(check) || !input.get(check).containsKey(identifier))
-            {
-                diff.putIfAbsent(check, new HashSet<>());
-                diff.get(check).add(flag);
-            }
-        }));
-        return diff;
+        return FilenameUtils.getExtension(
+                file.isGzipped() ? FilenameUtils.getBaseName(file.getName()) : file.getName())
+                .equalsIgnoreCase(this.fileExtension);
+    }
+
+    /**
+     * Reads an atlas-checks flag file and passes each flag to a consumer, with its check name and
+     * ids. By default the flags of the whole file are mapped first, subclasses that can read flags
+     * one at a time, without parsing them, override this.
+     *
+     * @param file
+     *            {@link File} containing the flags
+     * @param consumer
+     *            {@link FlagConsumer} of each flag
+     */
+    protected void forEachFlag(final File file, final FlagConsumer consumer)
+    {
+        this.mapFeatures(file).forEach((check, flags) -> flags
+                .forEach((identifiers, flag) -> consumer.accept(check, identifiers,
+                        FlagDigest.of(flag))));
     }
 
     /**
@@ -170,135 +199,248 @@ public abstract class JSONFlagDiffSubCommand implements FlexibleSubCommand
     }
 
     /**
-     * Getter for {@link #input}
+     * Parses an atlas-checks flag file and maps each flag to its id.
      *
-     * @return {@link HashMap}
+     * @param file
+     *            {@link File} containing the flags
+     * @return a 2d {@link HashMap} containing a {@link HashMap} of {@link JsonObject}s mapped to
+     *         {@link String} feature ids, mapped to {@link String} check names.
      */
-    protected Map<String, Map<Set<String>, JsonObject>> getInput()
-    {
-        return this.input;
-    }
+    protected abstract Map<String, Map<Set<String>, JsonObject>> mapFeatures(File file);
 
     /**
-     * Getter for {@link #reference}
+     * Writes serialized geoJSON atlas-checks flags to a file, one flag per line.
      *
-     * @return {@link HashMap}
+     * @param flags
+     *            {@link Stream} of serialized geoJSON flags
+     * @param output
+     *            {@link Writer} to output to
+     * @throws IOException
+     *             when unable to write the flags
      */
-    protected Map<String, Map<Set<String>, JsonObject>> getReference()
+    protected void writeLinesToGeoJSON(final Stream<String> flags, final Writer output)
+            throws IOException
     {
-        return this.reference;
+        try
+        {
+            flags.forEach(flag ->
+            {
+                try
+                {
+                    output.write(flag);
+                    output.write(System.lineSeparator());
+                }
+                catch (final IOException exception)
+                {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        }
+        catch (final UncheckedIOException exception)
+        {
+            throw exception.getCause();
+        }
     }
 
     /**
-     * A getter for the number of flags in {@link #reference}
+     * Diffs on disk, through a {@link PartitionedFlagDiff}, for runs that do not fit in memory.
      *
-     * @return {@code int}
+     * @param command
+     *            {@link CommandMap} of the command
+     * @param partitions
+     *            number of partitions to spill flags into
+     * @return the exit code
      */
-    protected int getReferenceSize()
+    private int executePartitioned(final CommandMap command, final int partitions)
     {
-        int sourceSize = 0;
-        for (final String check : this.getReference().keySet())
+        final Path spillFolder;
+        try
+        {
+            final Optional<String> spill = (Optional<String>) command
+                    .getOption(SPILL_FOLDER_PARAMETER);
+            spillFolder = spill.isPresent()
+                    ? Files.createTempDirectory(
+                            Files.createDirectories(Paths.get(spill.get())), this.commandName)
+                    : Files.createTempDirectory(this.commandName);
+        }
+        catch (final IOException exception)
+        {
+            throw new CoreException("Unable to create a spill folder", exception);
+        }
+
+        try
+        {
+            final FlagComparator comparator = new FlagComparator();
+            final PartitionedFlagDiff.Result result = new PartitionedFlagDiff(this, comparator,
+                    partitions, (Integer) command.get(THREADS_PARAMETER), spillFolder).diff(
+                            this.getFilesOfType((File) command.get(REFERENCE_FILE_PARAMETER)),
+                            this.getFilesOfType((File) command.get(INPUT_FILE_PARAMETER)));
+            this.report(command, result, comparator, "Spill");
+        }
+        finally
         {
-            sourceSize += this.getReference().get(check).size();
+            new File(spillFolder.toString()).deleteRecursively();
         }
-        return sourceSize;
+        return 0;
     }
 
     /**
-     * Parses an atlas-checks flag file and maps each flag to its id.
+     * Given a folder, gathers all files accepted by {@link #checkFileExtension(File)}.
      *
      * @param file
-     *            {@link File} containing the flags
-     * @return a 2d {@link HashMap} containing a {@link HashMap} of {@link JsonObject}s mapped to
-     *         {@link String} feature ids, mapped to {@link String} check names.
+     *            a folder with the files to gather.
+     * @return a {@link Set} of {@link File}s
      */
-    protected abstract Map<String, Map<Set<String>, JsonObject>> mapFeatures(File file);
+    private Set<File> getFilesOfType(final File file)
+    {
+        if (this.checkFileExtension(file))
+        {
+            return Collections.singleton(file);
+        }
+        else if (file.isDirectory())
+        {
+            return file.listFilesRecursively().stream().filter(this::checkFileExtension)
+                    .collect(Collectors.toSet());
+        }
+        return new HashSet<>();
+    }
 
     /**
-     * Writes a Set of geoJSON atlas-checks flags to a file.
+     * Gets an output file, named by type, time and number of flags.
      *
-     * @param flags
-     *            {@link Set} of {@link JsonObject}s representing geoJSON flags
-     * @param output
-     *            {@link File} to output to
+     * @param folder
+     *            the output folder
+     * @param type
+     *            the type of flags in the file
+     * @param count
+     *            the number of flags in the file
+     * @return the output {@link File}
      */
-    protected void writeSetToGeoJSON(final Map<String, Set<JsonObject>> flags, final File output)
+    private File getOutputFile(final String folder, final String type, final long count)
     {
-        final JsonWriter writer = new JsonWriter(output);
-        flags.values().stream().flatMap(Collection::stream).forEach(writer::writeLine);
-        writer.close();
+        return new File(String.format("%s/%s-%d-%d.%s", folder, type, new Date().getTime(), count,
+                this.fileExtension));
     }
 
     /**
-     * Checks the file extension of the input file
+     * Prints the total number of flags, and the flags added, removed and changed by check.
      *
-     * @param file
-     *            Input file
-     * @return true if the file has the given extension
+     * @param referenceSize
+     *            the number of flags in the reference
+     * @param additions
+     *            the number of flags added by check
+     * @param subtractions
+     *            the number of flags removed by check
+     * @param changes
+     *            the number of flags changed by check
      */
-    private boolean checkFileExtension(final File file)
+    // Allow System.out for clean printing.
+    @SuppressWarnings("squid:S106")
+    private void printCounts(final long referenceSize, final Map<String, Long> additions,
+            final Map<String, Long> subtractions, final Map<String, Long> changes)
     {
-        return FilenameUtils.getExtension(
-                file.isGzipped() ? FilenameUtils.getBaseName(file.getName()) : file.getName())
-                .equalsIgnoreCase(this.fileExtension);
+        System.out.printf("%nTotal Items: %d%n", referenceSize + this.sum(additions));
+        System.out.printf("%nAdditions: %d%n", this.sum(additions));
+        additions.forEach((check, count) -> System.out.printf(CHECK_COUNT_FORMAT, check, count));
+        System.out.printf("%nSubtractions: %d%n", this.sum(subtractions));
+        subtractions.forEach((check, count) -> System.out.printf(CHECK_COUNT_FORMAT, check, count));
+        System.out.printf("%nChanges: %d%n", this.sum(changes));
+        changes.forEach((check, count) -> System.out.printf(CHECK_COUNT_FORMAT, check, count));
     }
 
     /**
-     * Gets a count of the {@link JsonObject}s a {@link Map} of {@link Set}s of {@link JsonObject}s.
+     * Prints the time spent in each stage of a diff, and how the flags in both runs were compared.
      *
-     * @param map
-     *            a {@link Map} of {@link Set}s of {@link JsonObject}s
-     * @return long count of {@link JsonObject}s
+     * @param stages
+     *            the time spent in each stage, by stage name, in order
+     * @param comparator
+     *            the {@link FlagComparator} of the flags in both runs
      */
-    private long countMapValues(final Map<String, Set<JsonObject>> map)
+    // Allow System.out for clean printing.
+    @SuppressWarnings("squid:S106")
+    private void printTiming(final Map<String, Duration> stages, final FlagComparator comparator)
     {
-        return map.values().stream().mapToLong(Collection::size).sum();
+        System.out.printf("%nTiming:%n");
+        stages.forEach((stage, duration) -> System.out.printf("%s: %s%n", stage, duration));
+        System.out.printf("Fingerprint comparisons: %d%n", comparator.getFingerprintComparisons());
+        System.out.printf("Payload comparisons: %d in %s%n", comparator.getPayloadComparisons(),
+                comparator.getPayloadDuration());
     }
 
     /**
-     * Given a folder, gathers all files that have a file extension matching {@link #fileExtension}.
+     * Prints the counts and timing of a diff, and writes the flags added, removed and changed if
+     * asked to.
      *
-     * @param file
-     *            a folder with the files to gather.
-     * @return a {@link Set} of {@link File}s
+     * @param command
+     *            {@link CommandMap} of the command
+     * @param result
+     *            the flags added, removed and changed
+     * @param comparator
+     *            the {@link FlagComparator} of the flags in both runs
+     * @param readStage
+     *            the name of the stage reading the flags
      */
-    private Set<File> getFilesOfType(final File file)
+    private void report(final CommandMap command, final PartitionedFlagDiff.Result result,
+            final FlagComparator comparator, final String readStage)
     {
-        final String fileName = file.isGzipped() ? FilenameUtils.getBaseName(file.getName())
-                : file.getName();
-        if (FilenameUtils.getExtension(fileName).equalsIgnoreCase(this.fileExtension))
-        {
-            return Collections.singleton(file);
-        }
-        else if (file.isDirectory())
+        this.printCounts(result.getReferenceSize(), result.getAdditions(),
+                result.getSubtractions(), result.getChanges());
+
+        final Time writeStart = Time.now();
+        final Optional<String> output = (Optional<String>) command
+                .getOption(OUTPUT_FOLDER_PARAMETER);
+        if (output.isPresent())
         {
-            return file.listFilesRecursively().stream().filter(this::checkFileExtension)
-                    .collect(Collectors.toSet());
+            this.writeFlags(result::getAdditionFlags, this.getOutputFile(output.get(),
+                    "additions", this.sum(result.getAdditions())));
+            this.writeFlags(result::getSubtractionFlags, this.getOutputFile(output.get(),
+                    "subtractions", this.sum(result.getSubtractions())));
+            this.writeFlags(result::getChangeFlags,
+                    this.getOutputFile(output.get(), "changes", this.sum(result.getChanges())));
         }
-        return new HashSet<>();
+        final Map<String, Duration> stages = new LinkedHashMap<>();
+        stages.put(readStage, result.getReadDuration());
+        stages.put("Diff", result.getDiffDuration());
+        stages.put("Write", writeStart.elapsedSince());
+        this.printTiming(stages, comparator);
     }
 
     /**
-     * Merges one 2d check and flags {@link HashMap} into another.
+     * Sums counts by check.
      *
-     * @param put
-     *            a 2d check and flags {@link HashMap} that will be put into {@code place} to form
-     *            the output
-     * @param place
-     *            2d check and flags {@link HashMap} that will have {@code put} placed into it to
-     *            form the output
-     * @return a merged 2d check and flags {@link HashMap}
+     * @param counts
+     *            a {@link Map} of counts by check
+     * @return the sum of the counts
      */
-    private Map<String, Map<Set<String>, JsonObject>> mergeMaps(
-            final Map<String, Map<Set<String>, JsonObject>> put,
-            final Map<String, Map<Set<String>, JsonObject>> place)
+    private long sum(final Map<String, Long> counts)
     {
-        final Map<String, Map<Set<String>, JsonObject>> mergedMap = new HashMap<>(place);
-        put.forEach((check, flags) ->
+        return counts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Writes serialized flags to an output file.
+     *
+     * @param flags
+     *            a {@link Supplier} of a {@link Stream} of serialized flags, closed once written
+     * @param output
+     *            {@link File} to output to
+     */
+    private void writeFlags(final Supplier<Stream<String>> flags, final File output)
+    {
+        final Path path = Paths.get(output.getAbsolutePathString());
+        try
         {
-            mergedMap.putIfAbsent(check, new HashMap<>());
-            mergedMap.get(check).putAll(flags);
-        });
-        return mergedMap;
+            Files.createDirectories(path.getParent());
+            try (Stream<String> lines = flags.get();
+                    BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+            {
+                this.writeLinesToGeoJSON(lines, writer);
+            }
+        }
+        catch (final IOException | UncheckedIOException exception)
+        {
+            throw new CoreException("Unable to write {}", output.getAbsolutePathString(),
+                    exception);
+        }
     }
 }
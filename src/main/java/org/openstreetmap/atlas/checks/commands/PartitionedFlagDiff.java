@@ -0,0 +1,481 @@
+package org.openstreetmap.atlas.checks.commands;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.streaming.resource.File;
+import org.openstreetmap.atlas.utilities.scalars.Duration;
+import org.openstreetmap.atlas.utilities.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A diff of two sets of flag files that need not fit in memory. The flags of both sets are hash
+ * partitioned by check name and ids into spill files, so that a flag and its match always land in
+ * the same partition. Partitions are then diffed in parallel, each holding only its own flags in
+ * memory, and the flags added, removed and changed are spilled again to be written out. Without a
+ * spill folder, both sets are held in memory as a single partition instead.
+ * <p>
+ * Flags are read as text with their {@link FlagComparator} fingerprint, taken without building a
+ * tree of them, so that flags in both runs are compared by fingerprint first, and only parsed when
+ * their fingerprints differ.
+ *
+ * @author mkalender
+ */
+final class PartitionedFlagDiff
+{
+    /**
+     * Flags added, removed and changed from reference to input, in spill files or in memory, with
+     * their counts by check
+     */
+    static final class Result
+    {
+        private long referenceSize;
+        private final Map<String, Long> additions = new HashMap<>();
+        private final Map<String, Long> subtractions = new HashMap<>();
+        private final Map<String, Long> changes = new HashMap<>();
+        private final List<Path> additionFiles = new ArrayList<>();
+        private final List<Path> subtractionFiles = new ArrayList<>();
+        private final List<Path> changeFiles = new ArrayList<>();
+        private final List<String> additionFlags = new ArrayList<>();
+        private final List<String> subtractionFlags = new ArrayList<>();
+        private final List<String> changeFlags = new ArrayList<>();
+        private Duration readDuration = Duration.ZERO;
+        private Duration diffDuration = Duration.ZERO;
+
+        /**
+         * @return the number of flags added, by check name
+         */
+        Map<String, Long> getAdditions()
+        {
+            return this.additions;
+        }
+
+        /**
+         * @return the flags added, serialized, in a {@link Stream} that must be closed
+         */
+        Stream<String> getAdditionFlags()
+        {
+            return flags(this.additionFlags, this.additionFiles);
+        }
+
+        /**
+         * @return the number of flags changed, by check name
+         */
+        Map<String, Long> getChanges()
+        {
+            return this.changes;
+        }
+
+        /**
+         * @return the flags changed, in their input version, serialized, in a {@link Stream} that
+         *         must be closed
+         */
+        Stream<String> getChangeFlags()
+        {
+            return flags(this.changeFlags, this.changeFiles);
+        }
+
+        /**
+         * @return the time spent diffing partitions
+         */
+        Duration getDiffDuration()
+        {
+            return this.diffDuration;
+        }
+
+        /**
+         * @return the number of distinct flags in the reference
+         */
+        long getReferenceSize()
+        {
+            return this.referenceSize;
+        }
+
+        /**
+         * @return the time spent reading flags, and spilling them into partitions if any
+         */
+        Duration getReadDuration()
+        {
+            return this.readDuration;
+        }
+
+        /**
+         * @return the number of flags removed, by check name
+         */
+        Map<String, Long> getSubtractions()
+        {
+            return this.subtractions;
+        }
+
+        /**
+         * @return the flags removed, serialized, in a {@link Stream} that must be closed
+         */
+        Stream<String> getSubtractionFlags()
+        {
+            return flags(this.subtractionFlags, this.subtractionFiles);
+        }
+
+        private Result merge(final Result other)
+        {
+            this.referenceSize += other.referenceSize;
+            other.additions
+                    .forEach((check, count) -> this.additions.merge(check, count, Long::sum));
+            other.subtractions
+                    .forEach((check, count) -> this.subtractions.merge(check, count, Long::sum));
+            other.changes.forEach((check, count) -> this.changes.merge(check, count, Long::sum));
+            this.additionFiles.addAll(other.additionFiles);
+            this.subtractionFiles.addAll(other.subtractionFiles);
+            this.changeFiles.addAll(other.changeFiles);
+            this.additionFlags.addAll(other.additionFlags);
+            this.subtractionFlags.addAll(other.subtractionFlags);
+            this.changeFlags.addAll(other.changeFlags);
+            return this;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedFlagDiff.class);
+    // Check names and serialized ids have no tabs, so the first two tabs are separators
+    private static final char SEPARATOR = '\t';
+    private static final String SPILL_FORMAT = "%s-%d.spill";
+    private static final int HEXADECIMAL = 16;
+
+    private final Gson gson = new Gson();
+    private final JSONFlagDiffSubCommand command;
+    private final FlagComparator comparator;
+    private final int partitions;
+    private final int threads;
+    private final Path spillFolder;
+
+    private static long fingerprintOf(final String value)
+    {
+        return Long.parseUnsignedLong(value.substring(0, value.indexOf(SEPARATOR)), HEXADECIMAL);
+    }
+
+    private static String flagOf(final String value)
+    {
+        return value.substring(value.indexOf(SEPARATOR) + 1);
+    }
+
+    private static Stream<String> flags(final List<String> values, final List<Path> spillFiles)
+    {
+        return Stream.concat(values.stream().map(PartitionedFlagDiff::flagOf),
+                spillFiles.stream().flatMap(spillFile ->
+        {
+            try
+            {
+                return Files.lines(spillFile, StandardCharsets.UTF_8);
+            }
+            catch (final IOException exception)
+            {
+                throw new UncheckedIOException(exception);
+            }
+        }));
+    }
+
+    private static JsonObject parse(final String value)
+    {
+        return new JsonParser().parse(flagOf(value)).getAsJsonObject();
+    }
+
+    /**
+     * A diff held in memory, as a single partition
+     *
+     * @param command
+     *            the diff command reading the flags of each file
+     * @param comparator
+     *            the {@link FlagComparator} of flags in both runs
+     */
+    PartitionedFlagDiff(final JSONFlagDiffSubCommand command, final FlagComparator comparator)
+    {
+        this(command, comparator, 1, 1, null);
+    }
+
+    /**
+     * @param command
+     *            the diff command reading the flags of each file
+     * @param comparator
+     *            the {@link FlagComparator} of flags in both runs
+     * @param partitions
+     *            number of partitions to spill the flags into
+     * @param threads
+     *            number of threads to read files and diff partitions with
+     * @param spillFolder
+     *            an empty folder to write spill files to
+     */
+    PartitionedFlagDiff(final JSONFlagDiffSubCommand command, final FlagComparator comparator,
+            final int partitions, final int threads, final Path spillFolder)
+    {
+        this.command = command;
+        this.comparator = comparator;
+        this.partitions = partitions;
+        this.threads = threads;
+        this.spillFolder = spillFolder;
+    }
+
+    /**
+     * Diff two sets of flag files
+     *
+     * @param reference
+     *            the files of the flags to compare from
+     * @param input
+     *            the files of the flags to compare to
+     * @return the flags added, removed and changed from reference to input
+     */
+    Result diff(final Set<File> reference, final Set<File> input)
+    {
+        if (this.spillFolder == null)
+        {
+            return this.diffInMemory(reference, input);
+        }
+        final Time spillStart = Time.now();
+        final List<Path> referencePartitions = this.partition(reference, "reference");
+        final List<Path> inputPartitions = this.partition(input, "input");
+        final Duration spillDuration = spillStart.elapsedSince();
+        logger.info("Spilled flags into {} partitions in {} in {}", this.partitions,
+                this.spillFolder, spillDuration);
+
+        final Time diffStart = Time.now();
+        final Result result = this.run(() -> IntStream.range(0, this.partitions).parallel()
+                .mapToObj(partition -> this.diffPartition(partition,
+                        referencePartitions.get(partition), inputPartitions.get(partition)))
+                .collect(Collectors.toList())).stream().reduce(new Result(), Result::merge);
+        result.readDuration = spillDuration;
+        result.diffDuration = diffStart.elapsedSince();
+        return result;
+    }
+
+    private void count(final Map<String, Long> counts, final Collection<String> keys)
+    {
+        keys.forEach(key -> counts.merge(key.substring(0, key.indexOf(SEPARATOR)), 1L, Long::sum));
+    }
+
+    private Result diffFlags(final Map<String, String> referenceFlags,
+            final Map<String, String> inputFlags)
+    {
+        final Result result = new Result();
+        result.referenceSize = referenceFlags.size();
+
+        // Drop the flags in both, leaving the additions in the input and the subtractions in the
+        // reference. Flags in both are parsed only if their fingerprints differ.
+        final Map<String, String> changes = new HashMap<>();
+        inputFlags.entrySet().removeIf(entry ->
+        {
+            final String referenceFlag = referenceFlags.remove(entry.getKey());
+            if (referenceFlag == null)
+            {
+                return false;
+            }
+            if (this.comparator.isChanged(fingerprintOf(referenceFlag),
+                    fingerprintOf(entry.getValue()), () -> parse(referenceFlag),
+                    () -> parse(entry.getValue())))
+            {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+            return true;
+        });
+        this.count(result.additions, inputFlags.keySet());
+        this.count(result.subtractions, referenceFlags.keySet());
+        this.count(result.changes, changes.keySet());
+        result.additionFlags.addAll(inputFlags.values());
+        result.subtractionFlags.addAll(referenceFlags.values());
+        result.changeFlags.addAll(changes.values());
+        return result;
+    }
+
+    private Result diffInMemory(final Set<File> reference, final Set<File> input)
+    {
+        final Time readStart = Time.now();
+        final Map<String, String> referenceFlags = this.read(reference);
+        final Map<String, String> inputFlags = this.read(input);
+        final Duration readDuration = readStart.elapsedSince();
+
+        final Time diffStart = Time.now();
+        final Result result = this.diffFlags(referenceFlags, inputFlags);
+        result.readDuration = readDuration;
+        result.diffDuration = diffStart.elapsedSince();
+        return result;
+    }
+
+    private Result diffPartition(final int partition, final Path referencePartition,
+            final Path inputPartition)
+    {
+        // Later flags replace earlier ones with the same ids, as they do in memory
+        final Result result = this.diffFlags(this.readPartition(referencePartition),
+                this.readPartition(inputPartition));
+        result.additionFiles.add(this.spill(result.additionFlags, "additions", partition));
+        result.subtractionFiles.add(this.spill(result.subtractionFlags, "subtractions", partition));
+        result.changeFiles.add(this.spill(result.changeFlags, "changes", partition));
+        result.additionFlags.clear();
+        result.subtractionFlags.clear();
+        result.changeFlags.clear();
+        return result;
+    }
+
+    private String key(final String checkName, final Set<String> identifiers)
+    {
+        // Sort the ids so that equal sets have equal keys
+        return checkName + SEPARATOR + this.gson.toJson(new TreeSet<>(identifiers));
+    }
+
+    private List<Path> partition(final Set<File> files, final String name)
+    {
+        final List<Path> spillFiles = new ArrayList<>();
+        final List<BufferedWriter> writers = new ArrayList<>();
+        try
+        {
+            for (int partition = 0; partition < this.partitions; partition++)
+            {
+                final Path spillFile = this.spillFolder
+                        .resolve(String.format(SPILL_FORMAT, name, partition));
+                spillFiles.add(spillFile);
+                writers.add(Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8));
+            }
+            this.run(() ->
+            {
+                files.parallelStream().forEach(file ->
+                {
+                    logger.info("Spilling flags of {}", file.getAbsolutePathString());
+                    this.command.forEachFlag(file, (checkName, identifiers, flag) ->
+                    {
+                        final String key = this.key(checkName, identifiers);
+                        final String line = key + SEPARATOR + this.value(flag);
+                        final BufferedWriter writer = writers
+                                .get(Math.floorMod(key.hashCode(), this.partitions));
+                        synchronized (writer)
+                        {
+                            try
+                            {
+                                writer.write(line);
+                                writer.newLine();
+                            }
+                            catch (final IOException exception)
+                            {
+                                throw new CoreException("Unable to spill flags of {}",
+                                        file.getAbsolutePathString(), exception);
+                            }
+                        }
+                    });
+                });
+                return null;
+            });
+        }
+        catch (final IOException exception)
+        {
+            throw new CoreException("Unable to create spill files in {}", this.spillFolder,
+                    exception);
+        }
+        finally
+        {
+            for (final BufferedWriter writer : writers)
+            {
+                try
+                {
+                    writer.close();
+                }
+                catch (final IOException exception)
+                {
+                    logger.warn("Unable to close spill file", exception);
+                }
+            }
+        }
+        return spillFiles;
+    }
+
+    private Map<String, String> readPartition(final Path spillFile)
+    {
+        final Map<String, String> flags = new HashMap<>();
+        try (Stream<String> lines = Files.lines(spillFile, StandardCharsets.UTF_8))
+        {
+            lines.forEach(line ->
+            {
+                // Lines are the key, check name and ids, then the fingerprint and the flag, which
+                // may have tabs of its own
+                final int fingerprint = line.indexOf(SEPARATOR, line.indexOf(SEPARATOR) + 1);
+                flags.put(line.substring(0, fingerprint), line.substring(fingerprint + 1));
+            });
+        }
+        catch (final IOException exception)
+        {
+            throw new CoreException("Unable to read spill file {}", spillFile, exception);
+        }
+        return flags;
+    }
+
+    private Map<String, String> read(final Set<File> files)
+    {
+        final Map<String, String> flags = new HashMap<>();
+        files.forEach(file ->
+        {
+            logger.info("Reading flags of {}", file.getAbsolutePathString());
+            this.command.forEachFlag(file, (checkName, identifiers, flag) -> flags
+                    .put(this.key(checkName, identifiers), this.value(flag)));
+        });
+        return flags;
+    }
+
+    private <T> T run(final Callable<T> task)
+    {
+        final ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try
+        {
+            return pool.submit(task).get();
+        }
+        catch (final ExecutionException exception)
+        {
+            throw new CoreException("Unable to diff flags", exception.getCause());
+        }
+        catch (final InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while diffing flags", exception);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private Path spill(final Collection<String> flags, final String name, final int partition)
+    {
+        final Path spillFile = this.spillFolder
+                .resolve(String.format(SPILL_FORMAT, name, partition));
+        try
+        {
+            return Files.write(spillFile,
+                    (Iterable<String>) flags.stream().map(PartitionedFlagDiff::flagOf)::iterator,
+                    StandardCharsets.UTF_8);
+        }
+        catch (final IOException exception)
+        {
+            throw new CoreException("Unable to write spill file {}", spillFile, exception);
+        }
+    }
+
+    private String value(final FlagDigest flag)
+    {
+        return FlagComparator.toString(flag.getFingerprint()) + SEPARATOR + flag.getText();
+    }
+}
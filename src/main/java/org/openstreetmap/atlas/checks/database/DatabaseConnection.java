@@ -1,15 +1,28 @@
 package org.openstreetmap.atlas.checks.database;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Create a PostgreSQL database connection
+ * Create PostgreSQL database connections. {@link #getConnection()} opens a new connection each
+ * time, while {@link #getPooledConnection()} reuses the connections returned to the pool by
+ * closing them. Pooled connections are all closed with the {@link DatabaseConnection}.
  *
  * @author danielbaah
  */
@@ -18,7 +31,12 @@ public class DatabaseConnection implements AutoCloseable
 
     private URI connectionURI;
     private Map<String, String> queryParameters = new HashMap<>();
+    private final Queue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> pooledConnections = ConcurrentHashMap.newKeySet();
     private static final String DEFAULT_DATABASE_SCHEMA = "public";
+    private static final String SEARCH_PATH_SQL = "SET search_path TO %s,public;";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseConnection.class);
 
     /**
      * Default constructor takes in a url of the form host[:port]/database. Port and additional
@@ -37,10 +55,33 @@ public class DatabaseConnection implements AutoCloseable
         this.queryParameters = this.uriQueryToMap(this.connectionURI);
     }
 
+    /**
+     * Close all the pooled connections, including those that were not returned to the pool
+     *
+     * @throws SQLException
+     *             the last error closing a connection, if any
+     */
     @Override
     public void close() throws SQLException
     {
-        this.getConnection().close();
+        SQLException failure = null;
+        for (final Connection connection : this.pooledConnections)
+        {
+            try
+            {
+                connection.close();
+            }
+            catch (final SQLException error)
+            {
+                failure = error;
+            }
+        }
+        this.pooledConnections.clear();
+        this.idleConnections.clear();
+        if (failure != null)
+        {
+            throw failure;
+        }
     }
 
     public Connection getConnection() throws SQLException
@@ -48,6 +89,62 @@ public class DatabaseConnection implements AutoCloseable
         return DriverManager.getConnection(String.format("jdbc:%s", this.connectionURI.toString()));
     }
 
+    /**
+     * Get a connection from the pool, or open one if none is idle. New connections search the
+     * schema of the connection url, like the connection that created it. Closing the returned
+     * connection returns it to the pool, with auto-commit on and any open transaction rolled back.
+     *
+     * @return a pooled {@link Connection}
+     * @throws SQLException
+     *             if unable to open a connection
+     */
+    public Connection getPooledConnection() throws SQLException
+    {
+        Connection connection = this.idleConnections.poll();
+        while (connection != null && !connection.isValid(VALIDATION_TIMEOUT_SECONDS))
+        {
+            this.pooledConnections.remove(connection);
+            this.closeQuietly(connection);
+            connection = this.idleConnections.poll();
+        }
+        if (connection == null)
+        {
+            connection = this.getConnection();
+            this.pooledConnections.add(connection);
+            try (Statement statement = connection.createStatement())
+            {
+                statement.execute(String.format(SEARCH_PATH_SQL, this.getSchema()));
+            }
+        }
+
+        final Connection pooledConnection = connection;
+        final AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, arguments) ->
+                {
+                    if ("close".equals(method.getName()) && arguments == null)
+                    {
+                        if (released.compareAndSet(false, true))
+                        {
+                            this.release(pooledConnection);
+                        }
+                        return null;
+                    }
+                    if ("isClosed".equals(method.getName()) && arguments == null)
+                    {
+                        return released.get() || pooledConnection.isClosed();
+                    }
+                    try
+                    {
+                        return method.invoke(pooledConnection, arguments);
+                    }
+                    catch (final InvocationTargetException error)
+                    {
+                        throw error.getCause();
+                    }
+                });
+    }
+
     public URI getConnectionURI()
     {
         return this.connectionURI;
@@ -64,11 +161,46 @@ public class DatabaseConnection implements AutoCloseable
                 DEFAULT_DATABASE_SCHEMA);
     }
 
+    private void closeQuietly(final Connection connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (final SQLException error)
+        {
+            logger.warn("Unable to close database connection", error);
+        }
+    }
+
     private URI createConnectionURI(final String connectionString)
     {
         return URI.create(String.format("postgresql://%s", connectionString));
     }
 
+    private void release(final Connection connection)
+    {
+        try
+        {
+            if (!connection.isClosed())
+            {
+                if (!connection.getAutoCommit())
+                {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                this.idleConnections.add(connection);
+                return;
+            }
+        }
+        catch (final SQLException error)
+        {
+            logger.warn("Discarding database connection", error);
+            this.closeQuietly(connection);
+        }
+        this.pooledConnections.remove(connection);
+    }
+
     /**
      * Converts the URI query parameters into a Map<String,String>. For example,
      * localhost/dbname?username=dan&currentSchema=private would return a map with two elements, 1.
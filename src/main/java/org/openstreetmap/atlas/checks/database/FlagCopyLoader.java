@@ -0,0 +1,427 @@
+package org.openstreetmap.atlas.checks.database;
+
+import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.FEATURES;
+import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERTIES;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.openstreetmap.atlas.checks.constants.CommonConstants;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.checks.flag.serializer.CheckFlagDeserializer;
+import org.openstreetmap.atlas.checks.utility.FileUtility;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.streaming.resource.File;
+import org.openstreetmap.atlas.utilities.time.Time;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Bulk loads flags into the flag and feature tables with the PostgreSQL COPY protocol. Each flag is
+ * parsed once, and given a staging id on the client, so that its features can be linked to it
+ * without a round trip per flag. Flags are streamed straight into a staging table while features
+ * are spilled to a local file, as a connection can only copy into one table at a time, and are
+ * copied into their own staging table afterwards. Both are then inserted into the flag and feature
+ * tables with one statement each, in a single transaction.
+ * <p>
+ * The feature geometry index can optionally be dropped during the insert and created again after
+ * it, which is faster when loading many features at once.
+ * <p>
+ * Incremental loads key flags by their check and sorted unique identifiers, and only insert flags
+ * that are not open already. Open flags of the loaded checks that are not in the load are resolved
+ * with an end date, and open flags whose instructions changed are updated. Only flags with a
+ * feature in a country the check was loaded for are resolved, so that loading some countries
+ * leaves the flags of the others open. Flags of checks that are not in the load are left as they
+ * are.
+ *
+ * @author danielbaah
+ */
+public class FlagCopyLoader
+{
+    static final String CREATE_STAGING_SQL = "CREATE TEMP TABLE flag_staging (staging_id bigint, flag_id text, check_name text, instructions text, run_uri text, software_version text, date_created timestamp) ON COMMIT DROP;"
+            + "CREATE TEMP TABLE feature_staging (staging_id bigint, geom text, osm_id bigint, atlas_id bigint, iso_country_code text, tags text, item_type text, date_created timestamp) ON COMMIT DROP;";
+    static final String COPY_FLAG_SQL = "COPY flag_staging FROM STDIN";
+    static final String COPY_FEATURE_SQL = "COPY feature_staging FROM STDIN";
+    // Database ids of the flags, taken from the flag sequence for all the flags at once
+    static final String INSERT_SQL = "CREATE TEMP TABLE flag_staging_id ON COMMIT DROP AS SELECT staging_id, nextval(pg_get_serial_sequence('flag', 'id')) AS id FROM flag_staging;"
+            + "INSERT INTO flag (id, flag_id, check_name, instructions, run_uri, software_version, date_created) SELECT ids.id, staged.flag_id, staged.check_name, staged.instructions, staged.run_uri, staged.software_version, staged.date_created FROM flag_staging staged JOIN flag_staging_id ids USING (staging_id);"
+            + "INSERT INTO feature (flag_id, geom, osm_id, atlas_id, iso_country_code, tags, item_type, date_created) SELECT ids.id, ST_GeomFromGeoJSON(staged.geom), staged.osm_id, staged.atlas_id, staged.iso_country_code, staged.tags::hstore, staged.item_type, staged.date_created FROM feature_staging staged JOIN flag_staging_id ids USING (staging_id);";
+    static final String INDEX_STAGING_SQL = "CREATE INDEX ON flag_staging (check_name, flag_id); ANALYZE flag_staging;";
+    // Flags found more than once in the load are staged once
+    static final String DEDUPLICATE_SQL = "DELETE FROM flag_staging duplicate USING flag_staging staged WHERE duplicate.check_name = staged.check_name AND duplicate.flag_id = staged.flag_id AND duplicate.staging_id > staged.staging_id;";
+    // Countries of each loaded check, from the iso_country_code of its staged features
+    static final String SCOPE_SQL = "CREATE TEMP TABLE flag_staging_scope ON COMMIT DROP AS SELECT DISTINCT staged.check_name, features.iso_country_code FROM flag_staging staged JOIN feature_staging features USING (staging_id); ANALYZE flag_staging_scope;";
+    static final String RESOLVE_SQL = "UPDATE flag SET date_resolved = ? WHERE flag.date_resolved IS NULL AND EXISTS (SELECT 1 FROM feature JOIN flag_staging_scope scope ON scope.iso_country_code = feature.iso_country_code WHERE feature.flag_id = flag.id AND scope.check_name = flag.check_name) AND NOT EXISTS (SELECT 1 FROM flag_staging staged WHERE staged.check_name = flag.check_name AND staged.flag_id = flag.flag_id);";
+    static final String UPDATE_SQL = "UPDATE flag SET instructions = staged.instructions FROM flag_staging staged WHERE flag.date_resolved IS NULL AND flag.check_name = staged.check_name AND flag.flag_id = staged.flag_id AND flag.instructions IS DISTINCT FROM staged.instructions;";
+    // Leaves only new flags, and their features, to insert
+    static final String DELETE_OPEN_SQL = "DELETE FROM flag_staging staged USING flag WHERE flag.date_resolved IS NULL AND flag.check_name = staged.check_name AND flag.flag_id = staged.flag_id;";
+    static final String DROP_INDEX_SQL = "DROP INDEX IF EXISTS feature_geom_idx;";
+    static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS feature_geom_idx ON feature USING GIST (geom);";
+    private static final String GENERATOR = "generator";
+    private static final String INSTRUCTIONS = "instructions";
+    private static final String IDENTIFIERS = "identifiers";
+    private static final String ISO_COUNTRY_CODE = "iso_country_code";
+    private static final String NULL = "\\N";
+    private static final char DELIMITER = '\t';
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(CheckFlag.class, new CheckFlagDeserializer()).create();
+    private static final Logger logger = LoggerFactory.getLogger(FlagCopyLoader.class);
+
+    private final FlagDatabaseSubCommand command;
+    private final String runUri;
+    private final String softwareVersion;
+    private final String timestamp;
+    private boolean deferIndexes;
+    private boolean incremental;
+
+    /**
+     * Escape a value for the COPY text format
+     *
+     * @param value
+     *            a value, or null
+     * @return the escaped value, or the null marker
+     */
+    static String copyText(final String value)
+    {
+        if (value == null)
+        {
+            return NULL;
+        }
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int index = 0; index < value.length(); index++)
+        {
+            final char character = value.charAt(index);
+            switch (character)
+            {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                default:
+                    builder.append(character);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Format tags as an hstore literal
+     *
+     * @param tags
+     *            a {@link Map} of tags
+     * @return the hstore literal
+     */
+    static String hstore(final Map<String, String> tags)
+    {
+        return tags.entrySet().stream()
+                .map(tag -> String.format("\"%s\"=>\"%s\"", hstoreText(tag.getKey()),
+                        hstoreText(tag.getValue())))
+                .collect(Collectors.joining(", "));
+    }
+
+    private static String hstoreText(final String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String row(final Object... values)
+    {
+        return Arrays.stream(values).map(value -> copyText(value == null ? null : value.toString()))
+                .collect(Collectors.joining(String.valueOf(DELIMITER)));
+    }
+
+    /**
+     * @param command
+     *            the {@link FlagDatabaseSubCommand} converting features to rows
+     * @param runUri
+     *            the flag generation URI of the flags
+     * @param softwareVersion
+     *            the version of the software that generated the flags
+     * @param timestamp
+     *            the creation date of the rows
+     */
+    public FlagCopyLoader(final FlagDatabaseSubCommand command, final String runUri,
+            final String softwareVersion, final Timestamp timestamp)
+    {
+        this.command = command;
+        this.runUri = runUri;
+        this.softwareVersion = softwareVersion;
+        this.timestamp = timestamp.toString();
+    }
+
+    /**
+     * Load the flags of a set of files
+     *
+     * @param connection
+     *            a PostgreSQL {@link Connection}, with the flag schema in its search path
+     * @param files
+     *            flag files, files of other types are skipped
+     * @return the number of flags loaded, or the number of new flags of an incremental load
+     */
+    public long load(final Connection connection, final Iterable<File> files)
+    {
+        final Time timer = Time.now();
+        Path featureRows = null;
+        try
+        {
+            final PGConnection postgresConnection = connection.unwrap(PGConnection.class);
+            featureRows = Files.createTempFile("feature_staging", ".copy");
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement())
+            {
+                statement.execute(CREATE_STAGING_SQL);
+                final long flags;
+                try (Writer flagWriter = new BufferedWriter(
+                        new OutputStreamWriter(new PGCopyOutputStream(postgresConnection,
+                                COPY_FLAG_SQL, BUFFER_SIZE), StandardCharsets.UTF_8),
+                        BUFFER_SIZE);
+                        Writer featureWriter = Files.newBufferedWriter(featureRows,
+                                StandardCharsets.UTF_8))
+                {
+                    flags = this.writeRows(files, flagWriter, featureWriter);
+                }
+                final long features;
+                try (Reader reader = Files.newBufferedReader(featureRows, StandardCharsets.UTF_8))
+                {
+                    features = postgresConnection.getCopyAPI().copyIn(COPY_FEATURE_SQL, reader);
+                }
+                logger.info("Copied {} flags and {} features into staging tables in {}.", flags,
+                        features, timer.elapsedSince());
+
+                final long newFlags = this.incremental ? this.merge(connection, statement, flags)
+                        : flags;
+                if (this.deferIndexes)
+                {
+                    statement.execute(DROP_INDEX_SQL);
+                }
+                statement.execute(INSERT_SQL);
+                if (this.deferIndexes)
+                {
+                    statement.execute(CREATE_INDEX_SQL);
+                }
+                connection.commit();
+                logger.info("Loaded {} flags in {}.", newFlags, timer.elapsedSince());
+                return newFlags;
+            }
+        }
+        catch (final SQLException | IOException | UncheckedIOException error)
+        {
+            this.rollback(connection);
+            throw new CoreException("Unable to copy flags", error);
+        }
+        finally
+        {
+            if (featureRows != null)
+            {
+                featureRows.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * @param deferIndexes
+     *            true to drop the feature geometry index while inserting, and create it after
+     * @return this loader
+     */
+    public FlagCopyLoader withDeferredIndexes(final boolean deferIndexes)
+    {
+        this.deferIndexes = deferIndexes;
+        return this;
+    }
+
+    /**
+     * @param incremental
+     *            true to only insert new flags, resolving and updating open flags instead
+     * @return this loader
+     */
+    public FlagCopyLoader withIncremental(final boolean incremental)
+    {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * Write the staging rows of the flags of a set of files, in the COPY text format
+     *
+     * @param files
+     *            flag files, files of other types are skipped
+     * @param flagWriter
+     *            {@link Writer} of flag rows
+     * @param featureWriter
+     *            {@link Writer} of feature rows
+     * @return the number of flags written
+     * @throws IOException
+     *             when unable to read a file or write a row
+     */
+    long writeRows(final Iterable<File> files, final Writer flagWriter,
+            final Writer featureWriter) throws IOException
+    {
+        final long[] stagingIdentifier = { 0 };
+        for (final File file : files)
+        {
+            final Optional<FileUtility.LogOutputFileType> fileType = FileUtility
+                    .getOptionalLogOutputType(file);
+            if (fileType.isPresent())
+            {
+                FileUtility.forEachFlag(file, fileType.get(), flag ->
+                {
+                    try
+                    {
+                        if (this.writeRows(stagingIdentifier[0] + 1, flag, flagWriter,
+                                featureWriter))
+                        {
+                            stagingIdentifier[0]++;
+                        }
+                    }
+                    catch (final IOException error)
+                    {
+                        throw new UncheckedIOException(error);
+                    }
+                });
+            }
+        }
+        return stagingIdentifier[0];
+    }
+
+    /**
+     * The fingerprint of a flag, from its identifiers property when it has one, so that flags need
+     * not be deserialized.
+     *
+     * @param flag
+     *            a flag GeoJson FeatureCollection
+     * @param properties
+     *            the properties of the flag
+     * @return the fingerprint, if the flag is valid
+     */
+    private Optional<String> getFingerprint(final JsonObject flag, final JsonObject properties)
+    {
+        if (properties.has(IDENTIFIERS))
+        {
+            return Optional.of(
+                    CheckFlagDeserializer.parseIdentifiers(properties.getAsJsonArray(IDENTIFIERS)));
+        }
+        return Optional.ofNullable(gson.fromJson(flag, CheckFlag.class))
+                .map(CheckFlag::getFingerprint);
+    }
+
+    /**
+     * The instructions of a flag, numbered again by {@link CheckFlag#getInstructions()}
+     *
+     * @param properties
+     *            the properties of the flag
+     * @return the instructions
+     */
+    private String getInstructions(final JsonObject properties)
+    {
+        final CheckFlag flag = new CheckFlag(CommonConstants.EMPTY_STRING);
+        flag.addInstructions(CheckFlagDeserializer
+                .parseInstructions(properties.get(INSTRUCTIONS).getAsString()));
+        return FlagDatabaseSubCommand.formatInstructions(flag.getInstructions());
+    }
+
+    /**
+     * Resolve and update open flags from the staged flags, and leave only new flags staged
+     *
+     * @return the number of new flags
+     */
+    private long merge(final Connection connection, final Statement statement,
+            final long flags) throws SQLException
+    {
+        statement.execute(INDEX_STAGING_SQL);
+        final int duplicates = statement.executeUpdate(DEDUPLICATE_SQL);
+        statement.execute(SCOPE_SQL);
+        final int resolved;
+        try (PreparedStatement resolve = connection.prepareStatement(RESOLVE_SQL))
+        {
+            resolve.setTimestamp(1, Timestamp.valueOf(this.timestamp));
+            resolved = resolve.executeUpdate();
+        }
+        final int updated = statement.executeUpdate(UPDATE_SQL);
+        final int open = statement.executeUpdate(DELETE_OPEN_SQL);
+        final long newFlags = flags - duplicates - open;
+        logger.info("Merged flags: {} new, {} still open of which {} updated, {} resolved.",
+                newFlags, open, updated, resolved);
+        return newFlags;
+    }
+
+    private void rollback(final Connection connection)
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch (final SQLException error)
+        {
+            logger.warn("Unable to roll back flag copy", error);
+        }
+    }
+
+    private boolean writeRows(final long stagingIdentifier, final JsonObject flag,
+            final Writer flagWriter, final Writer featureWriter) throws IOException
+    {
+        final JsonObject properties = flag.getAsJsonObject(PROPERTIES);
+        // Like the CheckFlag deserializer, skip flags that are not FeatureCollections
+        final Optional<String> fingerprint = flag.get("type") == null || properties == null
+                ? Optional.empty()
+                : this.getFingerprint(flag, properties);
+        if (!fingerprint.isPresent())
+        {
+            logger.warn("Skipping flag that is not a FeatureCollection: {}", flag);
+            return false;
+        }
+        flagWriter.write(row(stagingIdentifier, fingerprint.get(),
+                properties.get(GENERATOR).getAsString(), this.getInstructions(properties),
+                this.runUri, this.softwareVersion, this.timestamp));
+        flagWriter.write('\n');
+
+        for (final JsonElement element : FlagDatabaseSubCommand
+                .filterOutPointsFromGeojson(flag.getAsJsonArray(FEATURES)))
+        {
+            final JsonObject feature = element.getAsJsonObject();
+            final JsonObject featureProperties = feature.getAsJsonObject(PROPERTIES);
+            featureWriter.write(row(stagingIdentifier, feature.get("geometry").toString(),
+                    this.command.getOsmIdentifier(featureProperties),
+                    featureProperties.get("identifier").getAsLong(),
+                    featureProperties.has(ISO_COUNTRY_CODE)
+                            ? featureProperties.get(ISO_COUNTRY_CODE).getAsString()
+                            : "NA",
+                    hstore(this.command.getTags(featureProperties)),
+                    featureProperties.get("itemType").getAsString(), this.timestamp));
+            featureWriter.write('\n');
+        }
+        return true;
+    }
+}
@@ -1,7 +1,6 @@
 package org.openstreetmap.atlas.checks.database;
 
 import static org.openstreetmap.atlas.checks.constants.CommonConstants.EMPTY_STRING;
-import static org.openstreetmap.atlas.checks.utility.FileUtility.LogOutputFileType;
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.FEATURES;
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERTIES;
 
@@ -20,14 +19,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 import org.openstreetmap.atlas.checks.flag.CheckFlag;
 import org.openstreetmap.atlas.checks.flag.serializer.CheckFlagDeserializer;
-import org.openstreetmap.atlas.checks.utility.FileUtility;
 import org.openstreetmap.atlas.checks.utility.tags.SyntheticHighlightPointTag;
 import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.streaming.resource.File;
@@ -57,10 +54,16 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
     private static final String DATABASE_URL_INPUT = "database_url";
     private static final String RUN_URI_INPUT = "run_uri";
     private static final String SOFTWARE_VERSION_INPUT = "software_version";
+    private static final String COPY_INPUT = "copy";
+    private static final String DEFER_INDEXES_INPUT = "defer_indexes";
+    private static final String INCREMENTAL_INPUT = "incremental";
+    private static final String READERS_INPUT = "readers";
+    private static final String WRITERS_INPUT = "writers";
+    private static final String COMMIT_INTERVAL_INPUT = "commit_interval";
     private static final String ISO_COUNTRY_CODE = "iso_country_code";
     private static final String OSM_ID_LEGACY = "osmid";
-    private static final String CREATE_FLAG_SQL = "INSERT INTO flag(flag_id, check_name, instructions, run_uri, software_version, date_created) VALUES (?,?,?,?,?,?);";
-    private static final String CREATE_FEATURE_SQL = String.format(
+    static final String CREATE_FLAG_SQL = "INSERT INTO flag(flag_id, check_name, instructions, run_uri, software_version, date_created) VALUES (?,?,?,?,?,?);";
+    static final String CREATE_FEATURE_SQL = String.format(
             "INSERT INTO feature (flag_id, geom, osm_id, atlas_id, iso_country_code, tags, item_type, date_created) VALUES (?,%s,?,?,?,?);",
             "ST_GeomFromGeoJSON(?), ?, ?");
     private static final int THREE = 3;
@@ -115,24 +118,9 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
     public void batchFlagFeatureStatement(final PreparedStatement sql, final CheckFlag flag,
             final int flagIdentifier, final JsonObject feature)
     {
-
-        final JsonObject properties = feature.get(PROPERTIES).getAsJsonObject();
-
         try
         {
-            sql.setInt(1, flagIdentifier);
-            sql.setString(2, feature.get("geometry").toString());
-            sql.setLong(THREE, this.getOsmIdentifier(properties));
-            sql.setLong(FOUR, properties.get("identifier").getAsLong());
-            sql.setString(FIVE,
-                    properties.has(ISO_COUNTRY_CODE)
-                            ? properties.get(ISO_COUNTRY_CODE).getAsString()
-                            : "NA");
-            sql.setObject(SIX, this.getTags(properties));
-            sql.setString(SEVEN, properties.get("itemType").getAsString());
-            sql.setObject(EIGHT, this.timestamp);
-
-            sql.addBatch();
+            this.addFeature(sql, flagIdentifier, feature);
         }
         catch (final SQLException error)
         {
@@ -180,42 +168,35 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
     {
         final Time timer = Time.now();
         try (DatabaseConnection database = new DatabaseConnection(
-                this.optionAndArgumentDelegate.getOptionArgument(DATABASE_URL_INPUT).get());
-                Connection databaseConnection = database.getConnection())
+                this.optionAndArgumentDelegate.getOptionArgument(DATABASE_URL_INPUT).get()))
         {
             final String inputPath = this.optionAndArgumentDelegate
                     .getOptionArgument(FLAG_PATH_INPUT).get();
             this.timestamp = new Timestamp(Instant.now().toEpochMilli());
-            this.createDatabaseSchema(databaseConnection, database.getSchema());
+            try (Connection databaseConnection = database.getPooledConnection())
+            {
+                this.createDatabaseSchema(databaseConnection, database.getSchema());
+            }
 
-            new File(inputPath).listFilesRecursively().forEach(file ->
+            final List<File> files = new File(inputPath).listFilesRecursively();
+            if (this.optionAndArgumentDelegate.hasOption(COPY_INPUT)
+                    || this.optionAndArgumentDelegate.hasOption(INCREMENTAL_INPUT))
             {
-                // If this file is something we handle, read and upload the tasks contained within
-                final Optional<LogOutputFileType> optionalHandledFileType = FileUtility
-                        .getOptionalLogOutputType(file);
-                optionalHandledFileType.ifPresent(logOutputFileType ->
+                try (Connection databaseConnection = database.getPooledConnection())
                 {
-
-                    try (BufferedReader reader = FileUtility.getReader(file, logOutputFileType);
-                            PreparedStatement flagSqlStatement = databaseConnection
-                                    .prepareStatement(CREATE_FLAG_SQL,
-                                            Statement.RETURN_GENERATED_KEYS);
-                            PreparedStatement featureSqlStatement = databaseConnection
-                                    .prepareStatement(CREATE_FEATURE_SQL))
-                    {
-                        final List<String> lines = reader.lines().collect(Collectors.toList());
-                        this.processCheckFlags(lines, flagSqlStatement, featureSqlStatement);
-                    }
-                    catch (final IOException error)
-                    {
-                        logger.error("Exception while reading {}:", file, error);
-                    }
-                    catch (final SQLException error)
-                    {
-                        logger.error("Exception batch executing flag statements", error);
-                    }
-                });
-            });
+                    this.loadWithCopy(databaseConnection, files);
+                }
+            }
+            else
+            {
+                new ParallelFlagLoader(this, database)
+                        .withReaders(this.getIntegerOption(READERS_INPUT,
+                                Runtime.getRuntime().availableProcessors()))
+                        .withWriters(this.getIntegerOption(WRITERS_INPUT, 1))
+                        .withCommitInterval(
+                                this.getIntegerOption(COMMIT_INTERVAL_INPUT, BATCH_SIZE))
+                        .load(files);
+            }
         }
         catch (final SQLException error)
         {
@@ -240,17 +221,7 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
     {
         try
         {
-            sql.setString(1, flag.getUniqueIdentifiers().stream().sorted().map(String::toString)
-                    .collect(Collectors.joining(",")));
-            sql.setString(2, flag.getChallengeName().orElse(""));
-            sql.setString(THREE, flag.getInstructions().replace("\n", " ").replace("'", "''"));
-            sql.setString(FOUR, this.optionAndArgumentDelegate.getOptionArgument(RUN_URI_INPUT)
-                    .orElse(EMPTY_STRING));
-            sql.setString(FIVE, this.optionAndArgumentDelegate
-                    .getOptionArgument(SOFTWARE_VERSION_INPUT).orElse(EMPTY_STRING));
-            sql.setObject(SIX, this.timestamp);
-
-            sql.executeUpdate();
+            this.insertFlag(sql, flag);
         }
         catch (final SQLException error)
         {
@@ -258,6 +229,18 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
         }
     }
 
+    /**
+     * Format the instructions of a flag for the instructions column
+     *
+     * @param instructions
+     *            the numbered instructions of a flag
+     * @return the instructions on a single line
+     */
+    public static String formatInstructions(final String instructions)
+    {
+        return instructions.replace("\n", " ").replace("'", "''");
+    }
+
     @Override
     public String getCommandName()
     {
@@ -317,47 +300,30 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
     public void processCheckFlags(final List<String> lines,
             final PreparedStatement flagSqlStatement, final PreparedStatement featureSqlStatement)
     {
-        int counter = 0;
+        final JsonParser parser = new JsonParser();
+        this.processParsedCheckFlags(
+                lines.stream().map(line -> parser.parse(line).getAsJsonObject())
+                        .collect(Collectors.toList()),
+                flagSqlStatement, featureSqlStatement);
+    }
+
+    /**
+     * This function handles each already parsed CheckFlag, and batching flag features into the
+     * database
+     *
+     * @param parsedFlags
+     *            a List of CheckFlag GeoJson FeatureCollections
+     * @param flagSqlStatement
+     *            Flag PreparedStatement
+     * @param featureSqlStatement
+     *            Feature PreparedStatement
+     */
+    public void processParsedCheckFlags(final List<JsonObject> parsedFlags,
+            final PreparedStatement flagSqlStatement, final PreparedStatement featureSqlStatement)
+    {
         try
         {
-            for (final String line : lines)
-            {
-                final JsonObject parsedFlag = new JsonParser().parse(line).getAsJsonObject();
-                final JsonArray features = this
-                        .filterOutPointsFromGeojson(parsedFlag.get(FEATURES).getAsJsonArray());
-                final CheckFlag flag = gson.fromJson(line, CheckFlag.class);
-                final int flagRecordId;
-
-                // First check if the number of features in our batch is less than the maximum
-                if (counter + features.size() > BATCH_SIZE)
-                {
-                    featureSqlStatement.executeBatch();
-                    logger.debug("Batching {} features.", counter);
-                    counter = 0;
-                }
-
-                // Add flag record to database
-                this.executeFlagStatement(flagSqlStatement, flag);
-
-                try (ResultSet resultSet = flagSqlStatement.getGeneratedKeys())
-                {
-                    if (resultSet != null && resultSet.next())
-                    {
-                        // Save flag record unique id to use for feature record
-                        flagRecordId = resultSet.getInt(1);
-
-                        StreamSupport.stream(features.spliterator(), false)
-                                .forEach(feature -> this.batchFlagFeatureStatement(
-                                        featureSqlStatement, flag, flagRecordId,
-                                        feature.getAsJsonObject()));
-
-                        counter += features.size();
-                    }
-                }
-            }
-            // Execute the remaining features
-            featureSqlStatement.executeBatch();
-            logger.debug("Batching the remaining {} features.", counter);
+            this.insertParsedCheckFlags(parsedFlags, flagSqlStatement, featureSqlStatement);
         }
         catch (final SQLException failure)
         {
@@ -387,6 +353,25 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
         this.registerOptionWithRequiredArgument(SOFTWARE_VERSION_INPUT, 'v',
                 "Version of the software that generated the flags.", OptionOptionality.OPTIONAL,
                 SOFTWARE_VERSION_INPUT);
+        this.registerOption(COPY_INPUT, 'c',
+                "Bulk load the flags through staging tables with COPY, in a single transaction.",
+                OptionOptionality.OPTIONAL);
+        this.registerOption(DEFER_INDEXES_INPUT, 'd',
+                "With --copy, drop the feature geometry index while loading and create it after.",
+                OptionOptionality.OPTIONAL);
+        this.registerOption(INCREMENTAL_INPUT, 'n',
+                "Only insert new flags, resolve open flags that are gone and update changed "
+                        + "instructions. Implies --copy.",
+                OptionOptionality.OPTIONAL);
+        this.registerOptionWithRequiredArgument(READERS_INPUT, 'r',
+                "Number of files to read and parse at once. Defaults to the number of processors.",
+                OptionOptionality.OPTIONAL, READERS_INPUT);
+        this.registerOptionWithRequiredArgument(WRITERS_INPUT, 'w',
+                "Number of writer threads, each with its own connection. Defaults to 1.",
+                OptionOptionality.OPTIONAL, WRITERS_INPUT);
+        this.registerOptionWithRequiredArgument(COMMIT_INTERVAL_INPUT, 'i',
+                "Number of flags each writer inserts per transaction. Defaults to 1000.",
+                OptionOptionality.OPTIONAL, COMMIT_INTERVAL_INPUT);
         super.registerOptionsAndArguments();
     }
 
@@ -397,7 +382,7 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
      *            a {@link JsonArray} of geojson features
      * @return a JsonArray containing all Check flag features
      */
-    private JsonArray filterOutPointsFromGeojson(final JsonArray features)
+    static JsonArray filterOutPointsFromGeojson(final JsonArray features)
     {
         return StreamSupport.stream(features.spliterator(), false).map(JsonElement::getAsJsonObject)
                 .filter(feature -> feature.has(PROPERTIES)
@@ -406,4 +391,123 @@ public class FlagDatabaseSubCommand extends AbstractAtlasShellToolsCommand
                                 .has(SyntheticHighlightPointTag.KEY))
                 .collect(JsonArray::new, JsonArray::add, JsonArray::addAll);
     }
+
+    /**
+     * Insert already parsed CheckFlags, and batch their features into the database. Unlike
+     * {@link #processParsedCheckFlags(List, PreparedStatement, PreparedStatement)}, a failed
+     * statement is thrown so that the caller can roll back.
+     *
+     * @param parsedFlags
+     *            a List of CheckFlag GeoJson FeatureCollections
+     * @param flagSqlStatement
+     *            Flag PreparedStatement
+     * @param featureSqlStatement
+     *            Feature PreparedStatement
+     * @throws SQLException
+     *             if a flag or a batch of features could not be inserted
+     */
+    void insertParsedCheckFlags(final List<JsonObject> parsedFlags,
+            final PreparedStatement flagSqlStatement, final PreparedStatement featureSqlStatement)
+            throws SQLException
+    {
+        int counter = 0;
+        for (final JsonObject parsedFlag : parsedFlags)
+        {
+            final JsonArray features = filterOutPointsFromGeojson(
+                    parsedFlag.get(FEATURES).getAsJsonArray());
+            final CheckFlag flag = gson.fromJson(parsedFlag, CheckFlag.class);
+
+            // First check if the number of features in our batch is less than the maximum
+            if (counter + features.size() > BATCH_SIZE)
+            {
+                featureSqlStatement.executeBatch();
+                logger.debug("Batching {} features.", counter);
+                counter = 0;
+            }
+
+            // Add flag record to database
+            this.insertFlag(flagSqlStatement, flag);
+
+            try (ResultSet resultSet = flagSqlStatement.getGeneratedKeys())
+            {
+                if (resultSet != null && resultSet.next())
+                {
+                    // Save flag record unique id to use for feature record
+                    final int flagRecordId = resultSet.getInt(1);
+                    for (final JsonElement feature : features)
+                    {
+                        this.addFeature(featureSqlStatement, flagRecordId,
+                                feature.getAsJsonObject());
+                    }
+                    counter += features.size();
+                }
+            }
+        }
+        // Execute the remaining features
+        featureSqlStatement.executeBatch();
+        logger.debug("Batching the remaining {} features.", counter);
+    }
+
+    private void addFeature(final PreparedStatement sql, final int flagIdentifier,
+            final JsonObject feature) throws SQLException
+    {
+        final JsonObject properties = feature.get(PROPERTIES).getAsJsonObject();
+        sql.setInt(1, flagIdentifier);
+        sql.setString(2, feature.get("geometry").toString());
+        sql.setLong(THREE, this.getOsmIdentifier(properties));
+        sql.setLong(FOUR, properties.get("identifier").getAsLong());
+        sql.setString(FIVE,
+                properties.has(ISO_COUNTRY_CODE)
+                        ? properties.get(ISO_COUNTRY_CODE).getAsString()
+                        : "NA");
+        sql.setObject(SIX, this.getTags(properties));
+        sql.setString(SEVEN, properties.get("itemType").getAsString());
+        sql.setObject(EIGHT, this.timestamp);
+
+        sql.addBatch();
+    }
+
+    private int getIntegerOption(final String option, final int defaultValue)
+    {
+        return this.optionAndArgumentDelegate.getOptionArgument(option).map(Integer::parseInt)
+                .orElse(defaultValue);
+    }
+
+    private void insertFlag(final PreparedStatement sql, final CheckFlag flag)
+            throws SQLException
+    {
+        sql.setString(1, flag.getFingerprint());
+        sql.setString(2, flag.getChallengeName().orElse(""));
+        sql.setString(THREE, formatInstructions(flag.getInstructions()));
+        sql.setString(FOUR, this.optionAndArgumentDelegate.getOptionArgument(RUN_URI_INPUT)
+                .orElse(EMPTY_STRING));
+        sql.setString(FIVE, this.optionAndArgumentDelegate
+                .getOptionArgument(SOFTWARE_VERSION_INPUT).orElse(EMPTY_STRING));
+        sql.setObject(SIX, this.timestamp);
+
+        sql.executeUpdate();
+    }
+
+    /**
+     * Load all the flags with a {@link FlagCopyLoader}
+     *
+     * @param connection
+     *            jdbc Connection object
+     * @param files
+     *            the files to load
+     */
+    private void loadWithCopy(final Connection connection, final List<File> files)
+    {
+        new FlagCopyLoader(this,
+                this.optionAndArgumentDelegate.getOptionArgument(RUN_URI_INPUT)
+                        .orElse(EMPTY_STRING),
+                this.optionAndArgumentDelegate.getOptionArgument(SOFTWARE_VERSION_INPUT)
+                        .orElse(EMPTY_STRING),
+                this.timestamp)
+                        .withDeferredIndexes(
+                                this.optionAndArgumentDelegate.hasOption(DEFER_INDEXES_INPUT))
+                        .withIncremental(
+                                this.optionAndArgumentDelegate.hasOption(INCREMENTAL_INPUT))
+                        .load(connection, files);
+    }
 }
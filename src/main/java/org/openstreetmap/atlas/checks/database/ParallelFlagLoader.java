@@ -0,0 +1,287 @@
+package org.openstreetmap.atlas.checks.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openstreetmap.atlas.checks.utility.FileUtility;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.streaming.resource.File;
+import org.openstreetmap.atlas.utilities.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Loads flags into the flag and feature tables as a pipeline. Reader threads read and parse files
+ * in parallel into a bounded queue, and writer threads take flags from the queue and insert them,
+ * each with its own pooled connection. Writers commit every commit interval flags, so each
+ * transaction holds a bounded number of flags. Readers wait while the queue is full, and stop if a
+ * writer fails. A writer that fails to insert a flag rolls back its open transaction, and a file
+ * that cannot be read fails the load.
+ *
+ * @author danielbaah
+ */
+public class ParallelFlagLoader
+{
+    // Tells a writer that there are no more flags
+    private static final JsonObject END_OF_FLAGS = new JsonObject();
+    private static final long OFFER_TIMEOUT_MILLISECONDS = 100;
+    private static final int DEFAULT_COMMIT_INTERVAL = 1000;
+    private static final int DEFAULT_QUEUE_SIZE = 10_000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelFlagLoader.class);
+
+    private final FlagDatabaseSubCommand command;
+    private final DatabaseConnection database;
+    private int readers = 1;
+    private int writers = 1;
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    /**
+     * @param command
+     *            the {@link FlagDatabaseSubCommand} inserting the flags
+     * @param database
+     *            the {@link DatabaseConnection} to take the writer connections from
+     */
+    public ParallelFlagLoader(final FlagDatabaseSubCommand command,
+            final DatabaseConnection database)
+    {
+        this.command = command;
+        this.database = database;
+    }
+
+    /**
+     * Load the flags of a set of files
+     *
+     * @param files
+     *            flag files, files of other types are skipped
+     * @return the number of flags committed
+     */
+    public long load(final List<File> files)
+    {
+        final Time timer = Time.now();
+        final BlockingQueue<JsonObject> queue = new ArrayBlockingQueue<>(this.queueSize);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final LongAdder committed = new LongAdder();
+        final ExecutorService readerPool = Executors.newFixedThreadPool(this.readers);
+        final ExecutorService writerPool = Executors.newFixedThreadPool(this.writers);
+        try
+        {
+            final List<Future<Void>> writerFutures = IntStream.range(0, this.writers)
+                    .mapToObj(writer -> writerPool.submit(() ->
+                    {
+                        this.write(queue, failure, committed);
+                        return (Void) null;
+                    })).collect(Collectors.toList());
+            final List<Future<Void>> readerFutures = files.stream()
+                    .map(file -> readerPool.submit(() ->
+                    {
+                        this.read(file, queue, failure);
+                        return (Void) null;
+                    })).collect(Collectors.toList());
+
+            for (final Future<Void> reader : readerFutures)
+            {
+                reader.get();
+            }
+            for (int writer = 0; writer < this.writers; writer++)
+            {
+                this.put(queue, END_OF_FLAGS, failure);
+            }
+            for (final Future<Void> writer : writerFutures)
+            {
+                writer.get();
+            }
+        }
+        catch (final InterruptedException error)
+        {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while loading flags", error);
+        }
+        catch (final ExecutionException error)
+        {
+            throw new CoreException("Unable to load flags", error.getCause());
+        }
+        finally
+        {
+            readerPool.shutdownNow();
+            writerPool.shutdownNow();
+        }
+        logger.info("Loaded {} flags with {} readers and {} writers in {}.", committed.sum(),
+                this.readers, this.writers, timer.elapsedSince());
+        return committed.sum();
+    }
+
+    /**
+     * @param commitInterval
+     *            the number of flags each writer inserts per transaction
+     * @return this loader
+     */
+    public ParallelFlagLoader withCommitInterval(final int commitInterval)
+    {
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
+    /**
+     * @param queueSize
+     *            the number of parsed flags waiting for a writer, at most
+     * @return this loader
+     */
+    public ParallelFlagLoader withQueueSize(final int queueSize)
+    {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * @param readers
+     *            the number of files read and parsed at once
+     * @return this loader
+     */
+    public ParallelFlagLoader withReaders(final int readers)
+    {
+        this.readers = readers;
+        return this;
+    }
+
+    /**
+     * @param writers
+     *            the number of writer threads, each with its own connection
+     * @return this loader
+     */
+    public ParallelFlagLoader withWriters(final int writers)
+    {
+        this.writers = writers;
+        return this;
+    }
+
+    private void commit(final Connection connection, final PreparedStatement flagStatement,
+            final PreparedStatement featureStatement, final List<JsonObject> flags,
+            final LongAdder committed) throws SQLException
+    {
+        if (flags.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            this.command.insertParsedCheckFlags(flags, flagStatement, featureStatement);
+            connection.commit();
+        }
+        catch (final SQLException error)
+        {
+            this.rollback(connection);
+            throw error;
+        }
+        committed.add(flags.size());
+        logger.debug("Committed {} flags.", flags.size());
+        flags.clear();
+    }
+
+    private void put(final BlockingQueue<JsonObject> queue, final JsonObject flag,
+            final AtomicReference<Exception> failure) throws InterruptedException
+    {
+        while (!queue.offer(flag, OFFER_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS))
+        {
+            if (failure.get() != null)
+            {
+                throw new CoreException("Stopped loading flags after a writer failed",
+                        failure.get());
+            }
+        }
+    }
+
+    private void read(final File file, final BlockingQueue<JsonObject> queue,
+            final AtomicReference<Exception> failure)
+    {
+        final Optional<FileUtility.LogOutputFileType> fileType = FileUtility
+                .getOptionalLogOutputType(file);
+        if (!fileType.isPresent())
+        {
+            return;
+        }
+        try
+        {
+            FileUtility.forEachFlag(file, fileType.get(), flag ->
+            {
+                try
+                {
+                    this.put(queue, flag, failure);
+                }
+                catch (final InterruptedException error)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new CoreException("Interrupted while reading {}", file, error);
+                }
+            });
+        }
+        catch (final IOException | UncheckedIOException error)
+        {
+            final CoreException failed = new CoreException("Unable to read {}", file, error);
+            failure.compareAndSet(null, failed);
+            throw failed;
+        }
+    }
+
+    private void rollback(final Connection connection)
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch (final SQLException error)
+        {
+            logger.warn("Unable to roll back flags", error);
+        }
+    }
+
+    private void write(final BlockingQueue<JsonObject> queue,
+            final AtomicReference<Exception> failure, final LongAdder committed)
+            throws SQLException, InterruptedException
+    {
+        try (Connection connection = this.database.getPooledConnection();
+                PreparedStatement flagStatement = connection.prepareStatement(
+                        FlagDatabaseSubCommand.CREATE_FLAG_SQL, Statement.RETURN_GENERATED_KEYS);
+                PreparedStatement featureStatement = connection
+                        .prepareStatement(FlagDatabaseSubCommand.CREATE_FEATURE_SQL))
+        {
+            connection.setAutoCommit(false);
+            final List<JsonObject> flags = new ArrayList<>(this.commitInterval);
+            for (JsonObject flag = queue.take(); flag != END_OF_FLAGS; flag = queue.take())
+            {
+                flags.add(flag);
+                if (flags.size() >= this.commitInterval)
+                {
+                    this.commit(connection, flagStatement, featureStatement, flags, committed);
+                }
+            }
+            this.commit(connection, flagStatement, featureStatement, flags, committed);
+        }
+        catch (final SQLException | RuntimeException error)
+        {
+            failure.compareAndSet(null, error);
+            throw error;
+        }
+    }
+}
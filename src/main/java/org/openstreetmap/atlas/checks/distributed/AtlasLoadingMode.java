@@ -0,0 +1,79 @@
+package org.openstreetmap.atlas.checks.distributed;
+
+import org.openstreetmap.atlas.exception.CoreException;
+
+/**
+ * How {@link ShardedIntegrityChecksSparkJob} loads the neighbourhood of shards around each shard
+ * it runs checks on. {@link #MULTI} eagerly loads every shard in the expanded bounds into a
+ * {@link org.openstreetmap.atlas.geography.atlas.multi.MultiAtlas}, which is faster but holds the
+ * whole neighbourhood in memory. {@link #DYNAMIC} defers loading to a
+ * {@link org.openstreetmap.atlas.geography.atlas.dynamic.DynamicAtlas}. {@link #AUTO} chooses
+ * between the two per shard, based on the size of the neighbourhood and the heap available.
+ *
+ * @author jklamer
+ */
+public enum AtlasLoadingMode
+{
+    DYNAMIC,
+    MULTI,
+    AUTO;
+
+    // Rough ratio of the in memory size of a packed atlas to its serialized file size
+    public static final int MEMORY_EXPANSION_FACTOR = 3;
+
+    /**
+     * Parse a mode from its name, ignoring case
+     *
+     * @param value
+     *            mode name
+     * @return the matching {@link AtlasLoadingMode}
+     */
+    public static AtlasLoadingMode forString(final String value)
+    {
+        try
+        {
+            return valueOf(value.trim().toUpperCase());
+        }
+        catch (final IllegalArgumentException e)
+        {
+            throw new CoreException("Unknown atlas loading mode {}", value, e);
+        }
+    }
+
+    /**
+     * Returns the bytes of heap currently available to this JVM, including memory it may still
+     * claim up to its maximum heap size.
+     *
+     * @return available heap in bytes
+     */
+    public static long heapHeadroom()
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Resolve this mode to a concrete mode. {@link #AUTO} resolves to {@link #MULTI} when the
+     * estimated in memory size of the neighbourhood fits in the allowed fraction of the heap
+     * headroom, and to {@link #DYNAMIC} otherwise.
+     *
+     * @param neighbourhoodBytes
+     *            total file size of the shards in the expanded neighbourhood
+     * @param heapHeadroomBytes
+     *            heap available, see {@link #heapHeadroom()}
+     * @param heapFraction
+     *            fraction of the headroom a single shard task may use
+     * @return {@link #MULTI} or {@link #DYNAMIC}
+     */
+    public AtlasLoadingMode resolve(final long neighbourhoodBytes, final long heapHeadroomBytes,
+            final double heapFraction)
+    {
+        if (this != AUTO)
+        {
+            return this;
+        }
+        return neighbourhoodBytes * MEMORY_EXPANSION_FACTOR <= heapHeadroomBytes * heapFraction
+                ? MULTI
+                : DYNAMIC;
+    }
+}
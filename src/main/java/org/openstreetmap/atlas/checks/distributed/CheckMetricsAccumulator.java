@@ -0,0 +1,184 @@
+package org.openstreetmap.atlas.checks.distributed;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.spark.util.AccumulatorV2;
+import org.openstreetmap.atlas.checks.constants.CommonConstants;
+import org.openstreetmap.atlas.checks.event.MetricEvent;
+
+/**
+ * A Spark accumulator of the run metrics of checks, by check name. Executors add the
+ * {@link MetricEvent} of each check run, and the driver reads a summary of each check across all
+ * the runs: the number of runs, the total and longest run time, the objects checked and the flags
+ * produced. Summaries are written as csv, one line per check, in place of a file per run.
+ * <p>
+ * Metrics are added while flags are produced, so a task that Spark retries may count its runs
+ * twice.
+ *
+ * @author mkalender
+ */
+public final class CheckMetricsAccumulator
+        extends AccumulatorV2<MetricEvent, Map<String, CheckMetricsAccumulator.CheckMetrics>>
+{
+    /**
+     * Metrics of a check, summed over its runs
+     */
+    public static final class CheckMetrics implements Serializable
+    {
+        private static final long serialVersionUID = -6183479920415463911L;
+
+        private long runs;
+        private long totalMilliseconds;
+        private long maximumMilliseconds;
+        private long objects;
+        private long flags;
+
+        /**
+         * @return header following {@code toString()} method format
+         */
+        public static String header()
+        {
+            return "runs,total duration (ms),maximum duration (ms),objects,flags";
+        }
+
+        /**
+         * @return number of flags produced
+         */
+        public long getFlags()
+        {
+            return this.flags;
+        }
+
+        /**
+         * @return longest run time in milliseconds
+         */
+        public long getMaximumMilliseconds()
+        {
+            return this.maximumMilliseconds;
+        }
+
+        /**
+         * @return number of objects checked
+         */
+        public long getObjects()
+        {
+            return this.objects;
+        }
+
+        /**
+         * @return number of runs
+         */
+        public long getRuns()
+        {
+            return this.runs;
+        }
+
+        /**
+         * @return sum of the run times in milliseconds
+         */
+        public long getTotalMilliseconds()
+        {
+            return this.totalMilliseconds;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s,%s,%s,%s,%s", this.runs, this.totalMilliseconds,
+                    this.maximumMilliseconds, this.objects, this.flags);
+        }
+
+        private void add(final MetricEvent event)
+        {
+            final long milliseconds = event.getDuration().asMilliseconds();
+            this.runs++;
+            this.totalMilliseconds += milliseconds;
+            this.maximumMilliseconds = Math.max(this.maximumMilliseconds, milliseconds);
+            this.objects += event.getObjects();
+            this.flags += event.getFlags();
+        }
+
+        private CheckMetrics copy()
+        {
+            final CheckMetrics copy = new CheckMetrics();
+            copy.merge(this);
+            return copy;
+        }
+
+        private void merge(final CheckMetrics other)
+        {
+            this.runs += other.runs;
+            this.totalMilliseconds += other.totalMilliseconds;
+            this.maximumMilliseconds = Math.max(this.maximumMilliseconds,
+                    other.maximumMilliseconds);
+            this.objects += other.objects;
+            this.flags += other.flags;
+        }
+    }
+
+    private static final long serialVersionUID = 2571049417350837741L;
+
+    private final TreeMap<String, CheckMetrics> metrics = new TreeMap<>();
+
+    /**
+     * Checks run in parallel within a task, so metrics may be added from several threads
+     */
+    @Override
+    public synchronized void add(final MetricEvent event)
+    {
+        this.metrics.computeIfAbsent(event.getName(), name -> new CheckMetrics()).add(event);
+    }
+
+    @Override
+    public synchronized CheckMetricsAccumulator copy()
+    {
+        final CheckMetricsAccumulator copy = new CheckMetricsAccumulator();
+        this.metrics.forEach((name, checkMetrics) -> copy.metrics.put(name, checkMetrics.copy()));
+        return copy;
+    }
+
+    @Override
+    public synchronized boolean isZero()
+    {
+        return this.metrics.isEmpty();
+    }
+
+    @Override
+    public synchronized void merge(
+            final AccumulatorV2<MetricEvent, Map<String, CheckMetrics>> other)
+    {
+        other.value().forEach((name, checkMetrics) -> this.metrics
+                .computeIfAbsent(name, key -> new CheckMetrics()).merge(checkMetrics));
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        this.metrics.clear();
+    }
+
+    /**
+     * @return the summary of each check as csv, with a header line, checks in name order
+     */
+    public String toCsv()
+    {
+        final StringBuilder csv = new StringBuilder(
+                String.format("name,%s", CheckMetrics.header()));
+        this.value().forEach((name, checkMetrics) -> csv.append(CommonConstants.LINE_SEPARATOR)
+                .append(name).append(CommonConstants.COMMA).append(checkMetrics));
+        return csv.append(CommonConstants.LINE_SEPARATOR).toString();
+    }
+
+    /**
+     * @return a copy of the metrics of each check, by check name
+     */
+    @Override
+    public synchronized Map<String, CheckMetrics> value()
+    {
+        final Map<String, CheckMetrics> value = new TreeMap<>();
+        this.metrics.forEach((name, checkMetrics) -> value.put(name, checkMetrics.copy()));
+        return value;
+    }
+}
@@ -12,6 +12,7 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.openstreetmap.atlas.checks.base.BaseCheck;
@@ -19,9 +20,12 @@ import org.openstreetmap.atlas.checks.base.CheckResourceLoader;
 import org.openstreetmap.atlas.checks.base.ExternalDataFetcher;
 import org.openstreetmap.atlas.checks.configuration.ConfigurationResolver;
 import org.openstreetmap.atlas.checks.constants.CommonConstants;
+import org.openstreetmap.atlas.checks.event.CheckFlagBinaryProcessor;
 import org.openstreetmap.atlas.checks.event.CheckFlagFileProcessor;
 import org.openstreetmap.atlas.checks.event.CheckFlagGeoJsonProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagParquetProcessor;
 import org.openstreetmap.atlas.checks.event.CheckFlagTippecanoeProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagVectorTileProcessor;
 import org.openstreetmap.atlas.checks.event.MetricFileGenerator;
 import org.openstreetmap.atlas.checks.maproulette.MapRouletteClient;
 import org.openstreetmap.atlas.checks.maproulette.MapRouletteConfiguration;
@@ -168,6 +172,10 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
                 .orElse(Rectangle.MAXIMUM);
         final boolean compressOutput = Boolean
                 .parseBoolean((String) commandMap.get(SparkJob.COMPRESS_OUTPUT));
+        final boolean partitionFlagsByCheck = (Boolean) commandMap.get(PARTITION_FLAGS_BY_CHECK);
+        final boolean spatialIndex = (Boolean) commandMap.get(SPATIAL_INDEX);
+        final int outputQueueSize = (Integer) commandMap.get(OUTPUT_QUEUE_SIZE);
+        final int compressionThreads = (Integer) commandMap.get(COMPRESSION_THREADS);
 
         final Map<String, String> sparkContext = this.configurationMap();
 
@@ -217,6 +225,7 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
 
         // Useful file helper to create/delete/name files and directories
         final SparkFileHelper fileHelper = new SparkFileHelper(sparkContext);
+        final OutputCommitter committer = outputCommitter(commandMap, sparkContext);
 
         // Atlas Helper to load different types of Atlas data
         final AtlasDataSource atlasLoader = this.getAtlasDataSource(sparkContext,
@@ -226,6 +235,20 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
         fileHelper.mkdir(SparkFileHelper.combine(targetOutputFolder, OUTPUT_FLAG_FOLDER));
         fileHelper.mkdir(SparkFileHelper.combine(targetOutputFolder, OUTPUT_GEOJSON_FOLDER));
         fileHelper.mkdir(SparkFileHelper.combine(targetOutputFolder, OUTPUT_METRIC_FOLDER));
+        if (outputFormats.contains(OutputFormats.BINARY_FLAGS))
+        {
+            fileHelper.mkdir(
+                    SparkFileHelper.combine(targetOutputFolder, OUTPUT_BINARY_FLAG_FOLDER));
+        }
+        if (outputFormats.contains(OutputFormats.PARQUET))
+        {
+            fileHelper.mkdir(SparkFileHelper.combine(targetOutputFolder, OUTPUT_PARQUET_FOLDER));
+        }
+        if (outputFormats.contains(OutputFormats.VECTOR_TILES))
+        {
+            fileHelper.mkdir(
+                    SparkFileHelper.combine(targetOutputFolder, OUTPUT_VECTOR_TILE_FOLDER));
+        }
 
         // Run the set of flags per country per check. The output will be an RDD pair mapping each
         // country with a set of SparkFilePaths to flags, geojson and metrics generated.
@@ -247,23 +270,46 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
                 // Initialize flag output processor
                 flagOutput = initializeOutput(OUTPUT_FLAG_FOLDER, TaskContext.get(), country,
                         temporaryOutputFolder, targetOutputFolder);
-                EventService.get(country).register(
-                        new CheckFlagFileProcessor(fileHelper, flagOutput.getTemporaryPath())
-                                .withCompression(compressOutput));
+                EventService.get(country).register(withOutputQueue(
+                        new CheckFlagFileProcessor(sparkContext, flagOutput.getTemporaryPath())
+                                .withPartitionByCheck(partitionFlagsByCheck)
+                                .withCompression(compressOutput)
+                                .withCompressionThreads(compressionThreads)
+                                .withSpatialIndex(spatialIndex),
+                        outputQueueSize));
             }
             else
             {
                 flagOutput = null;
             }
+            final SparkFilePath binaryFlagOutput;
+            if (outputFormats.contains(OutputFormats.BINARY_FLAGS))
+            {
+                // Initialize binary flag output processor
+                binaryFlagOutput = initializeOutput(OUTPUT_BINARY_FLAG_FOLDER, TaskContext.get(),
+                        country, temporaryOutputFolder, targetOutputFolder);
+                EventService.get(country).register(withOutputQueue(
+                        new CheckFlagBinaryProcessor(sparkContext,
+                                binaryFlagOutput.getTemporaryPath())
+                                        .withSpatialIndex(spatialIndex),
+                        outputQueueSize));
+            }
+            else
+            {
+                binaryFlagOutput = null;
+            }
             final SparkFilePath geoJsonOutput;
             if (outputFormats.contains(OutputFormats.GEOJSON))
             {
                 // Initialize geojson output processor
                 geoJsonOutput = initializeOutput(OUTPUT_GEOJSON_FOLDER, TaskContext.get(), country,
                         temporaryOutputFolder, targetOutputFolder);
-                EventService.get(country).register(
-                        new CheckFlagGeoJsonProcessor(fileHelper, geoJsonOutput.getTemporaryPath())
-                                .withCompression(compressOutput));
+                EventService.get(country).register(withOutputQueue(
+                        new CheckFlagGeoJsonProcessor(sparkContext,
+                                geoJsonOutput.getTemporaryPath()).withCompression(compressOutput)
+                                .withCompressionThreads(compressionThreads)
+                                .withSpatialIndex(spatialIndex),
+                        outputQueueSize));
             }
             else
             {
@@ -277,28 +323,63 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
                 metricOutput = initializeOutput(OUTPUT_METRIC_FOLDER, TaskContext.get(), country,
                         temporaryOutputFolder, targetOutputFolder);
                 EventService.get(country).register(new MetricFileGenerator(METRICS_FILENAME,
-                        fileHelper, metricOutput.getTemporaryPath()));
+                        sparkContext, metricOutput.getTemporaryPath()));
             }
             else
             {
                 metricOutput = null;
             }
 
+            final SparkFilePath parquetOutput;
+            if (outputFormats.contains(OutputFormats.PARQUET))
+            {
+                // Country is a partition folder, so that the output reads as one table
+                parquetOutput = initializeOutput(OUTPUT_PARQUET_FOLDER, TaskContext.get(),
+                        CheckFlagParquetProcessor.COUNTRY_PARTITION + country,
+                        temporaryOutputFolder, targetOutputFolder);
+                EventService.get(country).register(withOutputQueue(
+                        new CheckFlagParquetProcessor(sparkContext,
+                                parquetOutput.getTemporaryPath()),
+                        outputQueueSize));
+            }
+            else
+            {
+                parquetOutput = null;
+            }
+
             final SparkFilePath tippecanoeOutput;
             if (outputFormats.contains(OutputFormats.TIPPECANOE))
             {
                 tippecanoeOutput = initializeOutput(OUTPUT_TIPPECANOE_FOLDER, TaskContext.get(),
                         country, temporaryOutputFolder, targetOutputFolder);
                 EventService.get(country)
-                        .register(new CheckFlagTippecanoeProcessor(fileHelper,
+                        .register(withOutputQueue(new CheckFlagTippecanoeProcessor(sparkContext,
                                 tippecanoeOutput.getTemporaryPath())
-                                        .withCompression(compressOutput));
+                                        .withCompression(compressOutput)
+                                        .withCompressionThreads(compressionThreads),
+                                outputQueueSize));
             }
             else
             {
                 tippecanoeOutput = null;
             }
 
+            final SparkFilePath vectorTileOutput;
+            if (outputFormats.contains(OutputFormats.VECTOR_TILES))
+            {
+                // A task runs a whole country, so it writes the single archive of the country
+                vectorTileOutput = initializeOutput(OUTPUT_VECTOR_TILE_FOLDER, TaskContext.get(),
+                        country, temporaryOutputFolder, targetOutputFolder);
+                EventService.get(country).register(withOutputQueue(
+                        new CheckFlagVectorTileProcessor(sparkContext,
+                                vectorTileOutput.getTemporaryPath()),
+                        outputQueueSize));
+            }
+            else
+            {
+                vectorTileOutput = null;
+            }
+
             final Consumer<Atlas> intermediateAtlasHandler;
             if (saveIntermediateAtlas)
             {
@@ -328,7 +409,8 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
                 {
                     executeChecks(country, atlas, checks, mapRouletteConfiguration);
                     // Add output folders for handling later
-                    Stream.of(flagOutput, metricOutput, geoJsonOutput, tippecanoeOutput)
+                    Stream.of(flagOutput, binaryFlagOutput, metricOutput, geoJsonOutput,
+                            parquetOutput, tippecanoeOutput, vectorTileOutput)
                             .filter(Objects::nonNull).forEach(resultingFiles::add);
                 }
 
@@ -355,7 +437,9 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
             final Set<SparkFilePath> paths = countryPathPair._2();
             logger.info("[{}] Committing outputs: {}", country, paths);
 
-            paths.forEach(fileHelper::commitByCopy);
+            // Outputs are in a folder per country within the folder of their format
+            paths.forEach(path -> committer.commit(path,
+                    compactionOf(new Path(path.getTargetPath()).getParent().getName())));
         });
 
         try
@@ -384,7 +468,10 @@ public class IntegrityCheckSparkJob extends IntegrityChecksCommandArguments
         final String output = this.output(command);
         final List<String> staticPaths = super.outputToClean(command);
         staticPaths.add(this.getAlternateSubFolderOutput(output, OUTPUT_FLAG_FOLDER));
+        staticPaths.add(this.getAlternateSubFolderOutput(output, OUTPUT_BINARY_FLAG_FOLDER));
         staticPaths.add(this.getAlternateSubFolderOutput(output, OUTPUT_GEOJSON_FOLDER));
+        staticPaths.add(this.getAlternateSubFolderOutput(output, OUTPUT_PARQUET_FOLDER));
+        staticPaths.add(this.getAlternateSubFolderOutput(output, OUTPUT_VECTOR_TILE_FOLDER));
         staticPaths.add(this.getAlternateSubFolderOutput(output, OUTPUT_ATLAS_FOLDER));
         return staticPaths;
     }
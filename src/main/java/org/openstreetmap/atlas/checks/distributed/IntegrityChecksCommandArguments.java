@@ -14,7 +14,10 @@ import java.util.stream.Stream;
 import org.openstreetmap.atlas.checks.atlas.CountrySpecificAtlasFilePathFilter;
 import org.openstreetmap.atlas.checks.base.Check;
 import org.openstreetmap.atlas.checks.constants.CommonConstants;
+import org.openstreetmap.atlas.checks.event.AsynchronousProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagEvent;
 import org.openstreetmap.atlas.checks.maproulette.MapRouletteConfiguration;
+import org.openstreetmap.atlas.event.Processor;
 import org.openstreetmap.atlas.generator.tools.filesystem.FileSystemHelper;
 import org.openstreetmap.atlas.generator.tools.spark.SparkJob;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
@@ -30,6 +33,7 @@ import org.openstreetmap.atlas.utilities.collections.StringList;
 import org.openstreetmap.atlas.utilities.configuration.Configuration;
 import org.openstreetmap.atlas.utilities.conversion.StringConverter;
 import org.openstreetmap.atlas.utilities.maps.MultiMap;
+import org.openstreetmap.atlas.utilities.runtime.CommandMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,10 +50,13 @@ public abstract class IntegrityChecksCommandArguments extends SparkJob
      */
     protected enum OutputFormats
     {
+        BINARY_FLAGS,
         FLAGS,
         GEOJSON,
         METRICS,
-        TIPPECANOE
+        PARQUET,
+        TIPPECANOE,
+        VECTOR_TILES
     }
 
     /**
@@ -61,10 +68,13 @@ public abstract class IntegrityChecksCommandArguments extends SparkJob
             Optionality.OPTIONAL);
     protected static final String OUTPUT_ATLAS_FOLDER = "atlas";
     // Outputs
+    protected static final String OUTPUT_BINARY_FLAG_FOLDER = "binary-flag";
     protected static final String OUTPUT_FLAG_FOLDER = "flag";
     protected static final String OUTPUT_GEOJSON_FOLDER = "geojson";
     protected static final String OUTPUT_METRIC_FOLDER = "metric";
+    protected static final String OUTPUT_PARQUET_FOLDER = "parquet";
     protected static final String OUTPUT_TIPPECANOE_FOLDER = "tippecanoe";
+    protected static final String OUTPUT_VECTOR_TILE_FOLDER = "vectortiles";
     static final Switch<List<String>> CHECK_FILTER = new Switch<>("checkFilter",
             "Comma-separated list of checks to run",
             checks -> Arrays.asList(checks.split(CommonConstants.COMMA)), Optionality.OPTIONAL);
@@ -83,11 +93,32 @@ public abstract class IntegrityChecksCommandArguments extends SparkJob
             "Map roulette server information, format <Host>:<Port>:<ProjectName>:<ApiKey>, projectName is optional.",
             MapRouletteConfiguration::parse, Optionality.OPTIONAL);
     static final Switch<Set<OutputFormats>> OUTPUT_FORMATS = new Switch<>("outputFormats",
-            "Comma-separated list of output formats (flags, metrics, geojson, tippecanoe).",
+            "Comma-separated list of output formats (flags, binary_flags, metrics, geojson, parquet, tippecanoe, vector_tiles).",
             csvFormats -> Stream.of(csvFormats.split(","))
                     .map(format -> Enum.valueOf(OutputFormats.class, format.toUpperCase()))
                     .collect(Collectors.toSet()),
             Optionality.OPTIONAL, "flags,metrics");
+    static final Switch<Integer> OUTPUT_QUEUE_SIZE = new Switch<>("outputQueueSize",
+            "Number of flags queued per output format, written by a thread of its own; 0 writes flags on the check threads.",
+            Integer::valueOf, Optionality.OPTIONAL, "0");
+    static final Switch<Boolean> PARTITION_FLAGS_BY_CHECK = new Switch<>("partitionFlagsByCheck",
+            "Writes flags into a check=<name> folder per check within each country folder.",
+            Boolean::valueOf, Optionality.OPTIONAL, "false");
+    static final Switch<Integer> COMPRESSION_THREADS = new Switch<>("compressionThreads",
+            "Number of threads per executor gzipping blocks of output files in parallel; 0 gzips files on the threads writing them.",
+            Integer::valueOf, Optionality.OPTIONAL, "0");
+    static final Switch<Boolean> COMPACT_OUTPUT = new Switch<>("compactOutput",
+            "Compacts the flag, geojson and tippecanoe files of each country and check into files of about compactionTargetBytes.",
+            Boolean::valueOf, Optionality.OPTIONAL, "false");
+    static final Switch<Long> COMPACTION_TARGET_BYTES = new Switch<>("compactionTargetBytes",
+            "Size of the files output is compacted to, in bytes as written to disk.", Long::valueOf,
+            Optionality.OPTIONAL, "134217728");
+    static final Switch<Integer> COMMIT_THREADS = new Switch<>("commitThreads",
+            "Number of output files moved or compacted at the same time when committing a country.",
+            Integer::valueOf, Optionality.OPTIONAL, "16");
+    static final Switch<Boolean> SPATIAL_INDEX = new Switch<>("spatialIndex",
+            "Writes a spatial index of flag bounds next to each flags, binary_flags and geojson file.",
+            Boolean::valueOf, Optionality.OPTIONAL, "false");
     static final Switch<Rectangle> PBF_BOUNDING_BOX = new Switch<>("pbfBoundingBox",
             "OSM protobuf data will be loaded only in this bounding box", Rectangle::forString,
             Optionality.OPTIONAL);
@@ -164,6 +195,43 @@ public abstract class IntegrityChecksCommandArguments extends SparkJob
         return countryShardMap;
     }
 
+    /**
+     * @param outputFolder
+     *            name of the folder of an output format
+     * @return how the files of the output format can be compacted
+     */
+    protected static OutputCommitter.Compaction compactionOf(final String outputFolder)
+    {
+        switch (outputFolder)
+        {
+            case OUTPUT_FLAG_FOLDER:
+            case OUTPUT_TIPPECANOE_FOLDER:
+                return OutputCommitter.Compaction.LINES;
+            case OUTPUT_GEOJSON_FOLDER:
+                return OutputCommitter.Compaction.FEATURE_COLLECTIONS;
+            default:
+                return OutputCommitter.Compaction.NONE;
+        }
+    }
+
+    /**
+     * Creates the {@link OutputCommitter} of a job
+     *
+     * @param commandMap
+     *            the command parameters of the job
+     * @param configuration
+     *            Hadoop configuration of the file systems
+     * @return the {@link OutputCommitter}
+     */
+    protected static OutputCommitter outputCommitter(final CommandMap commandMap,
+            final Map<String, String> configuration)
+    {
+        return new OutputCommitter(configuration, (Integer) commandMap.get(COMMIT_THREADS),
+                (Boolean) commandMap.get(COMPACT_OUTPUT)
+                        ? (Long) commandMap.get(COMPACTION_TARGET_BYTES)
+                        : 0);
+    }
+
     protected static Iterable<AtlasObject> objectsToCheck(final Atlas atlas, final Check check)
     {
         return objectsToCheck(atlas, check, atlasEntity -> true);
@@ -176,6 +244,24 @@ public abstract class IntegrityChecksCommandArguments extends SparkJob
                 check.finder().map(finder -> finder.find(atlas)).orElse(Collections.emptyList()));
     }
 
+    /**
+     * Queues flags for an output processor, when a queue size is given, so that checks do not wait
+     * on its writes
+     *
+     * @param processor
+     *            the output {@link Processor}
+     * @param queueSize
+     *            number of flags that can be queued, or 0 to process flags on the check threads
+     * @return the {@link Processor} to register
+     */
+    protected static Processor<CheckFlagEvent> withOutputQueue(
+            final Processor<CheckFlagEvent> processor, final int queueSize)
+    {
+        return queueSize > 0
+                ? new AsynchronousProcessor<>(processor, CheckFlagEvent.class, queueSize)
+                : processor;
+    }
+
     /**
      * Gets the {@link AtlasDataSource} object to load the Atlas from
      *
@@ -198,6 +284,8 @@ public abstract class IntegrityChecksCommandArguments extends SparkJob
     {
         return super.switches().with(ATLAS_FOLDER, MAP_ROULETTE, COUNTRIES, CONFIGURATION_FILES,
                 CONFIGURATION_JSON, PBF_BOUNDING_BOX, PBF_SAVE_INTERMEDIATE_ATLAS, OUTPUT_FORMATS,
-                CHECK_FILTER, MAX_POOL_MINUTES, EXTERNAL_DATA_INPUT);
+                CHECK_FILTER, MAX_POOL_MINUTES, EXTERNAL_DATA_INPUT, PARTITION_FLAGS_BY_CHECK,
+                OUTPUT_QUEUE_SIZE, SPATIAL_INDEX, COMPRESSION_THREADS, COMPACT_OUTPUT,
+                COMPACTION_TARGET_BYTES, COMMIT_THREADS);
     }
 }
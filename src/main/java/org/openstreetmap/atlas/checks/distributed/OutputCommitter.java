@@ -0,0 +1,440 @@
+package org.openstreetmap.atlas.checks.distributed;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexFormat;
+import org.openstreetmap.atlas.checks.utility.CompressionUtilities;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFilePath;
+import org.openstreetmap.atlas.streaming.resource.FileSuffix;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Moves the output files of a job from their temporary folder to their target folder, including
+ * nested folders such as the {@code check=} folder of each check. Files are renamed on a pool of
+ * threads, and copied only when a rename is not possible, for example across file systems.
+ * <p>
+ * Optionally, the small files of each folder are compacted on the way into files of about a
+ * target size. Files are packed in name order by their size, so compacted files take about the
+ * target size whether they are compressed or not. Line delimited files are compacted by
+ * concatenating their bytes, which gzip readers read as one stream when they are gzipped. GeoJson
+ * files are compacted by merging the features of the FeatureCollections of the same Challenge.
+ * Files with a spatial index are never compacted, as the index points into the file.
+ * <p>
+ * A compacted file is named after the first file it compacts, so its name is unique, and it is
+ * never overwritten. It is written under a temporary name and renamed once complete, so a commit
+ * that fails while compacting leaves the files as they were. The files are only deleted then, the
+ * first of them last, so that committing again after a failure in between finds the compacted
+ * file named after it, and fails rather than compacting the files a second time.
+ *
+ * @author mkalender
+ */
+public final class OutputCommitter implements Serializable
+{
+    /**
+     * How the files of an output are compacted
+     */
+    public enum Compaction
+    {
+        // Files are moved as they are
+        NONE,
+        // Files of lines are concatenated
+        LINES,
+        // FeatureCollections of the same Challenge are merged
+        FEATURE_COLLECTIONS
+    }
+
+    private static final long serialVersionUID = 4307714405562146021L;
+    private static final Logger logger = LoggerFactory.getLogger(OutputCommitter.class);
+    private static final String COMPACTED = "compacted";
+    // Prefix of a compacted file being written
+    private static final String WRITING = "_";
+    private static final String FEATURES = "features";
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // Challenge of a GeoJson file named by the CheckFlagGeoJsonProcessor
+    private static final Pattern CHALLENGE_FILE = Pattern.compile("(.+)-\\d+P\\d+-\\d+\\..+");
+    // Compacted file, of lines or of a Challenge
+    private static final Pattern COMPACTED_FILE = Pattern.compile("(.+-)?" + COMPACTED + "-.+");
+
+    private final Map<String, String> configuration;
+    private final int threads;
+    private final long targetBytes;
+
+    /**
+     * Default constructor
+     *
+     * @param configuration
+     *            Hadoop configuration of the file systems
+     * @param threads
+     *            number of files committed at the same time
+     * @param targetBytes
+     *            size to compact files to, or 0 to leave files as they are
+     */
+    public OutputCommitter(final Map<String, String> configuration, final int threads,
+            final long targetBytes)
+    {
+        this.configuration = new HashMap<>(configuration);
+        this.threads = Math.max(1, threads);
+        this.targetBytes = targetBytes;
+    }
+
+    /**
+     * Moves all the files of a temporary folder into the target folder. When both folders are the
+     * same, files are only compacted in place.
+     *
+     * @param path
+     *            the temporary and target folders
+     * @param compaction
+     *            how the files are compacted, if compaction is enabled
+     */
+    public void commit(final SparkFilePath path, final Compaction compaction)
+    {
+        final Configuration hadoopConfiguration = new Configuration();
+        this.configuration.forEach(hadoopConfiguration::set);
+        final Path source = new Path(path.getTemporaryPath());
+        final Path target = new Path(path.getTargetPath());
+        final boolean inPlace = source.equals(target);
+        final Map<String, List<LocatedFileStatus>> groups;
+        try
+        {
+            groups = group(source, compaction, hadoopConfiguration);
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to list {}", source, e);
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        try
+        {
+            final List<Future<?>> commits = new ArrayList<>();
+            for (final List<LocatedFileStatus> group : groups.values())
+            {
+                for (final List<LocatedFileStatus> files : this.pack(group, compaction))
+                {
+                    commits.add(pool.submit(() ->
+                    {
+                        if (files.size() == 1)
+                        {
+                            if (!inPlace)
+                            {
+                                move(files.get(0).getPath(), source, target, hadoopConfiguration);
+                            }
+                        }
+                        else
+                        {
+                            compact(files, compaction, source, target, inPlace,
+                                    hadoopConfiguration);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (final Future<?> commit : commits)
+            {
+                commit.get();
+            }
+            logger.info("Committed {} in {} files from {} files", target, commits.size(),
+                    groups.values().stream().mapToInt(List::size).sum());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while committing {}", target, e);
+        }
+        catch (final ExecutionException e)
+        {
+            throw new CoreException("Unable to commit {}", target, e.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Compacts the files of a bin into a single file in the target folder
+     */
+    private static void compact(final List<LocatedFileStatus> files, final Compaction compaction,
+            final Path source, final Path target, final boolean inPlace,
+            final Configuration hadoopConfiguration) throws IOException
+    {
+        final String first = files.get(0).getPath().getName();
+        final String name;
+        if (compaction == Compaction.FEATURE_COLLECTIONS)
+        {
+            final String challenge = challenge(first);
+            name = String.format("%s-%s-%s", challenge, COMPACTED,
+                    first.substring(challenge.length() + 1));
+        }
+        else
+        {
+            name = String.format("%s-%s", COMPACTED, first);
+        }
+        final Path folder = targetOf(files.get(0).getPath().getParent(), source, target);
+        final Path compacted = new Path(folder, name);
+        final Path writing = new Path(folder, WRITING + name);
+        final FileSystem targetSystem = compacted.getFileSystem(hadoopConfiguration);
+        if (targetSystem.exists(compacted))
+        {
+            throw new IOException(String.format(
+                    "%s exists, its files may have been compacted by an earlier commit",
+                    compacted));
+        }
+        try (OutputStream output = targetSystem.create(writing, true))
+        {
+            if (compaction == Compaction.LINES)
+            {
+                for (final LocatedFileStatus file : files)
+                {
+                    try (InputStream input = file.getPath().getFileSystem(hadoopConfiguration)
+                            .open(file.getPath()))
+                    {
+                        input.transferTo(output);
+                    }
+                }
+            }
+            else
+            {
+                mergeFeatureCollections(files,
+                        extension(first).endsWith(FileSuffix.GZIP.toString()), output,
+                        hadoopConfiguration);
+            }
+        }
+        // Some file systems replace an existing file on rename
+        if (targetSystem.exists(compacted) || !targetSystem.rename(writing, compacted))
+        {
+            throw new IOException(String.format("Unable to rename %s to %s", writing, compacted));
+        }
+        if (inPlace)
+        {
+            // The compacted file is named after the first file, which goes last
+            for (int index = files.size() - 1; index >= 0; index--)
+            {
+                final Path file = files.get(index).getPath();
+                file.getFileSystem(hadoopConfiguration).delete(file, false);
+            }
+        }
+    }
+
+    private static String challenge(final String name)
+    {
+        final Matcher matcher = CHALLENGE_FILE.matcher(name);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    private static String extension(final String name)
+    {
+        final int dot = name.indexOf('.');
+        return dot < 0 ? "" : name.substring(dot);
+    }
+
+    /**
+     * Lists the files under a folder, grouped by the files that can be compacted together: files
+     * of the same folder and extension, and of the same Challenge for GeoJson files. Files that
+     * must not be compacted get a group of their own.
+     */
+    private static Map<String, List<LocatedFileStatus>> group(final Path source,
+            final Compaction compaction, final Configuration hadoopConfiguration)
+            throws IOException
+    {
+        final FileSystem fileSystem = source.getFileSystem(hadoopConfiguration);
+        final List<LocatedFileStatus> files = new ArrayList<>();
+        try
+        {
+            final RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(source, true);
+            while (iterator.hasNext())
+            {
+                files.add(iterator.next());
+            }
+        }
+        catch (final FileNotFoundException e)
+        {
+            // Nothing was written
+            return new TreeMap<>();
+        }
+
+        // Folders holding spatial indexes are left as they are
+        final Map<Path, Boolean> indexedFolders = new HashMap<>();
+        files.forEach(file -> indexedFolders.merge(file.getPath().getParent(),
+                SpatialIndexFormat.isSpatialIndexFile(file.getPath().getName()),
+                Boolean::logicalOr));
+        final Map<String, List<LocatedFileStatus>> groups = new TreeMap<>();
+        for (final LocatedFileStatus file : files)
+        {
+            final Path path = file.getPath();
+            if (path.getName().startsWith(WRITING)
+                    && COMPACTED_FILE.matcher(path.getName().substring(1)).matches())
+            {
+                logger.warn("Skipping {}, left by a compaction that failed", path);
+                continue;
+            }
+            String key = path.toString();
+            // Files compacted before are left as they are, as they are already of the target size
+            if (compaction != Compaction.NONE && !indexedFolders.get(path.getParent())
+                    && !COMPACTED_FILE.matcher(path.getName()).matches())
+            {
+                if (compaction == Compaction.LINES)
+                {
+                    key = path.getParent() + "/*" + extension(path.getName());
+                }
+                else if (challenge(path.getName()) != null)
+                {
+                    key = path.getParent() + "/" + challenge(path.getName()) + "-*"
+                            + extension(path.getName());
+                }
+            }
+            groups.computeIfAbsent(key, name -> new ArrayList<>()).add(file);
+        }
+        groups.values().forEach(
+                group -> group.sort(Comparator.comparing(file -> file.getPath().getName())));
+        return groups;
+    }
+
+    private static void mergeFeatureCollections(final List<LocatedFileStatus> files,
+            final boolean compressed, final OutputStream output,
+            final Configuration hadoopConfiguration) throws IOException
+    {
+        final Gson gson = new Gson();
+        final OutputStream content = compressed
+                ? CompressionUtilities.getParallelGzipOutputStream(output,
+                        SpatialIndexFormat.BLOCK_BYTES, 0)
+                : output;
+        final JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(content, StandardCharsets.UTF_8), BUFFER_BYTES));
+        writer.beginObject();
+        writer.name("type").value("FeatureCollection");
+        writer.name(FEATURES);
+        writer.beginArray();
+        for (final LocatedFileStatus file : files)
+        {
+            // Files of Challenges with no flags are empty
+            if (file.getLen() == 0)
+            {
+                continue;
+            }
+            final InputStream raw = file.getPath().getFileSystem(hadoopConfiguration)
+                    .open(file.getPath());
+            try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(
+                    compressed ? new GZIPInputStream(raw, BUFFER_BYTES) : raw,
+                    StandardCharsets.UTF_8))))
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    if (!FEATURES.equals(reader.nextName()))
+                    {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext())
+                    {
+                        final JsonElement feature = new JsonParser().parse(reader);
+                        gson.toJson(feature, writer);
+                    }
+                    reader.endArray();
+                }
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.close();
+    }
+
+    /**
+     * Renames a file into the target folder, or copies it if it cannot be renamed
+     */
+    private static void move(final Path file, final Path source, final Path target,
+            final Configuration hadoopConfiguration) throws IOException
+    {
+        final Path destination = new Path(targetOf(file.getParent(), source, target),
+                file.getName());
+        final FileSystem sourceSystem = file.getFileSystem(hadoopConfiguration);
+        final FileSystem targetSystem = destination.getFileSystem(hadoopConfiguration);
+        if (sourceSystem.getUri().equals(targetSystem.getUri()))
+        {
+            targetSystem.mkdirs(destination.getParent());
+            if (targetSystem.rename(file, destination))
+            {
+                return;
+            }
+        }
+        if (!FileUtil.copy(sourceSystem, file, targetSystem, destination, false, true,
+                hadoopConfiguration))
+        {
+            throw new IOException(String.format("Unable to copy %s to %s", file, destination));
+        }
+    }
+
+    private static Path targetOf(final Path folder, final Path source, final Path target)
+    {
+        final String relative = folder.toUri().getPath()
+                .substring(source.toUri().getPath().length());
+        return relative.isEmpty() ? target : new Path(target.toString() + relative);
+    }
+
+    /**
+     * Packs the files of a group into bins of about the target size, in name order
+     */
+    private List<List<LocatedFileStatus>> pack(final List<LocatedFileStatus> group,
+            final Compaction compaction)
+    {
+        final List<List<LocatedFileStatus>> bins = new ArrayList<>();
+        if (compaction == Compaction.NONE || this.targetBytes <= 0 || group.size() == 1)
+        {
+            group.forEach(file -> bins.add(List.of(file)));
+            return bins;
+        }
+        List<LocatedFileStatus> bin = new ArrayList<>();
+        long binBytes = 0;
+        for (final LocatedFileStatus file : group)
+        {
+            if (!bin.isEmpty() && binBytes + file.getLen() > this.targetBytes)
+            {
+                bins.add(bin);
+                bin = new ArrayList<>();
+                binBytes = 0;
+            }
+            bin.add(file);
+            binBytes += file.getLen();
+        }
+        bins.add(bin);
+        return bins;
+    }
+}
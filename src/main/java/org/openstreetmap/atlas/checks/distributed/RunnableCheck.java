@@ -72,20 +72,25 @@ public final class RunnableCheck extends RunnableCheckBase<Check> implements Run
         try
         {
             final Time timer = Time.now();
-            this.getObjects().forEach(object ->
+            long objects = 0;
+            long flags = 0;
+            for (final AtlasObject object : this.getObjects())
             {
+                objects++;
                 final Optional<CheckFlag> flag = this.getCheck().check(object);
                 if (flag.isPresent())
                 {
+                    flags++;
                     this.addTask(flag.get());
                     this.getEventService().post(new CheckFlagEvent(this.getName(), flag.get()));
                 }
-            });
+            }
 
             this.getCheck().clear();
             final Duration checkRunTime = timer.elapsedSince();
             logger.info("{} completed in {}.", this.getName(), checkRunTime);
-            this.getEventService().post(new MetricEvent(this.getName(), checkRunTime));
+            this.getEventService()
+                    .post(new MetricEvent(this.getName(), checkRunTime, objects, flags));
 
             this.uploadTasks();
         }
@@ -7,8 +7,6 @@ import org.openstreetmap.atlas.checks.maproulette.MapRouletteClient;
 import org.openstreetmap.atlas.checks.maproulette.data.Challenge;
 import org.openstreetmap.atlas.event.EventService;
 import org.openstreetmap.atlas.geography.atlas.items.AtlasObject;
-import org.openstreetmap.atlas.utilities.scalars.Duration;
-import org.openstreetmap.atlas.utilities.threads.Pool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,8 +21,6 @@ import org.slf4j.LoggerFactory;
 public abstract class RunnableCheckBase<T extends Check>
 {
     private static final Logger logger = LoggerFactory.getLogger(RunnableCheckBase.class);
-    private static final int MINIMUM_DURATION_SECONDS = 5;
-    private static final int MINIMUM_DURATION_RATIO = 10;
 
     private final T check;
     private final Challenge challenge;
@@ -34,19 +30,6 @@ public abstract class RunnableCheckBase<T extends Check>
     private final Iterable<AtlasObject> objects;
     private final EventService eventService;
 
-    /**
-     * Calculates max {@link Duration} timeout for given batch size
-     *
-     * @param batchSize
-     *            batch size to calculate timeout for
-     * @return {@link Duration} timeout for given batch size
-     */
-    private static Duration maxDurationForBatch(final int batchSize)
-    {
-        return Duration
-                .seconds(Math.max(MINIMUM_DURATION_SECONDS, batchSize / MINIMUM_DURATION_RATIO));
-    }
-
     /**
      * Default constructor
      *
@@ -152,18 +135,17 @@ public abstract class RunnableCheckBase<T extends Check>
     }
 
     /**
-     * Uploads {@link CheckFlag}s to MapRoulette in a separate thread. Thread will timeout if it
-     * does not complete by given timeout time.
+     * Uploads {@link CheckFlag}s to MapRoulette. The client connection uploads batches
+     * concurrently, retries failed requests and gives up once its upload time limit is over, so
+     * uploads are not timed out here.
      */
     protected void uploadTasks()
     {
         if (this.client != null)
         {
-            try (Pool uploadPool = new Pool(1,
-                    String.format("MR upload pool for %s (%s)", this.getName(), this.getCountry()),
-                    maxDurationForBatch(this.getClient().getCurrentBatchSize())))
+            try
             {
-                uploadPool.queue(() -> this.getClient().uploadTasks());
+                this.getClient().uploadTasks();
             }
             catch (final Exception e)
             {
@@ -2,6 +2,8 @@ package org.openstreetmap.atlas.checks.distributed;
 
 import static org.openstreetmap.atlas.checks.distributed.IntegrityCheckSparkJob.METRICS_FILENAME;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -15,6 +17,8 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.api.java.function.PairFunction;
@@ -26,11 +30,16 @@ import org.openstreetmap.atlas.checks.base.ExternalDataFetcher;
 import org.openstreetmap.atlas.checks.configuration.ConfigurationResolver;
 import org.openstreetmap.atlas.checks.constants.CommonConstants;
 import org.openstreetmap.atlas.checks.event.CheckFlagEvent;
+import org.openstreetmap.atlas.checks.event.CheckFlagBinaryProcessor;
 import org.openstreetmap.atlas.checks.event.CheckFlagFileProcessor;
 import org.openstreetmap.atlas.checks.event.CheckFlagGeoJsonProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagParquetProcessor;
 import org.openstreetmap.atlas.checks.event.CheckFlagTippecanoeProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagVectorTileProcessor;
+import org.openstreetmap.atlas.checks.event.MetricEvent;
 import org.openstreetmap.atlas.checks.event.MetricFileGenerator;
 import org.openstreetmap.atlas.checks.utility.UniqueCheckFlagContainer;
+import org.openstreetmap.atlas.checks.vectortiles.PMTilesWriter;
 import org.openstreetmap.atlas.event.EventService;
 import org.openstreetmap.atlas.event.Processor;
 import org.openstreetmap.atlas.event.ShutdownEvent;
@@ -39,6 +48,7 @@ import org.openstreetmap.atlas.generator.sharding.AtlasSharding;
 import org.openstreetmap.atlas.generator.tools.caching.HadoopAtlasFileCache;
 import org.openstreetmap.atlas.generator.tools.spark.SparkJob;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFilePath;
 import org.openstreetmap.atlas.geography.atlas.Atlas;
 import org.openstreetmap.atlas.geography.atlas.AtlasResourceLoader;
 import org.openstreetmap.atlas.geography.atlas.dynamic.DynamicAtlas;
@@ -46,6 +56,7 @@ import org.openstreetmap.atlas.geography.atlas.dynamic.policy.DynamicAtlasPolicy
 import org.openstreetmap.atlas.geography.atlas.multi.MultiAtlas;
 import org.openstreetmap.atlas.geography.sharding.Shard;
 import org.openstreetmap.atlas.geography.sharding.Sharding;
+import org.openstreetmap.atlas.streaming.resource.FileSuffix;
 import org.openstreetmap.atlas.utilities.collections.StringList;
 import org.openstreetmap.atlas.utilities.configuration.Configuration;
 import org.openstreetmap.atlas.utilities.configuration.MergedConfiguration;
@@ -84,12 +95,27 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
             distanceString -> Distance.kilometers(Double.valueOf(distanceString)),
             Optionality.OPTIONAL, "10.0");
     private static final String ATLAS_SHARDING_FILE = "sharding.txt";
+    // Folder of the vector tile archives of each partition, until they are merged
+    private static final String VECTOR_TILE_PARTS = "parts";
     private static final Switch<String> SHARDING = new Switch<>("sharding",
             "Sharding to load in place of sharding file in Atlas path", StringConverter.IDENTITY,
             Optionality.OPTIONAL);
     private static final Switch<Boolean> MULTI_ATLAS = new Switch<>("multiAtlas",
             "If true then use a multi atlas, else use a dynamic atlas. This works better for running on a single machine",
-            Boolean::getBoolean, Optionality.OPTIONAL, "false");
+            Boolean::parseBoolean, Optionality.OPTIONAL, "false");
+    private static final Switch<AtlasLoadingMode> ATLAS_LOADING_MODE = new Switch<>(
+            "atlasLoadingMode",
+            "How to load the shards around each shard: dynamic, multi or auto. Auto picks multi for neighbourhoods that fit in the executor heap. Ignored when multiAtlas is true",
+            AtlasLoadingMode::forString, Optionality.OPTIONAL, "dynamic");
+    private static final Switch<Boolean> SHARD_METRICS = new Switch<>("shardMetrics",
+            "Also writes the run times of the checks of each shard to a metric file per shard, next to the summary of each country. Leaves a file per shard to list on large runs",
+            Boolean::parseBoolean, Optionality.OPTIONAL, "false");
+    // Summary of the check metrics of the whole run, and of each country prefixed by its code
+    private static final String METRICS_SUMMARY_FILENAME = "check-run-summary.csv";
+    private static final Switch<Double> AUTO_LOADING_HEAP_FRACTION = new Switch<>(
+            "autoLoadingHeapFraction",
+            "Fraction of the free executor heap a single shard may use before auto loading mode switches to a dynamic atlas",
+            Double::valueOf, Optionality.OPTIONAL, "0.25");
 
     private static final Long POOL_MINUTES_BEFORE_KILL = 1440L;
     private static final Logger logger = LoggerFactory
@@ -123,6 +149,11 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
         final String output = this.output(commandMap);
         final Set<OutputFormats> outputFormats = (Set<OutputFormats>) commandMap
                 .get(OUTPUT_FORMATS);
+        final boolean partitionFlagsByCheck = (Boolean) commandMap.get(PARTITION_FLAGS_BY_CHECK);
+        final boolean spatialIndex = (Boolean) commandMap.get(SPATIAL_INDEX);
+        final int outputQueueSize = (Integer) commandMap.get(OUTPUT_QUEUE_SIZE);
+        final int compressionThreads = (Integer) commandMap.get(COMPRESSION_THREADS);
+        final boolean shardMetrics = (Boolean) commandMap.get(SHARD_METRICS);
         final StringList countries = StringList.split((String) commandMap.get(COUNTRIES),
                 CommonConstants.COMMA);
         final Optional<List<String>> checkFilter = (Optional<List<String>>) commandMap
@@ -144,6 +175,8 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
 
         // File loading helpers
         final SparkFileHelper fileHelper = new SparkFileHelper(sparkContext);
+        final boolean compactOutput = (Boolean) commandMap.get(COMPACT_OUTPUT);
+        final OutputCommitter committer = outputCommitter(commandMap, sparkContext);
         // Get the file fetcher
         final ExternalDataFetcher fileFetcher = new ExternalDataFetcher(externalDataInput,
                 this.configurationMap());
@@ -160,6 +193,10 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
                 this.configurationMap());
         final Broadcast<Sharding> shardingBroadcast = this.getContext().broadcast(sharding);
         final Distance distanceToLoadShards = (Distance) commandMap.get(EXPANSION_DISTANCE);
+        final AtlasLoadingMode loadingMode = (Boolean) commandMap.get(MULTI_ATLAS)
+                ? AtlasLoadingMode.MULTI
+                : (AtlasLoadingMode) commandMap.get(ATLAS_LOADING_MODE);
+        final double heapFraction = (Double) commandMap.get(AUTO_LOADING_HEAP_FRACTION);
 
         // get timeout
         final Optional<Long> alternateMaxPoolMinutes = (Optional<Long>) commandMap
@@ -207,6 +244,9 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
                     input, missingCountries);
         }
 
+        // Metrics of all countries, merged as each country completes
+        final CheckMetricsAccumulator runMetrics = new CheckMetricsAccumulator();
+
         // Countrify spark parallelization for better debugging
         try (Pool checkPool = new Pool(countryShards.size(), "Countries Execution Pool",
                 maxPoolDuration))
@@ -226,23 +266,67 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
                     this.getContext().setLocalProperty("callSite.short", String
                             .format("Running checks on %s", tasksForCountry.get(0).getCountry()));
 
+                    final CheckMetricsAccumulator countryMetrics = new CheckMetricsAccumulator();
+                    this.getContext().sc().register(countryMetrics,
+                            String.format("Check metrics of %s", country));
+
                     this.getContext().parallelize(tasksForCountry, tasksForCountry.size())
                             .flatMap(this.produceFlags(input, output, this.configurationMap(),
-                                    fileHelper, shardingBroadcast, distanceToLoadShards,
-                                    (Boolean) commandMap.get(MULTI_ATLAS)))
+                                    shardingBroadcast, distanceToLoadShards, loadingMode,
+                                    heapFraction, countryMetrics, shardMetrics))
                             .distinct().map(UniqueCheckFlagContainer::getEvent).foreachPartition(
-                                    this.processFlags(output, fileHelper, outputFormats, country));
+                                    this.processFlags(output, sparkContext, outputFormats,
+                                            partitionFlagsByCheck, spatialIndex, outputQueueSize,
+                                            compressionThreads, country));
+
+                    if (compactOutput)
+                    {
+                        // Partitions write straight to the output, which is compacted in place
+                        for (final String folder : List.of(OUTPUT_FLAG_FOLDER,
+                                OUTPUT_GEOJSON_FOLDER, OUTPUT_TIPPECANOE_FOLDER))
+                        {
+                            final String countryFolder = SparkFileHelper.combine(output, folder,
+                                    country);
+                            committer.commit(new SparkFilePath(countryFolder, countryFolder),
+                                    compactionOf(folder));
+                        }
+                    }
+
+                    if (outputFormats.contains(OutputFormats.METRICS))
+                    {
+                        // Next to the run summary, out of the folder of the files per shard
+                        fileHelper.write(SparkFileHelper.combine(output, OUTPUT_METRIC_FOLDER),
+                                country + "_" + METRICS_SUMMARY_FILENAME, countryMetrics.toCsv());
+                        runMetrics.merge(countryMetrics);
+                    }
+
+                    if (outputFormats.contains(OutputFormats.VECTOR_TILES))
+                    {
+                        // Each partition tiled its own flags, tiles they share are merged here
+                        final String vectorTileFolder = SparkFileHelper.combine(output,
+                                OUTPUT_VECTOR_TILE_FOLDER, country);
+                        CheckFlagVectorTileProcessor.mergeArchives(fileHelper,
+                                this.configurationMap(),
+                                SparkFileHelper.combine(vectorTileFolder, VECTOR_TILE_PARTS),
+                                vectorTileFolder, country + PMTilesWriter.FILE_EXTENSION);
+                    }
                 });
             }
         }
 
+        if (outputFormats.contains(OutputFormats.METRICS))
+        {
+            fileHelper.write(SparkFileHelper.combine(output, OUTPUT_METRIC_FOLDER),
+                    METRICS_SUMMARY_FILENAME, runMetrics.toCsv());
+        }
         logger.info("Sharded checks completed in {}", start.elapsedSince());
     }
 
     @Override
     protected SwitchList switches()
     {
-        return super.switches().with(EXPANSION_DISTANCE, MULTI_ATLAS, SHARDING);
+        return super.switches().with(EXPANSION_DISTANCE, MULTI_ATLAS, ATLAS_LOADING_MODE,
+                AUTO_LOADING_HEAP_FRACTION, SHARDING, SHARD_METRICS);
     }
 
     /**
@@ -266,25 +350,78 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
                 .map(loader::load);
     }
 
+    /**
+     * Sum the file sizes of a country's shard files, from their file status alone, so that no
+     * shard is fetched to size it. The shard paths follow the layout of the atlas files that the
+     * {@link #atlasFetcher} loads. Missing shards count as empty, as the {@link #atlasFetcher}
+     * skips them too.
+     *
+     * @param input
+     *            {@link String} input folder path
+     * @param country
+     *            {@link String} country code
+     * @param shards
+     *            {@link Shard}s to size
+     * @param configuration
+     *            {@link org.openstreetmap.atlas.generator.tools.spark.SparkJob} configuration map
+     * @return total size of the shard files in bytes
+     */
+    private long shardFileSizes(final String input, final String country,
+            final Iterable<? extends Shard> shards, final Map<String, String> configuration)
+    {
+        final org.apache.hadoop.conf.Configuration hadoopConfiguration = new org.apache.hadoop.conf.Configuration();
+        configuration.forEach(hadoopConfiguration::set);
+        long total = 0;
+        for (final Shard shard : shards)
+        {
+            final Path path = new Path(SparkFileHelper.combine(input, country, String
+                    .format("%s_%s%s", country, shard.getName(), FileSuffix.ATLAS.toString())));
+            try
+            {
+                final FileSystem fileSystem = path.getFileSystem(hadoopConfiguration);
+                total += fileSystem.getFileStatus(path).getLen();
+            }
+            catch (final FileNotFoundException e)
+            {
+                // The shard has no data for this country
+            }
+            catch (final IOException e)
+            {
+                throw new CoreException("Unable to size shard file {}", path, e);
+            }
+        }
+        return total;
+    }
+
     /**
      * Process {@link org.openstreetmap.atlas.checks.flag.CheckFlag}s through an event service to
      * produce output files.
      *
      * @param output
      *            {@link String} output folder path
-     * @param fileHelper
-     *            {@link SparkFileHelper}
+     * @param configuration
+     *            file system configuration
      * @param outputFormats
      *            {@link Set} of
      *            {@link org.openstreetmap.atlas.checks.distributed.IntegrityChecksCommandArguments.OutputFormats}
+     * @param partitionFlagsByCheck
+     *            whether or not to write flags into a folder per check
+     * @param spatialIndex
+     *            whether or not to write a spatial index next to each flag and geojson file
+     * @param outputQueueSize
+     *            number of flags queued per output format, or 0 to write them on the posting
+     *            thread
+     * @param compressionThreads
+     *            number of threads gzipping output files, or 0 to gzip them on the writing thread
      * @param country
      *            {@link String} ISO code for the country being processed
      * @return {@link VoidFunction} that takes an {@link Iterator} of {@link CheckFlagEvent}s
      */
     @SuppressWarnings("unchecked")
     private VoidFunction<Iterator<CheckFlagEvent>> processFlags(final String output,
-            final SparkFileHelper fileHelper, final Set<OutputFormats> outputFormats,
-            final String country)
+            final Map<String, String> configuration, final Set<OutputFormats> outputFormats,
+            final boolean partitionFlagsByCheck, final boolean spatialIndex,
+            final int outputQueueSize, final int compressionThreads, final String country)
     {
         return iterator ->
         {
@@ -293,21 +430,55 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
 
             if (outputFormats.contains(OutputFormats.FLAGS))
             {
-                eventService.register(new CheckFlagFileProcessor(fileHelper,
-                        SparkFileHelper.combine(output, OUTPUT_FLAG_FOLDER, country)));
+                eventService.register(withOutputQueue(new CheckFlagFileProcessor(configuration,
+                        SparkFileHelper.combine(output, OUTPUT_FLAG_FOLDER, country))
+                                .withPartitionByCheck(partitionFlagsByCheck)
+                                .withCompressionThreads(compressionThreads)
+                                .withSpatialIndex(spatialIndex),
+                        outputQueueSize));
+            }
+
+            if (outputFormats.contains(OutputFormats.BINARY_FLAGS))
+            {
+                eventService.register(withOutputQueue(new CheckFlagBinaryProcessor(configuration,
+                        SparkFileHelper.combine(output, OUTPUT_BINARY_FLAG_FOLDER, country))
+                                .withSpatialIndex(spatialIndex),
+                        outputQueueSize));
             }
 
             if (outputFormats.contains(OutputFormats.GEOJSON))
             {
 
-                eventService.register(new CheckFlagGeoJsonProcessor(fileHelper,
-                        SparkFileHelper.combine(output, OUTPUT_GEOJSON_FOLDER, country)));
+                eventService.register(withOutputQueue(new CheckFlagGeoJsonProcessor(configuration,
+                        SparkFileHelper.combine(output, OUTPUT_GEOJSON_FOLDER, country))
+                                .withCompressionThreads(compressionThreads)
+                                .withSpatialIndex(spatialIndex),
+                        outputQueueSize));
+            }
+
+            if (outputFormats.contains(OutputFormats.PARQUET))
+            {
+                eventService.register(withOutputQueue(new CheckFlagParquetProcessor(configuration,
+                        SparkFileHelper.combine(output, OUTPUT_PARQUET_FOLDER,
+                                CheckFlagParquetProcessor.COUNTRY_PARTITION + country)),
+                        outputQueueSize));
             }
 
             if (outputFormats.contains(OutputFormats.TIPPECANOE))
             {
-                eventService.register(new CheckFlagTippecanoeProcessor(fileHelper,
-                        SparkFileHelper.combine(output, OUTPUT_TIPPECANOE_FOLDER, country)));
+                eventService.register(withOutputQueue(new CheckFlagTippecanoeProcessor(
+                        configuration,
+                        SparkFileHelper.combine(output, OUTPUT_TIPPECANOE_FOLDER, country))
+                                .withCompressionThreads(compressionThreads),
+                        outputQueueSize));
+            }
+
+            if (outputFormats.contains(OutputFormats.VECTOR_TILES))
+            {
+                eventService.register(withOutputQueue(new CheckFlagVectorTileProcessor(
+                        configuration, SparkFileHelper.combine(output, OUTPUT_VECTOR_TILE_FOLDER,
+                                country, VECTOR_TILE_PARTS)),
+                        outputQueueSize));
             }
 
             iterator.forEachRemaining(eventService::post);
@@ -325,22 +496,27 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
      *            {@link String} output folder path
      * @param configurationMap
      *            {@link org.openstreetmap.atlas.generator.tools.spark.SparkJob} configuration map
-     * @param fileHelper
-     *            {@link SparkFileHelper}
      * @param sharding
      *            spark {@link Broadcast} of the current {@link Sharding}
      * @param shardDistanceExpansion
      *            {@link Distance} to expand the shard group
-     * @param multiAtlas
-     *            boolean whether to use a multi or dynamic Atlas
+     * @param loadingMode
+     *            {@link AtlasLoadingMode} deciding whether to use a multi or dynamic Atlas
+     * @param heapFraction
+     *            fraction of the heap headroom a shard may use in {@link AtlasLoadingMode#AUTO}
+     * @param metrics
+     *            {@link CheckMetricsAccumulator} the run metrics of the checks are added to
+     * @param shardMetrics
+     *            whether or not to also write a metric file per shard
      * @return {@link FlatMapFunction} that takes {@link ShardedCheckFlagsTask} and returns a
      *         {@link Iterator} of {@link UniqueCheckFlagContainer}s
      */
     @SuppressWarnings("unchecked")
     private FlatMapFunction<ShardedCheckFlagsTask, UniqueCheckFlagContainer> produceFlags(
             final String input, final String output, final Map<String, String> configurationMap,
-            final SparkFileHelper fileHelper, final Broadcast<Sharding> sharding,
-            final Distance shardDistanceExpansion, final boolean multiAtlas)
+            final Broadcast<Sharding> sharding, final Distance shardDistanceExpansion,
+            final AtlasLoadingMode loadingMode, final double heapFraction,
+            final CheckMetricsAccumulator metrics, final boolean shardMetrics)
     {
         return task ->
         {
@@ -348,16 +524,31 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
             final Function<Shard, Optional<Atlas>> fetcher = this.atlasFetcher(input,
                     task.getCountry(), configurationMap);
             final Atlas atlas;
+            final Iterable<? extends Shard> neighbourhood = sharding.getValue()
+                    .shards(task.getShard().bounds().expand(shardDistanceExpansion));
 
             // Use dynamic or multi atlas (multi runs faster locally)
-            if (multiAtlas)
+            final AtlasLoadingMode mode;
+            if (loadingMode == AtlasLoadingMode.AUTO)
+            {
+                final long neighbourhoodBytes = this.shardFileSizes(input, task.getCountry(),
+                        neighbourhood, configurationMap);
+                final long headroom = AtlasLoadingMode.heapHeadroom();
+                mode = loadingMode.resolve(neighbourhoodBytes, headroom, heapFraction);
+                logger.info(
+                        "Loading {} as a {} atlas: {} neighbouring shard bytes, {} heap bytes free",
+                        task.getUniqueTaskIdentifier(), mode, neighbourhoodBytes, headroom);
+            }
+            else
+            {
+                mode = loadingMode;
+                logger.debug("Loading {} as a {} atlas", task.getUniqueTaskIdentifier(), mode);
+            }
+
+            if (mode == AtlasLoadingMode.MULTI)
             {
                 atlas = new MultiAtlas(
-                        StreamSupport
-                                .stream(sharding.getValue()
-                                        .shards(task.getShard().bounds()
-                                                .expand(shardDistanceExpansion))
-                                        .spliterator(), true)
+                        StreamSupport.stream(neighbourhood.spliterator(), true)
                                 .map(fetcher).filter(Optional::isPresent).map(Optional::get)
                                 .collect(Collectors.toList()));
             }
@@ -394,11 +585,29 @@ public class ShardedIntegrityChecksSparkJob extends IntegrityChecksCommandArgume
                     container.add(new UniqueCheckFlagContainer(event));
                 }
             });
-            // Metrics are output on a per shard level
-            final MetricFileGenerator metricFileGenerator = new MetricFileGenerator(
-                    task.getShard().getName() + "_" + METRICS_FILENAME, fileHelper,
-                    SparkFileHelper.combine(output, OUTPUT_METRIC_FOLDER, task.getCountry()));
-            eventService.register(metricFileGenerator);
+            // Metrics are summed up per country, and optionally output on a per shard level
+            eventService.register(new Processor<MetricEvent>()
+            {
+                @Override
+                public void process(final ShutdownEvent event)
+                {
+                    // no-op
+                }
+
+                @Override
+                @Subscribe
+                @AllowConcurrentEvents
+                public void process(final MetricEvent event)
+                {
+                    metrics.add(event);
+                }
+            });
+            if (shardMetrics)
+            {
+                eventService.register(new MetricFileGenerator(
+                        task.getShard().getName() + "_" + METRICS_FILENAME, configurationMap,
+                        SparkFileHelper.combine(output, OUTPUT_METRIC_FOLDER, task.getCountry())));
+            }
 
             // Run all checks in parallel
             try (Pool checkPool = new Pool(task.getChecks().size(),
@@ -0,0 +1,268 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openstreetmap.atlas.event.Event;
+import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * A {@link Processor} that hands events to another {@link Processor} through a bounded queue, so
+ * that the threads posting events do not wait on the writes of the other processor. Queued events
+ * are processed by dedicated writer threads. When the queue is full, posting threads wait for room
+ * in it. A {@link ShutdownEvent} waits for the queue to drain before it is passed on.
+ * <p>
+ * With a single writer thread, which is the default, events are processed in the order they were
+ * posted. More writer threads should only be used for processors that allow concurrent events.
+ *
+ * @author mkalender
+ * @param <T>
+ *            type that is going to be processed
+ */
+public final class AsynchronousProcessor<T extends Event> implements Processor<T>
+{
+    // Default number of events that can be queued
+    public static final int QUEUE_SIZE = 10_000;
+    // How long an idle writer waits for an event before checking whether it should stop
+    private static final long POLL_MILLISECONDS = 100;
+    private static final Logger logger = LoggerFactory.getLogger(AsynchronousProcessor.class);
+
+    // Processor the queued events are handed to
+    private final Processor<T> processor;
+
+    // Type of events to queue, as the event bus only sees the erased type of process
+    private final Class<T> eventType;
+
+    private final int queueSize;
+    private final BlockingQueue<T> queue;
+    private final List<Thread> writers = new ArrayList<>();
+    private int writerThreads = 1;
+    private volatile boolean started;
+    private volatile boolean stopped;
+
+    // Queue metrics
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicInteger maximumQueueDepth = new AtomicInteger();
+    private final AtomicLong blockedNanoseconds = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    /**
+     * Default constructor
+     *
+     * @param processor
+     *            {@link Processor} to hand events to
+     * @param eventType
+     *            type of the events to hand to the processor
+     * @param queueSize
+     *            maximum number of events waiting to be processed
+     */
+    public AsynchronousProcessor(final Processor<T> processor, final Class<T> eventType,
+            final int queueSize)
+    {
+        if (queueSize < 1)
+        {
+            throw new CoreException("Queue size must be positive, was {}", queueSize);
+        }
+        this.processor = processor;
+        this.eventType = eventType;
+        this.queueSize = queueSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /**
+     * @return the number of events posted so far
+     */
+    public long getEventCount()
+    {
+        return this.eventCount.get();
+    }
+
+    /**
+     * @return the number of events the processor failed on
+     */
+    public long getFailureCount()
+    {
+        return this.failureCount.get();
+    }
+
+    /**
+     * @return the largest number of events that were waiting in the queue at once
+     */
+    public int getMaximumQueueDepth()
+    {
+        return this.maximumQueueDepth.get();
+    }
+
+    /**
+     * @return the number of events currently waiting in the queue
+     */
+    public int getQueueDepth()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the total time posting threads waited for room in a full queue, in milliseconds
+     */
+    public long getWaitMilliseconds()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.blockedNanoseconds.get());
+    }
+
+    @Override
+    @Subscribe
+    @AllowConcurrentEvents
+    public void process(final T event)
+    {
+        // The event bus hands every event to this method, including shutdown events
+        if (!this.eventType.isInstance(event))
+        {
+            return;
+        }
+        this.eventCount.incrementAndGet();
+        if (this.stopped)
+        {
+            logger.warn("Processing event after shutdown without queueing.");
+            this.processor.process(event);
+            return;
+        }
+        this.startWriters();
+        if (!this.queue.offer(event))
+        {
+            final long start = System.nanoTime();
+            try
+            {
+                this.queue.put(event);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new CoreException("Interrupted while queueing an event", e);
+            }
+            finally
+            {
+                this.blockedNanoseconds.addAndGet(System.nanoTime() - start);
+            }
+        }
+        this.maximumQueueDepth.accumulateAndGet(this.queue.size(), Math::max);
+    }
+
+    @Override
+    @Subscribe
+    public void process(final ShutdownEvent event)
+    {
+        this.stopped = true;
+        final List<Thread> startedWriters;
+        synchronized (this.writers)
+        {
+            startedWriters = new ArrayList<>(this.writers);
+        }
+        for (final Thread writer : startedWriters)
+        {
+            try
+            {
+                writer.join();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new CoreException("Interrupted while draining the event queue", e);
+            }
+        }
+        // Events queued while the writers were stopping
+        T queued;
+        while ((queued = this.queue.poll()) != null)
+        {
+            this.processor.process(queued);
+        }
+        logger.info(
+                "Queued {} events for {}: maximum queue depth {} of {}, posting threads waited {} ms, {} failed.",
+                this.getEventCount(), this.processor.getClass().getSimpleName(),
+                this.getMaximumQueueDepth(), this.queueSize, this.getWaitMilliseconds(),
+                this.getFailureCount());
+        this.processor.process(event);
+    }
+
+    /**
+     * Sets the number of threads handing queued events to the processor
+     *
+     * @param writerThreads
+     *            value to set
+     * @return the {@link AsynchronousProcessor}
+     */
+    public AsynchronousProcessor<T> withWriterThreads(final int writerThreads)
+    {
+        this.writerThreads = writerThreads;
+        return this;
+    }
+
+    private void startWriters()
+    {
+        if (this.started)
+        {
+            return;
+        }
+        synchronized (this.writers)
+        {
+            if (this.started)
+            {
+                return;
+            }
+            final String name = this.processor.getClass().getSimpleName();
+            for (int index = 0; index < this.writerThreads; index++)
+            {
+                final Thread writer = new Thread(this::write, name + "-writer-" + index);
+                writer.setDaemon(true);
+                writer.start();
+                this.writers.add(writer);
+            }
+            this.started = true;
+        }
+    }
+
+    private void write()
+    {
+        while (true)
+        {
+            final T event;
+            try
+            {
+                event = this.queue.poll(POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e)
+            {
+                logger.warn("Writer interrupted with {} events queued.", this.queue.size());
+                return;
+            }
+            if (event == null)
+            {
+                if (this.stopped && this.queue.isEmpty())
+                {
+                    return;
+                }
+                continue;
+            }
+            try
+            {
+                this.processor.process(event);
+            }
+            catch (final Exception e)
+            {
+                this.failureCount.incrementAndGet();
+                logger.warn("Processing a queued event failed.", e);
+            }
+        }
+    }
+}
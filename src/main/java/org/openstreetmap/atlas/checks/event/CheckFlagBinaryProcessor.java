@@ -0,0 +1,280 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.spark.TaskContext;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagFormat;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagWriter;
+import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.gson.JsonObject;
+
+/**
+ * A {@link Processor} for {@link CheckFlagEvent}s to write them into {@link BinaryFlagFormat}
+ * files. Files are not gzipped, as their footer index is read by seeking. With a spatial index,
+ * each file gets a sidecar index of the bounds of its flags.
+ * <p>
+ * Each thread encodes its flags into a block of its own, which is appended to the current file
+ * once full, so threads only wait on each other to append whole blocks. A file that reaches the
+ * maximum size ends with the block that crossed it.
+ *
+ * @author mkalender
+ */
+public final class CheckFlagBinaryProcessor implements Processor<CheckFlagEvent>
+{
+    /**
+     * Flags encoded by a single thread, with the bounds of the flags to index. A staging is retired
+     * once written, and its thread encodes its next flags in a new one.
+     */
+    private static final class Staging
+    {
+        private BinaryFlagWriter.Block block = new BinaryFlagWriter.Block();
+        private List<Rectangle> bounds = new ArrayList<>();
+        private boolean retired;
+    }
+
+    // Default maximum size of a file on disk
+    public static final long MAXIMUM_FILE_BYTES = FileProcessor.MAXIMUM_FILE_BYTES;
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckFlagBinaryProcessor.class);
+
+    // File system configuration to write files with
+    private final Map<String, String> configuration;
+
+    // Directory to write files in
+    private final String directory;
+
+    // Number of files started so far, used to keep file names unique
+    private int fileIndex;
+
+    // Number of bytes after which a new file is started
+    private long maximumFileBytes = MAXIMUM_FILE_BYTES;
+
+    // Whether or not to write a spatial index next to each file
+    private boolean spatialIndex = false;
+
+    // Per thread blocks holding flags not yet appended to a file, until they are written
+    private final Queue<Staging> stagings = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Staging> staging = ThreadLocal.withInitial(this::newStaging);
+
+    // Guards the current file
+    private final Object outputLock = new Object();
+    private OutputFile output;
+    private BinaryFlagWriter writer;
+    private boolean hasWritten;
+
+    /**
+     * Default constructor
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param outputFolder
+     *            output folder path to write files to
+     */
+    public CheckFlagBinaryProcessor(final Map<String, String> configuration,
+            final String outputFolder)
+    {
+        this.configuration = configuration;
+        this.directory = outputFolder;
+    }
+
+    @Override
+    @Subscribe
+    @AllowConcurrentEvents
+    public void process(final CheckFlagEvent event)
+    {
+        final JsonObject flag = event.toGeoJsonFeatureCollection();
+        final String country = event.getCheckFlag().getCountryISO();
+        final Rectangle bounds = this.spatialIndex ? event.getBounds().orElse(null) : null;
+        Staging chunk = null;
+        while (chunk == null)
+        {
+            final Staging threadStaging = this.staging.get();
+            synchronized (threadStaging)
+            {
+                if (threadStaging.retired)
+                {
+                    this.staging.set(this.newStaging());
+                    continue;
+                }
+                try
+                {
+                    threadStaging.block.add(event.getCheckName(), country, flag);
+                }
+                catch (final IOException e)
+                {
+                    throw new CoreException("Unable to encode binary flag for {}",
+                            this.directory, e);
+                }
+                threadStaging.bounds.add(bounds);
+                if (!threadStaging.block.isFull())
+                {
+                    return;
+                }
+                chunk = drain(threadStaging);
+            }
+        }
+        synchronized (this.outputLock)
+        {
+            this.append(chunk);
+        }
+    }
+
+    @Override
+    @Subscribe
+    public void process(final ShutdownEvent event)
+    {
+        synchronized (this.outputLock)
+        {
+            try
+            {
+                for (final Staging threadStaging : this.stagings)
+                {
+                    final Staging chunk;
+                    synchronized (threadStaging)
+                    {
+                        chunk = drain(threadStaging);
+                        threadStaging.retired = true;
+                    }
+                    this.stagings.remove(threadStaging);
+                    this.append(chunk);
+                }
+                if (this.writer == null && !this.hasWritten)
+                {
+                    logger.warn("Writing empty file with no content in {}.", this.directory);
+                    this.open();
+                }
+                if (this.writer != null)
+                {
+                    this.close();
+                }
+            }
+            catch (final Exception e)
+            {
+                logger.warn("CheckFlag binary file write is failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Sets the size a file may reach, in bytes, before a new file is started
+     *
+     * @param maximumFileBytes
+     *            value to set
+     * @return the {@link CheckFlagBinaryProcessor}
+     */
+    public CheckFlagBinaryProcessor withMaximumFileBytes(final long maximumFileBytes)
+    {
+        this.maximumFileBytes = maximumFileBytes;
+        return this;
+    }
+
+    /**
+     * Sets whether or not a spatial index of the flags is written next to each file
+     *
+     * @param index
+     *            value to set
+     * @return the {@link CheckFlagBinaryProcessor}
+     */
+    public CheckFlagBinaryProcessor withSpatialIndex(final boolean index)
+    {
+        this.spatialIndex = index;
+        return this;
+    }
+
+    private static Staging drain(final Staging threadStaging)
+    {
+        final Staging drained = new Staging();
+        drained.block = threadStaging.block;
+        drained.bounds = threadStaging.bounds;
+        threadStaging.block = new BinaryFlagWriter.Block();
+        threadStaging.bounds = new ArrayList<>();
+        return drained;
+    }
+
+    /**
+     * Appends a block of flags to the current file, and starts a new file once it is full. Called
+     * under the output lock
+     */
+    private void append(final Staging chunk)
+    {
+        if (chunk.block.getCount() == 0)
+        {
+            return;
+        }
+        try
+        {
+            if (this.writer == null)
+            {
+                this.open();
+            }
+            final int[] lengths = new int[chunk.block.getCount()];
+            for (int record = 0; record < lengths.length; record++)
+            {
+                lengths[record] = chunk.block.getRecordLength(record);
+            }
+            final long[] offsets = this.writer.write(chunk.block);
+            for (int record = 0; record < offsets.length; record++)
+            {
+                final Rectangle bounds = chunk.bounds.get(record);
+                if (bounds != null)
+                {
+                    this.output.addRecord(bounds, offsets[record], lengths[record]);
+                }
+            }
+            if (this.writer.getPosition() >= this.maximumFileBytes)
+            {
+                this.close();
+            }
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to write binary flags to {}", this.directory, e);
+        }
+    }
+
+    private void close() throws IOException
+    {
+        try
+        {
+            this.writer.close();
+            // Writes the spatial index, once the footer is in the file
+            this.output.close();
+            this.hasWritten = true;
+        }
+        finally
+        {
+            this.writer = null;
+            this.output = null;
+        }
+    }
+
+    private Staging newStaging()
+    {
+        final Staging threadStaging = new Staging();
+        this.stagings.add(threadStaging);
+        return threadStaging;
+    }
+
+    private void open() throws IOException
+    {
+        final String filename = String.format("%sP%s-%s%s", new Date().getTime(),
+                TaskContext.getPartitionId(), this.fileIndex++, BinaryFlagFormat.FILE_EXTENSION);
+        this.output = OutputFile.open(this.configuration, this.directory, filename, 0,
+                this.spatialIndex);
+        this.writer = new BinaryFlagWriter(this.output.getOutputStream());
+    }
+}
@@ -5,8 +5,10 @@ import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.PROPERT
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.TYPE;
 import static org.openstreetmap.atlas.geography.geojson.GeoJsonUtils.OSM_IDENTIFIER;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,6 +22,7 @@ import org.openstreetmap.atlas.checks.flag.CheckFlag;
 import org.openstreetmap.atlas.checks.flag.FlaggedObject;
 import org.openstreetmap.atlas.checks.flag.FlaggedRelation;
 import org.openstreetmap.atlas.event.Event;
+import org.openstreetmap.atlas.geography.Rectangle;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonBuilder;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonBuilder.GeometryWithProperties;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonObject;
@@ -54,6 +57,13 @@ public final class CheckFlagEvent extends Event
     private final String checkName;
     private final CheckFlag flag;
 
+    // Serialized forms, and the pieces they share, computed once per event and reused by every
+    // output processor. They are rebuilt after the event is deserialized.
+    private transient volatile List<GeometryWithProperties> geometriesWithProperties;
+    private transient volatile Map<FlaggedObject, JsonObject> flaggedObjectFeatures;
+    private transient volatile String featureCollectionString;
+    private transient volatile String featureString;
+
     /**
      * Converts give {@link CheckFlag} to {@link GeoJsonObject} with additional key-value parameters
      *
@@ -66,6 +76,62 @@ public final class CheckFlagEvent extends Event
      */
     public static JsonObject flagToFeature(final CheckFlag flag,
             final Map<String, String> additionalProperties)
+    {
+        return flagToFeature(flag, additionalProperties, flag.getGeometryWithProperties(),
+                getFlaggedRelationsGeojsonFeatures(flag));
+    }
+
+    /**
+     * Converts given {@link CheckFlag} to {@link JsonObject} with additional key-value parameters
+     *
+     * @param flag
+     *            {@link CheckFlag} to convert to {@link JsonObject}
+     * @param additionalProperties
+     *            additional key-value parameters to be added in "properties" element of the
+     *            top-level JSON object
+     * @return {@link JsonObject} created from {@link CheckFlag}
+     */
+    public static JsonObject flagToJson(final CheckFlag flag,
+            final Map<String, String> additionalProperties)
+    {
+        return flagToJson(flag, additionalProperties, flag.getGeometryWithProperties(),
+                getFlaggedRelationsGeojsonFeatures(flag));
+    }
+
+    /**
+     * Extracts a decorator based on the collective features properties. Currently the only
+     * decoration is the highest class highway tag withing all of the feature properties for flags
+     * involving Edges.
+     */
+    private static Optional<String> featureDecorator(final JsonArray featureProperties)
+    {
+        HighwayTag highestHighwayTag = null;
+        for (final JsonElement featureProperty : featureProperties)
+        {
+            final HighwayTag baslineHighwayTag = highestHighwayTag == null ? HighwayTag.NO
+                    : highestHighwayTag;
+            try
+            {
+                highestHighwayTag = Optional
+                        .ofNullable(
+                                ((JsonObject) featureProperty).getAsJsonPrimitive(HighwayTag.KEY))
+                        .map(JsonPrimitive::getAsString).map(String::toUpperCase)
+                        .map(HighwayTag::valueOf).filter(baslineHighwayTag::isLessImportantThan)
+                        .orElse(highestHighwayTag);
+            }
+            catch (final IllegalArgumentException badValue)
+            {
+                return Optional.empty();
+            }
+        }
+        return Optional.ofNullable(highestHighwayTag)
+                .map(tag -> String.format("%s=%s", HighwayTag.KEY, tag.getTagValue()));
+    }
+
+    private static JsonObject flagToFeature(final CheckFlag flag,
+            final Map<String, String> additionalProperties,
+            final List<GeometryWithProperties> geometriesWithProperties,
+            final List<JsonObject> flaggedRelationFeatures)
     {
         final JsonObject flagProperties = new JsonObject();
         flagProperties.addProperty(INSTRUCTIONS, flag.getInstructions());
@@ -74,15 +140,12 @@ public final class CheckFlagEvent extends Event
         additionalProperties.forEach(flagProperties::addProperty);
 
         final JsonObject feature;
-        final List<GeometryWithProperties> geometriesWithProperties = flag
-                .getGeometryWithProperties();
-        final Set<FlaggedObject> flaggedRelations = flag.getFlaggedRelations();
         final JsonArray geometriesJsonArray;
         final JsonArray featureProperties = new JsonArray();
         final Set<JsonElement> featureOsmIds = new HashSet<>();
         if (!geometriesWithProperties.isEmpty())
         {
-            if (geometriesWithProperties.size() + flaggedRelations.size() == 1)
+            if (geometriesWithProperties.size() + flaggedRelationFeatures.size() == 1)
             {
                 feature = GEOJSON_BUILDER.create(geometriesWithProperties.get(0));
             }
@@ -110,20 +173,17 @@ public final class CheckFlagEvent extends Event
             feature = new JsonObject();
             geometriesJsonArray = new JsonArray();
         }
-        if (!flaggedRelations.isEmpty())
+        if (!flaggedRelationFeatures.isEmpty())
         {
             if (!feature.has(TYPE))
             {
                 feature.addProperty(TYPE, "Feature");
             }
-            // Get flagged relations as GeoJson features
-            final List<JsonObject> flaggedRelationFeatures = getFlaggedRelationsGeojsonFeatures(
-                    flag);
-            if (flaggedRelations.size() == 1 && !feature.has(GEOMETRY))
+            if (flaggedRelationFeatures.size() == 1 && !feature.has(GEOMETRY))
             {
                 feature.add(GEOMETRY, flaggedRelationFeatures.get(0).get(GEOMETRY));
             }
-            else if (flaggedRelations.size() != 1 && !feature.has(GEOMETRY))
+            else if (flaggedRelationFeatures.size() != 1 && !feature.has(GEOMETRY))
             {
                 final JsonObject geometryCollection = new JsonObject();
                 geometryCollection.add(GEOMETRIES, geometriesJsonArray);
@@ -159,29 +219,19 @@ public final class CheckFlagEvent extends Event
         return feature;
     }
 
-    /**
-     * Converts given {@link CheckFlag} to {@link JsonObject} with additional key-value parameters
-     *
-     * @param flag
-     *            {@link CheckFlag} to convert to {@link JsonObject}
-     * @param additionalProperties
-     *            additional key-value parameters to be added in "properties" element of the
-     *            top-level JSON object
-     * @return {@link JsonObject} created from {@link CheckFlag}
-     */
-    public static JsonObject flagToJson(final CheckFlag flag,
-            final Map<String, String> additionalProperties)
+    private static JsonObject flagToJson(final CheckFlag flag,
+            final Map<String, String> additionalProperties,
+            final List<GeometryWithProperties> geometriesWithProperties,
+            final List<JsonObject> flaggedRelationFeatures)
     {
         JsonObject flagJson = new JsonObject();
         if (!flag.getFlaggedObjects().isEmpty())
         {
-            flagJson = GEOJSON_BUILDER
-                    .createFromGeometriesWithProperties(flag.getGeometryWithProperties())
+            flagJson = GEOJSON_BUILDER.createFromGeometriesWithProperties(geometriesWithProperties)
                     .jsonObject();
         }
-        final Set<FlaggedObject> flaggedRelations = flag.getFlaggedRelations();
         // Add features of FlaggedRelation if any
-        if (!flaggedRelations.isEmpty())
+        if (!flaggedRelationFeatures.isEmpty())
         {
             // Add type feature collection if not already set.
             if (!flagJson.has(FEATURES))
@@ -190,11 +240,8 @@ public final class CheckFlagEvent extends Event
                 flagJson.add(FEATURES, new JsonArray());
             }
             final JsonArray features = flagJson.getAsJsonArray(FEATURES);
-            // Get features of each flaggedRelations and add it to the flagJson object's FEATURES
-            // element
-            flaggedRelations.stream()
-                    .map(flaggedRelation -> flaggedRelation.asGeoJsonFeature(flag.getIdentifier()))
-                    .forEach(features::add);
+            // Add the features of each flaggedRelation to the flagJson object's FEATURES element
+            flaggedRelationFeatures.forEach(features::add);
         }
         final JsonObject flagPropertiesJson = new JsonObject();
         flagPropertiesJson.addProperty("id", flag.getIdentifier());
@@ -213,36 +260,6 @@ public final class CheckFlagEvent extends Event
         return flagJson;
     }
 
-    /**
-     * Extracts a decorator based on the collective features properties. Currently the only
-     * decoration is the highest class highway tag withing all of the feature properties for flags
-     * involving Edges.
-     */
-    private static Optional<String> featureDecorator(final JsonArray featureProperties)
-    {
-        HighwayTag highestHighwayTag = null;
-        for (final JsonElement featureProperty : featureProperties)
-        {
-            final HighwayTag baslineHighwayTag = highestHighwayTag == null ? HighwayTag.NO
-                    : highestHighwayTag;
-            try
-            {
-                highestHighwayTag = Optional
-                        .ofNullable(
-                                ((JsonObject) featureProperty).getAsJsonPrimitive(HighwayTag.KEY))
-                        .map(JsonPrimitive::getAsString).map(String::toUpperCase)
-                        .map(HighwayTag::valueOf).filter(baslineHighwayTag::isLessImportantThan)
-                        .orElse(highestHighwayTag);
-            }
-            catch (final IllegalArgumentException badValue)
-            {
-                return Optional.empty();
-            }
-        }
-        return Optional.ofNullable(highestHighwayTag)
-                .map(tag -> String.format("%s=%s", HighwayTag.KEY, tag.getTagValue()));
-    }
-
     private static JsonObject getFixSuggestionDescriptions(final CheckFlag flag)
     {
         final JsonObject fixSuggestionObject = new JsonObject();
@@ -359,14 +376,16 @@ public final class CheckFlagEvent extends Event
         this.flag = flag;
     }
 
-    public String asLineDelimitedGeoJsonFeatures()
-    {
-        return this.asLineDelimitedGeoJsonFeatures(jsonObject ->
-        {
-        });
-    }
-
-    public String asLineDelimitedGeoJsonFeatures(final Consumer<JsonObject> jsonMutator)
+    /**
+     * Returns the flag and each of its flagged objects as GeoJson features. The flagged object
+     * features are shared with the other representations of this event, so the mutator is applied
+     * to copies of them.
+     *
+     * @param jsonMutator
+     *            {@link Consumer} applied to each feature
+     * @return the flag feature, followed by the flagged object features
+     */
+    public List<JsonObject> asGeoJsonFeatures(final Consumer<JsonObject> jsonMutator)
     {
         final JsonObject flagGeoJsonFeature = this.flag.asGeoJsonFeature();
         final JsonObject flagGeoJsonProperties = flagGeoJsonFeature.get("properties")
@@ -376,34 +395,50 @@ public final class CheckFlagEvent extends Event
 
         jsonMutator.accept(flagGeoJsonFeature);
 
-        final StringBuilder builder = new StringBuilder().append(flagGeoJsonFeature.toString());
-
-        final FlaggedObject[] flaggedObjects = this.flag.getFlaggedObjects()
-                .toArray(new FlaggedObject[0]);
-        final int flaggedObjectsSize = flaggedObjects.length;
+        final List<JsonObject> features = new ArrayList<>();
+        features.add(flagGeoJsonFeature);
 
-        if (flaggedObjectsSize > 0)
+        final Map<FlaggedObject, JsonObject> flaggedObjectFeatures = this
+                .getFlaggedObjectFeatures();
+        for (final FlaggedObject flaggedObject : this.flag.getFlaggedObjects())
         {
-            builder.append('\n');
-
-            // loop through all the flagged objects except the last, give a new line
-            int index = 0;
-            for (; index < flaggedObjectsSize - 1; ++index)
-            {
-                final JsonObject feature = flaggedObjects[index]
-                        .asGeoJsonFeature(this.flag.getIdentifier());
-                jsonMutator.accept(feature);
-                builder.append(feature.toString()).append('\n');
-            }
-
-            // dont give a new line to the last
-            final JsonObject feature = flaggedObjects[index]
-                    .asGeoJsonFeature(this.flag.getIdentifier());
+            final JsonObject feature = flaggedObjectFeatures.get(flaggedObject).deepCopy();
             jsonMutator.accept(feature);
-            builder.append(feature.toString());
+            features.add(feature);
         }
 
-        return builder.toString();
+        return features;
+    }
+
+    public String asLineDelimitedGeoJsonFeatures()
+    {
+        return this.asLineDelimitedGeoJsonFeatures(jsonObject ->
+        {
+        });
+    }
+
+    /**
+     * Returns the flag and each of its flagged objects as GeoJson features, one per line. The
+     * flagged object features are shared with the other representations of this event, so the
+     * mutator is applied to copies of them.
+     *
+     * @param jsonMutator
+     *            {@link Consumer} applied to each feature before it is serialized
+     * @return line delimited GeoJson features
+     */
+    public String asLineDelimitedGeoJsonFeatures(final Consumer<JsonObject> jsonMutator)
+    {
+        return this.asGeoJsonFeatures(jsonMutator).stream().map(JsonObject::toString)
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * @return the bounds of the flagged geometries, empty if nothing with a geometry is flagged
+     */
+    public Optional<Rectangle> getBounds()
+    {
+        return this.flag.getPolyLines().isEmpty() ? Optional.empty()
+                : Optional.of(this.flag.bounds());
     }
 
     /**
@@ -423,7 +458,20 @@ public final class CheckFlagEvent extends Event
     }
 
     /**
-     * @return GeoJson Feature representation
+     * @return {@link String} form of the GeoJson Feature representation, computed once
+     */
+    public String toGeoJsonFeatureString()
+    {
+        if (this.featureString == null)
+        {
+            this.featureString = this.toGeoJsonFeature().toString();
+        }
+        return this.featureString;
+    }
+
+    /**
+     * @return GeoJson Feature representation. Parts of it are shared with the other
+     *         representations of this event and must not be modified
      */
     public JsonObject toGeoJsonFeature()
     {
@@ -434,11 +482,13 @@ public final class CheckFlagEvent extends Event
         contextualProperties.put("timestamp", this.getTimestamp().toString());
 
         // Generate json for check flag with given contextual properties
-        return flagToFeature(this.getCheckFlag(), contextualProperties);
+        return flagToFeature(this.getCheckFlag(), contextualProperties,
+                this.getGeometriesWithProperties(), this.getFlaggedRelationFeatures());
     }
 
     /**
-     * @return {@link JsonObject} form of the GeoJson FeatureCollection representation
+     * @return {@link JsonObject} form of the GeoJson FeatureCollection representation. Parts of it
+     *         are shared with the other representations of this event and must not be modified
      */
     public JsonObject toGeoJsonFeatureCollection()
     {
@@ -447,15 +497,54 @@ public final class CheckFlagEvent extends Event
         contextualProperties.put("timestamp", this.getTimestamp().toString());
 
         // Generate json for check flag with given contextual properties
-        return flagToJson(this.getCheckFlag(), contextualProperties);
+        return flagToJson(this.getCheckFlag(), contextualProperties,
+                this.getGeometriesWithProperties(), this.getFlaggedRelationFeatures());
     }
 
     /**
-     * @return {@link String} form of the GeoJson FeatureCollection representation
+     * @return {@link String} form of the GeoJson FeatureCollection representation, computed once
      */
     @Override
     public String toString()
     {
-        return this.toGeoJsonFeatureCollection().toString();
+        if (this.featureCollectionString == null)
+        {
+            this.featureCollectionString = this.toGeoJsonFeatureCollection().toString();
+        }
+        return this.featureCollectionString;
+    }
+
+    /**
+     * Concurrent callers may both compute the features, which is harmless as they compute equal
+     * ones. The map is keyed by identity, as hashing a {@link FlaggedObject} walks its geometry.
+     *
+     * @return the GeoJson feature of each flagged object
+     */
+    private Map<FlaggedObject, JsonObject> getFlaggedObjectFeatures()
+    {
+        if (this.flaggedObjectFeatures == null)
+        {
+            final Map<FlaggedObject, JsonObject> features = new IdentityHashMap<>();
+            this.flag.getFlaggedObjects().forEach(flaggedObject -> features.put(flaggedObject,
+                    flaggedObject.asGeoJsonFeature(this.flag.getIdentifier())));
+            this.flaggedObjectFeatures = features;
+        }
+        return this.flaggedObjectFeatures;
+    }
+
+    private List<JsonObject> getFlaggedRelationFeatures()
+    {
+        final Map<FlaggedObject, JsonObject> features = this.getFlaggedObjectFeatures();
+        return this.flag.getFlaggedRelations().stream().map(features::get)
+                .collect(Collectors.toList());
+    }
+
+    private List<GeometryWithProperties> getGeometriesWithProperties()
+    {
+        if (this.geometriesWithProperties == null)
+        {
+            this.geometriesWithProperties = this.flag.getGeometryWithProperties();
+        }
+        return this.geometriesWithProperties;
     }
 }
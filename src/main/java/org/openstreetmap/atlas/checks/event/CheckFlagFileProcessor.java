@@ -1,5 +1,10 @@
 package org.openstreetmap.atlas.checks.event;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openstreetmap.atlas.checks.flag.index.IndexedFlagFile;
+import org.openstreetmap.atlas.checks.utility.FileUtility;
 import org.openstreetmap.atlas.event.ShutdownEvent;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
 import org.slf4j.Logger;
@@ -9,7 +14,11 @@ import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 
 /**
- * A {@link } for {@link CheckFlagEvent}s to write them into line delimited GeoJson files
+ * A {@link FileProcessor} for {@link CheckFlagEvent}s to write them into line delimited GeoJson
+ * files. When partitioned by check, flags of each check are written to their own
+ * {@code check=<name>} sub folder, so that readers can pick the checks they need without
+ * splitting the files. With a spatial index, each file gets a sidecar index of the bounds of its
+ * flags, to read the flags of a bounding box with {@link IndexedFlagFile}.
  *
  * @author mkalender
  */
@@ -17,6 +26,31 @@ public final class CheckFlagFileProcessor extends FileProcessor<CheckFlagEvent>
 {
     private static final Logger logger = LoggerFactory.getLogger(CheckFlagFileProcessor.class);
 
+    // File helper and directory, kept to start a processor per check
+    private final SparkFileHelper fileHelper;
+    private final String directory;
+
+    // Processor per check, only used when partitioned by check
+    private final Map<String, CheckFlagFileProcessor> checkProcessors = new ConcurrentHashMap<>();
+
+    // Whether or not to write flags into a folder per check
+    private boolean partitionByCheck = false;
+
+    /**
+     * Constructor writing files straight to the file system of a configuration
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param outputFolder
+     *            output folder path to write files to
+     */
+    public CheckFlagFileProcessor(final Map<String, String> configuration,
+            final String outputFolder)
+    {
+        this(new SparkFileHelper(configuration), OutputFile.destination(configuration),
+                outputFolder);
+    }
+
     /**
      * Default constructor
      *
@@ -27,7 +61,20 @@ public final class CheckFlagFileProcessor extends FileProcessor<CheckFlagEvent>
      */
     public CheckFlagFileProcessor(final SparkFileHelper fileHelper, final String outputFolder)
     {
-        super(fileHelper, outputFolder);
+        this(fileHelper, OutputFile.destination(fileHelper), outputFolder);
+    }
+
+    private CheckFlagFileProcessor(final SparkFileHelper fileHelper,
+            final OutputFile.Destination destination, final String outputFolder)
+    {
+        super(destination, outputFolder);
+        this.fileHelper = fileHelper;
+        this.directory = outputFolder;
+    }
+
+    public boolean isPartitionedByCheck()
+    {
+        return this.partitionByCheck;
     }
 
     @Override
@@ -35,13 +82,29 @@ public final class CheckFlagFileProcessor extends FileProcessor<CheckFlagEvent>
     @AllowConcurrentEvents
     public void process(final CheckFlagEvent event)
     {
-        this.process(event.toString());
+        if (this.partitionByCheck)
+        {
+            this.checkProcessors
+                    .computeIfAbsent(event.getCheckName(), this::newCheckProcessor)
+                    .process(event);
+        }
+        else
+        {
+            this.process(event.toString(),
+                    this.isSpatiallyIndexed() ? event.getBounds().orElse(null) : null);
+        }
     }
 
     @Override
     @Subscribe
     public void process(final ShutdownEvent event)
     {
+        if (this.partitionByCheck)
+        {
+            // Checks without flags get no folder
+            this.checkProcessors.values().forEach(processor -> processor.process(event));
+            return;
+        }
         try
         {
             this.write();
@@ -51,4 +114,32 @@ public final class CheckFlagFileProcessor extends FileProcessor<CheckFlagEvent>
             logger.warn("CheckFlag file write is failed.", e);
         }
     }
+
+    /**
+     * Sets whether or not flags are written into a sub folder per check
+     *
+     * @param partition
+     *            value to set
+     * @return the {@link CheckFlagFileProcessor}
+     */
+    public CheckFlagFileProcessor withPartitionByCheck(final boolean partition)
+    {
+        this.partitionByCheck = partition;
+        return this;
+    }
+
+    private CheckFlagFileProcessor newCheckProcessor(final String checkName)
+    {
+        final String checkDirectory = SparkFileHelper.combine(this.directory,
+                FileUtility.CHECK_PARTITION + checkName);
+        this.fileHelper.mkdir(checkDirectory);
+        final CheckFlagFileProcessor processor = new CheckFlagFileProcessor(this.fileHelper,
+                this.getDestination(), checkDirectory);
+        processor.setBatchSize(this.getBatchSize());
+        processor.withCompression(this.doesCompressOutput())
+                .withCompressionThreads(this.getCompressionThreads())
+                .withMaximumFileBytes(this.getMaximumFileBytes())
+                .withSpatialIndex(this.isSpatiallyIndexed());
+        return processor;
+    }
 }
@@ -1,51 +1,64 @@
 package org.openstreetmap.atlas.checks.event;
 
+import java.io.IOException;
 import java.util.Date;
-import java.util.Vector;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.spark.TaskContext;
 import org.openstreetmap.atlas.checks.constants.CommonConstants;
 import org.openstreetmap.atlas.checks.distributed.GeoJsonPathFilter;
 import org.openstreetmap.atlas.event.Processor;
 import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Rectangle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 /**
- * A {@link Processor} for {@link CheckFlagEvent}s to write them into GeoJson files
+ * A {@link Processor} for {@link CheckFlagEvent}s to write them into GeoJson files. Each challenge
+ * has its own open file, and features are streamed into that file's FeatureCollection as they
+ * arrive. The FeatureCollection is closed when the file reaches its size limit, or on shutdown.
+ * With a spatial index, each file gets a sidecar index of the bounds of its features.
  *
  * @author brian_l_davis
  */
 public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent>
 {
+    /**
+     * The FeatureCollection currently being written for a Challenge
+     */
+    private static final class ChallengeFile
+    {
+        private OutputFile output;
+        private JsonWriter writer;
+        private int features;
+    }
 
-    private static final int MAX_BATCH_SUM = 25000;
-    private static final int MIN_BATCH_SIZE = 100;
-    private static final int BUCKET_CAPACITY = 100;
-    private static final int BUCKET_INCREMENT = 25;
+    // Default maximum size of a file on disk
+    public static final long MAXIMUM_FILE_BYTES = 64L * 1024 * 1024;
 
     private static final Logger logger = LoggerFactory.getLogger(CheckFlagGeoJsonProcessor.class);
 
-    // File helper to write files
+    // Where files are written, and the file helper to write the empty file with
+    private final OutputFile.Destination destination;
     private final SparkFileHelper fileHelper;
 
     // Directory to write files in
     private final String directory;
 
-    // Event Features bucketed by Challenge
-    private final ConcurrentHashMap<String, Vector<JsonObject>> featureBuckets = new ConcurrentHashMap<>();
+    // Open FeatureCollection per Challenge; each one is also the lock for its Challenge
+    private final Map<String, ChallengeFile> challengeFiles = new ConcurrentHashMap<>();
 
-    // Bucket locks used to synchronize filling and emptying buckets
-    private final ConcurrentHashMap<String, ReadWriteLock> bucketLocks = new ConcurrentHashMap<>();
+    // Number of files started so far, used to keep file names unique
+    private final AtomicInteger fileIndex = new AtomicInteger(0);
 
     // Whether or not to compress output file
     private boolean compressOutput = true;
@@ -53,8 +66,32 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
     // Batch size override
     private int batchSizeOverride;
 
+    // Number of bytes after which a new file is started
+    private long maximumFileBytes = MAXIMUM_FILE_BYTES;
+
+    // Whether or not to write a spatial index next to each file
+    private boolean spatialIndex = false;
+
+    // Number of threads compressing blocks of the output files, 0 to compress on the writer thread
+    private int compressionThreads = 0;
+
     // Detect has written
-    private boolean hasWritten;
+    private final AtomicBoolean hasWritten = new AtomicBoolean(false);
+
+    /**
+     * Constructor writing files straight to the file system of a configuration
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param outputFolder
+     *            output folder path to write files to
+     */
+    public CheckFlagGeoJsonProcessor(final Map<String, String> configuration,
+            final String outputFolder)
+    {
+        this(OutputFile.destination(configuration), new SparkFileHelper(configuration),
+                outputFolder);
+    }
 
     /**
      * Default constructor
@@ -66,9 +103,15 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
      */
     public CheckFlagGeoJsonProcessor(final SparkFileHelper fileHelper, final String outputFolder)
     {
+        this(OutputFile.destination(fileHelper), fileHelper, outputFolder);
+    }
+
+    private CheckFlagGeoJsonProcessor(final OutputFile.Destination destination,
+            final SparkFileHelper fileHelper, final String outputFolder)
+    {
+        this.destination = destination;
         this.fileHelper = fileHelper;
         this.directory = outputFolder;
-        this.hasWritten = false;
     }
 
     @Override
@@ -78,36 +121,41 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
     {
         final String challenge = event.getCheckFlag().getChallengeName()
                 .orElse(event.getCheckName());
+        // Serialize outside of the lock, so only the file append is serialized per Challenge
+        final String feature = event.toGeoJsonFeatureString();
+        final Rectangle bounds = this.spatialIndex ? event.getBounds().orElse(null) : null;
 
-        final Vector<JsonObject> featureBucket = this.featureBuckets.computeIfAbsent(challenge,
-                key -> new Vector<>(BUCKET_CAPACITY, BUCKET_INCREMENT));
-        final ReadWriteLock bucketLock = this.bucketLocks.computeIfAbsent(challenge,
-                key -> new ReentrantReadWriteLock());
-
-        bucketLock.readLock().lock();
-        try
-        {
-            featureBucket.add(event.toGeoJsonFeature());
-        }
-        finally
-        {
-            bucketLock.readLock().unlock();
-        }
-
-        final int batchSize = this.computeBatchSize();
-        if (featureBucket.size() >= batchSize)
+        final ChallengeFile challengeFile = this.challengeFiles.computeIfAbsent(challenge,
+                key -> new ChallengeFile());
+        synchronized (challengeFile)
         {
-            bucketLock.writeLock().lock();
             try
             {
-                if (featureBucket.size() >= batchSize)
+                if (challengeFile.writer == null)
                 {
-                    this.write(challenge, featureBucket);
+                    this.open(challenge, challengeFile);
+                }
+                if (bounds != null)
+                {
+                    challengeFile.output.startRecord();
+                    challengeFile.writer.jsonValue(feature);
+                    challengeFile.output.endRecord(bounds);
+                }
+                else
+                {
+                    challengeFile.writer.jsonValue(feature);
+                }
+                challengeFile.features++;
+                if (challengeFile.features >= this.computeBatchSize()
+                        || challengeFile.output.estimateFileBytes() >= this.maximumFileBytes)
+                {
+                    this.close(challengeFile);
                 }
             }
-            finally
+            catch (final IOException e)
             {
-                bucketLock.writeLock().unlock();
+                throw new CoreException("Unable to write {} features to {}", challenge,
+                        this.directory, e);
             }
         }
     }
@@ -118,13 +166,23 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
     {
         try
         {
-            if (!this.featureBuckets.isEmpty())
+            for (final ChallengeFile challengeFile : this.challengeFiles.values())
             {
-                this.featureBuckets.forEach(this::write);
+                synchronized (challengeFile)
+                {
+                    if (challengeFile.writer != null)
+                    {
+                        this.close(challengeFile);
+                    }
+                }
             }
-            else
+            if (!this.hasWritten.get())
             {
-                this.write(CommonConstants.EMPTY_STRING, new Vector<>());
+                logger.warn("Writing empty file with no content in {}.", this.directory);
+                this.fileHelper.write(this.directory,
+                        String.format("%s%s", "empty",
+                                new GeoJsonPathFilter(this.compressOutput).getExtension()),
+                        CommonConstants.EMPTY_STRING);
             }
         }
         catch (final Exception e)
@@ -134,11 +192,11 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
     }
 
     /**
-     * Overrides the computed batch size
+     * Overrides the size limit of each file with a limit on the number of features
      *
      * @param batchSizeOverride
      *            override batch size value
-     * @return the {@link CheckFlagFileProcessor}
+     * @return the {@link CheckFlagGeoJsonProcessor}
      */
     public CheckFlagGeoJsonProcessor withBatchSizeOverride(final int batchSizeOverride)
     {
@@ -151,7 +209,7 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
      *
      * @param compress
      *            value to set
-     * @return the {@link CheckFlagFileProcessor}
+     * @return the {@link CheckFlagGeoJsonProcessor}
      */
     public CheckFlagGeoJsonProcessor withCompression(final boolean compress)
     {
@@ -160,55 +218,99 @@ public final class CheckFlagGeoJsonProcessor implements Processor<CheckFlagEvent
     }
 
     /**
-     * Returns bucket size based on the number of Checks we have bucketed so far
+     * Sets the number of threads compressing blocks of the output files in parallel
+     *
+     * @param threads
+     *            value to set, 0 to compress on the thread writing a file
+     * @return the {@link CheckFlagGeoJsonProcessor}
+     */
+    public CheckFlagGeoJsonProcessor withCompressionThreads(final int threads)
+    {
+        this.compressionThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the size a file may reach, in bytes as written to disk, before a new file is started.
+     * The file that reaches it ends with the feature that crossed it; the size of a gzipped file is
+     * estimated from its compression ratio so far, so it is approximate
+     *
+     * @param maximumFileBytes
+     *            value to set
+     * @return the {@link CheckFlagGeoJsonProcessor}
+     */
+    public CheckFlagGeoJsonProcessor withMaximumFileBytes(final long maximumFileBytes)
+    {
+        this.maximumFileBytes = maximumFileBytes;
+        return this;
+    }
+
+    /**
+     * Sets whether or not a spatial index of the features is written next to each file
+     *
+     * @param index
+     *            value to set
+     * @return the {@link CheckFlagGeoJsonProcessor}
+     */
+    public CheckFlagGeoJsonProcessor withSpatialIndex(final boolean index)
+    {
+        this.spatialIndex = index;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of features in a file. Files are sized by bytes, so this is only
+     * limited when overridden.
      *
      * @return batch size
      */
     protected int computeBatchSize()
     {
-        if (this.batchSizeOverride > 0)
-        {
-            return this.batchSizeOverride;
-        }
-        if (this.featureBuckets.isEmpty())
-        {
-            return MAX_BATCH_SUM;
-        }
-        return Math.max(MAX_BATCH_SUM / this.featureBuckets.size(), MIN_BATCH_SIZE);
+        return this.batchSizeOverride > 0 ? this.batchSizeOverride : Integer.MAX_VALUE;
     }
 
-    protected String getFilename(final String challenge, final int size)
+    protected String getFilename(final String challenge, final int index)
     {
         return String.format("%s-%sP%s-%s%s", challenge, new Date().getTime(),
-                TaskContext.getPartitionId(), size,
+                TaskContext.getPartitionId(), index,
                 new GeoJsonPathFilter(this.compressOutput).getExtension());
     }
 
     /**
-     * Writes a new file with the cached in String buffer
+     * Finishes the FeatureCollection of a Challenge and closes its file
      */
-    private void write(final String challenge, final Vector<JsonObject> featureBucket)
+    private void close(final ChallengeFile challengeFile) throws IOException
     {
-        if (featureBucket.size() > 0)
+        try
         {
-            final JsonObject featureCollection = new JsonObject();
-            featureCollection.addProperty("type", "FeatureCollection");
-            final JsonArray featureJsonArray = new JsonArray();
-            featureBucket.forEach(featureJsonArray::add);
-            featureCollection.add("features", featureJsonArray);
-            this.fileHelper.write(this.directory,
-                    this.getFilename(challenge, featureJsonArray.size()),
-                    featureCollection.toString());
-            this.hasWritten = true;
-            featureBucket.clear();
+            challengeFile.writer.endArray();
+            challengeFile.writer.endObject();
+            challengeFile.writer.close();
+            // Writes the spatial index, once the features are all in the file
+            challengeFile.output.close();
+            this.hasWritten.set(true);
         }
-        else if (!this.hasWritten)
+        finally
         {
-            logger.warn("Writing empty file with no content in {}.", this.directory);
-            this.fileHelper.write(this.directory,
-                    String.format("%s%s", "empty",
-                            new GeoJsonPathFilter(this.compressOutput).getExtension()),
-                    CommonConstants.EMPTY_STRING);
+            challengeFile.writer = null;
+            challengeFile.output = null;
+            challengeFile.features = 0;
         }
     }
+
+    /**
+     * Starts a new file and FeatureCollection for a Challenge
+     */
+    private void open(final String challenge, final ChallengeFile challengeFile)
+            throws IOException
+    {
+        challengeFile.output = OutputFile.open(this.destination, this.directory,
+                this.getFilename(challenge, this.fileIndex.getAndIncrement()),
+                this.compressionThreads, this.spatialIndex);
+        challengeFile.writer = new JsonWriter(challengeFile.output.getWriter());
+        challengeFile.writer.beginObject();
+        challengeFile.writer.name("type").value("FeatureCollection");
+        challengeFile.writer.name("features");
+        challengeFile.writer.beginArray();
+    }
 }
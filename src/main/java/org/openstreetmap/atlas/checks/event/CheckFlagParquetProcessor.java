@@ -0,0 +1,345 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.apache.spark.TaskContext;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKBWriter;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.checks.flag.FlaggedObject;
+import org.openstreetmap.atlas.checks.flag.FlaggedRelation;
+import org.openstreetmap.atlas.checks.utility.FileUtility;
+import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.PolyLine;
+import org.openstreetmap.atlas.geography.Polygon;
+import org.openstreetmap.atlas.geography.converters.jts.JtsMultiPolygonConverter;
+import org.openstreetmap.atlas.geography.converters.jts.JtsPointConverter;
+import org.openstreetmap.atlas.geography.converters.jts.JtsPolyLineConverter;
+import org.openstreetmap.atlas.geography.converters.jts.JtsPolygonConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * A {@link Processor} for {@link CheckFlagEvent}s to write them into Parquet files. Files are
+ * partitioned by check, in {@code check=<name>} folders, so that the output folder can be read as
+ * a partitioned table. The country is expected to be a partition folder of the output folder
+ * already.
+ *
+ * @author mkalender
+ */
+public final class CheckFlagParquetProcessor implements Processor<CheckFlagEvent>
+{
+    /**
+     * The Parquet file currently being written for a check
+     */
+    private static final class CheckFile
+    {
+        private ParquetWriter<Group> writer;
+    }
+
+    /**
+     * Hands an {@link OutputFile} to Parquet, which needs to know the position of what it writes
+     */
+    private static final class ParquetOutputFile implements org.apache.parquet.io.OutputFile
+    {
+        private final OutputFile output;
+
+        ParquetOutputFile(final OutputFile output)
+        {
+            this.output = output;
+        }
+
+        @Override
+        public PositionOutputStream create(final long blockSizeHint)
+        {
+            return new PositionOutputStream()
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    ParquetOutputFile.this.output.close();
+                }
+
+                @Override
+                public void flush() throws IOException
+                {
+                    ParquetOutputFile.this.output.getOutputStream().flush();
+                }
+
+                @Override
+                public long getPos()
+                {
+                    return ParquetOutputFile.this.output.getBytes();
+                }
+
+                @Override
+                public void write(final byte[] bytes, final int offset, final int length)
+                        throws IOException
+                {
+                    ParquetOutputFile.this.output.getOutputStream().write(bytes, offset, length);
+                }
+
+                @Override
+                public void write(final int value) throws IOException
+                {
+                    ParquetOutputFile.this.output.getOutputStream().write(value);
+                }
+            };
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(final long blockSizeHint)
+        {
+            return this.create(blockSizeHint);
+        }
+
+        @Override
+        public long defaultBlockSize()
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean supportsBlockSize()
+        {
+            return false;
+        }
+    }
+
+    public static final String FILE_EXTENSION = ".parquet";
+    // Partition folder prefixes
+    public static final String CHECK_PARTITION = FileUtility.CHECK_PARTITION;
+    public static final String COUNTRY_PARTITION = "country=";
+    // Default maximum size of a file, as data held by the writer
+    public static final long MAXIMUM_FILE_BYTES = FileProcessor.MAXIMUM_FILE_BYTES;
+    // Every check has an open writer buffering a row group, so keep row groups small
+    private static final int ROW_GROUP_BYTES = 8 * 1024 * 1024;
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String INSTRUCTIONS = "instructions";
+    private static final String GEOMETRY = "geometry";
+    private static final String IDENTIFIERS = "identifiers";
+    private static final String TYPES = "types";
+    private static final MessageType SCHEMA = MessageTypeParser
+            .parseMessageType(String.format(
+                    "message flag { required binary %s (UTF8); required binary %s (UTF8); "
+                            + "optional binary %s; repeated int64 %s; repeated binary %s (UTF8); }",
+                    FINGERPRINT, INSTRUCTIONS, GEOMETRY, IDENTIFIERS, TYPES));
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    private static final JtsPointConverter POINT_CONVERTER = new JtsPointConverter();
+    private static final JtsPolyLineConverter POLYLINE_CONVERTER = new JtsPolyLineConverter();
+    private static final JtsPolygonConverter POLYGON_CONVERTER = new JtsPolygonConverter();
+    private static final JtsMultiPolygonConverter MULTI_CONVERTER = new JtsMultiPolygonConverter();
+    private static final Logger logger = LoggerFactory.getLogger(CheckFlagParquetProcessor.class);
+
+    // File system configuration and file helper to write files with
+    private final Map<String, String> configuration;
+    private final SparkFileHelper fileHelper;
+
+    // Directory to write check partitions in
+    private final String directory;
+
+    // Open file per check; each one is also the lock for its check
+    private final ConcurrentHashMap<String, CheckFile> checkFiles = new ConcurrentHashMap<>();
+
+    // Number of files started so far, used to keep file names unique
+    private final AtomicInteger fileIndex = new AtomicInteger(0);
+
+    // Number of bytes after which a new file is started
+    private long maximumFileBytes = MAXIMUM_FILE_BYTES;
+
+    /**
+     * Default constructor
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param outputFolder
+     *            output folder path to write check partitions to
+     */
+    public CheckFlagParquetProcessor(final Map<String, String> configuration,
+            final String outputFolder)
+    {
+        this.configuration = configuration;
+        this.fileHelper = new SparkFileHelper(configuration);
+        this.directory = outputFolder;
+    }
+
+    @Override
+    @Subscribe
+    @AllowConcurrentEvents
+    public void process(final CheckFlagEvent event)
+    {
+        // Build the row outside of the lock
+        final Group row = toRow(event.getCheckFlag());
+        final String check = event.getCheckName();
+
+        final CheckFile checkFile = this.checkFiles.computeIfAbsent(check,
+                key -> new CheckFile());
+        synchronized (checkFile)
+        {
+            try
+            {
+                if (checkFile.writer == null)
+                {
+                    checkFile.writer = this.open(check);
+                }
+                checkFile.writer.write(row);
+                if (checkFile.writer.getDataSize() >= this.maximumFileBytes)
+                {
+                    this.close(checkFile);
+                }
+            }
+            catch (final IOException e)
+            {
+                throw new CoreException("Unable to write {} flags to {}", check, this.directory,
+                        e);
+            }
+        }
+    }
+
+    @Override
+    @Subscribe
+    public void process(final ShutdownEvent event)
+    {
+        for (final CheckFile checkFile : this.checkFiles.values())
+        {
+            synchronized (checkFile)
+            {
+                try
+                {
+                    if (checkFile.writer != null)
+                    {
+                        this.close(checkFile);
+                    }
+                }
+                catch (final Exception e)
+                {
+                    logger.warn("CheckFlag parquet file write is failed.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the size a file may reach, in bytes, before a new file is started
+     *
+     * @param maximumFileBytes
+     *            value to set
+     * @return the {@link CheckFlagParquetProcessor}
+     */
+    public CheckFlagParquetProcessor withMaximumFileBytes(final long maximumFileBytes)
+    {
+        this.maximumFileBytes = maximumFileBytes;
+        return this;
+    }
+
+    /**
+     * @return the geometry of a flagged object, or null if it has none
+     */
+    private static Geometry toGeometry(final FlaggedObject flaggedObject)
+    {
+        if (flaggedObject instanceof FlaggedRelation)
+        {
+            final FlaggedRelation relation = (FlaggedRelation) flaggedObject;
+            return relation.getMultiPolygon() == null ? null
+                    : GEOMETRY_FACTORY.createMultiPolygon(MULTI_CONVERTER
+                            .convert(relation.getMultiPolygon())
+                            .toArray(new org.locationtech.jts.geom.Polygon[0]));
+        }
+        final Iterable<Location> geometry = flaggedObject.getGeometry();
+        if (geometry instanceof Location)
+        {
+            return POINT_CONVERTER.convert((Location) geometry);
+        }
+        if (geometry instanceof Polygon)
+        {
+            return POLYGON_CONVERTER.convert((Polygon) geometry);
+        }
+        if (geometry instanceof PolyLine)
+        {
+            return POLYLINE_CONVERTER.convert((PolyLine) geometry);
+        }
+        return null;
+    }
+
+    private static Group toRow(final CheckFlag flag)
+    {
+        final Group row = new SimpleGroupFactory(SCHEMA).newGroup();
+        row.append(FINGERPRINT, flag.getFingerprint());
+        row.append(INSTRUCTIONS, flag.getInstructions());
+
+        final List<Geometry> geometries = new ArrayList<>();
+        for (final FlaggedObject flaggedObject : flag.getFlaggedObjects())
+        {
+            final Geometry geometry = toGeometry(flaggedObject);
+            if (geometry != null)
+            {
+                geometries.add(geometry);
+            }
+            final String identifier = flaggedObject.getProperties()
+                    .get(FlaggedObject.ITEM_IDENTIFIER_TAG);
+            final String type = flaggedObject.getProperties().get(FlaggedObject.ITEM_TYPE_TAG);
+            if (identifier != null && type != null)
+            {
+                row.append(IDENTIFIERS, Long.parseLong(identifier));
+                row.append(TYPES, type);
+            }
+        }
+        if (!geometries.isEmpty())
+        {
+            final Geometry geometry = geometries.size() == 1 ? geometries.get(0)
+                    : GEOMETRY_FACTORY.buildGeometry(geometries);
+            row.append(GEOMETRY, Binary.fromConstantByteArray(new WKBWriter().write(geometry)));
+        }
+        return row;
+    }
+
+    private void close(final CheckFile checkFile) throws IOException
+    {
+        try
+        {
+            checkFile.writer.close();
+        }
+        finally
+        {
+            checkFile.writer = null;
+        }
+    }
+
+    private ParquetWriter<Group> open(final String check) throws IOException
+    {
+        final String partition = SparkFileHelper.combine(this.directory, CHECK_PARTITION + check);
+        this.fileHelper.mkdir(partition);
+        final String filename = String.format("%sP%s-%s%s", new Date().getTime(),
+                TaskContext.getPartitionId(), this.fileIndex.getAndIncrement(), FILE_EXTENSION);
+        return ExampleParquetWriter
+                .builder(new ParquetOutputFile(OutputFile.open(this.configuration, partition,
+                        filename)))
+                .withType(SCHEMA).withCompressionCodec(CompressionCodecName.SNAPPY)
+                .withRowGroupSize(ROW_GROUP_BYTES).withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .build();
+    }
+}
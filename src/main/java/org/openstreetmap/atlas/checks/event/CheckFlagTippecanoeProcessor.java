@@ -1,6 +1,7 @@
 package org.openstreetmap.atlas.checks.event;
 
 import java.util.Date;
+import java.util.Map;
 
 import org.apache.spark.TaskContext;
 import org.openstreetmap.atlas.checks.distributed.GeoJsonPathFilter;
@@ -24,6 +25,20 @@ public class CheckFlagTippecanoeProcessor extends FileProcessor<CheckFlagEvent>
     private static final Logger logger = LoggerFactory
             .getLogger(CheckFlagTippecanoeProcessor.class);
 
+    /**
+     * Constructor writing files straight to the file system of a configuration
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param directory
+     *            The directory to write output
+     */
+    public CheckFlagTippecanoeProcessor(final Map<String, String> configuration,
+            final String directory)
+    {
+        super(configuration, directory);
+    }
+
     /**
      * Default constructor
      *
@@ -60,12 +75,12 @@ public class CheckFlagTippecanoeProcessor extends FileProcessor<CheckFlagEvent>
     }
 
     /**
-     * @return the name of the file to be used in {@code #write()} method to write files
+     * @return the name of the file to be used when a new file is started
      */
     @Override
     protected String getFilename()
     {
         return String.format("%sP%s-%s%s", new Date().getTime(), TaskContext.getPartitionId(),
-                getCount(), new GeoJsonPathFilter(doesCompressOutput()).getExtension());
+                getFileIndex(), new GeoJsonPathFilter(doesCompressOutput()).getExtension());
     }
 }
@@ -0,0 +1,357 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.spark.TaskContext;
+import org.openstreetmap.atlas.checks.vectortiles.PMTilesReader;
+import org.openstreetmap.atlas.checks.vectortiles.PMTilesWriter;
+import org.openstreetmap.atlas.checks.vectortiles.TippecanoeCheckSettings;
+import org.openstreetmap.atlas.checks.vectortiles.VectorTile;
+import org.openstreetmap.atlas.checks.vectortiles.VectorTileBuilder;
+import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.generator.tools.filesystem.FileSystemHelper;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.streaming.resource.Resource;
+import org.openstreetmap.atlas.utilities.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.gson.JsonObject;
+
+/**
+ * Cuts flags into vector tiles within the job, instead of writing line-delimited GeoJSON for a
+ * separate tippecanoe run. Flags and their flagged objects are laid out in layers and zooms by the
+ * same {@link TippecanoeCheckSettings} as the tippecanoe output. The tiles are written at shutdown
+ * into a single PMTiles archive, from the lowest zoom of the flags up to the maximum zoom.
+ * Archives of the same country written by several tasks can be merged with
+ * {@link #mergeArchives(SparkFileHelper, Map, String, String, String)}.
+ * <p>
+ * The features are kept in memory until they are tiled. Once there are as many as the maximum,
+ * they are tiled into a part archive and dropped, and the parts are merged into the archive at
+ * shutdown. Below the maximum zoom, each part keeps its own feature per pixel, so tiles of dense
+ * areas can keep a few more features than if they had been tiled at once.
+ *
+ * @author mkalender
+ */
+public class CheckFlagVectorTileProcessor implements Processor<CheckFlagEvent>
+{
+    // Default number of features tiled at once
+    public static final int MAXIMUM_FEATURES = 500_000;
+    // Number of archives read at once while merging
+    private static final int MERGE_FAN_IN = 32;
+    private static final String PARTS_SUFFIX = ".parts";
+    private static final Logger logger = LoggerFactory
+            .getLogger(CheckFlagVectorTileProcessor.class);
+
+    private final Map<String, String> configuration;
+    private final String directory;
+    private int maximumZoom = VectorTileBuilder.MAXIMUM_ZOOM;
+    private int maximumFeatures = MAXIMUM_FEATURES;
+
+    // Guards the features not tiled yet, and the name of the archive
+    private final Object builderLock = new Object();
+    private VectorTileBuilder builder = new VectorTileBuilder();
+    private String filename;
+
+    // Number of part archives written so far
+    private final AtomicInteger partCount = new AtomicInteger();
+
+    /**
+     * Merges the PMTiles archives of a folder into one archive. Tiles found in several archives
+     * have their layers merged. Archives are merged {@value #MERGE_FAN_IN} at a time, through
+     * intermediate archives in the folder when there are more.
+     *
+     * @param fileHelper
+     *            {@link SparkFileHelper} for I/O operations
+     * @param configuration
+     *            file system configuration
+     * @param partsDirectory
+     *            folder of the archives to merge, deleted once they are merged
+     * @param directory
+     *            folder of the merged archive
+     * @param filename
+     *            name of the merged archive
+     * @return the number of tiles of the merged archive
+     */
+    public static int mergeArchives(final SparkFileHelper fileHelper,
+            final Map<String, String> configuration, final String partsDirectory,
+            final String directory, final String filename)
+    {
+        final Time start = Time.now();
+        List<Resource> archives = archives(partsDirectory, configuration);
+        if (archives.isEmpty())
+        {
+            return 0;
+        }
+        final int partCount = archives.size();
+        for (int round = 0; archives.size() > MERGE_FAN_IN; round++)
+        {
+            final String roundDirectory = SparkFileHelper.combine(partsDirectory,
+                    "round" + round);
+            for (int first = 0; first < archives.size(); first += MERGE_FAN_IN)
+            {
+                merge(archives.subList(first, Math.min(first + MERGE_FAN_IN, archives.size())),
+                        configuration, roundDirectory, first + PMTilesWriter.FILE_EXTENSION);
+            }
+            archives = archives(roundDirectory, configuration);
+        }
+        final int tileCount = merge(archives, configuration, directory, filename);
+        fileHelper.deleteDirectory(partsDirectory);
+        logger.info("Merged {} vector tile archives into {} tiles of {} in {}.", partCount,
+                tileCount, SparkFileHelper.combine(directory, filename), start.elapsedSince());
+        return tileCount;
+    }
+
+    private static List<Resource> archives(final String directory,
+            final Map<String, String> configuration)
+    {
+        return FileSystemHelper.resources(directory, configuration).stream()
+                .filter(resource -> resource.getName() != null
+                        && resource.getName().endsWith(PMTilesWriter.FILE_EXTENSION))
+                .collect(Collectors.toList());
+    }
+
+    private static int merge(final List<Resource> archives,
+            final Map<String, String> configuration, final String directory,
+            final String filename)
+    {
+        final List<PMTilesReader> readers = archives.stream()
+                .map(archive -> new PMTilesReader(archive.read())).collect(Collectors.toList());
+        final PriorityQueue<PMTilesReader> pending = new PriorityQueue<>(
+                Comparator.comparingLong(PMTilesReader::getTileIdentifier));
+        try (PMTilesWriter writer = new PMTilesWriter();
+                OutputFile output = OutputFile.open(configuration, directory, filename))
+        {
+            for (final PMTilesReader reader : readers)
+            {
+                writer.withLayers(reader.getLayers());
+                if (reader.advance())
+                {
+                    pending.add(reader);
+                }
+            }
+            final List<PMTilesReader> sameTile = new ArrayList<>();
+            while (!pending.isEmpty())
+            {
+                final long tileIdentifier = pending.peek().getTileIdentifier();
+                while (!pending.isEmpty() && pending.peek().getTileIdentifier() == tileIdentifier)
+                {
+                    sameTile.add(pending.poll());
+                }
+                if (sameTile.size() == 1)
+                {
+                    writer.add(tileIdentifier, sameTile.get(0).getCompressedTile());
+                }
+                else
+                {
+                    final VectorTile tile = sameTile.get(0).getTile();
+                    sameTile.subList(1, sameTile.size())
+                            .forEach(reader -> tile.merge(reader.getTile()));
+                    writer.add(tileIdentifier, tile);
+                }
+                for (final PMTilesReader reader : sameTile)
+                {
+                    if (reader.advance())
+                    {
+                        pending.add(reader);
+                    }
+                }
+                sameTile.clear();
+            }
+            writer.writeTo(output.getOutputStream());
+            return writer.getTileCount();
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to merge vector tile archives into {}", filename, e);
+        }
+        finally
+        {
+            for (final PMTilesReader reader : readers)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (final IOException e)
+                {
+                    logger.warn("Unable to close a vector tile archive.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Default constructor
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param directory
+     *            The directory to write output
+     */
+    public CheckFlagVectorTileProcessor(final Map<String, String> configuration,
+            final String directory)
+    {
+        this.configuration = configuration;
+        this.directory = directory;
+    }
+
+    @Override
+    @Subscribe
+    @AllowConcurrentEvents
+    public void process(final CheckFlagEvent event)
+    {
+        final List<JsonObject> features = event
+                .asGeoJsonFeatures(TippecanoeCheckSettings.JSON_MUTATOR);
+        final VectorTileBuilder full;
+        synchronized (this.builderLock)
+        {
+            features.forEach(this.builder::add);
+            if (this.builder.getFeatureCount() < this.maximumFeatures)
+            {
+                return;
+            }
+            full = this.builder;
+            this.builder = new VectorTileBuilder();
+        }
+        try
+        {
+            this.writePart(full);
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to write a vector tile archive in {}",
+                    this.directory, e);
+        }
+    }
+
+    @Override
+    @Subscribe
+    public void process(final ShutdownEvent event)
+    {
+        final VectorTileBuilder last;
+        synchronized (this.builderLock)
+        {
+            last = this.builder;
+            this.builder = new VectorTileBuilder();
+        }
+        try
+        {
+            if (this.partCount.get() == 0)
+            {
+                if (last.getFeatureCount() > 0)
+                {
+                    this.write(last, this.directory, this.getArchiveName());
+                }
+                return;
+            }
+            if (last.getFeatureCount() > 0)
+            {
+                this.writePart(last);
+            }
+            mergeArchives(new SparkFileHelper(this.configuration), this.configuration,
+                    this.getPartsDirectory(), this.directory, this.getArchiveName());
+        }
+        catch (final Exception e)
+        {
+            logger.warn("CheckFlagVectorTileProcessor write failed.", e);
+        }
+    }
+
+    /**
+     * Sets the number of features tiled at once, beyond which they are tiled into a part archive
+     *
+     * @param maximumFeatures
+     *            value to set
+     * @return the {@link CheckFlagVectorTileProcessor}
+     */
+    public CheckFlagVectorTileProcessor withMaximumFeatures(final int maximumFeatures)
+    {
+        this.maximumFeatures = maximumFeatures;
+        return this;
+    }
+
+    /**
+     * Sets the highest zoom of the tiles
+     *
+     * @param maximumZoom
+     *            value to set
+     * @return the {@link CheckFlagVectorTileProcessor}
+     */
+    public CheckFlagVectorTileProcessor withMaximumZoom(final int maximumZoom)
+    {
+        this.maximumZoom = maximumZoom;
+        return this;
+    }
+
+    /**
+     * @return the name of the archive, unique for the task
+     */
+    protected String getFilename()
+    {
+        return String.format("%sP%s%s", new Date().getTime(), TaskContext.getPartitionId(),
+                PMTilesWriter.FILE_EXTENSION);
+    }
+
+    /**
+     * @return the name of the archive, chosen once
+     */
+    private String getArchiveName()
+    {
+        synchronized (this.builderLock)
+        {
+            if (this.filename == null)
+            {
+                this.filename = this.getFilename();
+            }
+            return this.filename;
+        }
+    }
+
+    private String getPartsDirectory()
+    {
+        return SparkFileHelper.combine(this.directory, this.getArchiveName() + PARTS_SUFFIX);
+    }
+
+    /**
+     * Tiles features into an archive, one zoom at a time
+     */
+    private void write(final VectorTileBuilder tiles, final String archiveDirectory,
+            final String archiveName) throws IOException
+    {
+        final Time start = Time.now();
+        try (PMTilesWriter writer = new PMTilesWriter();
+                OutputFile output = OutputFile.open(this.configuration, archiveDirectory,
+                        archiveName))
+        {
+            for (int zoom = Math.min(tiles.getMinimumZoom(),
+                    this.maximumZoom); zoom <= this.maximumZoom; zoom++)
+            {
+                // Every feature is kept at the maximum zoom
+                tiles.build(zoom, zoom < this.maximumZoom, writer::add);
+            }
+            writer.writeTo(output.getOutputStream());
+            logger.info("Wrote {} features into {} vector tiles of {} in {}.",
+                    tiles.getFeatureCount(), writer.getTileCount(), archiveName,
+                    start.elapsedSince());
+        }
+    }
+
+    private void writePart(final VectorTileBuilder tiles) throws IOException
+    {
+        this.write(tiles, this.getPartsDirectory(),
+                this.partCount.getAndIncrement() + PMTilesWriter.FILE_EXTENSION);
+    }
+}
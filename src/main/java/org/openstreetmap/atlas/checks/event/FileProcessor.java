@@ -1,20 +1,34 @@
 package org.openstreetmap.atlas.checks.event;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.spark.TaskContext;
+import org.openstreetmap.atlas.checks.constants.CommonConstants;
 import org.openstreetmap.atlas.checks.distributed.LogFilePathFilter;
 import org.openstreetmap.atlas.event.Event;
 import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Rectangle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A useful base class to handle common functionality for file processors.
+ * A useful base class to handle common functionality for file processors. Events are written as
+ * lines straight to an open output file, gzipped when the file name asks for it. Each thread
+ * stages its lines in its own buffer, so processing an event takes no shared lock; the staged
+ * lines are appended to the current file once the buffer fills up. Gzipped files can be compressed
+ * on a shared pool of threads, see {@link #withCompressionThreads(int)}. A new file is started once
+ * the current one holds {@link #getBatchSize()} events or {@link #getMaximumFileBytes()} bytes; the
+ * size of a gzipped file is estimated from its compression ratio so far, so it is approximate.
+ * Events processed with bounds can be indexed in a spatial index written next to their file.
  *
  * @author mkalender
  * @param <T>
@@ -22,30 +36,74 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class FileProcessor<T extends Event> implements Processor<T>
 {
+    /**
+     * Lines staged by a single thread, with the bounds of the lines to index. A staging is retired
+     * once written, and its thread stages its next lines in a new one.
+     */
+    private static final class Staging
+    {
+        private final List<String> lines = new ArrayList<>();
+        private final List<Rectangle> bounds = new ArrayList<>();
+        private int characters;
+        private boolean retired;
+    }
+
     // Default number of events to batch
     public static final int BATCH_SIZE = 2500;
+    // Default maximum size of a file on disk
+    public static final long MAXIMUM_FILE_BYTES = 128L * 1024 * 1024;
+    // Number of characters a thread stages before appending them to the current file
+    private static final int STAGING_CHARACTERS = 64 * 1024;
     private static final Logger logger = LoggerFactory.getLogger(FileProcessor.class);
-    // File helper to write files
-    private final SparkFileHelper fileHelper;
+
+    // Where files are written
+    private final OutputFile.Destination destination;
 
     // Directory to write files in
     private final String directory;
 
-    // Buffer to hold events generated so far
-    private final StringBuffer buffer;
+    // Per thread buffers holding events not yet appended to a file, until they are written
+    private final Queue<Staging> stagings = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Staging> staging = ThreadLocal.withInitial(this::newStaging);
 
     // Number of events to be batched
     private int batchSize = BATCH_SIZE;
 
-    // Thread safe counter
+    // Number of bytes after which a new file is started
+    private long maximumFileBytes = MAXIMUM_FILE_BYTES;
+
+    // Thread safe counter of events in the current file
     private final AtomicInteger counter;
 
-    // A lock useful to handle synchronization when we write files
-    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+    // Number of files started so far
+    private final AtomicInteger fileIndex = new AtomicInteger(0);
+
+    // Guards the current output file, taken once per staged chunk rather than once per event
+    private final Object outputLock = new Object();
+    private OutputFile output;
 
     // Whether or not to compress output file
     private boolean compressOutput = true;
 
+    // Whether or not to write a spatial index next to each file
+    private boolean spatialIndex = false;
+
+    // Number of threads compressing blocks of the output files, 0 to compress on the writer thread
+    private int compressionThreads = 0;
+
+    /**
+     * Constructor writing files straight to the file system of a configuration
+     *
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param directory
+     *            directory path to write files to
+     */
+    public FileProcessor(final Map<String, String> configuration, final String directory)
+    {
+        this(OutputFile.destination(configuration), directory);
+    }
+
     /**
      * Default constructor
      *
@@ -56,9 +114,19 @@ public abstract class FileProcessor<T extends Event> implements Processor<T>
      */
     public FileProcessor(final SparkFileHelper fileHelper, final String directory)
     {
-        this.fileHelper = fileHelper;
+        this(OutputFile.destination(fileHelper), directory);
+    }
+
+    /**
+     * @param destination
+     *            {@link OutputFile.Destination} of the files
+     * @param directory
+     *            directory path to write files to
+     */
+    FileProcessor(final OutputFile.Destination destination, final String directory)
+    {
+        this.destination = destination;
         this.directory = directory;
-        this.buffer = new StringBuffer();
         this.counter = new AtomicInteger(0);
     }
 
@@ -67,6 +135,15 @@ public abstract class FileProcessor<T extends Event> implements Processor<T>
         return this.compressOutput;
     }
 
+    /**
+     * @return the number of threads compressing output files, 0 if they are compressed on the
+     *         thread writing them
+     */
+    public int getCompressionThreads()
+    {
+        return this.compressionThreads;
+    }
+
     /**
      * @return the maximum number of events to be batched in a file
      */
@@ -76,13 +153,29 @@ public abstract class FileProcessor<T extends Event> implements Processor<T>
     }
 
     /**
-     * @return the number of events processed in the current batch
+     * @return the number of events written to the current file
      */
     public final int getCount()
     {
         return this.counter.get();
     }
 
+    /**
+     * @return the number of bytes after which a new file is started
+     */
+    public long getMaximumFileBytes()
+    {
+        return this.maximumFileBytes;
+    }
+
+    /**
+     * @return {@code true} if a spatial index is written next to each file
+     */
+    public boolean isSpatiallyIndexed()
+    {
+        return this.spatialIndex;
+    }
+
     /**
      * Processes given String and writes batched events into a file if needed
      *
@@ -91,43 +184,48 @@ public abstract class FileProcessor<T extends Event> implements Processor<T>
      */
     public void process(final String event)
     {
-        // Process new event
-        this.fileLock.readLock().lock();
-
-        try
-        {
-            this.buffer.append(String.format("%s%s", event, System.lineSeparator()));
-            this.counter.incrementAndGet();
-        }
-        catch (final Exception e)
-        {
-            logger.warn("Event processing is failed.", e);
-        }
-        finally
-        {
-            this.fileLock.readLock().unlock();
-        }
+        this.process(event, null);
+    }
 
-        // Write batched events to a file if needed
-        if (this.counter.get() >= this.getBatchSize())
+    /**
+     * Processes given String, adding it to the spatial index of its file if the processor has one
+     *
+     * @param event
+     *            a character set to process
+     * @param bounds
+     *            bounds of the event, or {@code null} to leave it out of the spatial index
+     */
+    public void process(final String event, final Rectangle bounds)
+    {
+        Staging chunk = null;
+        while (chunk == null)
         {
-            this.fileLock.writeLock().lock();
-
-            try
+            final Staging threadStaging = this.staging.get();
+            synchronized (threadStaging)
             {
-                if (this.getCount() >= this.getBatchSize())
+                if (threadStaging.retired)
                 {
-                    this.write();
+                    this.staging.set(this.newStaging());
+                    continue;
                 }
+                threadStaging.lines.add(event);
+                threadStaging.bounds.add(bounds);
+                threadStaging.characters += event.length();
+                if (threadStaging.characters < STAGING_CHARACTERS)
+                {
+                    return;
+                }
+                chunk = drain(threadStaging);
             }
-            catch (final Exception e)
-            {
-                logger.warn("File write is failed.", e);
-            }
-            finally
-            {
-                this.fileLock.writeLock().unlock();
-            }
+        }
+
+        try
+        {
+            this.append(chunk);
+        }
+        catch (final Exception e)
+        {
+            logger.warn("File write is failed.", e);
         }
     }
 
@@ -156,27 +254,180 @@ public abstract class FileProcessor<T extends Event> implements Processor<T>
     }
 
     /**
-     * @return the name of the file to be used in {@code #write()} method to write files
+     * Sets the number of threads compressing blocks of the output files in parallel. The threads
+     * are shared with the other processors using as many threads
+     *
+     * @param threads
+     *            value to set, 0 to compress on the thread writing a file
+     * @return the {@link FileProcessor}
+     */
+    public FileProcessor<T> withCompressionThreads(final int threads)
+    {
+        this.compressionThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the size a file may reach, in bytes as written to disk, before a new file is started.
+     * The file that reaches it ends with the event that crossed it
+     *
+     * @param maximumFileBytes
+     *            value to set
+     * @return the {@link FileProcessor}
+     */
+    public FileProcessor<T> withMaximumFileBytes(final long maximumFileBytes)
+    {
+        this.maximumFileBytes = maximumFileBytes;
+        return this;
+    }
+
+    /**
+     * Sets whether or not a spatial index of the events processed with bounds is written next to
+     * each file
+     *
+     * @param index
+     *            value to set
+     * @return the {@link FileProcessor}
+     */
+    public FileProcessor<T> withSpatialIndex(final boolean index)
+    {
+        this.spatialIndex = index;
+        return this;
+    }
+
+    /**
+     * @return the {@link OutputFile.Destination} of the files
+     */
+    final OutputFile.Destination getDestination()
+    {
+        return this.destination;
+    }
+
+    /**
+     * @return the index of the file currently being written, unique within this processor
+     */
+    protected final int getFileIndex()
+    {
+        return this.fileIndex.get();
+    }
+
+    /**
+     * @return the name of the file to be used when a new file is started
      */
     protected String getFilename()
     {
         return String.format("%sP%s-%s%s", new Date().getTime(), TaskContext.getPartitionId(),
-                this.getCount(), new LogFilePathFilter(this.compressOutput).getExtension());
+                this.getFileIndex(), new LogFilePathFilter(this.compressOutput).getExtension());
     }
 
     /**
-     * Writes a new file with the cached in String buffer
+     * Appends all staged events to the current file and closes it. A file is always written, so a
+     * processor that saw no events since the last file was finished writes an empty file. The
+     * stagings are retired, so that threads which are done with the processor leave none behind.
      */
     protected void write()
     {
-        final int count = this.getCount();
-        if (count == 0)
+        final Staging chunk = new Staging();
+        for (final Staging threadStaging : this.stagings)
+        {
+            synchronized (threadStaging)
+            {
+                final Staging drained = drain(threadStaging);
+                chunk.lines.addAll(drained.lines);
+                chunk.bounds.addAll(drained.bounds);
+                threadStaging.retired = true;
+            }
+            this.stagings.remove(threadStaging);
+        }
+        synchronized (this.outputLock)
+        {
+            this.append(chunk);
+            if (this.output == null)
+            {
+                logger.warn("Writing empty file with no content in {}.", this.directory);
+                this.open();
+            }
+            this.close();
+        }
+    }
+
+    private static Staging drain(final Staging threadStaging)
+    {
+        final Staging drained = new Staging();
+        drained.lines.addAll(threadStaging.lines);
+        drained.bounds.addAll(threadStaging.bounds);
+        threadStaging.lines.clear();
+        threadStaging.bounds.clear();
+        threadStaging.characters = 0;
+        return drained;
+    }
+
+    private void append(final Staging chunk)
+    {
+        synchronized (this.outputLock)
+        {
+            try
+            {
+                for (int line = 0; line < chunk.lines.size(); line++)
+                {
+                    if (this.output == null)
+                    {
+                        this.open();
+                    }
+                    final Rectangle bounds = chunk.bounds.get(line);
+                    if (bounds != null && this.output.isSpatiallyIndexed())
+                    {
+                        this.output.startRecord();
+                        this.output.getWriter().write(chunk.lines.get(line));
+                        this.output.endRecord(bounds);
+                    }
+                    else
+                    {
+                        this.output.getWriter().write(chunk.lines.get(line));
+                    }
+                    this.output.getWriter().write(CommonConstants.LINE_SEPARATOR);
+                    if (this.counter.incrementAndGet() >= this.getBatchSize()
+                            || this.output.estimateFileBytes() >= this.getMaximumFileBytes())
+                    {
+                        this.close();
+                    }
+                }
+            }
+            catch (final IOException e)
+            {
+                throw new CoreException("Unable to write to a file in {}", this.directory, e);
+            }
+        }
+    }
+
+    private void close()
+    {
+        try
+        {
+            this.output.close();
+        }
+        catch (final IOException e)
         {
-            logger.warn("Writing empty file with no content in {}.", this.directory);
+            throw new CoreException("Unable to close a file in {}", this.directory, e);
         }
+        finally
+        {
+            this.output = null;
+            this.counter.set(0);
+            this.fileIndex.incrementAndGet();
+        }
+    }
 
-        this.fileHelper.write(this.directory, this.getFilename(), this.buffer.toString());
-        this.buffer.delete(0, this.buffer.length());
-        this.counter.set(0);
+    private Staging newStaging()
+    {
+        final Staging threadStaging = new Staging();
+        this.stagings.add(threadStaging);
+        return threadStaging;
+    }
+
+    private void open()
+    {
+        this.output = OutputFile.open(this.destination, this.directory, this.getFilename(),
+                this.compressionThreads, this.spatialIndex);
     }
 }
@@ -5,7 +5,7 @@ import org.openstreetmap.atlas.utilities.scalars.Duration;
 /**
  * A wrapper around a timed metric with a name and a {@link Duration}. This class is useful to
  * generate in-memory metric events from integrity checks to the processors of integrity check
- * results.
+ * results. Metrics of a check run also carry the number of objects checked and flags produced.
  *
  * @author mkalender
  */
@@ -13,6 +13,8 @@ public final class MetricEvent extends org.openstreetmap.atlas.event.Event
 {
     private final String name;
     private final Duration duration;
+    private final long objects;
+    private final long flags;
 
     /**
      * @return header following {@code toString()} method format
@@ -31,9 +33,29 @@ public final class MetricEvent extends org.openstreetmap.atlas.event.Event
      *            {@link Duration} of the metric
      */
     public MetricEvent(final String name, final Duration duration)
+    {
+        this(name, duration, 0, 0);
+    }
+
+    /**
+     * Constructor for the metric of a check run
+     *
+     * @param name
+     *            name of metric
+     * @param duration
+     *            {@link Duration} of the metric
+     * @param objects
+     *            number of objects checked
+     * @param flags
+     *            number of flags produced
+     */
+    public MetricEvent(final String name, final Duration duration, final long objects,
+            final long flags)
     {
         this.name = name;
         this.duration = duration;
+        this.objects = objects;
+        this.flags = flags;
     }
 
     /**
@@ -44,6 +66,14 @@ public final class MetricEvent extends org.openstreetmap.atlas.event.Event
         return this.duration;
     }
 
+    /**
+     * @return number of flags produced
+     */
+    public long getFlags()
+    {
+        return this.flags;
+    }
+
     /**
      * @return name of the metric
      */
@@ -52,6 +82,14 @@ public final class MetricEvent extends org.openstreetmap.atlas.event.Event
         return this.name;
     }
 
+    /**
+     * @return number of objects checked
+     */
+    public long getObjects()
+    {
+        return this.objects;
+    }
+
     @Override
     public String toString()
     {
@@ -2,8 +2,10 @@ package org.openstreetmap.atlas.checks.event;
 
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
 import java.util.Optional;
 
+import org.apache.spark.TaskContext;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
 import org.openstreetmap.atlas.streaming.resource.FileSuffix;
 import org.slf4j.Logger;
@@ -14,9 +16,9 @@ import com.google.common.eventbus.Subscribe;
 
 /**
  * A {@link org.openstreetmap.atlas.event.Processor} for {@link MetricEvent}s to write them into
- * files. By default this supports maximum {@code FileProcessor.BATCH_SIZE} metrics. If number of
- * metrics go beyond that limit, the newest metrics will override the previous ones in the file,
- * because the file name is going to be the same for both write operations.
+ * files. By default a file holds at most {@code FileProcessor.BATCH_SIZE} metrics. If number of
+ * metrics go beyond that limit, the newest metrics go to a new file, named apart from the previous
+ * one by its file index and partition, as only the first file starts with the header.
  *
  * @author mkalender
  */
@@ -27,6 +29,22 @@ public final class MetricFileGenerator extends FileProcessor<MetricEvent>
     private final String label;
     private final FileSuffix suffix;
 
+    /**
+     * Constructor writing files straight to the file system of a configuration
+     *
+     * @param label
+     *            label for the metric file
+     * @param configuration
+     *            file system configuration for I/O operations
+     * @param outputFolder
+     *            output folder path to write files to
+     */
+    public MetricFileGenerator(final String label, final Map<String, String> configuration,
+            final String outputFolder)
+    {
+        this(label, OutputFile.destination(configuration), outputFolder);
+    }
+
     /**
      * Default constructor
      *
@@ -40,7 +58,13 @@ public final class MetricFileGenerator extends FileProcessor<MetricEvent>
     public MetricFileGenerator(final String label, final SparkFileHelper fileHelper,
             final String outputFolder)
     {
-        super(fileHelper, outputFolder);
+        this(label, OutputFile.destination(fileHelper), outputFolder);
+    }
+
+    private MetricFileGenerator(final String label, final OutputFile.Destination destination,
+            final String outputFolder)
+    {
+        super(destination, outputFolder);
         final Optional<FileSuffix> knownSuffix = Arrays.stream(FileSuffix.values())
                 .filter(suffix -> label.endsWith(suffix.toString()))
                 .filter(fileSuffix -> !FileSuffix.NONE.equals(fileSuffix)).findFirst();
@@ -84,6 +108,7 @@ public final class MetricFileGenerator extends FileProcessor<MetricEvent>
     @Override
     protected String getFilename()
     {
-        return String.format("%s-%s%s", this.label, new Date().getTime(), this.suffix);
+        return String.format("%s-%sP%s-%s%s", this.label, new Date().getTime(),
+                TaskContext.getPartitionId(), this.getFileIndex(), this.suffix);
     }
 }
@@ -0,0 +1,554 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.openstreetmap.atlas.checks.constants.CommonConstants;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexFormat;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexWriter;
+import org.openstreetmap.atlas.checks.utility.CompressionUtilities;
+import org.openstreetmap.atlas.checks.utility.ParallelGzipOutputStream;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.generator.tools.filesystem.FileSystemHelper;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileOutput;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.openstreetmap.atlas.streaming.compression.Compressor;
+import org.openstreetmap.atlas.streaming.resource.AbstractWritableResource;
+import org.openstreetmap.atlas.streaming.resource.FileSuffix;
+import org.openstreetmap.atlas.streaming.resource.WritableResource;
+
+/**
+ * An output file that processors stream text or bytes into. Files with a gzip extension are
+ * compressed on the fly, by a plain {@link GZIPOutputStream} unless the file is spatially indexed
+ * or compressed on a pool of threads. Those files are compressed by a
+ * {@link ParallelGzipOutputStream}, as a sequence of gzip members that each inflate to one block of
+ * content, so that a record can be inflated without inflating the file up to it. Content is
+ * counted as it is written, ahead of any buffering, so that processors can roll over to a new file
+ * by size, see {@link #estimateFileBytes()}. Files can keep a {@link SpatialIndexWriter} of the
+ * records written to them, which is written next to the file when it is closed.
+ * <p>
+ * Files are written straight to the file system of a configuration. Files written through a
+ * {@link SparkFileHelper} are staged in a local file, and saved by the helper once closed.
+ *
+ * @author mkalender
+ */
+final class OutputFile implements Closeable
+{
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final char UTF8_TWO_BYTES = 0x80;
+    private static final char UTF8_THREE_BYTES = 0x800;
+
+    private final Destination destination;
+    private final String directory;
+    private final String filename;
+    private final CountingOutputStream counter;
+    // The gzip stream of files compressed in blocks, or null
+    private final ParallelGzipOutputStream gzip;
+    // The gzip stream of files compressed as a single member, or null
+    private final CountingGzipOutputStream singleGzip;
+    private final OutputStream content;
+    // Text and binary content, counted before it is buffered
+    private final CountingWriter writer;
+    private final CountingOutputStream stream;
+    private final SpatialIndexWriter index;
+    private long recordStart;
+
+    /**
+     * Where output files are written, so that a file and its spatial index go to the same place
+     */
+    @FunctionalInterface
+    interface Destination
+    {
+        /**
+         * Opens a new file
+         *
+         * @param directory
+         *            directory to create the file in
+         * @param filename
+         *            name of the file
+         * @return the {@link OutputStream} of the file, written once it is closed
+         * @throws IOException
+         *             if the file cannot be opened
+         */
+        OutputStream open(String directory, String filename) throws IOException;
+    }
+
+    /**
+     * A {@link GZIPOutputStream} that tells how much of its content it compressed so far
+     */
+    private static final class CountingGzipOutputStream extends GZIPOutputStream
+    {
+        CountingGzipOutputStream(final OutputStream output) throws IOException
+        {
+            super(output, BUFFER_BYTES);
+        }
+
+        long getCompressedContentBytes()
+        {
+            return this.def.getBytesRead();
+        }
+    }
+
+    /**
+     * Counts the bytes written to a stream
+     */
+    private static final class CountingOutputStream extends FilterOutputStream
+    {
+        private long bytes;
+
+        CountingOutputStream(final OutputStream output)
+        {
+            super(output);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length)
+                throws IOException
+        {
+            this.out.write(bytes, offset, length);
+            this.bytes += length;
+        }
+
+        @Override
+        public void write(final int value) throws IOException
+        {
+            this.out.write(value);
+            this.bytes++;
+        }
+    }
+
+    /**
+     * Passes writes through but not flushes, so that the text buffers flushed to count a record do
+     * not flush the file, or wait for its blocks to be compressed. Closing still flushes.
+     */
+    private static final class UnflushedOutputStream extends FilterOutputStream
+    {
+        UnflushedOutputStream(final OutputStream output)
+        {
+            super(output);
+        }
+
+        @Override
+        public void flush()
+        {
+            // Flushed by the file once closed
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length)
+                throws IOException
+        {
+            this.out.write(bytes, offset, length);
+        }
+    }
+
+    /**
+     * A local file staging the content of a file saved by a {@link SparkFileHelper} once closed
+     */
+    private static final class StagedOutputStream extends FilterOutputStream
+    {
+        private final SparkFileHelper fileHelper;
+        private final String directory;
+        private final String filename;
+        private final Path staging;
+
+        StagedOutputStream(final SparkFileHelper fileHelper, final String directory,
+                final String filename, final Path staging) throws IOException
+        {
+            super(Files.newOutputStream(staging));
+            this.fileHelper = fileHelper;
+            this.directory = directory;
+            this.filename = filename;
+            this.staging = staging;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+                this.fileHelper.save(SparkFileOutput.from(resource ->
+                {
+                    try (OutputStream output = uncompressed(resource).write())
+                    {
+                        Files.copy(this.staging, output);
+                    }
+                    catch (final IOException error)
+                    {
+                        throw new CoreException("Unable to save {}", this.filename, error);
+                    }
+                }, this.directory, this.filename, CommonConstants.EMPTY_STRING, this.filename));
+            }
+            finally
+            {
+                Files.deleteIfExists(this.staging);
+            }
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length)
+                throws IOException
+        {
+            this.out.write(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Counts the bytes the characters written to a {@link Writer} take once encoded in UTF-8
+     */
+    private static final class CountingWriter extends FilterWriter
+    {
+        private long bytes;
+
+        CountingWriter(final Writer writer)
+        {
+            super(writer);
+        }
+
+        @Override
+        public void write(final char[] characters, final int offset, final int length)
+                throws IOException
+        {
+            this.out.write(characters, offset, length);
+            for (int index = offset; index < offset + length; index++)
+            {
+                this.count(characters[index]);
+            }
+        }
+
+        @Override
+        public void write(final int character) throws IOException
+        {
+            this.out.write(character);
+            this.count((char) character);
+        }
+
+        @Override
+        public void write(final String string, final int offset, final int length)
+                throws IOException
+        {
+            this.out.write(string, offset, length);
+            for (int index = offset; index < offset + length; index++)
+            {
+                this.count(string.charAt(index));
+            }
+        }
+
+        private void count(final char character)
+        {
+            // Each half of a surrogate pair counts for half of its four bytes
+            if (character < UTF8_TWO_BYTES)
+            {
+                this.bytes++;
+            }
+            else if (character < UTF8_THREE_BYTES || Character.isSurrogate(character))
+            {
+                this.bytes += 2;
+            }
+            else
+            {
+                this.bytes += 3;
+            }
+        }
+    }
+
+    /**
+     * @param configuration
+     *            file system configuration
+     * @return a {@link Destination} writing files straight to the file system of the configuration
+     */
+    static Destination destination(final Map<String, String> configuration)
+    {
+        return (directory, filename) -> uncompressed(FileSystemHelper
+                .writableResource(SparkFileHelper.combine(directory, filename), configuration))
+                        .write();
+    }
+
+    /**
+     * @param fileHelper
+     *            {@link SparkFileHelper} for I/O operations
+     * @return a {@link Destination} staging files locally, saved by the helper once closed
+     */
+    static Destination destination(final SparkFileHelper fileHelper)
+    {
+        return (directory, filename) -> new StagedOutputStream(fileHelper, directory, filename,
+                Files.createTempFile("staged-", "-" + filename));
+    }
+
+    /**
+     * Opens a new file
+     *
+     * @param configuration
+     *            file system configuration
+     * @param directory
+     *            directory to create the file in
+     * @param filename
+     *            name of the file, compressed if it ends with the gzip suffix
+     * @return the opened {@link OutputFile}
+     */
+    static OutputFile open(final Map<String, String> configuration, final String directory,
+            final String filename)
+    {
+        return open(destination(configuration), directory, filename, 0, false);
+    }
+
+    /**
+     * Opens a new file, compressing it on a shared pool of threads and keeping a spatial index of
+     * its records if asked to
+     *
+     * @param configuration
+     *            file system configuration
+     * @param directory
+     *            directory to create the file in
+     * @param filename
+     *            name of the file, compressed if it ends with the gzip suffix
+     * @param compressionThreads
+     *            number of threads compressing blocks of the file, 0 to compress on the writing
+     *            thread
+     * @param spatialIndex
+     *            {@code true} to keep a {@link SpatialIndexWriter} of the records of the file
+     * @return the opened {@link OutputFile}
+     */
+    static OutputFile open(final Map<String, String> configuration, final String directory,
+            final String filename, final int compressionThreads, final boolean spatialIndex)
+    {
+        return open(destination(configuration), directory, filename, compressionThreads,
+                spatialIndex);
+    }
+
+    /**
+     * Opens a new file in a {@link Destination}, compressing it on a shared pool of threads and
+     * keeping a spatial index of its records if asked to
+     *
+     * @param destination
+     *            {@link Destination} of the file and its spatial index
+     * @param directory
+     *            directory to create the file in
+     * @param filename
+     *            name of the file, compressed if it ends with the gzip suffix
+     * @param compressionThreads
+     *            number of threads compressing blocks of the file, 0 to compress on the writing
+     *            thread
+     * @param spatialIndex
+     *            {@code true} to keep a {@link SpatialIndexWriter} of the records of the file
+     * @return the opened {@link OutputFile}
+     */
+    static OutputFile open(final Destination destination, final String directory,
+            final String filename, final int compressionThreads, final boolean spatialIndex)
+    {
+        try
+        {
+            return new OutputFile(destination, directory, filename,
+                    destination.open(directory, filename), compressionThreads, spatialIndex);
+        }
+        catch (final IOException error)
+        {
+            throw new CoreException("Unable to open {}", filename, error);
+        }
+    }
+
+    /**
+     * Compression is done by output files, so a resource must not compress a second time
+     */
+    private static WritableResource uncompressed(final WritableResource resource)
+    {
+        if (resource instanceof AbstractWritableResource)
+        {
+            ((AbstractWritableResource) resource).setCompressor(Compressor.NONE);
+        }
+        return resource;
+    }
+
+    private OutputFile(final Destination destination, final String directory,
+            final String filename, final OutputStream output, final int compressionThreads,
+            final boolean spatialIndex) throws IOException
+    {
+        this.destination = destination;
+        this.directory = directory;
+        this.filename = filename;
+        this.counter = new CountingOutputStream(new BufferedOutputStream(output, BUFFER_BYTES));
+        final boolean compressed = filename.endsWith(FileSuffix.GZIP.toString());
+        // Blocks are only worth their lower compression ratio to index or to compress in parallel
+        final boolean blocks = compressed && (spatialIndex || compressionThreads > 0);
+        this.gzip = blocks ? CompressionUtilities.getParallelGzipOutputStream(this.counter,
+                SpatialIndexFormat.BLOCK_BYTES, compressionThreads) : null;
+        this.singleGzip = compressed && !blocks ? new CountingGzipOutputStream(this.counter)
+                : null;
+        if (this.gzip != null)
+        {
+            this.content = this.gzip;
+        }
+        else
+        {
+            this.content = this.singleGzip == null ? this.counter : this.singleGzip;
+        }
+        this.writer = new CountingWriter(
+                new BufferedWriter(new OutputStreamWriter(new UnflushedOutputStream(this.content),
+                        StandardCharsets.UTF_8), BUFFER_BYTES));
+        this.stream = new CountingOutputStream(this.content);
+        this.index = spatialIndex ? new SpatialIndexWriter(this.gzip != null) : null;
+    }
+
+    /**
+     * Closes the file, and writes its spatial index if it has one
+     */
+    @Override
+    public void close() throws IOException
+    {
+        this.writer.close();
+        if (this.index != null && this.index.getCount() > 0)
+        {
+            if (this.gzip != null)
+            {
+                // Members are only placed once compressed, so records were indexed by content
+                this.index.mapOffsets(this::getMemberPosition);
+            }
+            try (OutputFile indexFile = open(this.destination, this.directory,
+                    SpatialIndexFormat.indexFileName(this.filename), 0, false))
+            {
+                this.index.writeTo(indexFile.getOutputStream());
+            }
+        }
+    }
+
+    /**
+     * Adds a record written straight to the output stream to the spatial index
+     *
+     * @param bounds
+     *            bounds of the flag of the record
+     * @param start
+     *            offset of the record in the content of the file
+     * @param length
+     *            number of bytes of the record
+     */
+    void addRecord(final Rectangle bounds, final long start, final int length)
+    {
+        this.index.add(bounds, start, length);
+    }
+
+    /**
+     * Ends a record started with {@link #startRecord()}, and adds it to the spatial index
+     *
+     * @param bounds
+     *            bounds of the flag of the record
+     * @throws IOException
+     *             if buffered text cannot be flushed
+     */
+    void endRecord(final Rectangle bounds) throws IOException
+    {
+        this.writer.flush();
+        this.addRecord(bounds, this.recordStart,
+                (int) (this.getContentBytes() - this.recordStart));
+    }
+
+    /**
+     * Estimates the size the file will have once the content written so far reaches it. The size
+     * of an uncompressed file is exact. The content of a compressed file that is still buffered or
+     * being compressed is counted at the compression ratio of the content compressed so far, so its
+     * size is approximate. A file compressed as a single gzip member counts its content compressed
+     * as soon as the deflater takes it, so its size lags by the output the deflater holds back.
+     *
+     * @return the estimated number of bytes of the file
+     */
+    long estimateFileBytes()
+    {
+        final long contentBytes = this.writer.bytes + this.stream.bytes;
+        final long compressedContentBytes;
+        if (this.gzip != null)
+        {
+            compressedContentBytes = this.gzip.getCompressedContentBytes();
+        }
+        else if (this.singleGzip != null)
+        {
+            compressedContentBytes = this.singleGzip.getCompressedContentBytes();
+        }
+        else
+        {
+            return contentBytes;
+        }
+        final double ratio = compressedContentBytes == 0 ? 1.0
+                : (double) this.counter.bytes / compressedContentBytes;
+        return this.counter.bytes + (long) ((contentBytes - compressedContentBytes) * ratio);
+    }
+
+    /**
+     * @return the number of bytes written to the file so far. Bytes still buffered or being
+     *         compressed are not counted until they are flushed, see {@link #estimateFileBytes()}
+     */
+    long getBytes()
+    {
+        return this.counter.bytes;
+    }
+
+    /**
+     * @return the {@link OutputStream} to write binary content to. It must not be mixed with
+     *         {@link #getWriter()}, whose buffered text would end up out of order
+     */
+    OutputStream getOutputStream()
+    {
+        return this.stream;
+    }
+
+    /**
+     * @return the {@link Writer} to write text content to
+     */
+    Writer getWriter()
+    {
+        return this.writer;
+    }
+
+    /**
+     * @return {@code true} if records are added to a spatial index
+     */
+    boolean isSpatiallyIndexed()
+    {
+        return this.index != null;
+    }
+
+    /**
+     * Starts a record of a flag, written next either as text or as bytes
+     *
+     * @throws IOException
+     *             if buffered text cannot be flushed
+     */
+    void startRecord() throws IOException
+    {
+        this.writer.flush();
+        this.recordStart = this.getContentBytes();
+    }
+
+    /**
+     * @return the number of content bytes written so far, before compression
+     */
+    private long getContentBytes()
+    {
+        // Text is flushed to the content before a record is counted
+        return this.writer.bytes + this.stream.bytes;
+    }
+
+    /**
+     * @param contentPosition
+     *            position of a content byte of a compressed file, before compression
+     * @return the position of the byte as read by a spatial index, see {@link SpatialIndexFormat}
+     */
+    private long getMemberPosition(final long contentPosition)
+    {
+        final int block = (int) (contentPosition >>> SpatialIndexFormat.BLOCK_SHIFT);
+        return this.gzip.getMemberOffset(block) << SpatialIndexFormat.BLOCK_SHIFT
+                | contentPosition & SpatialIndexFormat.BLOCK_MASK;
+    }
+}
@@ -19,6 +19,7 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.openstreetmap.atlas.checks.base.Check;
+import org.openstreetmap.atlas.checks.flag.serializer.GeoJsonGeometries;
 import org.openstreetmap.atlas.checks.maproulette.data.Task;
 import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.geography.Located;
@@ -32,7 +33,6 @@ import org.openstreetmap.atlas.geography.atlas.items.LocationItem;
 import org.openstreetmap.atlas.geography.atlas.items.Relation;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonBuilder;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonBuilder.GeometryWithProperties;
-import org.openstreetmap.atlas.geography.geojson.GeoJsonType;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonUtils;
 import org.openstreetmap.atlas.streaming.resource.WritableResource;
 import org.openstreetmap.atlas.utilities.collections.Iterables;
@@ -373,6 +373,16 @@ public class CheckFlag implements Iterable<Location>, Located, Serializable
         return FlaggedObject.COUNTRY_MISSING;
     }
 
+    /**
+     * @return an identifier of the flag that stays the same between runs: its sorted unique
+     *         identifiers, comma separated
+     * @see #getUniqueIdentifiers()
+     */
+    public String getFingerprint()
+    {
+        return this.getUniqueIdentifiers().stream().sorted().collect(Collectors.joining(","));
+    }
+
     /**
      * @return a {@link Set} of {@link FeatureChange} fix suggestions
      */
@@ -634,7 +644,7 @@ public class CheckFlag implements Iterable<Location>, Located, Serializable
         // If we don't have it, let's instead return null island.
         else
         {
-            return GeoJsonUtils.geometry(GeoJsonType.POINT, GeoJsonUtils.coordinate(0.0, 0.0));
+            return GeoJsonGeometries.point(Location.CENTER);
         }
 
         // Otherwise, let's get the rest of the bounds and expand the bounds we have.
@@ -658,6 +668,6 @@ public class CheckFlag implements Iterable<Location>, Located, Serializable
         }
 
         // Turn that bounds into a GeoJSON geometry.
-        return GeoJsonUtils.boundsToPolygonGeometry(bounds);
+        return GeoJsonGeometries.bounds(bounds);
     }
 }
@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+import org.openstreetmap.atlas.checks.flag.serializer.GeoJsonGeometries;
 import org.openstreetmap.atlas.checks.utility.tags.SyntheticHighlightPointTag;
 import org.openstreetmap.atlas.geography.Location;
 import org.openstreetmap.atlas.geography.Rectangle;
@@ -64,18 +65,10 @@ public class FlaggedPoint extends FlaggedObject
     @Override
     public JsonObject asGeoJsonFeature(final String flagIdentifier)
     {
-        final JsonObject geoJsonGeometry;
-        final JsonObject geoJsonProperties;
-        if (this.locationItem != null)
-        {
-            geoJsonGeometry = this.locationItem.asGeoJsonGeometry();
-            geoJsonProperties = this.locationItem.getGeoJsonProperties();
-        }
-        else
-        {
-            geoJsonProperties = new JsonObject();
-            geoJsonGeometry = this.point.asGeoJsonGeometry();
-        }
+        final JsonObject geoJsonGeometry = GeoJsonGeometries.point(this.point);
+        final JsonObject geoJsonProperties = this.locationItem != null
+                ? this.locationItem.getGeoJsonProperties()
+                : new JsonObject();
 
         geoJsonProperties.addProperty("flag:id", flagIdentifier);
         geoJsonProperties.addProperty("flag:type", FlaggedPoint.class.getSimpleName());
@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+import org.openstreetmap.atlas.checks.flag.serializer.GeoJsonGeometries;
 import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.geography.Location;
 import org.openstreetmap.atlas.geography.PolyLine;
@@ -16,6 +17,7 @@ import org.openstreetmap.atlas.geography.atlas.items.AtlasItem;
 import org.openstreetmap.atlas.geography.atlas.items.AtlasObject;
 import org.openstreetmap.atlas.geography.atlas.items.Edge;
 import org.openstreetmap.atlas.geography.atlas.items.Line;
+import org.openstreetmap.atlas.geography.atlas.items.LocationItem;
 import org.openstreetmap.atlas.geography.atlas.items.Node;
 import org.openstreetmap.atlas.geography.atlas.items.Point;
 import org.openstreetmap.atlas.geography.geojson.GeoJsonUtils;
@@ -63,7 +65,20 @@ public class FlaggedPolyline extends FlaggedObject
     @Override
     public JsonObject asGeoJsonFeature(final String flagIdentifier)
     {
-        final JsonObject geoJsonGeometry = this.atlasItem.asGeoJsonGeometry();
+        final JsonObject geoJsonGeometry;
+        if (this.atlasItem instanceof Area)
+        {
+            geoJsonGeometry = GeoJsonGeometries.polygon(this.polyLine);
+        }
+        else if (this.atlasItem instanceof LocationItem)
+        {
+            geoJsonGeometry = GeoJsonGeometries
+                    .point(((LocationItem) this.atlasItem).getLocation());
+        }
+        else
+        {
+            geoJsonGeometry = GeoJsonGeometries.lineString(this.polyLine);
+        }
         final JsonObject jsonProperties = this.atlasItem.getGeoJsonProperties();
         jsonProperties.addProperty("flag:id", flagIdentifier);
         jsonProperties.addProperty("flag:type", FlaggedPolyline.class.getSimpleName());
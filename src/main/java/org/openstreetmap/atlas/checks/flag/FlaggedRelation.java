@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+import org.openstreetmap.atlas.checks.flag.serializer.GeoJsonGeometries;
 import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.geography.Location;
 import org.openstreetmap.atlas.geography.MultiPolygon;
@@ -79,7 +80,8 @@ public class FlaggedRelation extends FlaggedObject
         featureProperties.addProperty(IDENTIFIER, identifier.toString());
         featureProperties.addProperty("flag:id", flagIdentifier);
         featureProperties.addProperty("flag:type", FlaggedRelation.class.getSimpleName());
-        return feature(this.multipolygonGeometry.asGeoJsonGeometry(), featureProperties);
+        return feature(GeoJsonGeometries.multiPolygon(this.multipolygonGeometry),
+                featureProperties);
     }
 
     /**
@@ -123,6 +125,14 @@ public class FlaggedRelation extends FlaggedObject
         return null;
     }
 
+    /**
+     * @return the multipolygon geometry of the relation
+     */
+    public MultiPolygon getMultiPolygon()
+    {
+        return this.multipolygonGeometry;
+    }
+
     /**
      * @return flag key-value property map
      */
@@ -0,0 +1,244 @@
+package org.openstreetmap.atlas.checks.flag.index;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexReader.FlagReference;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagFormat;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagReader;
+import org.openstreetmap.atlas.geography.Rectangle;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A flag file opened along with its spatial index, to read the flags in a bounding box without
+ * reading the rest of the file. Line delimited flag files and GeoJson files, gzipped or not, and
+ * binary flag files are supported. Flags are read by seeking to their position; in a gzipped file
+ * only the gzip members holding the flags are inflated.
+ *
+ * @author mkalender
+ */
+public final class IndexedFlagFile implements Closeable
+{
+    /**
+     * Reads the channel of the flag file from its current position, leaving it open once read
+     */
+    private static final class ChannelInputStream extends FilterInputStream
+    {
+        ChannelInputStream(final FileChannel channel)
+        {
+            super(Channels.newInputStream(channel));
+        }
+
+        @Override
+        public void close()
+        {
+            // The channel is closed with the file
+        }
+    }
+
+    private static final int BUFFER_BYTES = 8 * 1024;
+
+    private final Path path;
+    private final SpatialIndexReader index;
+    private final FileChannel channel;
+    private final BinaryFlagReader binaryReader;
+
+    /**
+     * @param flagFile
+     *            path of a flag file
+     * @return {@code true} if the flag file has a spatial index next to it
+     */
+    public static boolean hasIndex(final Path flagFile)
+    {
+        return Files.isRegularFile(indexPath(flagFile));
+    }
+
+    private static Path indexPath(final Path flagFile)
+    {
+        return flagFile.resolveSibling(
+                SpatialIndexFormat.indexFileName(flagFile.getFileName().toString()));
+    }
+
+    /**
+     * Opens a flag file and maps its index
+     *
+     * @param path
+     *            path of the flag file
+     * @throws IOException
+     *             if the flag file or its index cannot be read
+     */
+    public IndexedFlagFile(final Path path) throws IOException
+    {
+        this.path = path;
+        this.index = SpatialIndexReader.open(indexPath(path));
+        if (BinaryFlagFormat.isBinaryFlagFile(path.getFileName().toString()))
+        {
+            this.binaryReader = new BinaryFlagReader(path);
+            this.channel = null;
+        }
+        else
+        {
+            this.binaryReader = null;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (this.binaryReader != null)
+        {
+            this.binaryReader.close();
+        }
+        else
+        {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * @return the number of flags in the index
+     */
+    public int getCount()
+    {
+        return this.index.getCount();
+    }
+
+    /**
+     * Reads the flags whose bounds intersect a bounding box. Flags of line delimited and binary
+     * files are FeatureCollections, flags of GeoJson files are Features.
+     *
+     * @param bounds
+     *            the bounding box
+     * @return the flags, in the order they are in the file
+     * @throws IOException
+     *             if the flags cannot be read
+     */
+    public List<JsonObject> query(final Rectangle bounds) throws IOException
+    {
+        final List<FlagReference> references = this.index.search(bounds);
+        final List<JsonObject> flags = new ArrayList<>(references.size());
+        if (this.binaryReader != null)
+        {
+            for (final FlagReference reference : references)
+            {
+                flags.add(this.binaryReader.read(reference.getOffset(), reference.getLength()));
+            }
+        }
+        else if (this.index.isCompressed())
+        {
+            this.readCompressed(references, flags);
+        }
+        else
+        {
+            for (final FlagReference reference : references)
+            {
+                final ByteBuffer bytes = ByteBuffer.allocate(reference.getLength());
+                while (bytes.hasRemaining())
+                {
+                    if (this.channel.read(bytes, reference.getOffset() + bytes.position()) < 0)
+                    {
+                        throw new EOFException(this.path.toString());
+                    }
+                }
+                flags.add(parse(bytes.array()));
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Parses a flag, skipping the separator that precedes the features of GeoJson files
+     */
+    private static JsonObject parse(final byte[] bytes)
+    {
+        int start = 0;
+        while (start < bytes.length
+                && (bytes[start] == ',' || Character.isWhitespace(bytes[start])))
+        {
+            start++;
+        }
+        return new JsonParser()
+                .parse(new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8))
+                .getAsJsonObject();
+    }
+
+    private static void skip(final InputStream input, final long bytes) throws IOException
+    {
+        long remaining = bytes;
+        while (remaining > 0)
+        {
+            final long skipped = input.skip(remaining);
+            if (skipped <= 0)
+            {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Reads flags of a gzipped file. A gzip member is inflated from its start, and the following
+     * flags of the same member are read on without going back to the file.
+     */
+    private void readCompressed(final List<FlagReference> references, final List<JsonObject> flags)
+            throws IOException
+    {
+        InputStream input = null;
+        long block = -1;
+        long position = 0;
+        try
+        {
+            for (final FlagReference reference : references)
+            {
+                final long referenceBlock = reference
+                        .getOffset() >>> SpatialIndexFormat.BLOCK_SHIFT;
+                final long referencePosition = reference.getOffset()
+                        & SpatialIndexFormat.BLOCK_MASK;
+                if (referenceBlock != block || referencePosition < position)
+                {
+                    if (input != null)
+                    {
+                        input.close();
+                    }
+                    input = new GZIPInputStream(new BufferedInputStream(
+                            new ChannelInputStream(this.channel.position(referenceBlock)),
+                            BUFFER_BYTES));
+                    block = referenceBlock;
+                    position = 0;
+                }
+                skip(input, referencePosition - position);
+                final byte[] bytes = input.readNBytes(reference.getLength());
+                if (bytes.length < reference.getLength())
+                {
+                    throw new EOFException(this.path.toString());
+                }
+                position = referencePosition + bytes.length;
+                flags.add(parse(bytes));
+            }
+        }
+        finally
+        {
+            if (input != null)
+            {
+                input.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.openstreetmap.atlas.checks.flag.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of the spatial index written next to a flag file. The index is a packed Hilbert R-tree
+ * of the bounds of the flags in the file:
+ *
+ * <pre>
+ * header : magic (int) version (byte) compressed (byte) node size (short) count (int)
+ * item   : west (int) south (int) east (int) north (int) offset (long) length (int)
+ * </pre>
+ *
+ * Bounds are in dm7. Items are laid out level by level, from the root down to the leaves. There
+ * is one leaf per flag, sorted along a Hilbert curve of the flag centers, and each leaf points at
+ * the bytes of its flag in the flag file. Each inner item covers the bounds of its children; its
+ * offset is the index of its first child item and its length the number of children.
+ * <p>
+ * Gzipped flag files are written as a sequence of independent gzip members, each inflating to at
+ * most {@value #BLOCK_BYTES} bytes. For those files, the offset of a leaf is the offset of the
+ * member in the file shifted left by {@value #BLOCK_SHIFT} bits, plus the offset of the flag
+ * within the inflated member.
+ *
+ * @author mkalender
+ */
+public final class SpatialIndexFormat
+{
+    public static final String FILE_EXTENSION = ".sidx";
+    public static final int BLOCK_SHIFT = 16;
+    public static final int BLOCK_BYTES = 1 << BLOCK_SHIFT;
+    public static final long BLOCK_MASK = BLOCK_BYTES - 1L;
+
+    static final int MAGIC = 0x41435349;
+    static final int VERSION = 1;
+    static final int NODE_SIZE = 16;
+    static final int HEADER_BYTES = Integer.BYTES + 1 + 1 + Short.BYTES + Integer.BYTES;
+    static final int ITEM_BYTES = 4 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    // Cells per side of the grid the Hilbert curve is drawn on
+    private static final int HILBERT_ORDER = 16;
+    private static final int HILBERT_SIDE = 1 << HILBERT_ORDER;
+
+    /**
+     * @param flagFileName
+     *            name of a flag file
+     * @return the name of the spatial index of that flag file
+     */
+    public static String indexFileName(final String flagFileName)
+    {
+        return flagFileName + FILE_EXTENSION;
+    }
+
+    /**
+     * @param name
+     *            a file name
+     * @return {@code true} if the name has the spatial index extension
+     */
+    public static boolean isSpatialIndexFile(final String name)
+    {
+        return name.endsWith(FILE_EXTENSION);
+    }
+
+    /**
+     * @param x
+     *            column of a cell, from 0 to 2^16 - 1
+     * @param y
+     *            row of a cell, from 0 to 2^16 - 1
+     * @return the position of the cell along the Hilbert curve
+     */
+    static long hilbert(final int x, final int y)
+    {
+        long distance = 0;
+        int column = x;
+        int row = y;
+        for (int side = HILBERT_SIDE / 2; side > 0; side /= 2)
+        {
+            final int rotateX = (column & side) > 0 ? 1 : 0;
+            final int rotateY = (row & side) > 0 ? 1 : 0;
+            distance += (long) side * side * (3 * rotateX ^ rotateY);
+            if (rotateY == 0)
+            {
+                if (rotateX == 1)
+                {
+                    column = HILBERT_SIDE - 1 - column;
+                    row = HILBERT_SIDE - 1 - row;
+                }
+                final int swap = column;
+                column = row;
+                row = swap;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * @param count
+     *            number of leaves
+     * @return the index of the first item of each level, root first, followed by the number of
+     *         items
+     */
+    static int[] levelStarts(final int count)
+    {
+        final List<Integer> sizes = new ArrayList<>();
+        int size = count;
+        sizes.add(size);
+        while (size > 1)
+        {
+            size = (size + NODE_SIZE - 1) / NODE_SIZE;
+            sizes.add(0, size);
+        }
+        final int[] starts = new int[sizes.size() + 1];
+        for (int level = 0; level < sizes.size(); level++)
+        {
+            starts[level + 1] = starts[level] + sizes.get(level);
+        }
+        return starts;
+    }
+
+    private SpatialIndexFormat()
+    {
+    }
+}
@@ -0,0 +1,190 @@
+package org.openstreetmap.atlas.checks.flag.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.geography.Rectangle;
+
+/**
+ * Searches a {@link SpatialIndexFormat} index for the flags whose bounds intersect a bounding box.
+ * Only the nodes covering the box are visited, so a search reads a few kilobytes of the index
+ * whatever the number of flags. Indexes opened from a file are memory mapped, and can be searched
+ * from several threads.
+ *
+ * @author mkalender
+ */
+public final class SpatialIndexReader
+{
+    /**
+     * Position of a flag in its flag file
+     */
+    public static final class FlagReference
+    {
+        private final long offset;
+        private final int length;
+
+        FlagReference(final long offset, final int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return the number of bytes of the flag
+         */
+        public int getLength()
+        {
+            return this.length;
+        }
+
+        /**
+         * @return the offset of the flag, see {@link SpatialIndexFormat} for gzipped flag files
+         */
+        public long getOffset()
+        {
+            return this.offset;
+        }
+    }
+
+    private static final int WEST = 0;
+    private static final int SOUTH = Integer.BYTES;
+    private static final int EAST = 2 * Integer.BYTES;
+    private static final int NORTH = 3 * Integer.BYTES;
+    private static final int OFFSET = 4 * Integer.BYTES;
+    private static final int LENGTH = OFFSET + Long.BYTES;
+
+    private final ByteBuffer buffer;
+    private final boolean compressed;
+    private final int count;
+    private final int leafStart;
+
+    /**
+     * Maps an index file
+     *
+     * @param path
+     *            path of the index
+     * @return the {@link SpatialIndexReader}
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static SpatialIndexReader open(final Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            return new SpatialIndexReader(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Default constructor
+     *
+     * @param buffer
+     *            content of the index
+     */
+    public SpatialIndexReader(final ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        if (buffer.capacity() < SpatialIndexFormat.HEADER_BYTES
+                || buffer.getInt(0) != SpatialIndexFormat.MAGIC)
+        {
+            throw new CoreException("Not a spatial index");
+        }
+        final int version = buffer.get(Integer.BYTES);
+        if (version != SpatialIndexFormat.VERSION)
+        {
+            throw new CoreException("Unsupported spatial index version {}", version);
+        }
+        this.compressed = buffer.get(Integer.BYTES + 1) != 0;
+        final int nodeSize = buffer.getShort(Integer.BYTES + 2);
+        if (nodeSize != SpatialIndexFormat.NODE_SIZE)
+        {
+            throw new CoreException("Unsupported spatial index node size {}", nodeSize);
+        }
+        this.count = buffer.getInt(Integer.BYTES + 2 + Short.BYTES);
+        final int[] levelStarts = SpatialIndexFormat.levelStarts(this.count);
+        this.leafStart = levelStarts[levelStarts.length - 2];
+        final long expectedBytes = SpatialIndexFormat.HEADER_BYTES
+                + (long) levelStarts[levelStarts.length - 1] * SpatialIndexFormat.ITEM_BYTES;
+        if (buffer.capacity() != expectedBytes)
+        {
+            throw new CoreException("Spatial index of {} flags should have {} bytes, not {}",
+                    this.count, expectedBytes, buffer.capacity());
+        }
+    }
+
+    /**
+     * @return the number of flags in the index
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return {@code true} if the flag file is gzipped
+     */
+    public boolean isCompressed()
+    {
+        return this.compressed;
+    }
+
+    /**
+     * @param bounds
+     *            the bounding box to search
+     * @return the flags whose bounds intersect the box, in the order they are in the flag file
+     */
+    public List<FlagReference> search(final Rectangle bounds)
+    {
+        final int west = (int) bounds.lowerLeft().getLongitude().asDm7();
+        final int south = (int) bounds.lowerLeft().getLatitude().asDm7();
+        final int east = (int) bounds.upperRight().getLongitude().asDm7();
+        final int north = (int) bounds.upperRight().getLatitude().asDm7();
+        final List<FlagReference> references = new ArrayList<>();
+        if (this.count == 0)
+        {
+            return references;
+        }
+        // Ranges of items to visit, as pairs of first and last item
+        final List<Integer> pending = new ArrayList<>();
+        pending.add(0);
+        pending.add(1);
+        while (!pending.isEmpty())
+        {
+            final int end = pending.remove(pending.size() - 1);
+            final int start = pending.remove(pending.size() - 1);
+            for (int item = start; item < end; item++)
+            {
+                final int position = SpatialIndexFormat.HEADER_BYTES
+                        + item * SpatialIndexFormat.ITEM_BYTES;
+                if (this.buffer.getInt(position + WEST) > east
+                        || this.buffer.getInt(position + EAST) < west
+                        || this.buffer.getInt(position + SOUTH) > north
+                        || this.buffer.getInt(position + NORTH) < south)
+                {
+                    continue;
+                }
+                final long offset = this.buffer.getLong(position + OFFSET);
+                final int length = this.buffer.getInt(position + LENGTH);
+                if (item >= this.leafStart)
+                {
+                    references.add(new FlagReference(offset, length));
+                }
+                else
+                {
+                    pending.add((int) offset);
+                    pending.add((int) offset + length);
+                }
+            }
+        }
+        references.sort(Comparator.comparingLong(FlagReference::getOffset));
+        return references;
+    }
+}
@@ -0,0 +1,211 @@
+package org.openstreetmap.atlas.checks.flag.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+import org.openstreetmap.atlas.geography.Rectangle;
+
+/**
+ * Collects the bounds and positions of the flags written to a flag file, and writes them as a
+ * {@link SpatialIndexFormat} packed Hilbert R-tree once the file is complete. Entries are kept in
+ * primitive arrays, so a file of millions of flags costs a few tens of bytes per flag.
+ *
+ * @author mkalender
+ */
+public final class SpatialIndexWriter
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int WEST = 0;
+    private static final int SOUTH = 1;
+    private static final int EAST = 2;
+    private static final int NORTH = 3;
+    private static final int SIDES = 4;
+    private static final long HILBERT_MAXIMUM = (1L << 16) - 1;
+
+    private final boolean compressed;
+    private int[] bounds = new int[INITIAL_CAPACITY * SIDES];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * Default constructor
+     *
+     * @param compressed
+     *            whether the flag file is gzipped, and its offsets are relative to its gzip
+     *            members
+     */
+    public SpatialIndexWriter(final boolean compressed)
+    {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Adds a flag
+     *
+     * @param flagBounds
+     *            bounds of the flag
+     * @param offset
+     *            position of the flag in the flag file
+     * @param length
+     *            number of bytes of the flag
+     */
+    public void add(final Rectangle flagBounds, final long offset, final int length)
+    {
+        if (this.count == this.offsets.length)
+        {
+            final int capacity = this.count * 2;
+            this.bounds = Arrays.copyOf(this.bounds, capacity * SIDES);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+        }
+        final int side = this.count * SIDES;
+        this.bounds[side + WEST] = (int) flagBounds.lowerLeft().getLongitude().asDm7();
+        this.bounds[side + SOUTH] = (int) flagBounds.lowerLeft().getLatitude().asDm7();
+        this.bounds[side + EAST] = (int) flagBounds.upperRight().getLongitude().asDm7();
+        this.bounds[side + NORTH] = (int) flagBounds.upperRight().getLatitude().asDm7();
+        this.offsets[this.count] = offset;
+        this.lengths[this.count] = length;
+        this.count++;
+    }
+
+    /**
+     * @return the number of flags added
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Replaces the offsets of the flags added so far, for flag files whose final offsets are only
+     * known once the file is complete
+     *
+     * @param mapping
+     *            maps an offset as added to its offset in the flag file
+     */
+    public void mapOffsets(final LongUnaryOperator mapping)
+    {
+        for (int entry = 0; entry < this.count; entry++)
+        {
+            this.offsets[entry] = mapping.applyAsLong(this.offsets[entry]);
+        }
+    }
+
+    /**
+     * Packs the flags into an R-tree and writes it
+     *
+     * @param output
+     *            stream to write to, left open
+     * @throws IOException
+     *             if the index cannot be written
+     */
+    public void writeTo(final OutputStream output) throws IOException
+    {
+        final int[] levelStarts = SpatialIndexFormat.levelStarts(this.count);
+        final int itemCount = levelStarts[levelStarts.length - 1];
+        final int leafStart = levelStarts[levelStarts.length - 2];
+        final int[] itemBounds = new int[itemCount * SIDES];
+        final long[] itemOffsets = new long[itemCount];
+        final int[] itemLengths = new int[itemCount];
+
+        final long[] order = this.hilbertOrder();
+        for (int leaf = 0; leaf < this.count; leaf++)
+        {
+            final int entry = (int) (order[leaf] & Integer.MAX_VALUE);
+            System.arraycopy(this.bounds, entry * SIDES, itemBounds, (leafStart + leaf) * SIDES,
+                    SIDES);
+            itemOffsets[leafStart + leaf] = this.offsets[entry];
+            itemLengths[leafStart + leaf] = this.lengths[entry];
+        }
+        // Each level covers the level below, up to the root
+        for (int level = levelStarts.length - 3; level >= 0; level--)
+        {
+            final int childStart = levelStarts[level + 1];
+            final int childEnd = levelStarts[level + 2];
+            for (int item = levelStarts[level]; item < levelStarts[level + 1]; item++)
+            {
+                final int firstChild = childStart
+                        + (item - levelStarts[level]) * SpatialIndexFormat.NODE_SIZE;
+                final int lastChild = Math.min(firstChild + SpatialIndexFormat.NODE_SIZE,
+                        childEnd);
+                itemOffsets[item] = firstChild;
+                itemLengths[item] = lastChild - firstChild;
+                System.arraycopy(itemBounds, firstChild * SIDES, itemBounds, item * SIDES, SIDES);
+                for (int child = firstChild + 1; child < lastChild; child++)
+                {
+                    expand(itemBounds, item, child);
+                }
+            }
+        }
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        data.writeInt(SpatialIndexFormat.MAGIC);
+        data.writeByte(SpatialIndexFormat.VERSION);
+        data.writeByte(this.compressed ? 1 : 0);
+        data.writeShort(SpatialIndexFormat.NODE_SIZE);
+        data.writeInt(this.count);
+        for (int item = 0; item < itemCount; item++)
+        {
+            for (int side = 0; side < SIDES; side++)
+            {
+                data.writeInt(itemBounds[item * SIDES + side]);
+            }
+            data.writeLong(itemOffsets[item]);
+            data.writeInt(itemLengths[item]);
+        }
+        data.flush();
+    }
+
+    private static void expand(final int[] itemBounds, final int item, final int child)
+    {
+        itemBounds[item * SIDES + WEST] = Math.min(itemBounds[item * SIDES + WEST],
+                itemBounds[child * SIDES + WEST]);
+        itemBounds[item * SIDES + SOUTH] = Math.min(itemBounds[item * SIDES + SOUTH],
+                itemBounds[child * SIDES + SOUTH]);
+        itemBounds[item * SIDES + EAST] = Math.max(itemBounds[item * SIDES + EAST],
+                itemBounds[child * SIDES + EAST]);
+        itemBounds[item * SIDES + NORTH] = Math.max(itemBounds[item * SIDES + NORTH],
+                itemBounds[child * SIDES + NORTH]);
+    }
+
+    /**
+     * @return the entries sorted by the Hilbert value of their centers within the extent of all
+     *         entries, each as its Hilbert value above the entry index
+     */
+    private long[] hilbertOrder()
+    {
+        long west = Long.MAX_VALUE;
+        long south = Long.MAX_VALUE;
+        long east = Long.MIN_VALUE;
+        long north = Long.MIN_VALUE;
+        final long[] centers = new long[this.count * 2];
+        for (int entry = 0; entry < this.count; entry++)
+        {
+            final int side = entry * SIDES;
+            centers[entry * 2] = ((long) this.bounds[side + WEST] + this.bounds[side + EAST]) / 2;
+            centers[entry * 2 + 1] = ((long) this.bounds[side + SOUTH]
+                    + this.bounds[side + NORTH]) / 2;
+            west = Math.min(west, centers[entry * 2]);
+            east = Math.max(east, centers[entry * 2]);
+            south = Math.min(south, centers[entry * 2 + 1]);
+            north = Math.max(north, centers[entry * 2 + 1]);
+        }
+        final long width = Math.max(1, east - west);
+        final long height = Math.max(1, north - south);
+        final long[] order = new long[this.count];
+        for (int entry = 0; entry < this.count; entry++)
+        {
+            final int x = (int) ((centers[entry * 2] - west) * HILBERT_MAXIMUM / width);
+            final int y = (int) ((centers[entry * 2 + 1] - south) * HILBERT_MAXIMUM / height);
+            // Hilbert values take 32 bits and entry indices 31, so the sort is by Hilbert value
+            order[entry] = SpatialIndexFormat.hilbert(x, y) << Integer.SIZE - 1 | entry;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+}
@@ -0,0 +1,169 @@
+package org.openstreetmap.atlas.checks.flag.serializer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the compact binary flag format. A file is a header, a sequence of blocks of length
+ * prefixed records and a footer:
+ *
+ * <pre>
+ * header  : magic (int) version (byte)
+ * block   : marker (byte) string table, record count (varint) records
+ * record  : length (varint) check (string reference) country (string reference) flag (value)
+ * footer  : marker (byte) block offsets, index of record offsets per check and country
+ * trailer : footer offset (long) magic (int)
+ * </pre>
+ *
+ * A flag is its GeoJson FeatureCollection encoded as a tree of tagged values. Strings, which
+ * include all tag keys and values, are stored once per block in the string table of the block and
+ * referenced by index. Numbers keep their type, so that 3.0 reads back as 3.0 rather than 3.
+ * Coordinate arrays are stored as dm7 integers, each position as the difference from the previous
+ * position of the same record. As each block carries its own strings, the flags of a file cut
+ * short before its footer can still be read, up to the last complete record.
+ *
+ * @author mkalender
+ */
+public final class BinaryFlagFormat
+{
+    public static final String FILE_EXTENSION = ".flags";
+
+    static final int MAGIC = 0x41434642;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = Integer.BYTES + 1;
+    static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+    static final String COORDINATES = "coordinates";
+    // Number of string and record bytes a block is filled up to
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    // Section markers
+    static final int FOOTER_MARKER = 0;
+    static final int BLOCK_MARKER = 1;
+
+    // Value tags
+    static final int NULL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int STRING = 3;
+    static final int LONG = 4;
+    static final int DOUBLE = 5;
+    static final int ARRAY = 6;
+    static final int OBJECT = 7;
+    static final int POSITIONS = 8;
+
+    private static final double DM7 = 10_000_000.0;
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_PAYLOAD = 0x7F;
+    private static final int VARINT_CONTINUATION = 0x80;
+
+    /**
+     * @param name
+     *            a file name
+     * @return {@code true} if the name has the binary flag file extension
+     */
+    public static boolean isBinaryFlagFile(final String name)
+    {
+        return name.endsWith(FILE_EXTENSION);
+    }
+
+    static double fromDm7(final long dm7)
+    {
+        return dm7 / DM7;
+    }
+
+    /**
+     * @return {@code true} if the coordinate is exactly representable in dm7
+     */
+    static boolean isDm7(final double coordinate)
+    {
+        return Math.abs(coordinate) <= Integer.MAX_VALUE / DM7
+                && fromDm7(Math.round(coordinate * DM7)) == coordinate;
+    }
+
+    static long readVarLong(final ByteBuffer buffer)
+    {
+        long value = 0;
+        int shift = 0;
+        int current;
+        do
+        {
+            current = buffer.get();
+            value |= (long) (current & VARINT_PAYLOAD) << shift;
+            shift += VARINT_BITS;
+        }
+        while ((current & VARINT_CONTINUATION) != 0);
+        return value;
+    }
+
+    /**
+     * @return the value, or -1 if the stream ended before the first byte
+     */
+    static long readVarLong(final InputStream input) throws IOException
+    {
+        long value = 0;
+        int shift = 0;
+        int current;
+        do
+        {
+            current = input.read();
+            if (current < 0)
+            {
+                if (shift == 0)
+                {
+                    return -1;
+                }
+                throw new EOFException("Truncated binary flag record");
+            }
+            value |= (long) (current & VARINT_PAYLOAD) << shift;
+            shift += VARINT_BITS;
+        }
+        while ((current & VARINT_CONTINUATION) != 0);
+        return value;
+    }
+
+    static long readZigZag(final ByteBuffer buffer)
+    {
+        final long value = readVarLong(buffer);
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    static long toDm7(final double coordinate)
+    {
+        return Math.round(coordinate * DM7);
+    }
+
+    static int varLongBytes(final long value)
+    {
+        int bytes = 1;
+        long remaining = value >>> VARINT_BITS;
+        while (remaining != 0)
+        {
+            bytes++;
+            remaining >>>= VARINT_BITS;
+        }
+        return bytes;
+    }
+
+    static void writeVarLong(final OutputStream output, final long value) throws IOException
+    {
+        long remaining = value;
+        while ((remaining & ~VARINT_PAYLOAD) != 0)
+        {
+            output.write((int) (remaining & VARINT_PAYLOAD | VARINT_CONTINUATION));
+            remaining >>>= VARINT_BITS;
+        }
+        output.write((int) remaining);
+    }
+
+    static void writeZigZag(final OutputStream output, final long value) throws IOException
+    {
+        writeVarLong(output, value << 1 ^ value >> (Long.SIZE - 1));
+    }
+
+    private BinaryFlagFormat()
+    {
+    }
+}
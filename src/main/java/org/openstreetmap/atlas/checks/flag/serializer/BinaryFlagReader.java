@@ -0,0 +1,507 @@
+package org.openstreetmap.atlas.checks.flag.serializer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import org.openstreetmap.atlas.exception.CoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Reads flags from a file in the {@link BinaryFlagFormat}. Flags are decoded straight into their
+ * GeoJson FeatureCollection {@link JsonObject}, without going through text. The footer index gives
+ * flag counts per check and country without reading any record, and lets a subset of checks be
+ * read without decoding the records of the other checks. A file without a valid footer, cut short
+ * while it was written, is read by scanning its blocks instead, up to the last complete record.
+ *
+ * @author mkalender
+ */
+public class BinaryFlagReader implements Closeable
+{
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(BinaryFlagReader.class);
+
+    private final Path path;
+    private final FileChannel channel;
+    // Offset of each block, in file order
+    private final long[] blockOffsets;
+    // Check name, country and record offsets of each index entry
+    private final String[] entryChecks;
+    private final String[] entryCountries;
+    private final long[][] entryOffsets;
+    // String table of the block read last
+    private int stringsBlock = -1;
+    private String[] strings;
+
+    /**
+     * Iterates over the records at the given offsets, reading ahead through a buffer as long as the
+     * offsets are contiguous
+     */
+    private final class RecordIterator implements Iterator<JsonObject>
+    {
+        private final long[] offsets;
+        private int next;
+        private long position = -1;
+        private InputStream input;
+
+        RecordIterator(final long[] offsets)
+        {
+            this.offsets = offsets;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.next < this.offsets.length;
+        }
+
+        @Override
+        public JsonObject next()
+        {
+            if (!this.hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            final long offset = this.offsets[this.next++];
+            try
+            {
+                if (offset != this.position)
+                {
+                    BinaryFlagReader.this.channel.position(offset);
+                    this.input = new BufferedInputStream(
+                            Channels.newInputStream(BinaryFlagReader.this.channel),
+                            BUFFER_BYTES);
+                }
+                final int length = (int) BinaryFlagFormat.readVarLong(this.input);
+                final byte[] bytes = readFully(this.input, length);
+                this.position = offset + BinaryFlagFormat.varLongBytes(length) + length;
+                return BinaryFlagReader.this.decodeRecord(offset, ByteBuffer.wrap(bytes));
+            }
+            catch (final IOException e)
+            {
+                throw new CoreException("Unable to read flag at {} from {}", offset,
+                        BinaryFlagReader.this.path, e);
+            }
+        }
+    }
+
+    private static byte[] readFully(final InputStream input, final int length) throws IOException
+    {
+        if (length < 0)
+        {
+            throw new EOFException("Truncated binary flag block");
+        }
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length)
+        {
+            final int chunk = input.read(bytes, read, length - read);
+            if (chunk < 0)
+            {
+                throw new EOFException("Truncated binary flag block");
+            }
+            read += chunk;
+        }
+        return bytes;
+    }
+
+    private static String readString(final ByteBuffer buffer)
+    {
+        final int length = (int) BinaryFlagFormat.readVarLong(buffer);
+        final String string = new String(buffer.array(), buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    /**
+     * Opens a file and reads its footer, or scans its blocks if it has no valid footer
+     *
+     * @param path
+     *            path of the file
+     * @throws IOException
+     *             if the file cannot be read, or is not a binary flag file
+     */
+    public BinaryFlagReader(final Path path) throws IOException
+    {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            final long size = this.channel.size();
+            if (size < BinaryFlagFormat.HEADER_BYTES)
+            {
+                throw new IOException(path + " is too short to be a binary flag file");
+            }
+            final ByteBuffer header = this.readBytes(0, BinaryFlagFormat.HEADER_BYTES);
+            if (header.getInt() != BinaryFlagFormat.MAGIC)
+            {
+                throw new IOException(path + " is not a binary flag file");
+            }
+            if (header.get() != BinaryFlagFormat.VERSION)
+            {
+                throw new IOException(path + " has an unsupported binary flag version");
+            }
+
+            final long footerOffset = this.footerOffset(size);
+            final List<Long> blocks = new ArrayList<>();
+            final Map<String, Map<String, List<Long>>> index = new LinkedHashMap<>();
+            if (footerOffset < 0)
+            {
+                this.scan(blocks, index);
+                logger.warn("{} has no footer, recovered {} flag(s) from {} block(s)", path,
+                        index.values().stream().flatMap(countries -> countries.values().stream())
+                                .mapToInt(List::size).sum(),
+                        blocks.size());
+            }
+            else
+            {
+                this.readFooter(footerOffset,
+                        (int) (size - BinaryFlagFormat.TRAILER_BYTES - footerOffset), blocks,
+                        index);
+            }
+            this.blockOffsets = blocks.stream().mapToLong(Long::longValue).toArray();
+            final int entries = index.values().stream().mapToInt(Map::size).sum();
+            this.entryChecks = new String[entries];
+            this.entryCountries = new String[entries];
+            this.entryOffsets = new long[entries][];
+            int entry = 0;
+            for (final Map.Entry<String, Map<String, List<Long>>> check : index.entrySet())
+            {
+                for (final Map.Entry<String, List<Long>> country : check.getValue().entrySet())
+                {
+                    this.entryChecks[entry] = check.getKey();
+                    this.entryCountries[entry] = country.getKey();
+                    this.entryOffsets[entry] = country.getValue().stream()
+                            .mapToLong(Long::longValue).toArray();
+                    entry++;
+                }
+            }
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+
+    /**
+     * @return the number of flags per check per country, read from the footer only
+     */
+    public Map<String, Map<String, Long>> getCountryCheckCounts()
+    {
+        final Map<String, Map<String, Long>> counts = new HashMap<>();
+        for (int entry = 0; entry < this.entryChecks.length; entry++)
+        {
+            counts.computeIfAbsent(this.entryCountries[entry], key -> new HashMap<>())
+                    .merge(this.entryChecks[entry], (long) this.entryOffsets[entry].length,
+                            Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @return all flags in the file, in the order they were written
+     */
+    public Iterator<JsonObject> read()
+    {
+        return this.read(checkName -> true);
+    }
+
+    /**
+     * @param checkFilter
+     *            which checks to read flags of
+     * @return the flags of the matching checks, in the order they were written
+     */
+    public Iterator<JsonObject> read(final Predicate<String> checkFilter)
+    {
+        return new RecordIterator(this.matchingOffsets(checkFilter));
+    }
+
+    /**
+     * Reads a single flag, as located by a spatial index of the file
+     *
+     * @param offset
+     *            offset of the record of the flag
+     * @param length
+     *            number of bytes of the record, including its length prefix
+     * @return the flag
+     * @throws IOException
+     *             if the record cannot be read
+     */
+    public JsonObject read(final long offset, final int length) throws IOException
+    {
+        final ByteBuffer record = this.readBytes(offset, length);
+        BinaryFlagFormat.readVarLong(record);
+        return this.decodeRecord(offset, record);
+    }
+
+    private JsonElement decode(final ByteBuffer buffer, final long[] previousPosition)
+    {
+        final int tag = buffer.get();
+        switch (tag)
+        {
+            case BinaryFlagFormat.NULL:
+                return JsonNull.INSTANCE;
+            case BinaryFlagFormat.TRUE:
+                return new JsonPrimitive(true);
+            case BinaryFlagFormat.FALSE:
+                return new JsonPrimitive(false);
+            case BinaryFlagFormat.STRING:
+                return new JsonPrimitive(this.string(buffer));
+            case BinaryFlagFormat.LONG:
+                return new JsonPrimitive(BinaryFlagFormat.readZigZag(buffer));
+            case BinaryFlagFormat.DOUBLE:
+                return new JsonPrimitive(buffer.getDouble());
+            case BinaryFlagFormat.ARRAY:
+                return this.decodeArray(buffer, previousPosition);
+            case BinaryFlagFormat.OBJECT:
+                return this.decodeObject(buffer, previousPosition);
+            case BinaryFlagFormat.POSITIONS:
+                return this.decodePositions(buffer, (int) BinaryFlagFormat.readVarLong(buffer),
+                        previousPosition);
+            default:
+                throw new CoreException("Unknown value tag {} in {}", tag, this.path);
+        }
+    }
+
+    private JsonArray decodeArray(final ByteBuffer buffer, final long[] previousPosition)
+    {
+        final int size = (int) BinaryFlagFormat.readVarLong(buffer);
+        final JsonArray array = new JsonArray();
+        for (int index = 0; index < size; index++)
+        {
+            array.add(this.decode(buffer, previousPosition));
+        }
+        return array;
+    }
+
+    private JsonObject decodeObject(final ByteBuffer buffer, final long[] previousPosition)
+    {
+        final int members = (int) BinaryFlagFormat.readVarLong(buffer);
+        final JsonObject object = new JsonObject();
+        for (int index = 0; index < members; index++)
+        {
+            final String key = this.string(buffer);
+            object.add(key, this.decode(buffer, previousPosition));
+        }
+        return object;
+    }
+
+    private JsonArray decodePositions(final ByteBuffer buffer, final int depth,
+            final long[] previousPosition)
+    {
+        final JsonArray array = new JsonArray();
+        if (depth == 0)
+        {
+            previousPosition[0] += BinaryFlagFormat.readZigZag(buffer);
+            previousPosition[1] += BinaryFlagFormat.readZigZag(buffer);
+            array.add(new JsonPrimitive(BinaryFlagFormat.fromDm7(previousPosition[0])));
+            array.add(new JsonPrimitive(BinaryFlagFormat.fromDm7(previousPosition[1])));
+            return array;
+        }
+        final int size = (int) BinaryFlagFormat.readVarLong(buffer);
+        for (int index = 0; index < size; index++)
+        {
+            array.add(this.decodePositions(buffer, depth - 1, previousPosition));
+        }
+        return array;
+    }
+
+    private synchronized JsonObject decodeRecord(final long offset, final ByteBuffer buffer)
+            throws IOException
+    {
+        this.loadStrings(offset);
+        // Skip the check name and country, which are only needed by the index
+        BinaryFlagFormat.readVarLong(buffer);
+        BinaryFlagFormat.readVarLong(buffer);
+        return this.decode(buffer, new long[2]).getAsJsonObject();
+    }
+
+    /**
+     * @return the offset of the footer, or -1 if the file has no valid footer
+     */
+    private long footerOffset(final long size) throws IOException
+    {
+        if (size < BinaryFlagFormat.HEADER_BYTES + BinaryFlagFormat.TRAILER_BYTES)
+        {
+            return -1;
+        }
+        final ByteBuffer trailer = this.readBytes(size - BinaryFlagFormat.TRAILER_BYTES,
+                BinaryFlagFormat.TRAILER_BYTES);
+        final long footerOffset = trailer.getLong();
+        if (trailer.getInt() != BinaryFlagFormat.MAGIC
+                || footerOffset < BinaryFlagFormat.HEADER_BYTES
+                || footerOffset >= size - BinaryFlagFormat.TRAILER_BYTES
+                || this.readBytes(footerOffset, 1).get() != BinaryFlagFormat.FOOTER_MARKER)
+        {
+            return -1;
+        }
+        return footerOffset;
+    }
+
+    /**
+     * Loads the string table of the block holding a record, unless it is already loaded
+     */
+    private void loadStrings(final long recordOffset) throws IOException
+    {
+        int block = Arrays.binarySearch(this.blockOffsets, recordOffset);
+        if (block < 0)
+        {
+            block = -block - 2;
+        }
+        if (block == this.stringsBlock)
+        {
+            return;
+        }
+        final long blockOffset = this.blockOffsets[block];
+        // The string table ends before the first record of the block
+        final ByteBuffer table = this.readBytes(blockOffset, (int) (recordOffset - blockOffset));
+        table.get();
+        this.strings = new String[(int) BinaryFlagFormat.readVarLong(table)];
+        for (int index = 0; index < this.strings.length; index++)
+        {
+            this.strings[index] = readString(table);
+        }
+        this.stringsBlock = block;
+    }
+
+    private long[] matchingOffsets(final Predicate<String> checkFilter)
+    {
+        final long[] offsets = IntStream.range(0, this.entryChecks.length)
+                .filter(entry -> checkFilter.test(this.entryChecks[entry]))
+                .mapToObj(entry -> this.entryOffsets[entry]).flatMapToLong(Arrays::stream)
+                .toArray();
+        // Read in file order, so that contiguous records share a buffer
+        Arrays.sort(offsets);
+        return offsets;
+    }
+
+    private void readFooter(final long offset, final int length, final List<Long> blocks,
+            final Map<String, Map<String, List<Long>>> index) throws IOException
+    {
+        final ByteBuffer footer = this.readBytes(offset, length);
+        footer.get();
+        final int blockCount = (int) BinaryFlagFormat.readVarLong(footer);
+        long blockOffset = 0;
+        for (int block = 0; block < blockCount; block++)
+        {
+            blockOffset += BinaryFlagFormat.readVarLong(footer);
+            blocks.add(blockOffset);
+        }
+        final int entries = (int) BinaryFlagFormat.readVarLong(footer);
+        for (int entry = 0; entry < entries; entry++)
+        {
+            final String check = readString(footer);
+            final String country = readString(footer);
+            final int count = (int) BinaryFlagFormat.readVarLong(footer);
+            final List<Long> offsets = index.computeIfAbsent(check, key -> new LinkedHashMap<>())
+                    .computeIfAbsent(country, key -> new ArrayList<>(count));
+            long recordOffset = 0;
+            for (int record = 0; record < count; record++)
+            {
+                recordOffset += BinaryFlagFormat.readVarLong(footer);
+                offsets.add(recordOffset);
+            }
+        }
+    }
+
+    private ByteBuffer readBytes(final long offset, final int length) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            if (this.channel.read(buffer, offset + buffer.position()) < 0)
+            {
+                throw new EOFException(this.path.toString());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Rebuilds the block offsets and the index of a file without a footer, from every complete
+     * record of its blocks
+     */
+    private void scan(final List<Long> blocks, final Map<String, Map<String, List<Long>>> index)
+            throws IOException
+    {
+        this.channel.position(BinaryFlagFormat.HEADER_BYTES);
+        final CountingInputStream input = new CountingInputStream(
+                new BufferedInputStream(Channels.newInputStream(this.channel), BUFFER_BYTES));
+        try
+        {
+            while (true)
+            {
+                final long blockOffset = BinaryFlagFormat.HEADER_BYTES + input.getCount();
+                if (input.read() != BinaryFlagFormat.BLOCK_MARKER)
+                {
+                    return;
+                }
+                final String[] blockStrings = new String[(int) BinaryFlagFormat
+                        .readVarLong(input)];
+                for (int string = 0; string < blockStrings.length; string++)
+                {
+                    blockStrings[string] = new String(
+                            readFully(input, (int) BinaryFlagFormat.readVarLong(input)),
+                            StandardCharsets.UTF_8);
+                }
+                final long records = BinaryFlagFormat.readVarLong(input);
+                blocks.add(blockOffset);
+                for (long record = 0; record < records; record++)
+                {
+                    final long recordOffset = BinaryFlagFormat.HEADER_BYTES + input.getCount();
+                    final ByteBuffer body = ByteBuffer.wrap(
+                            readFully(input, (int) BinaryFlagFormat.readVarLong(input)));
+                    final String check = blockStrings[(int) BinaryFlagFormat.readVarLong(body)];
+                    final String country = blockStrings[(int) BinaryFlagFormat.readVarLong(body)];
+                    index.computeIfAbsent(check, key -> new LinkedHashMap<>())
+                            .computeIfAbsent(country, key -> new ArrayList<>())
+                            .add(recordOffset);
+                }
+            }
+        }
+        catch (final EOFException e)
+        {
+            // The file was cut short in the middle of a block
+        }
+    }
+
+    private String string(final ByteBuffer buffer)
+    {
+        return this.strings[(int) BinaryFlagFormat.readVarLong(buffer)];
+    }
+}
@@ -0,0 +1,461 @@
+package org.openstreetmap.atlas.checks.flag.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Writes flags into the {@link BinaryFlagFormat}. Flags are encoded into {@link Block}s, which
+ * are appended to the file whole; the index is kept in memory and written as the footer when the
+ * writer is closed. A writer is not thread safe, but blocks can be encoded on other threads and
+ * handed to {@link #write(Block)}.
+ *
+ * @author mkalender
+ */
+public class BinaryFlagWriter implements Closeable
+{
+    private final DataOutputStream output;
+
+    // Offsets of the blocks written
+    private final List<Long> blockOffsets = new ArrayList<>();
+
+    // Record offsets per check per country
+    private final Map<String, Map<String, List<Long>>> index = new LinkedHashMap<>();
+
+    // Block of the flags written one at a time, appended once full
+    private final Block pending = new Block();
+    private long position;
+    private long count;
+
+    /**
+     * Flags encoded ahead of being appended to a file, with the string table they share. Blocks
+     * do not depend on each other or on the file they end up in, so each thread can encode its own
+     * block and only take turns to append it. A block is not thread safe.
+     */
+    public static final class Block
+    {
+        // String table, in order of first use
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int stringBytes;
+
+        // Encoded records, with the check, country and offset in the block of each one
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final List<String> checks = new ArrayList<>();
+        private final List<String> countries = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+
+        // Record being encoded, reused between records
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        private long previousLongitude;
+        private long previousLatitude;
+
+        /**
+         * @return the depth of nested arrays above the positions of a coordinates array, or -1 if
+         *         the array cannot be encoded as dm7 positions
+         */
+        private static int positionDepth(final JsonElement element)
+        {
+            if (!element.isJsonArray())
+            {
+                return -1;
+            }
+            final JsonArray array = element.getAsJsonArray();
+            if (isPosition(array))
+            {
+                return 0;
+            }
+            if (array.size() == 0)
+            {
+                return -1;
+            }
+            final int depth = positionDepth(array.get(0));
+            if (depth < 0)
+            {
+                return -1;
+            }
+            for (int child = 1; child < array.size(); child++)
+            {
+                if (positionDepth(array.get(child)) != depth)
+                {
+                    return -1;
+                }
+            }
+            return depth + 1;
+        }
+
+        private static boolean isDm7Number(final JsonElement element)
+        {
+            return element.isJsonPrimitive() && element.getAsJsonPrimitive().isNumber()
+                    && BinaryFlagFormat.isDm7(element.getAsDouble());
+        }
+
+        /**
+         * @return {@code true} if the number was written without a fraction or an exponent, and
+         *         fits a long
+         */
+        private static boolean isIntegral(final Number number)
+        {
+            try
+            {
+                Long.parseLong(number.toString());
+                return true;
+            }
+            catch (final NumberFormatException e)
+            {
+                return false;
+            }
+        }
+
+        private static boolean isPosition(final JsonArray array)
+        {
+            return array.size() == 2 && isDm7Number(array.get(0)) && isDm7Number(array.get(1));
+        }
+
+        /**
+         * Encodes a single flag
+         *
+         * @param checkName
+         *            name of the check that generated the flag
+         * @param country
+         *            country code of the flag
+         * @param flag
+         *            GeoJson FeatureCollection of the flag
+         * @throws IOException
+         *             if the flag cannot be encoded
+         */
+        public void add(final String checkName, final String country, final JsonObject flag)
+                throws IOException
+        {
+            this.record.reset();
+            this.previousLongitude = 0;
+            this.previousLatitude = 0;
+            BinaryFlagFormat.writeVarLong(this.record, this.stringIndex(checkName));
+            BinaryFlagFormat.writeVarLong(this.record, this.stringIndex(country));
+            this.encode(flag);
+
+            this.checks.add(checkName);
+            this.countries.add(country);
+            this.offsets.add(this.records.size());
+            BinaryFlagFormat.writeVarLong(this.records, this.record.size());
+            this.record.writeTo(this.records);
+        }
+
+        /**
+         * @return the number of flags in the block
+         */
+        public int getCount()
+        {
+            return this.checks.size();
+        }
+
+        /**
+         * @param record
+         *            index of a record of the block
+         * @return the number of bytes of the record, including its length prefix
+         */
+        public int getRecordLength(final int record)
+        {
+            final int end = record + 1 < this.offsets.size() ? this.offsets.get(record + 1)
+                    : this.records.size();
+            return end - this.offsets.get(record);
+        }
+
+        /**
+         * @return {@code true} once the block is large enough to be appended to a file
+         */
+        public boolean isFull()
+        {
+            return this.stringBytes + this.records.size() >= BinaryFlagFormat.BLOCK_BYTES;
+        }
+
+        private void clear()
+        {
+            this.stringIndices.clear();
+            this.strings.clear();
+            this.stringBytes = 0;
+            this.records.reset();
+            this.checks.clear();
+            this.countries.clear();
+            this.offsets.clear();
+        }
+
+        private void encode(final JsonElement element) throws IOException
+        {
+            if (element == null || element.isJsonNull())
+            {
+                this.record.write(BinaryFlagFormat.NULL);
+            }
+            else if (element.isJsonObject())
+            {
+                final JsonObject object = element.getAsJsonObject();
+                this.record.write(BinaryFlagFormat.OBJECT);
+                BinaryFlagFormat.writeVarLong(this.record, object.entrySet().size());
+                for (final Map.Entry<String, JsonElement> entry : object.entrySet())
+                {
+                    BinaryFlagFormat.writeVarLong(this.record, this.stringIndex(entry.getKey()));
+                    final int depth = BinaryFlagFormat.COORDINATES.equals(entry.getKey())
+                            ? positionDepth(entry.getValue())
+                            : -1;
+                    if (depth < 0)
+                    {
+                        this.encode(entry.getValue());
+                    }
+                    else
+                    {
+                        this.record.write(BinaryFlagFormat.POSITIONS);
+                        BinaryFlagFormat.writeVarLong(this.record, depth);
+                        this.encodePositions(entry.getValue().getAsJsonArray(), depth);
+                    }
+                }
+            }
+            else if (element.isJsonArray())
+            {
+                final JsonArray array = element.getAsJsonArray();
+                this.record.write(BinaryFlagFormat.ARRAY);
+                BinaryFlagFormat.writeVarLong(this.record, array.size());
+                for (final JsonElement child : array)
+                {
+                    this.encode(child);
+                }
+            }
+            else
+            {
+                this.encodePrimitive(element.getAsJsonPrimitive());
+            }
+        }
+
+        private void encodePositions(final JsonArray array, final int depth) throws IOException
+        {
+            if (depth == 0)
+            {
+                final long longitude = BinaryFlagFormat.toDm7(array.get(0).getAsDouble());
+                final long latitude = BinaryFlagFormat.toDm7(array.get(1).getAsDouble());
+                BinaryFlagFormat.writeZigZag(this.record, longitude - this.previousLongitude);
+                BinaryFlagFormat.writeZigZag(this.record, latitude - this.previousLatitude);
+                this.previousLongitude = longitude;
+                this.previousLatitude = latitude;
+                return;
+            }
+            BinaryFlagFormat.writeVarLong(this.record, array.size());
+            for (final JsonElement child : array)
+            {
+                this.encodePositions(child.getAsJsonArray(), depth - 1);
+            }
+        }
+
+        private void encodePrimitive(final JsonPrimitive primitive) throws IOException
+        {
+            if (primitive.isBoolean())
+            {
+                this.record.write(
+                        primitive.getAsBoolean() ? BinaryFlagFormat.TRUE : BinaryFlagFormat.FALSE);
+            }
+            else if (primitive.isNumber())
+            {
+                if (isIntegral(primitive.getAsNumber()))
+                {
+                    this.record.write(BinaryFlagFormat.LONG);
+                    BinaryFlagFormat.writeZigZag(this.record, primitive.getAsLong());
+                }
+                else
+                {
+                    this.record.write(BinaryFlagFormat.DOUBLE);
+                    final long bits = Double.doubleToLongBits(primitive.getAsDouble());
+                    for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE)
+                    {
+                        this.record.write((int) (bits >>> shift));
+                    }
+                }
+            }
+            else
+            {
+                this.record.write(BinaryFlagFormat.STRING);
+                BinaryFlagFormat.writeVarLong(this.record,
+                        this.stringIndex(primitive.getAsString()));
+            }
+        }
+
+        private int stringIndex(final String string)
+        {
+            return this.stringIndices.computeIfAbsent(string, key ->
+            {
+                final int bytes = key.getBytes(StandardCharsets.UTF_8).length;
+                this.stringBytes += BinaryFlagFormat.varLongBytes(bytes) + bytes;
+                this.strings.add(key);
+                return this.strings.size() - 1;
+            });
+        }
+
+        /**
+         * Writes the marker and string table of the block, which precede its records
+         */
+        private void writeHeader(final OutputStream output) throws IOException
+        {
+            output.write(BinaryFlagFormat.BLOCK_MARKER);
+            BinaryFlagFormat.writeVarLong(output, this.strings.size());
+            for (final String string : this.strings)
+            {
+                final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                BinaryFlagFormat.writeVarLong(output, bytes.length);
+                output.write(bytes);
+            }
+            BinaryFlagFormat.writeVarLong(output, this.getCount());
+        }
+    }
+
+    /**
+     * Writes the header of a new file
+     *
+     * @param output
+     *            stream to write to
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    public BinaryFlagWriter(final OutputStream output) throws IOException
+    {
+        this.output = new DataOutputStream(output);
+        this.output.writeInt(BinaryFlagFormat.MAGIC);
+        this.output.writeByte(BinaryFlagFormat.VERSION);
+        this.position = BinaryFlagFormat.HEADER_BYTES;
+    }
+
+    /**
+     * Writes the flags not written yet and the footer, and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException
+    {
+        this.append(this.pending);
+        final long footerOffset = this.position;
+        this.output.write(BinaryFlagFormat.FOOTER_MARKER);
+        BinaryFlagFormat.writeVarLong(this.output, this.blockOffsets.size());
+        long previousBlock = 0;
+        for (final long offset : this.blockOffsets)
+        {
+            BinaryFlagFormat.writeVarLong(this.output, offset - previousBlock);
+            previousBlock = offset;
+        }
+        BinaryFlagFormat.writeVarLong(this.output,
+                this.index.values().stream().mapToInt(Map::size).sum());
+        for (final Map.Entry<String, Map<String, List<Long>>> check : this.index.entrySet())
+        {
+            for (final Map.Entry<String, List<Long>> country : check.getValue().entrySet())
+            {
+                this.writeString(check.getKey());
+                this.writeString(country.getKey());
+                BinaryFlagFormat.writeVarLong(this.output, country.getValue().size());
+                long previousOffset = 0;
+                for (final long offset : country.getValue())
+                {
+                    BinaryFlagFormat.writeVarLong(this.output, offset - previousOffset);
+                    previousOffset = offset;
+                }
+            }
+        }
+        this.output.writeLong(footerOffset);
+        this.output.writeInt(BinaryFlagFormat.MAGIC);
+        this.output.close();
+    }
+
+    /**
+     * @return the number of flags written
+     */
+    public long getCount()
+    {
+        return this.count + this.pending.getCount();
+    }
+
+    /**
+     * @return the number of bytes of the blocks written so far, excluding the flags of
+     *         {@link #write(String, String, JsonObject)} not in a full block yet, and the footer
+     */
+    public long getPosition()
+    {
+        return this.position;
+    }
+
+    /**
+     * Appends a block of flags
+     *
+     * @param block
+     *            the flags to write, cleared once written
+     * @return the offset of each record of the block in the file
+     * @throws IOException
+     *             if the block cannot be written
+     */
+    public long[] write(final Block block) throws IOException
+    {
+        // Flags written one at a time come first
+        this.append(this.pending);
+        return this.append(block);
+    }
+
+    /**
+     * Writes a single flag, appended with the next flags once they fill up a block
+     *
+     * @param checkName
+     *            name of the check that generated the flag
+     * @param country
+     *            country code of the flag
+     * @param flag
+     *            GeoJson FeatureCollection of the flag
+     * @throws IOException
+     *             if the flag cannot be written
+     */
+    public void write(final String checkName, final String country, final JsonObject flag)
+            throws IOException
+    {
+        this.pending.add(checkName, country, flag);
+        if (this.pending.isFull())
+        {
+            this.append(this.pending);
+        }
+    }
+
+    private long[] append(final Block block) throws IOException
+    {
+        final long[] offsets = new long[block.getCount()];
+        if (offsets.length == 0)
+        {
+            return offsets;
+        }
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        block.writeHeader(header);
+        this.blockOffsets.add(this.position);
+        final long recordsOffset = this.position + header.size();
+        for (int record = 0; record < offsets.length; record++)
+        {
+            offsets[record] = recordsOffset + block.offsets.get(record);
+            this.index.computeIfAbsent(block.checks.get(record), key -> new LinkedHashMap<>())
+                    .computeIfAbsent(block.countries.get(record), key -> new ArrayList<>())
+                    .add(offsets[record]);
+        }
+        header.writeTo(this.output);
+        block.records.writeTo(this.output);
+        this.position = recordsOffset + block.records.size();
+        this.count += offsets.length;
+        block.clear();
+        return offsets;
+    }
+
+    private void writeString(final String string) throws IOException
+    {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        BinaryFlagFormat.writeVarLong(this.output, bytes.length);
+        this.output.write(bytes);
+    }
+}
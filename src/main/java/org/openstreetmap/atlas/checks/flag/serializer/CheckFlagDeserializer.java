@@ -84,6 +84,22 @@ public class CheckFlagDeserializer implements JsonDeserializer<CheckFlag>
                 .map(String::toString).collect(Collectors.joining(","));
     }
 
+    /**
+     * Returns the instructions of a flag without their numbering.
+     *
+     * @param instructions
+     *            - numbered instructions, as written by {@link CheckFlag#getInstructions()}
+     * @return - list of instructions
+     */
+    public static List<String> parseInstructions(final String instructions)
+    {
+        // Split the instructions using the new line character and remove the prepended instruction
+        // number
+        return Arrays.stream(instructions.split("\n")).map(
+                instruction -> instruction.replaceAll("^\\d+\\. ", CommonConstants.EMPTY_STRING))
+                .collect(Collectors.toList());
+    }
+
     public CheckFlagDeserializer()
     {
         // Default constructor
@@ -102,13 +118,8 @@ public class CheckFlagDeserializer implements JsonDeserializer<CheckFlag>
         }
         final JsonObject properties = full.get(PROPERTIES).getAsJsonObject();
         final String checkName = properties.get(GENERATOR).getAsString();
-        // Split the instructions using the new line character and remove the prepended instruction
-        // number
-        final List<String> instructions = Arrays
-                .stream(properties.get(INSTRUCTIONS).getAsString().split("\n"))
-                .map(instruction -> instruction.replaceAll("^\\d+\\. ",
-                        CommonConstants.EMPTY_STRING))
-                .collect(Collectors.toList());
+        final List<String> instructions = parseInstructions(
+                properties.get(INSTRUCTIONS).getAsString());
         final String flagIdentifier = properties.get(ID).getAsString();
         final CheckFlag flag = new CheckFlag(flagIdentifier);
         flag.addInstructions(instructions);
@@ -0,0 +1,245 @@
+package org.openstreetmap.atlas.checks.flag.serializer;
+
+import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.COORDINATES;
+import static org.openstreetmap.atlas.geography.geojson.GeoJsonConstants.TYPE;
+
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.MultiPolygon;
+import org.openstreetmap.atlas.geography.Polygon;
+import org.openstreetmap.atlas.geography.Rectangle;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Builds GeoJson geometries of flagged objects from the dm7 values of their {@link Location}s.
+ * Each coordinate is kept in dm7 and only printed, with integer arithmetic, when the geometry is
+ * written: as fixed precision decimal degrees with at most seven decimals, which is the precision
+ * of OSM data. Going through doubles instead prints every coordinate through the much slower
+ * shortest round-trip double formatting, with extra digits for values that are not exact in
+ * binary.
+ * <p>
+ * Flags are still assembled, mutated and memoized as Gson trees, so the geometries are trees too.
+ * Every position and coordinate in them is its own element, so that changing one geometry never
+ * changes another.
+ *
+ * @author agent
+ */
+public final class GeoJsonGeometries
+{
+    /**
+     * A coordinate in dm7, printed as decimal degrees when the json is written
+     */
+    private static final class Dm7Degrees extends Number
+    {
+        private static final long serialVersionUID = 8049346244962208839L;
+        private final long dm7;
+
+        Dm7Degrees(final long dm7)
+        {
+            this.dm7 = dm7;
+        }
+
+        @Override
+        public double doubleValue()
+        {
+            return this.dm7 / (double) DM7_PER_DEGREE;
+        }
+
+        @Override
+        public float floatValue()
+        {
+            return (float) this.doubleValue();
+        }
+
+        @Override
+        public int intValue()
+        {
+            return (int) this.longValue();
+        }
+
+        @Override
+        public long longValue()
+        {
+            return this.dm7 / DM7_PER_DEGREE;
+        }
+
+        @Override
+        public String toString()
+        {
+            return appendDegrees(new StringBuilder(DEGREES_CHARACTERS), this.dm7).toString();
+        }
+    }
+
+    private static final String POINT = "Point";
+    private static final String LINE_STRING = "LineString";
+    private static final String POLYGON = "Polygon";
+    private static final String MULTI_POLYGON = "MultiPolygon";
+    private static final long DM7_PER_DEGREE = 10_000_000L;
+    private static final int DM7_DECIMALS = 7;
+    // Longest text of a coordinate, "-180.0000001"
+    private static final int DEGREES_CHARACTERS = 12;
+
+    /**
+     * Appends a dm7 value as decimal degrees, keeping at least one decimal
+     *
+     * @param builder
+     *            {@link StringBuilder} to append to
+     * @param dm7
+     *            the value in dm7
+     * @return the builder
+     */
+    public static StringBuilder appendDegrees(final StringBuilder builder, final long dm7)
+    {
+        long value = dm7;
+        if (value < 0)
+        {
+            builder.append('-');
+            value = -value;
+        }
+        builder.append(value / DM7_PER_DEGREE).append('.');
+        long fraction = value % DM7_PER_DEGREE;
+        if (fraction == 0)
+        {
+            return builder.append('0');
+        }
+        int decimals = DM7_DECIMALS;
+        while (fraction % 10 == 0)
+        {
+            fraction /= 10;
+            decimals--;
+        }
+        // Leading zeros of the fraction
+        for (long scale = pow10(decimals - 1); fraction < scale; scale /= 10)
+        {
+            builder.append('0');
+        }
+        return builder.append(fraction);
+    }
+
+    /**
+     * @param bounds
+     *            a {@link Rectangle}
+     * @return a Polygon geometry of the bounds, starting from their lower left corner
+     */
+    public static JsonObject bounds(final Rectangle bounds)
+    {
+        final long west = bounds.lowerLeft().getLongitude().asDm7();
+        final long south = bounds.lowerLeft().getLatitude().asDm7();
+        final long east = bounds.upperRight().getLongitude().asDm7();
+        final long north = bounds.upperRight().getLatitude().asDm7();
+        final JsonArray ring = new JsonArray();
+        ring.add(position(west, south));
+        ring.add(position(west, north));
+        ring.add(position(east, north));
+        ring.add(position(east, south));
+        ring.add(position(west, south));
+        final JsonArray rings = new JsonArray();
+        rings.add(ring);
+        return geometry(POLYGON, rings);
+    }
+
+    /**
+     * @param locations
+     *            the {@link Location}s of a line
+     * @return a LineString geometry
+     */
+    public static JsonObject lineString(final Iterable<Location> locations)
+    {
+        return geometry(LINE_STRING, positions(locations));
+    }
+
+    /**
+     * @param multiPolygon
+     *            a {@link MultiPolygon}
+     * @return a MultiPolygon geometry, with closed rings
+     */
+    public static JsonObject multiPolygon(final MultiPolygon multiPolygon)
+    {
+        final JsonArray polygons = new JsonArray();
+        for (final Polygon outer : multiPolygon.outers())
+        {
+            final JsonArray rings = new JsonArray();
+            rings.add(positions(outer.closedLoop()));
+            for (final Polygon inner : multiPolygon.innersOf(outer))
+            {
+                rings.add(positions(inner.closedLoop()));
+            }
+            polygons.add(rings);
+        }
+        return geometry(MULTI_POLYGON, polygons);
+    }
+
+    /**
+     * @param location
+     *            a {@link Location}
+     * @return a Point geometry
+     */
+    public static JsonObject point(final Location location)
+    {
+        return geometry(POINT, position(location));
+    }
+
+    /**
+     * @param ring
+     *            the closed {@link Location}s of a polygon ring
+     * @return a Polygon geometry with a single ring
+     */
+    public static JsonObject polygon(final Iterable<Location> ring)
+    {
+        final JsonArray rings = new JsonArray();
+        rings.add(positions(ring));
+        return geometry(POLYGON, rings);
+    }
+
+    /**
+     * @param location
+     *            a {@link Location}
+     * @return the GeoJson position of the location
+     */
+    public static JsonArray position(final Location location)
+    {
+        return position(location.getLongitude().asDm7(), location.getLatitude().asDm7());
+    }
+
+    private static JsonObject geometry(final String type, final JsonArray coordinates)
+    {
+        final JsonObject geometry = new JsonObject();
+        geometry.addProperty(TYPE, type);
+        geometry.add(COORDINATES, coordinates);
+        return geometry;
+    }
+
+    private static long pow10(final int exponent)
+    {
+        long value = 1;
+        for (int index = 0; index < exponent; index++)
+        {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private static JsonArray position(final long longitude, final long latitude)
+    {
+        final JsonArray position = new JsonArray();
+        position.add(new JsonPrimitive(new Dm7Degrees(longitude)));
+        position.add(new JsonPrimitive(new Dm7Degrees(latitude)));
+        return position;
+    }
+
+    private static JsonArray positions(final Iterable<Location> locations)
+    {
+        final JsonArray positions = new JsonArray();
+        for (final Location location : locations)
+        {
+            positions.add(position(location));
+        }
+        return positions;
+    }
+
+    private GeoJsonGeometries()
+    {
+    }
+}
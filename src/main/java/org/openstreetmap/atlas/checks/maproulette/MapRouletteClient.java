@@ -7,7 +7,6 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
@@ -25,7 +24,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Stand-alone MapRoulette client
+ * Stand-alone MapRoulette client. Tasks are batched per project and challenge, indexed by task
+ * identifier, so adding a task is a constant time lookup. Tasks can be added from many threads at
+ * once; only the threads adding tasks to the same challenge wait on each other, while the project
+ * and challenge are created. With an {@link UploadJournal}, tasks already uploaded by an earlier
+ * run are skipped, and the tasks uploaded are recorded in it. The challenge of a task is created
+ * before the journal is checked, so the tasks of a challenge that was created again are uploaded
+ * again.
  *
  * @author mgostintsev
  * @author nachtm
@@ -36,14 +41,15 @@ public class MapRouletteClient implements Serializable
     private static final long serialVersionUID = -8121247154514856056L;
     private static final String CHALLENGES_FILE = "challenges.txt";
     // This map contains the key which is "${projectName}-${challengeName}" mapping to the batch of
-    // tasks for the given key
-    private final Map<Tuple<String, String>, Set<Task>> batch;
+    // tasks for the given key, by task identifier
+    private final Map<Tuple<String, String>, Map<String, Task>> batch;
     private final MapRouletteConfiguration configuration;
     private final TaskLoader connection;
     // Map containing all the challenges per project
     private final Map<String, Project> projects;
     private final Map<Long, Map<String, Challenge>> challenges;
     private transient Optional<String> outputPath = Optional.empty();
+    private transient Optional<UploadJournal> journal = Optional.empty();
 
     /**
      * Creates a {@link MapRouletteClient} from {@link MapRouletteConfiguration}.
@@ -92,7 +98,7 @@ public class MapRouletteClient implements Serializable
         this.connection = taskLoader;
     }
 
-    public synchronized void addTask(final Challenge challenge, final Task task)
+    public void addTask(final Challenge challenge, final Task task)
     {
         ProjectConfiguration projectConfiguration;
         if (this.configuration != null)
@@ -122,13 +128,13 @@ public class MapRouletteClient implements Serializable
      * @param task
      *            The task itself
      */
-    public synchronized void addTask(final String projectName, final Challenge challenge,
+    public void addTask(final String projectName, final Challenge challenge,
             final Task task)
     {
         this.addTask(new ProjectConfiguration(projectName), challenge, task);
     }
 
-    public synchronized void addTask(final ProjectConfiguration projectConfiguration,
+    public void addTask(final ProjectConfiguration projectConfiguration,
             final Challenge challenge, final Task task)
     {
         task.setProjectName(projectConfiguration.getName());
@@ -142,9 +148,9 @@ public class MapRouletteClient implements Serializable
     public int getCurrentBatchSize()
     {
         int size = 0;
-        for (final Tuple<String, String> key : this.batch.keySet())
+        for (final Map<String, Task> challengeTasks : this.batch.values())
         {
-            size += this.batch.get(key).size();
+            size += challengeTasks.size();
         }
         return size;
     }
@@ -162,6 +168,17 @@ public class MapRouletteClient implements Serializable
         this.upload(key);
     }
 
+    /**
+     * Sets the journal of the tasks uploaded, used to skip tasks uploaded by an earlier run
+     *
+     * @param journal
+     *            the upload journal
+     */
+    protected void setJournal(final Optional<UploadJournal> journal)
+    {
+        this.journal = journal;
+    }
+
     /**
      * This methods sets challenge id output path
      *
@@ -176,8 +193,8 @@ public class MapRouletteClient implements Serializable
     private Optional<Challenge> createChallenge(final Project project, final Challenge challenge)
             throws UnsupportedEncodingException, URISyntaxException
     {
-        final Map<String, Challenge> challengeMap = this.challenges.getOrDefault(project.getId(),
-                new HashMap<>());
+        final Map<String, Challenge> challengeMap = this.challenges
+                .computeIfAbsent(project.getId(), ignore -> new ConcurrentHashMap<>());
         challenge.setParentIdentifier(project.getId());
         if (!challengeMap.containsKey(challenge.getName()))
         {
@@ -185,10 +202,12 @@ public class MapRouletteClient implements Serializable
             if (challengeId != -1 && project.getId() != -1)
             {
                 this.writeChallengeIdsToFile(challengeId, project.getId());
+                this.journal.ifPresent(uploadJournal -> uploadJournal
+                        .addChallenge(new Tuple<>(project.getName(), challenge.getName()),
+                                challengeId));
             }
             challenge.setId(challengeId);
             challengeMap.put(challenge.getName(), challenge);
-            this.challenges.put(project.getId(), challengeMap);
         }
         return Optional.of(challenge);
     }
@@ -197,40 +216,42 @@ public class MapRouletteClient implements Serializable
             throws UnsupportedEncodingException, URISyntaxException
     {
         final String projectName = projectConfiguration.getName();
-        final Project project = this.projects.getOrDefault(projectName,
-                projectConfiguration.buildProject());
-        if (project.getId() == -1)
+        final Project existingProject = this.projects.get(projectName);
+        if (existingProject != null && existingProject.getId() != -1)
+        {
+            return existingProject;
+        }
+        // Projects are shared by challenges, so are created under a lock of their own
+        synchronized (this.projects)
         {
-            project.setId(this.connection.createProject(project));
-            this.projects.put(projectName, project);
+            final Project project = this.projects.getOrDefault(projectName,
+                    projectConfiguration.buildProject());
+            if (project.getId() == -1)
+            {
+                project.setId(this.connection.createProject(project));
+                this.projects.put(projectName, project);
+            }
+            return project;
         }
-        return project;
     }
 
-    private void updateChallengeTaskList(final Challenge challenge, final Task task,
-            final ProjectConfiguration projectConfiguration) throws CoreException
+    /**
+     * Create the project and challenge of a task batch, unless they were created already
+     */
+    private void resolveChallenge(final Map<String, Task> challengeTasks,
+            final Challenge challenge, final Task task,
+            final ProjectConfiguration projectConfiguration)
     {
-        final Tuple<String, String> taskKey = new Tuple<>(task.getProjectName(),
-                challenge.getName());
-        Set<Task> challengeTaskList = this.batch.get(taskKey);
-        if (challengeTaskList == null)
+        final Project existingProject = this.projects.get(projectConfiguration.getName());
+        if (existingProject != null && existingProject.getId() != -1
+                && this.challenges.getOrDefault(existingProject.getId(), Map.of())
+                        .containsKey(challenge.getName()))
         {
-            challengeTaskList = new HashSet<>();
+            return;
         }
-        final Optional<Task> duplicateTask = challengeTaskList.stream()
-                .filter(setTask -> StringUtils.equals(setTask.getTaskIdentifier(),
-                        task.getTaskIdentifier()))
-                .findAny();
-        if (duplicateTask.isPresent())
+        // The batch of the challenge doubles as its lock
+        synchronized (challengeTasks)
         {
-            logger.trace(
-                    "Attempting to add a duplicate task to the batch with id {}, into Project '{}' and Challenge '{}'",
-                    task.getTaskIdentifier(), task.getProjectName(), challenge.getName());
-        }
-        else
-        {
-            challengeTaskList.add(task);
-            this.batch.put(taskKey, challengeTaskList);
             try
             {
                 this.createChallenge(this.createProject(projectConfiguration), challenge);
@@ -243,10 +264,38 @@ public class MapRouletteClient implements Serializable
         }
     }
 
+    private void updateChallengeTaskList(final Challenge challenge, final Task task,
+            final ProjectConfiguration projectConfiguration) throws CoreException
+    {
+        final Tuple<String, String> taskKey = new Tuple<>(task.getProjectName(),
+                challenge.getName());
+        final Map<String, Task> challengeTasks = this.batch.computeIfAbsent(taskKey,
+                ignore -> new ConcurrentHashMap<>());
+        // Creating the challenge drops the acknowledgements of the journal if its id changed, so
+        // it comes before the journal is checked, even if all of its tasks end up skipped
+        this.resolveChallenge(challengeTasks, challenge, task, projectConfiguration);
+        if (this.journal.isPresent()
+                && this.journal.get().isAcknowledged(taskKey, task.getTaskIdentifier()))
+        {
+            logger.trace("Skipping task {} of Project '{}' and Challenge '{}', already uploaded",
+                    task.getTaskIdentifier(), task.getProjectName(), challenge.getName());
+            return;
+        }
+        if (challengeTasks.putIfAbsent(task.getTaskIdentifier(), task) != null)
+        {
+            logger.trace(
+                    "Attempting to add a duplicate task to the batch with id {}, into Project '{}' and Challenge '{}'",
+                    task.getTaskIdentifier(), task.getProjectName(), challenge.getName());
+        }
+    }
+
     private void upload(final Tuple<String, String> key)
     {
-        final Set<Task> batchList = this.batch.get(key);
-        if (batchList != null && batchList.size() > 0)
+        final Map<String, Task> challengeTasks = this.batch.get(key);
+        // Tasks added while uploading stay in the batch for the next upload
+        final Set<Task> batchList = challengeTasks == null ? new HashSet<>()
+                : new HashSet<>(challengeTasks.values());
+        if (!batchList.isEmpty())
         {
             try
             {
@@ -270,8 +319,11 @@ public class MapRouletteClient implements Serializable
                     }
                     else
                     {
-                        this.connection.uploadBatchTasks(challenge.getId(), batchList);
-                        batchList.clear();
+                        this.connection.uploadBatchTasks(challenge.getId(), batchList,
+                                uploaded -> this.journal.ifPresent(uploadJournal -> uploadJournal
+                                        .acknowledgeTasks(challenge.getId(), uploaded)));
+                        batchList.forEach(task -> challengeTasks
+                                .remove(task.getTaskIdentifier(), task));
                     }
                 }
             }
@@ -292,7 +344,7 @@ public class MapRouletteClient implements Serializable
      * @param projectId
      *            project id of the MapRoulette challenge.
      */
-    private void writeChallengeIdsToFile(final long challengeId, final long projectId)
+    private synchronized void writeChallengeIdsToFile(final long challengeId, final long projectId)
     {
         this.outputPath.ifPresent(path ->
         {
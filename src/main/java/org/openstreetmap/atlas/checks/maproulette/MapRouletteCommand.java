@@ -33,6 +33,9 @@ public abstract class MapRouletteCommand extends AtlasLoadingCommand
     private static final Switch<String> PROJECT_DISPLAY_NAME = new Switch<>("projectDisplayName",
             "Display name of the project under which all of the challenges will be submitted",
             StringConverter.IDENTITY);
+    private static final Switch<Integer> UPLOAD_THREADS = new Switch<>("uploadThreads",
+            "Number of task batches uploaded to a MapRoulette challenge at once",
+            Integer::parseInt, Optionality.OPTIONAL, "4");
     protected static final Switch<String> OUTPUT_PATH = new Switch<>("outputPath",
             "Full path to file where project id, challenge id are stored after creation in MapRoulette.",
             StringConverter.IDENTITY);
@@ -44,7 +47,7 @@ public abstract class MapRouletteCommand extends AtlasLoadingCommand
         return this.mapRouletteClient;
     }
 
-    protected synchronized void addTask(final String challengeName, final Task task)
+    protected void addTask(final String challengeName, final Task task)
             throws UnsupportedEncodingException, URISyntaxException
     {
         this.mapRouletteClient.addTask(
@@ -52,7 +55,7 @@ public abstract class MapRouletteCommand extends AtlasLoadingCommand
                 task);
     }
 
-    protected synchronized void addTask(final Challenge challenge, final Task task)
+    protected void addTask(final Challenge challenge, final Task task)
             throws UnsupportedEncodingException, URISyntaxException
     {
         this.mapRouletteClient.addTask(challenge, task);
@@ -111,7 +114,7 @@ public abstract class MapRouletteCommand extends AtlasLoadingCommand
     @Override
     protected SwitchList switches()
     {
-        return super.switches().with(MAP_ROULETTE);
+        return super.switches().with(MAP_ROULETTE, UPLOAD_THREADS);
     }
 
     protected void uploadTasks()
@@ -127,6 +130,11 @@ public abstract class MapRouletteCommand extends AtlasLoadingCommand
         final MapRouletteConfiguration mapRoulette = (MapRouletteConfiguration) commandMap
                 .get(MAP_ROULETTE);
         final String projectDisplayName = (String) commandMap.get(PROJECT_DISPLAY_NAME);
+        final Integer uploadThreads = (Integer) commandMap.get(UPLOAD_THREADS);
+        if (mapRoulette != null && uploadThreads != null)
+        {
+            mapRoulette.withUploadThreads(uploadThreads);
+        }
 
         if (projectDisplayName == null)
         {
@@ -135,6 +143,7 @@ public abstract class MapRouletteCommand extends AtlasLoadingCommand
         final ProjectConfiguration project = new ProjectConfiguration(mapRoulette.getProjectName(),
                 mapRoulette.getProjectName(), projectDisplayName, DEFAULT_ENABLED);
         return new MapRouletteConfiguration(mapRoulette.getScheme(), mapRoulette.getServer(),
-                mapRoulette.getPort(), project, mapRoulette.getApiKey());
+                mapRoulette.getPort(), project, mapRoulette.getApiKey())
+                        .withUploadThreads(mapRoulette.getUploadThreads());
     }
 }
@@ -20,6 +20,7 @@ public class MapRouletteConfiguration implements Serializable
     private static final int PORT_INDEX = 1;
     private static final int PROJECT_NAME_INDEX = 2;
     private static final int SERVER_INDEX = 0;
+    private static final int DEFAULT_UPLOAD_THREADS = 4;
     private static final long serialVersionUID = -1060265212173405828L;
     private static final String DELIMITER = "(?<!https|http):";
     private static final String SCHEME_DELIMITER = "://";
@@ -28,6 +29,7 @@ public class MapRouletteConfiguration implements Serializable
     private final String scheme;
     private final String server;
     private final ProjectConfiguration projectConfiguration;
+    private int uploadThreads = DEFAULT_UPLOAD_THREADS;
 
     /**
      * Parses a map roulette configuration object from a string that follows one of these structures
@@ -122,10 +124,29 @@ public class MapRouletteConfiguration implements Serializable
         return this.server;
     }
 
+    /**
+     * @return the number of task batch requests in flight at once, per challenge
+     */
+    public int getUploadThreads()
+    {
+        return this.uploadThreads;
+    }
+
     @Override
     public String toString()
     {
         return String.format("%s://%s:%d:%s:%s", this.scheme, this.server, this.port,
                 this.projectConfiguration.getName(), this.apiKey);
     }
+
+    /**
+     * @param uploadThreads
+     *            the number of task batch requests in flight at once, per challenge
+     * @return this configuration
+     */
+    public MapRouletteConfiguration withUploadThreads(final int uploadThreads)
+    {
+        this.uploadThreads = uploadThreads;
+        return this;
+    }
 }
@@ -6,9 +6,12 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.URIBuilder;
@@ -26,6 +29,7 @@ import org.openstreetmap.atlas.utilities.scalars.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -44,9 +48,15 @@ public class MapRouletteConnection implements TaskLoader, Serializable
     private static final String KEY_ID = "id";
     private static final Logger logger = LoggerFactory.getLogger(MapRouletteConnection.class);
     private static final int MAXIMUM_BATCH_SIZE = 5000;
+    private static final int MAXIMUM_UPLOAD_RETRIES = 5;
+    private static final long INITIAL_UPLOAD_BACKOFF_MILLISECONDS = 1000;
+    private static final long MAXIMUM_UPLOAD_BACKOFF_MILLISECONDS = 60_000;
+    // Longest a call to upload tasks blocks, waits for rate limits and retries included
+    private static final long MAXIMUM_UPLOAD_MILLISECONDS = TimeUnit.MINUTES.toMillis(30);
     private static final long serialVersionUID = -8227257938510897604L;
     private final MapRouletteConfiguration configuration;
     private final URIBuilder uriBuilder;
+    private transient TaskBatchUploader uploader;
 
     MapRouletteConnection(final MapRouletteConfiguration configuration)
     {
@@ -175,26 +185,39 @@ public class MapRouletteConnection implements TaskLoader, Serializable
         return resource;
     }
 
+    /**
+     * Uploads the tasks in batches of {@value #MAXIMUM_BATCH_SIZE}, with as many batch requests in
+     * flight at once as the configuration allows
+     *
+     * @see TaskBatchUploader
+     */
     @Override
     public boolean uploadBatchTasks(final long challengeId, final Set<Task> data)
             throws UnsupportedEncodingException, URISyntaxException
     {
-        final List<Task> uniqueTasks = new ArrayList<>(data.size());
-        uniqueTasks.addAll(data);
-        // MAXIMUM batch size is 5000, so if greater than 5000, we need to make multiple
-        // requests in groups of 5000
-        boolean succeeded = true;
-        int startIndex = 0;
-        int endIndex;
-        do
+        return this.uploadBatchTasks(challengeId, data, acknowledged ->
+        {
+        });
+    }
+
+    /**
+     * Uploads the tasks like {@link #uploadBatchTasks(long, Set)}, acknowledging each batch as soon
+     * as MapRoulette accepts it
+     */
+    @Override
+    public boolean uploadBatchTasks(final long challengeId, final Set<Task> data,
+            final Consumer<Collection<Task>> acknowledged)
+            throws UnsupportedEncodingException, URISyntaxException
+    {
+        if (data.isEmpty())
         {
-            endIndex = Math.min(startIndex + MAXIMUM_BATCH_SIZE, uniqueTasks.size());
-            final List<Task> uploadList = uniqueTasks.subList(startIndex, endIndex);
-            succeeded &= this.internalUploadBatchTasks(challengeId, uploadList);
-            startIndex += MAXIMUM_BATCH_SIZE;
+            return false;
         }
-        while (endIndex != uniqueTasks.size() - 1 && startIndex < uniqueTasks.size());
-        return succeeded;
+        final List<List<Task>> batches = Lists.partition(new ArrayList<>(data),
+                MAXIMUM_BATCH_SIZE);
+        logger.debug("Uploading {} tasks in {} batches for challenge {}", data.size(),
+                batches.size(), challengeId);
+        return this.getUploader().upload(challengeId, batches, acknowledged);
     }
 
     @Override
@@ -207,16 +230,20 @@ public class MapRouletteConnection implements TaskLoader, Serializable
         return this.uploadTask(challengeId, Collections.singletonList(task), true);
     }
 
-    private boolean internalUploadBatchTasks(final long parentChallengeId, final List<Task> data)
-            throws UnsupportedEncodingException, URISyntaxException
+    private synchronized TaskBatchUploader getUploader() throws URISyntaxException
     {
-        if (data.isEmpty())
+        if (this.uploader == null)
         {
-            return false;
+            this.uploader = new TaskBatchUploader(
+                    new URIBuilder().setScheme(this.configuration.getScheme())
+                            .setHost(this.configuration.getServer())
+                            .setPort(this.configuration.getPort()).setPath("/api/v2/tasks")
+                            .build(),
+                    this.configuration.getApiKey(), this.configuration.getUploadThreads(),
+                    MAXIMUM_UPLOAD_RETRIES, INITIAL_UPLOAD_BACKOFF_MILLISECONDS,
+                    MAXIMUM_UPLOAD_BACKOFF_MILLISECONDS, MAXIMUM_UPLOAD_MILLISECONDS);
         }
-        logger.debug("Uploading batch of {} tasks for project/challenge {}/{}", data.size(),
-                data.get(0).getProjectName(), data.get(0).getChallengeName());
-        return this.uploadTask(parentChallengeId, data, true);
+        return this.uploader;
     }
 
     private boolean isAbleToConnectToMapRoulette(final MapRouletteConfiguration configuration)
@@ -1,16 +1,25 @@
 package org.openstreetmap.atlas.checks.maproulette;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -22,7 +31,6 @@ import org.openstreetmap.atlas.checks.maproulette.data.ChallengeStatus;
 import org.openstreetmap.atlas.checks.maproulette.data.Task;
 import org.openstreetmap.atlas.checks.maproulette.serializer.ChallengeDeserializer;
 import org.openstreetmap.atlas.checks.utility.FileUtility;
-import org.openstreetmap.atlas.checks.utility.FileUtility.LogOutputFileType;
 import org.openstreetmap.atlas.checks.utility.OpenStreetMapCheckFlagConverter;
 import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.locale.IsoCountry;
@@ -30,12 +38,12 @@ import org.openstreetmap.atlas.streaming.resource.File;
 import org.openstreetmap.atlas.utilities.configuration.Configuration;
 import org.openstreetmap.atlas.utilities.configuration.StandardConfiguration;
 import org.openstreetmap.atlas.utilities.runtime.CommandMap;
+import org.openstreetmap.atlas.utilities.tuples.Tuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonParser;
 
 /**
  * Given a directory of log files created by atlas-checks, upload those files to MapRoulette.
@@ -82,7 +90,23 @@ public class MapRouletteUploadCommand extends MapRouletteCommand
             "List of undiscoverable challenges. Supply \"\" for all. See the MR upload command docs for more info",
             string -> Arrays.asList(string.split(",")), Optionality.OPTIONAL, null);
 
+    private static final Switch<Integer> THREADS = new Switch<>("threads",
+            "Number of log files to read and convert to tasks at once. Defaults to the number of processors.",
+            Integer::parseInt, Optionality.OPTIONAL,
+            String.valueOf(Runtime.getRuntime().availableProcessors()));
+    private static final Switch<Path> JOURNAL = new Switch<>("journal",
+            "Path to the upload journal. Tasks it records as uploaded are skipped, and uploaded tasks are appended to it, so rerunning a failed upload with the same journal resumes it.",
+            Paths::get, Optionality.OPTIONAL);
+
     private static final String PARAMETER_CHALLENGE = "challenge";
+    private static final int QUEUE_SIZE = 10_000;
+    // Tasks uploaded at once, across all the challenges
+    private static final int UPLOAD_THRESHOLD = 10_000;
+    // Tells the uploading thread that all the files were read
+    private static final Tuple<Challenge, Task> END_OF_TASKS = new Tuple<>(null, null);
+    private static final CheckFlagDeserializer DESERIALIZER = new CheckFlagDeserializer();
+    private static final Gson CHALLENGE_GSON = new GsonBuilder().disableHtmlEscaping()
+            .registerTypeAdapter(Challenge.class, new ChallengeDeserializer()).create();
     private static final Logger logger = LoggerFactory.getLogger(MapRouletteUploadCommand.class);
 
     // Challenge name --> [ ISO --> countrified Challenge ]
@@ -96,7 +120,7 @@ public class MapRouletteUploadCommand extends MapRouletteCommand
     public MapRouletteUploadCommand()
     {
         super();
-        this.checkNameChallengeMap = new HashMap<>();
+        this.checkNameChallengeMap = new ConcurrentHashMap<>();
     }
 
     /**
@@ -119,7 +143,7 @@ public class MapRouletteUploadCommand extends MapRouletteCommand
     {
         return super.switches().with(INPUT_DIRECTORY, OUTPUT_PATH, CONFIG_LOCATION, COUNTRIES,
                 CHECKS, CHECKIN_COMMENT_PREFIX, CHECKIN_COMMENT, DISCOVERABLE_CHALLENGES,
-                UNDISCOVERABLE_CHALLENGES, DISCOVERABLE_PROJECT);
+                UNDISCOVERABLE_CHALLENGES, DISCOVERABLE_PROJECT, THREADS, JOURNAL);
     }
 
     @Override
@@ -143,73 +167,77 @@ public class MapRouletteUploadCommand extends MapRouletteCommand
                 .getOption(UNDISCOVERABLE_CHALLENGES);
         this.validateChallengeDiscoverability(discoverableChallenges, undiscoverableChallenges);
 
-        ((File) commandMap.get(INPUT_DIRECTORY)).listFilesRecursively().forEach(logFile ->
+        // by default, upload fix suggestions
+        final boolean includeFixSuggestions = commandMap.get(INCLUDE_FIX_SUGGESTIONS) == null
+                || Boolean.parseBoolean((String) commandMap.get(INCLUDE_FIX_SUGGESTIONS));
+        // Converts a flag to its Challenge and Task, on the reader threads
+        final Function<CheckFlag, Optional<Tuple<Challenge, Task>>> converter = flag ->
         {
-            // If this file is something we handle, read and upload the tasks contained within
-            final Optional<LogOutputFileType> optionalHandledFileType = FileUtility
-                    .getOptionalLogOutputType(logFile);
-            optionalHandledFileType.ifPresent(logOutputFileType ->
+            final CheckFlag uploadFlag = OpenStreetMapCheckFlagConverter.openStreetMapify(flag)
+                    .orElse(flag);
+            final String countryCode = uploadFlag.getCountryISO();
+            final String checkName = uploadFlag.getChallengeName().orElse("");
+            final boolean countryIsSupported = countries.isEmpty()
+                    || !FlaggedObject.COUNTRY_MISSING.equals(countryCode)
+                            && countries.get().contains(countryCode);
+            final boolean checkIsSupported = checks.isEmpty() || checks.get().contains(checkName);
+            if (!countryIsSupported || !checkIsSupported)
             {
-                try (BufferedReader reader = FileUtility.getReader(logFile, logOutputFileType))
-                {
-                    reader.lines().filter(line -> line.trim().length() > 0).forEach(line ->
-                    {
-                        final CheckFlag flagRecoveredFromLine = new CheckFlagDeserializer()
-                                .deserialize(new JsonParser().parse(line), null, null);
-                        if (flagRecoveredFromLine == null)
-                        {
-                            // an issue deserializing the flag
-                            return;
-                        }
-                        final CheckFlag uploadFlag = OpenStreetMapCheckFlagConverter
-                                .openStreetMapify(flagRecoveredFromLine)
-                                .orElse(flagRecoveredFromLine);
-                        final String countryCode = uploadFlag.getCountryISO();
-                        final String checkName = uploadFlag.getChallengeName().orElse("");
-                        final boolean countryIsSupported = countries.isEmpty()
-                                || !FlaggedObject.COUNTRY_MISSING.equals(countryCode)
-                                        && countries.get().contains(countryCode);
-                        final boolean checkIsSupported = checks.isEmpty()
-                                || checks.get().contains(checkName);
-                        if (countryIsSupported && checkIsSupported)
-                        {
-                            try
-                            {
-                                final Map<String, Challenge> countryToChallengeMap = this.checkNameChallengeMap
-                                        .computeIfAbsent(checkName, ignore -> new HashMap<>());
-                                final Challenge challengeObject = countryToChallengeMap
-                                        .computeIfAbsent(countryCode,
-                                                ignore -> this.getChallenge(checkName, instructions,
-                                                        countryCode, checkinCommentPrefix,
-                                                        checkinComment, discoverableChallenges,
-                                                        undiscoverableChallenges));
-                                // by default, upload fix suggestions
-                                final boolean includeFixSuggestions = commandMap
-                                        .get(INCLUDE_FIX_SUGGESTIONS) == null
-                                        || Boolean.parseBoolean(
-                                                (String) commandMap.get(INCLUDE_FIX_SUGGESTIONS));
-                                final Task task = uploadFlag
-                                        .getMapRouletteTask(includeFixSuggestions);
-                                // task is by default named after its originating check. Overwrite
-                                // this name with the Challenge name if the Challenge deserialized a
-                                // custom name from the configuration
-                                task.setChallengeName(challengeObject.getName());
-                                this.addTask(challengeObject, task);
-                            }
-                            catch (URISyntaxException | UnsupportedEncodingException error)
-                            {
-                                logger.error("Exception thrown while adding task: ", error);
-                            }
-                        }
-                    });
-                    this.uploadTasks();
-                }
-                catch (final IOException error)
+                return Optional.empty();
+            }
+            final Challenge challengeObject = this.checkNameChallengeMap
+                    .computeIfAbsent(checkName, ignore -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(countryCode,
+                            ignore -> this.getChallenge(checkName, instructions, countryCode,
+                                    checkinCommentPrefix, checkinComment,
+                                    discoverableChallenges, undiscoverableChallenges));
+            final Task task = uploadFlag.getMapRouletteTask(includeFixSuggestions);
+            // task is by default named after its originating check. Overwrite this name with the
+            // Challenge name if the Challenge deserialized a custom name from the configuration
+            task.setChallengeName(challengeObject.getName());
+            return Optional.of(new Tuple<>(challengeObject, task));
+        };
+
+        final List<File> logFiles = ((File) commandMap.get(INPUT_DIRECTORY)).listFilesRecursively()
+                .stream().filter(logFile ->
                 {
-                    logger.error("Exception while reading {}:", logFile, error);
-                }
-            });
-        });
+                    // Files partitioned by check hold a single check, so skip those not asked for
+                    final Optional<String> partitionCheckName = FileUtility
+                            .getPartitionCheckName(logFile);
+                    return (checks.isEmpty() || partitionCheckName.isEmpty()
+                            || checks.get().contains(partitionCheckName.get()))
+                            // Only read files that are something we handle
+                            && FileUtility.getOptionalLogOutputType(logFile).isPresent();
+                }).collect(Collectors.toList());
+        final Optional<UploadJournal> journal = ((Optional<Path>) commandMap.getOption(JOURNAL))
+                .map(UploadJournal::new);
+        this.getMapRouletteClient().setJournal(journal);
+        try
+        {
+            this.uploadTasks(logFiles, converter, (int) commandMap.get(THREADS));
+        }
+        finally
+        {
+            journal.ifPresent(this::closeJournal);
+        }
+    }
+
+    /**
+     * Close the upload journal, logging rather than failing the upload if it cannot be closed
+     *
+     * @param journal
+     *            the journal to close
+     */
+    private void closeJournal(final UploadJournal journal)
+    {
+        try
+        {
+            journal.close();
+        }
+        catch (final IOException error)
+        {
+            logger.error("Exception while closing the upload journal:", error);
+        }
     }
 
     /**
@@ -237,9 +265,8 @@ public class MapRouletteUploadCommand extends MapRouletteCommand
     {
         final Map<String, String> challengeMap = fallbackConfiguration
                 .get(this.getChallengeParameter(checkName), Collections.emptyMap()).value();
-        final Gson gson = new GsonBuilder().disableHtmlEscaping()
-                .registerTypeAdapter(Challenge.class, new ChallengeDeserializer()).create();
-        final Challenge result = gson.fromJson(gson.toJson(challengeMap), Challenge.class);
+        final Challenge result = CHALLENGE_GSON.fromJson(CHALLENGE_GSON.toJson(challengeMap),
+                Challenge.class);
         // Prepend the challenge name with the full country name if one exists
         final String challengeName = String.join(" - ", this.getCountryDisplayName(countryCode),
                 result.getName().isEmpty() ? checkName : result.getName());
@@ -301,6 +328,128 @@ public class MapRouletteUploadCommand extends MapRouletteCommand
         return new StandardConfiguration((File) map.get(CONFIG_LOCATION));
     }
 
+    /**
+     * Read the flags of a file and queue their tasks
+     *
+     * @param logFile
+     *            the file to read
+     * @param converter
+     *            converts a flag to its {@link Challenge} and {@link Task}, if it is to be uploaded
+     * @param queue
+     *            the queue of tasks to upload
+     */
+    private void readTasks(final File logFile,
+            final Function<CheckFlag, Optional<Tuple<Challenge, Task>>> converter,
+            final BlockingQueue<Tuple<Challenge, Task>> queue)
+    {
+        try
+        {
+            FileUtility.forEachFlag(logFile, FileUtility.getOptionalLogOutputType(logFile).get(),
+                    json ->
+                    {
+                        final CheckFlag flag = DESERIALIZER.deserialize(json, null, null);
+                        if (flag == null)
+                        {
+                            // an issue deserializing the flag
+                            return;
+                        }
+                        converter.apply(flag).ifPresent(task ->
+                        {
+                            try
+                            {
+                                queue.put(task);
+                            }
+                            catch (final InterruptedException error)
+                            {
+                                Thread.currentThread().interrupt();
+                                throw new CoreException("Interrupted while reading {}", logFile,
+                                        error);
+                            }
+                        });
+                    });
+        }
+        catch (final IOException error)
+        {
+            logger.error("Exception while reading {}:", logFile, error);
+        }
+    }
+
+    /**
+     * Read and convert the flags of the files on a pool of threads, feeding a bounded queue of
+     * tasks. This thread takes the tasks from the queue and adds them to the client batches, which
+     * are uploaded as they fill up.
+     *
+     * @param logFiles
+     *            the files to read
+     * @param converter
+     *            converts a flag to its {@link Challenge} and {@link Task}, if it is to be uploaded
+     * @param threads
+     *            the number of files read at once
+     */
+    void uploadTasks(final List<File> logFiles,
+            final Function<CheckFlag, Optional<Tuple<Challenge, Task>>> converter,
+            final int threads)
+    {
+        if (logFiles.isEmpty())
+        {
+            return;
+        }
+        final BlockingQueue<Tuple<Challenge, Task>> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        final AtomicInteger remainingFiles = new AtomicInteger(logFiles.size());
+        final ExecutorService readers = Executors.newFixedThreadPool(threads);
+        try
+        {
+            final List<Future<Void>> futures = logFiles.stream().map(logFile -> readers.submit(() ->
+            {
+                try
+                {
+                    this.readTasks(logFile, converter, queue);
+                }
+                finally
+                {
+                    // The last file to be read ends the queue
+                    if (remainingFiles.decrementAndGet() == 0)
+                    {
+                        queue.put(END_OF_TASKS);
+                    }
+                }
+                return (Void) null;
+            })).collect(Collectors.toList());
+
+            for (Tuple<Challenge, Task> task = queue.take(); task != END_OF_TASKS; task = queue
+                    .take())
+            {
+                try
+                {
+                    this.addTask(task.getFirst(), task.getSecond());
+                }
+                catch (URISyntaxException | UnsupportedEncodingException error)
+                {
+                    logger.error("Exception thrown while adding task: ", error);
+                }
+                this.checkUploadTasks(UPLOAD_THRESHOLD);
+            }
+            this.uploadTasks();
+            for (final Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (final InterruptedException error)
+        {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while uploading tasks", error);
+        }
+        catch (final ExecutionException error)
+        {
+            throw new CoreException("Unable to read tasks", error.getCause());
+        }
+        finally
+        {
+            readers.shutdownNow();
+        }
+    }
+
     /**
      * @param discoverables
      * @param undiscoverables
@@ -0,0 +1,402 @@
+package org.openstreetmap.atlas.checks.maproulette;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openstreetmap.atlas.checks.maproulette.data.Task;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Uploads batches of tasks to a MapRoulette challenge, several requests at once. Each request body
+ * is streamed from the tasks as it is sent, rather than built as a string first.
+ * <p>
+ * Requests that could not connect, or that the server turned away with a 408, 429 or 503 status,
+ * are retried with exponential backoff. As a task upload is not idempotent, requests that fail in
+ * any other way, including timing out while waiting for a response, are not. That includes a 502
+ * or 504 status: a gateway answers with those once it forwarded the request, which MapRoulette
+ * might have processed. When the server asks to slow down, with a Retry-After header or an
+ * exhausted X-RateLimit-Remaining and its X-RateLimit-Reset, no request is sent until the time it
+ * asked for.
+ * <p>
+ * An upload gives up on the batches that are not uploaded once its time limit is over, and each
+ * upload closes the HTTP client it sends its requests with.
+ *
+ * @author cuthbertm
+ */
+final class TaskBatchUploader
+{
+    // Statuses of requests that were turned away before their tasks were created
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(HttpStatus.SC_REQUEST_TIMEOUT,
+            429, HttpStatus.SC_SERVICE_UNAVAILABLE);
+    private static final String KEY_API_KEY = "apiKey";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    private static final String RATE_LIMIT_RESET = "X-RateLimit-Reset";
+    // Rate limit resets above this are epoch seconds rather than seconds from now
+    private static final long EPOCH_SECONDS_THRESHOLD = 1_000_000_000L;
+    private static final long MAXIMUM_RATE_LIMIT_WAIT_MILLISECONDS = TimeUnit.MINUTES.toMillis(10);
+    private static final int CONNECT_TIMEOUT_MILLISECONDS = 30_000;
+    private static final int SOCKET_TIMEOUT_MILLISECONDS = 300_000;
+    private static final Gson GSON = new Gson();
+    private static final Logger logger = LoggerFactory.getLogger(TaskBatchUploader.class);
+
+    private final URI uri;
+    private final String apiKey;
+    private final int concurrency;
+    private final int maximumRetries;
+    private final long initialBackoffMilliseconds;
+    private final long maximumBackoffMilliseconds;
+    private final long maximumUploadMilliseconds;
+    // No request is sent before this time, in epoch milliseconds, set by the server rate limits
+    private final AtomicLong notBefore = new AtomicLong();
+
+    /**
+     * Get the time to wait from a Retry-After header
+     *
+     * @param value
+     *            the header value, either seconds or an HTTP date
+     * @param now
+     *            the current time in epoch milliseconds
+     * @return the milliseconds to wait, if the value is valid
+     */
+    static Optional<Long> retryAfterDelay(final String value, final long now)
+    {
+        try
+        {
+            return Optional.of(TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+        }
+        catch (final NumberFormatException notSeconds)
+        {
+            final Date date = DateUtils.parseDate(value.trim());
+            return date == null ? Optional.empty()
+                    : Optional.of(Math.max(0, date.getTime() - now));
+        }
+    }
+
+    /**
+     * Get the time to wait from an X-RateLimit-Reset header
+     *
+     * @param value
+     *            the header value, either seconds from now or epoch seconds
+     * @param now
+     *            the current time in epoch milliseconds
+     * @return the milliseconds to wait, if the value is valid
+     */
+    static Optional<Long> resetDelay(final String value, final long now)
+    {
+        try
+        {
+            final long reset = Long.parseLong(value.trim());
+            return Optional.of(reset > EPOCH_SECONDS_THRESHOLD
+                    ? Math.max(0, TimeUnit.SECONDS.toMillis(reset) - now)
+                    : TimeUnit.SECONDS.toMillis(reset));
+        }
+        catch (final NumberFormatException error)
+        {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param uri
+     *            the task upload endpoint
+     * @param apiKey
+     *            the MapRoulette API key
+     * @param concurrency
+     *            the number of requests in flight at once, per upload
+     * @param maximumRetries
+     *            the number of times a request is retried before giving up
+     * @param initialBackoffMilliseconds
+     *            the wait before the first retry, doubled for each following retry
+     * @param maximumBackoffMilliseconds
+     *            the longest wait between retries
+     * @param maximumUploadMilliseconds
+     *            the longest an upload blocks, after which the batches not uploaded yet fail
+     */
+    TaskBatchUploader(final URI uri, final String apiKey, final int concurrency,
+            final int maximumRetries, final long initialBackoffMilliseconds,
+            final long maximumBackoffMilliseconds, final long maximumUploadMilliseconds)
+    {
+        this.uri = uri;
+        this.apiKey = apiKey;
+        this.concurrency = Math.max(1, concurrency);
+        this.maximumRetries = maximumRetries;
+        this.initialBackoffMilliseconds = initialBackoffMilliseconds;
+        this.maximumBackoffMilliseconds = maximumBackoffMilliseconds;
+        this.maximumUploadMilliseconds = maximumUploadMilliseconds;
+    }
+
+    /**
+     * Upload batches of tasks to a challenge
+     *
+     * @param challengeId
+     *            the id of the challenge
+     * @param batches
+     *            the batches of tasks, each sent in a request of its own
+     * @return true if all the batches were uploaded
+     */
+    boolean upload(final long challengeId, final List<List<Task>> batches)
+    {
+        return this.upload(challengeId, batches, acknowledged ->
+        {
+        });
+    }
+
+    /**
+     * Upload batches of tasks to a challenge, acknowledging each batch once it is uploaded
+     *
+     * @param challengeId
+     *            the id of the challenge
+     * @param batches
+     *            the batches of tasks, each sent in a request of its own
+     * @param acknowledged
+     *            called with each batch uploaded, from the uploading threads
+     * @return true if all the batches were uploaded
+     */
+    boolean upload(final long challengeId, final List<List<Task>> batches,
+            final Consumer<Collection<Task>> acknowledged)
+    {
+        final long deadline = System.currentTimeMillis() + this.maximumUploadMilliseconds;
+        final CloseableHttpClient client = HttpClients.custom()
+                .setDefaultRequestConfig(
+                        RequestConfig.custom().setConnectTimeout(CONNECT_TIMEOUT_MILLISECONDS)
+                                .setSocketTimeout(SOCKET_TIMEOUT_MILLISECONDS).build())
+                .setMaxConnPerRoute(this.concurrency).setMaxConnTotal(this.concurrency)
+                .disableAutomaticRetries().build();
+        final ExecutorService pool = Executors
+                .newFixedThreadPool(Math.max(1, Math.min(this.concurrency, batches.size())));
+        try
+        {
+            final List<Future<Boolean>> uploads = new ArrayList<>(batches.size());
+            batches.forEach(batch -> uploads.add(pool
+                    .submit(() -> this.send(client, challengeId, batch, acknowledged, deadline))));
+            boolean succeeded = true;
+            for (final Future<Boolean> upload : uploads)
+            {
+                succeeded &= upload.get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+            return succeeded;
+        }
+        catch (final InterruptedException error)
+        {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while uploading tasks to challenge {}", challengeId, error);
+            return false;
+        }
+        catch (final ExecutionException error)
+        {
+            logger.warn("Failed to upload tasks to challenge {}", challengeId, error.getCause());
+            return false;
+        }
+        catch (final TimeoutException error)
+        {
+            logger.warn("Gave up uploading tasks to challenge {} after {} ms", challengeId,
+                    this.maximumUploadMilliseconds);
+            return false;
+        }
+        finally
+        {
+            pool.shutdownNow();
+            // Closing the client also aborts the requests still waiting for a response
+            this.close(client);
+        }
+    }
+
+    private long backoff(final int attempt)
+    {
+        final long backoff = Math.min(this.maximumBackoffMilliseconds,
+                this.initialBackoffMilliseconds << Math.min(attempt, Integer.SIZE));
+        // Half of the backoff plus a random part of the other half, so retries spread out
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private void close(final CloseableHttpClient client)
+    {
+        try
+        {
+            client.close();
+        }
+        catch (final IOException error)
+        {
+            logger.warn("Unable to close the MapRoulette upload client", error);
+        }
+    }
+
+    private HttpEntity entity(final long challengeId, final List<Task> batch)
+    {
+        final EntityTemplate entity = new EntityTemplate(output ->
+        {
+            final JsonWriter writer = new JsonWriter(
+                    new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+            writer.beginArray();
+            for (final Task task : batch)
+            {
+                GSON.toJson(task.generateTask(challengeId), writer);
+            }
+            writer.endArray();
+            // The stream belongs to the connection, so it is flushed but not closed
+            writer.flush();
+        });
+        entity.setContentType(ContentType.APPLICATION_JSON.toString());
+        entity.setChunked(true);
+        return entity;
+    }
+
+    private boolean send(final CloseableHttpClient client, final long challengeId,
+            final List<Task> batch, final Consumer<Collection<Task>> acknowledged,
+            final long deadline)
+    {
+        for (int attempt = 0;; attempt++)
+        {
+            if (!this.waitForRateLimit(deadline))
+            {
+                logger.warn("Failed to upload {} task(s) for challenge {} before the time limit",
+                        batch.size(), challengeId);
+                return false;
+            }
+            final HttpPost post = new HttpPost(this.uri);
+            post.setHeader(KEY_API_KEY, this.apiKey);
+            post.setEntity(this.entity(challengeId, batch));
+            try (CloseableHttpResponse response = client.execute(post))
+            {
+                final int status = response.getStatusLine().getStatusCode();
+                this.updateRateLimit(response);
+                final String body = response.getEntity() == null ? ""
+                        : EntityUtils.toString(response.getEntity());
+                if (status == HttpStatus.SC_CREATED || status == HttpStatus.SC_OK)
+                {
+                    logger.debug("Uploaded {} task(s) for challenge {}", batch.size(),
+                            challengeId);
+                    acknowledged.accept(batch);
+                    return true;
+                }
+                if (!RETRYABLE_STATUSES.contains(status))
+                {
+                    logger.warn("Failed to upload {} task(s) for challenge {}: {} - {}",
+                            batch.size(), challengeId, status, body);
+                    return false;
+                }
+                logger.debug("Upload attempt {} for challenge {} failed: {} - {}", attempt + 1,
+                        challengeId, status, body);
+            }
+            catch (final ConnectException | ConnectTimeoutException error)
+            {
+                // The request was not sent, so it is safe to send it again
+                logger.debug("Upload attempt {} for challenge {} failed", attempt + 1,
+                        challengeId, error);
+            }
+            catch (final IOException error)
+            {
+                // The tasks might have been created, so the request is not sent again
+                logger.warn("Failed to upload {} task(s) for challenge {}", batch.size(),
+                        challengeId, error);
+                return false;
+            }
+            if (attempt >= this.maximumRetries)
+            {
+                logger.warn("Failed to upload {} task(s) for challenge {} after {} attempts",
+                        batch.size(), challengeId, attempt + 1);
+                return false;
+            }
+            final long backoff = this.backoff(attempt);
+            if (System.currentTimeMillis() + backoff > deadline)
+            {
+                logger.warn("Failed to upload {} task(s) for challenge {} before the time limit",
+                        batch.size(), challengeId);
+                return false;
+            }
+            this.sleep(backoff);
+        }
+    }
+
+    private void sleep(final long milliseconds)
+    {
+        try
+        {
+            Thread.sleep(milliseconds);
+        }
+        catch (final InterruptedException error)
+        {
+            Thread.currentThread().interrupt();
+            throw new CoreException("Interrupted while waiting to upload tasks", error);
+        }
+    }
+
+    private void updateRateLimit(final HttpResponse response)
+    {
+        final long now = System.currentTimeMillis();
+        final Header retryAfter = response.getFirstHeader(RETRY_AFTER);
+        Optional<Long> delay = retryAfter == null ? Optional.empty()
+                : retryAfterDelay(retryAfter.getValue(), now);
+        final Header remaining = response.getFirstHeader(RATE_LIMIT_REMAINING);
+        final Header reset = response.getFirstHeader(RATE_LIMIT_RESET);
+        if (delay.isEmpty() && remaining != null && reset != null
+                && "0".equals(remaining.getValue().trim()))
+        {
+            delay = resetDelay(reset.getValue(), now);
+        }
+        delay.ifPresent(milliseconds ->
+        {
+            logger.debug("MapRoulette asked to wait {} ms before the next request", milliseconds);
+            this.notBefore.accumulateAndGet(
+                    now + Math.min(milliseconds, MAXIMUM_RATE_LIMIT_WAIT_MILLISECONDS), Math::max);
+        });
+    }
+
+    /**
+     * @return false if the server asked to wait past the deadline
+     */
+    private boolean waitForRateLimit(final long deadline)
+    {
+        final long notBefore = this.notBefore.get();
+        if (notBefore > deadline)
+        {
+            return false;
+        }
+        final long wait = notBefore - System.currentTimeMillis();
+        if (wait > 0)
+        {
+            this.sleep(wait);
+        }
+        return true;
+    }
+}
@@ -2,7 +2,9 @@ package org.openstreetmap.atlas.checks.maproulette;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.Collection;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.openstreetmap.atlas.checks.maproulette.data.Challenge;
 import org.openstreetmap.atlas.checks.maproulette.data.Project;
@@ -69,6 +71,34 @@ public interface TaskLoader
     boolean uploadBatchTasks(long challengeId, Set<Task> tasks)
             throws UnsupportedEncodingException, URISyntaxException;
 
+    /**
+     * Uploads tasks as a batch, telling which of them were acknowledged as they are. By default all
+     * the tasks are acknowledged at once, if the batch is uploaded.
+     *
+     * @param challengeId
+     *            The id of the parent challenge
+     * @param tasks
+     *            The list of tasks that should be uploaded for the challenge
+     * @param acknowledged
+     *            Called with the tasks MapRoulette acknowledged, possibly several times
+     * @return true if all the tasks were uploaded
+     * @throws UnsupportedEncodingException
+     *             Exception could be thrown when you try and upload the batch.
+     * @throws URISyntaxException
+     *             if the URI cannot be built correctly
+     */
+    default boolean uploadBatchTasks(final long challengeId, final Set<Task> tasks,
+            final Consumer<Collection<Task>> acknowledged)
+            throws UnsupportedEncodingException, URISyntaxException
+    {
+        final boolean uploaded = this.uploadBatchTasks(challengeId, tasks);
+        if (uploaded)
+        {
+            acknowledged.accept(tasks);
+        }
+        return uploaded;
+    }
+
     /**
      * Uploads a task to MapRoulette
      *
@@ -0,0 +1,240 @@
+package org.openstreetmap.atlas.checks.maproulette;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openstreetmap.atlas.checks.maproulette.data.Task;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.utilities.tuples.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local, append-only journal of the challenges created and the tasks MapRoulette acknowledged
+ * during an upload. Rerunning an upload with the same journal skips the tasks it already holds, so
+ * an upload that failed part way resumes where it stopped, even in the middle of a challenge.
+ * <p>
+ * Each line of the journal is either a challenge, {@code challenge<TAB>id<TAB>project<TAB>name},
+ * or an acknowledged task, {@code task<TAB>challenge id<TAB>task identifier}. Challenges are
+ * matched by project and challenge name, so a journal belongs to a single MapRoulette server. When
+ * a challenge is created again with a different id, the tasks acknowledged for its former id no
+ * longer count. A line cut short by a crash is ignored.
+ *
+ * @author nachtm
+ */
+public class UploadJournal implements Closeable
+{
+    private static final String CHALLENGE = "challenge";
+    private static final String TASK = "task";
+    private static final String SEPARATOR = "\t";
+    private static final String NEW_LINE = "\n";
+    private static final int CHALLENGE_FIELDS = 4;
+    private static final int TASK_FIELDS = 3;
+    private static final Logger logger = LoggerFactory.getLogger(UploadJournal.class);
+
+    private final Path path;
+    private final Writer writer;
+    // Project and challenge names --> challenge id
+    private final Map<Tuple<String, String>, Long> challengeIds = new ConcurrentHashMap<>();
+    // Challenge id --> identifiers of the tasks acknowledged for it
+    private final Map<Long, Set<String>> acknowledgedTasks = new ConcurrentHashMap<>();
+    private final LongAdder skippedTasks = new LongAdder();
+    private final LongAdder journaledTasks = new LongAdder();
+
+    /**
+     * Opens a journal, reading the challenges and tasks already in it
+     *
+     * @param path
+     *            the journal file, created if it does not exist
+     */
+    public UploadJournal(final Path path)
+    {
+        this.path = path;
+        try
+        {
+            final boolean endsWithNewLine = this.read();
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (!endsWithNewLine)
+            {
+                // End the line cut short, so that it stays apart from the lines appended
+                this.writer.write(NEW_LINE);
+            }
+        }
+        catch (final IOException error)
+        {
+            throw new CoreException("Unable to open upload journal {}", path, error);
+        }
+        logger.info("Upload journal {} holds {} task(s) for {} challenge(s).", path,
+                this.getAcknowledgedTaskCount(), this.challengeIds.size());
+    }
+
+    /**
+     * Record the tasks MapRoulette acknowledged for a challenge
+     *
+     * @param challengeId
+     *            the id of the challenge
+     * @param tasks
+     *            the tasks uploaded
+     */
+    public synchronized void acknowledgeTasks(final long challengeId,
+            final Collection<Task> tasks)
+    {
+        final Set<String> identifiers = this.acknowledgedTasks.computeIfAbsent(challengeId,
+                ignore -> ConcurrentHashMap.newKeySet());
+        try
+        {
+            for (final Task task : tasks)
+            {
+                if (identifiers.add(task.getTaskIdentifier()))
+                {
+                    this.writer.write(String.join(SEPARATOR, TASK, String.valueOf(challengeId),
+                            task.getTaskIdentifier()) + NEW_LINE);
+                    this.journaledTasks.increment();
+                }
+            }
+            // Flushed per batch, so that an acknowledged batch survives a crash
+            this.writer.flush();
+        }
+        catch (final IOException error)
+        {
+            throw new CoreException("Unable to write to upload journal {}", this.path, error);
+        }
+    }
+
+    /**
+     * Record the id of a challenge, forgetting the tasks of its former id if it changed
+     *
+     * @param key
+     *            the project and challenge names
+     * @param challengeId
+     *            the id of the challenge
+     */
+    public synchronized void addChallenge(final Tuple<String, String> key, final long challengeId)
+    {
+        final Long formerId = this.challengeIds.put(key, challengeId);
+        if (formerId != null && formerId == challengeId)
+        {
+            return;
+        }
+        if (formerId != null)
+        {
+            logger.warn("Challenge {} of project {} is now {}, it was {} in journal {}.",
+                    key.getSecond(), key.getFirst(), challengeId, formerId, this.path);
+            this.acknowledgedTasks.remove(formerId);
+        }
+        try
+        {
+            this.writer.write(String.join(SEPARATOR, CHALLENGE, String.valueOf(challengeId),
+                    key.getFirst(), key.getSecond()) + NEW_LINE);
+            this.writer.flush();
+        }
+        catch (final IOException error)
+        {
+            throw new CoreException("Unable to write to upload journal {}", this.path, error);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        this.writer.close();
+        logger.info("Skipped {} task(s) already in upload journal {}, and added {}.",
+                this.skippedTasks.sum(), this.path, this.journaledTasks.sum());
+    }
+
+    /**
+     * @return the number of tasks in the journal
+     */
+    public long getAcknowledgedTaskCount()
+    {
+        return this.acknowledgedTasks.values().stream().mapToLong(Set::size).sum();
+    }
+
+    /**
+     * Check if a task was already uploaded, counting it as skipped if it was
+     *
+     * @param key
+     *            the project and challenge names
+     * @param taskIdentifier
+     *            the identifier of the task
+     * @return true if MapRoulette acknowledged the task to the challenge
+     */
+    public boolean isAcknowledged(final Tuple<String, String> key, final String taskIdentifier)
+    {
+        final Long challengeId = this.challengeIds.get(key);
+        final boolean acknowledged = challengeId != null
+                && this.acknowledgedTasks.getOrDefault(challengeId, Set.of())
+                        .contains(taskIdentifier);
+        if (acknowledged)
+        {
+            this.skippedTasks.increment();
+        }
+        return acknowledged;
+    }
+
+    /**
+     * Read the journal, if it exists
+     *
+     * @return true if the journal is empty or ends with a full line
+     * @throws IOException
+     *             if the journal cannot be read
+     */
+    private boolean read() throws IOException
+    {
+        if (!Files.exists(this.path))
+        {
+            return true;
+        }
+        final String content = Files.readString(this.path, StandardCharsets.UTF_8);
+        final String[] lines = content.split(NEW_LINE, -1);
+        // The last line is either empty, or was cut short
+        for (int index = 0; index < lines.length - 1; index++)
+        {
+            final String line = lines[index];
+            try
+            {
+                if (line.startsWith(CHALLENGE + SEPARATOR))
+                {
+                    final String[] fields = line.split(SEPARATOR, CHALLENGE_FIELDS);
+                    final long challengeId = Long.parseLong(fields[1]);
+                    final Tuple<String, String> key = new Tuple<>(fields[2], fields[3]);
+                    final Long formerId = this.challengeIds.put(key, challengeId);
+                    if (formerId != null && formerId != challengeId)
+                    {
+                        this.acknowledgedTasks.remove(formerId);
+                    }
+                }
+                else if (line.startsWith(TASK + SEPARATOR))
+                {
+                    final String[] fields = line.split(SEPARATOR, TASK_FIELDS);
+                    this.acknowledgedTasks
+                            .computeIfAbsent(Long.parseLong(fields[1]),
+                                    ignore -> ConcurrentHashMap.newKeySet())
+                            .add(fields[2]);
+                }
+                else if (!line.isEmpty())
+                {
+                    logger.warn("Skipping unknown line {} of upload journal {}", index + 1,
+                            this.path);
+                }
+            }
+            catch (final NumberFormatException | ArrayIndexOutOfBoundsException error)
+            {
+                logger.warn("Skipping malformed line {} of upload journal {}", index + 1,
+                        this.path);
+            }
+        }
+        return content.isEmpty() || content.endsWith(NEW_LINE);
+    }
+}
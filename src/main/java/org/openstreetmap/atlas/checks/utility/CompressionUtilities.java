@@ -3,6 +3,13 @@ package org.openstreetmap.atlas.checks.utility;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
@@ -20,6 +27,31 @@ import org.slf4j.LoggerFactory;
 public final class CompressionUtilities
 {
     private static final Logger logger = LoggerFactory.getLogger(CompressionUtilities.class);
+    // Compression pools by number of threads, shared by the open streams of the JVM
+    private static final Map<Integer, ExecutorService> POOLS = new HashMap<>();
+    // Number of open streams per pool, shut down once the last of its streams is closed
+    private static final Map<Integer, Integer> POOL_STREAMS = new HashMap<>();
+
+    /**
+     * Get a gzip output stream that compresses independent blocks of its content on a shared pool
+     * of threads, and writes them as a multi-member gzip stream
+     *
+     * @param outputStream
+     *            The outputstream to write the compressed content to, closed with the gzip stream
+     * @param blockBytes
+     *            The number of content bytes per gzip member
+     * @param threads
+     *            The number of threads compressing blocks, shared with the other streams using as
+     *            many threads until it is closed. 0 compresses blocks on the thread writing to
+     *            the stream
+     * @return The gzip outputstream
+     */
+    public static ParallelGzipOutputStream getParallelGzipOutputStream(
+            final OutputStream outputStream, final int blockBytes, final int threads)
+    {
+        final ExecutorService executor = threads > 0 ? acquireCompressionPool(threads) : null;
+        return new ParallelGzipOutputStream(outputStream, blockBytes, executor, threads);
+    }
 
     /**
      * Get an uncompressed and unarchived input stream
@@ -82,6 +114,54 @@ public final class CompressionUtilities
         return buffered;
     }
 
+    /**
+     * @param threads
+     *            The number of threads of a compression pool
+     * @return {@code true} if a stream still uses the pool
+     */
+    static synchronized boolean isCompressionPoolRunning(final int threads)
+    {
+        return POOLS.containsKey(threads);
+    }
+
+    /**
+     * Release the compression pool of a stream being closed, shutting the pool down if no other
+     * stream uses it
+     *
+     * @param threads
+     *            The number of threads of the pool
+     */
+    static synchronized void releaseCompressionPool(final int threads)
+    {
+        if (POOL_STREAMS.merge(threads, -1, Integer::sum) == 0)
+        {
+            POOL_STREAMS.remove(threads);
+            POOLS.remove(threads).shutdown();
+            logger.info("Stopped the pool of {} gzip compression threads", threads);
+        }
+    }
+
+    private static synchronized ExecutorService acquireCompressionPool(final int threads)
+    {
+        POOL_STREAMS.merge(threads, 1, Integer::sum);
+        return POOLS.computeIfAbsent(threads, CompressionUtilities::newCompressionPool);
+    }
+
+    private static ExecutorService newCompressionPool(final int threads)
+    {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable ->
+        {
+            final Thread thread = new Thread(runnable,
+                    String.format("gzip-%s-%s", threads, threadIndex.incrementAndGet()));
+            // Idle pools must not keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+        };
+        logger.info("Starting a pool of {} gzip compression threads", threads);
+        return Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
     /**
      * Try to unarchive an inputstream
      *
@@ -5,12 +5,19 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FilenameUtils;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagFormat;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagReader;
 import org.openstreetmap.atlas.streaming.resource.File;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 /**
  * A set of utility classes for reading files
  *
@@ -19,6 +26,8 @@ import org.openstreetmap.atlas.streaming.resource.File;
 public final class FileUtility
 {
 
+    // Prefix of the folders flag files are written into when they are partitioned by check
+    public static final String CHECK_PARTITION = "check=";
     private static final String LOG_EXTENSION = "log";
     private static final String ZIPPED_LOG_EXTENSION = ".log.gz";
 
@@ -28,7 +37,63 @@ public final class FileUtility
     public enum LogOutputFileType
     {
         LOG,
-        COMPRESSED_LOG
+        COMPRESSED_LOG,
+        BINARY
+    }
+
+    /**
+     * Read every flag in a file that we know we should be able to handle. Binary flag files are
+     * decoded directly, without a round trip through json text.
+     *
+     * @param inputFile
+     *            Some file with a valid, appropriate extension.
+     * @param fileType
+     *            The type of file that inputFile is
+     * @param consumer
+     *            receives the GeoJson FeatureCollection of each flag
+     * @throws IOException
+     *             if the file is not found or is poorly formatted, given its extension
+     */
+    public static void forEachFlag(final File inputFile, final LogOutputFileType fileType,
+            final Consumer<JsonObject> consumer) throws IOException
+    {
+        if (fileType == LogOutputFileType.BINARY)
+        {
+            try (BinaryFlagReader reader = new BinaryFlagReader(inputFile.toAbsolutePath()))
+            {
+                reader.read().forEachRemaining(consumer);
+            }
+            return;
+        }
+        final JsonParser parser = new JsonParser();
+        try (BufferedReader reader = getReader(inputFile, fileType))
+        {
+            final Iterator<String> lines = reader.lines().iterator();
+            while (lines.hasNext())
+            {
+                final String line = lines.next();
+                if (!line.trim().isEmpty())
+                {
+                    consumer.accept(parser.parse(line).getAsJsonObject());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the country of a flag file from the folder it is in. Flag files are written in a folder
+     * per country, and optionally in a check partition folder within it.
+     *
+     * @param flagFile
+     *            a flag file
+     * @return the name of the country folder of the file
+     */
+    public static String getCountryFolderName(final File flagFile)
+    {
+        final String parent = flagFile.getParentPathString();
+        return getPartitionCheckName(flagFile).isPresent()
+                ? FilenameUtils.getName(FilenameUtils.getFullPathNoEndSeparator(parent))
+                : FilenameUtils.getName(parent);
     }
 
     /**
@@ -51,9 +116,29 @@ public final class FileUtility
         {
             return Optional.of(LogOutputFileType.LOG);
         }
+        else if (BinaryFlagFormat.isBinaryFlagFile(logFile.getName()))
+        {
+            return Optional.of(LogOutputFileType.BINARY);
+        }
         return Optional.empty();
     }
 
+    /**
+     * Get the check of a flag file written into a check partition folder. All flags in such a file
+     * are from that check, so readers can pick or count the checks they need by folder.
+     *
+     * @param flagFile
+     *            a flag file
+     * @return the name of the check, if the file is in a check partition folder
+     */
+    public static Optional<String> getPartitionCheckName(final File flagFile)
+    {
+        final String folder = FilenameUtils.getName(flagFile.getParentPathString());
+        return folder.startsWith(CHECK_PARTITION)
+                ? Optional.of(folder.substring(CHECK_PARTITION.length()))
+                : Optional.empty();
+    }
+
     /**
      * Read a file that we know we should be able to handle
      *
@@ -63,13 +148,18 @@ public final class FileUtility
      *            The type of file that inputFile is
      * @return a BufferedReader to read inputFile
      * @throws IOException
-     *             if the file is not found or is poorly formatted, given its extension. For
-     *             example, if this file is gzipped and something goes wrong in the unzipping
-     *             process, it might throw an error
+     *             if the file is not found or is poorly formatted, given its extension, or is a
+     *             binary flag file, which has no lines to read. For example, if this file is
+     *             gzipped and something goes wrong in the unzipping process, it might throw an
+     *             error
      */
     public static BufferedReader getReader(final File inputFile, final LogOutputFileType fileType)
             throws IOException
     {
+        if (fileType == LogOutputFileType.BINARY)
+        {
+            throw new IOException(inputFile.getName() + " is a binary flag file");
+        }
         if (fileType == LogOutputFileType.LOG)
         {
             return new BufferedReader(new FileReader(inputFile.getPathString()));
@@ -0,0 +1,278 @@
+package org.openstreetmap.atlas.checks.utility;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip {@link OutputStream} that cuts its content into blocks of a fixed size and compresses
+ * each block as a gzip member of its own, in the manner of pigz. Gzip readers inflate the
+ * concatenated members as a single stream. Given an {@link ExecutorService}, blocks are compressed
+ * in parallel and written in order as they complete, with at most two blocks per thread in flight;
+ * without one, blocks are compressed on the writing thread. Flushing writes the blocks in flight
+ * but does not cut the current block short, so that every member but the last inflates to a full
+ * block. Create instances through {@link CompressionUtilities#getParallelGzipOutputStream}.
+ *
+ * @author mkalender
+ */
+public final class ParallelGzipOutputStream extends OutputStream
+{
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_HEADER_BYTES = 10;
+    private static final int GZIP_TRAILER_BYTES = 8;
+    private static final int DEFLATE_BUFFER_BYTES = 16 * 1024;
+    private static final ThreadLocal<Deflater> POOL_DEFLATERS = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final OutputStream output;
+    private final ExecutorService executor;
+    private final int threads;
+    private final int maximumPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final Deflater deflater;
+    private byte[] block;
+    private int fill;
+    private long contentBytes;
+    // Offset of each member in the compressed stream, by block
+    private long[] memberOffsets = new long[16];
+    private int members;
+    private long compressedBytes;
+    // Number of content bytes of the members written
+    private long compressedContentBytes;
+    private boolean closed;
+
+    ParallelGzipOutputStream(final OutputStream output, final int blockBytes,
+            final ExecutorService executor, final int threads)
+    {
+        this.output = output;
+        this.block = new byte[blockBytes];
+        this.executor = executor;
+        this.threads = threads;
+        this.maximumPending = 2 * Math.max(1, threads);
+        this.deflater = executor == null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+                : null;
+    }
+
+    /**
+     * Compresses a block into a complete gzip member
+     *
+     * @param block
+     *            content to compress
+     * @param length
+     *            number of bytes of the block to compress
+     * @param deflater
+     *            a raw {@link Deflater}, reset before use
+     * @return the gzip member
+     */
+    private static byte[] compress(final byte[] block, final int length, final Deflater deflater)
+    {
+        final CRC32 checksum = new CRC32();
+        checksum.update(block, 0, length);
+        deflater.reset();
+        deflater.setInput(block, 0, length);
+        deflater.finish();
+
+        byte[] member = new byte[GZIP_HEADER_BYTES + length / 2 + DEFLATE_BUFFER_BYTES];
+        ByteBuffer.wrap(member).order(ByteOrder.LITTLE_ENDIAN).putShort((short) GZIP_MAGIC)
+                .put((byte) Deflater.DEFLATED);
+        int size = GZIP_HEADER_BYTES;
+        while (!deflater.finished())
+        {
+            if (size == member.length)
+            {
+                member = Arrays.copyOf(member, member.length * 2);
+            }
+            size += deflater.deflate(member, size, member.length - size);
+        }
+        member = Arrays.copyOf(member, size + GZIP_TRAILER_BYTES);
+        ByteBuffer.wrap(member, size, GZIP_TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) checksum.getValue()).putInt(length);
+        return member;
+    }
+
+    /**
+     * Compresses the last block, waits for all blocks to be written and closes the underlying
+     * stream
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        this.closed = true;
+        try
+        {
+            // An empty stream is still a valid gzip stream
+            if (this.fill > 0 || this.members + this.pending.size() == 0)
+            {
+                this.submitBlock();
+            }
+            while (!this.pending.isEmpty())
+            {
+                this.writeMember();
+            }
+            this.output.close();
+        }
+        finally
+        {
+            this.pending.forEach(future -> future.cancel(false));
+            if (this.deflater != null)
+            {
+                this.deflater.end();
+            }
+            else
+            {
+                CompressionUtilities.releaseCompressionPool(this.threads);
+            }
+        }
+    }
+
+    /**
+     * Waits for the blocks in flight to be written and flushes the underlying stream. The content
+     * of the current block stays buffered until the block is full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        while (!this.pending.isEmpty())
+        {
+            this.writeMember();
+        }
+        this.output.flush();
+    }
+
+    /**
+     * @return the number of content bytes of the gzip members written so far, leaving out the
+     *         content still buffered or being compressed
+     */
+    public long getCompressedContentBytes()
+    {
+        return this.compressedContentBytes;
+    }
+
+    /**
+     * @return the number of bytes written so far, before compression
+     */
+    public long getContentBytes()
+    {
+        return this.contentBytes;
+    }
+
+    /**
+     * @param block
+     *            index of a block that has been written
+     * @return the offset of the gzip member of the block, in the compressed stream
+     */
+    public long getMemberOffset(final int block)
+    {
+        if (block >= this.members)
+        {
+            throw new IndexOutOfBoundsException(
+                    String.format("Block %s is not written yet, %s are", block, this.members));
+        }
+        return this.memberOffsets[block];
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException
+    {
+        if (this.closed)
+        {
+            throw new IOException("Stream is closed");
+        }
+        int written = 0;
+        while (written < length)
+        {
+            final int chunk = Math.min(length - written, this.block.length - this.fill);
+            System.arraycopy(bytes, offset + written, this.block, this.fill, chunk);
+            this.fill += chunk;
+            written += chunk;
+            this.contentBytes += chunk;
+            if (this.fill == this.block.length)
+            {
+                this.submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void write(final int value) throws IOException
+    {
+        this.write(new byte[] { (byte) value }, 0, 1);
+    }
+
+    /**
+     * Compresses the current block, or hands it to the pool, and starts a new one
+     */
+    private void submitBlock() throws IOException
+    {
+        final byte[] full = this.block;
+        final int length = this.fill;
+        if (this.executor == null)
+        {
+            this.writeMember(compress(full, length, this.deflater));
+        }
+        else
+        {
+            this.pending.add(this.executor
+                    .submit(() -> compress(full, length, POOL_DEFLATERS.get())));
+            this.block = new byte[full.length];
+            // Write the members that are done, and wait for the oldest when too many are in flight
+            while (!this.pending.isEmpty() && (this.pending.peekFirst().isDone()
+                    || this.pending.size() >= this.maximumPending))
+            {
+                this.writeMember();
+            }
+        }
+        this.fill = 0;
+    }
+
+    private void writeMember() throws IOException
+    {
+        try
+        {
+            this.writeMember(this.pending.peekFirst().get());
+            this.pending.removeFirst();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+        catch (final ExecutionException e)
+        {
+            throw new IOException("Unable to compress a block", e.getCause());
+        }
+    }
+
+    private void writeMember(final byte[] member) throws IOException
+    {
+        if (this.members == this.memberOffsets.length)
+        {
+            this.memberOffsets = Arrays.copyOf(this.memberOffsets, this.members * 2);
+        }
+        this.memberOffsets[this.members++] = this.compressedBytes;
+        this.output.write(member);
+        this.compressedBytes += member.length;
+        // The trailer of the member ends with the length of its content
+        this.compressedContentBytes += Integer.toUnsignedLong(ByteBuffer
+                .wrap(member, member.length - Integer.BYTES, Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).getInt());
+    }
+}
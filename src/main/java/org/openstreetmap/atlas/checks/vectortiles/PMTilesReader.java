@@ -0,0 +1,301 @@
+package org.openstreetmap.atlas.checks.vectortiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.openstreetmap.atlas.checks.vectortiles.PMTilesWriter.Entry;
+import org.openstreetmap.atlas.exception.CoreException;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Reads the tiles of a clustered PMTiles (version 3) archive in a single pass over a stream, in
+ * tile identifier order, as written by {@link PMTilesWriter}. Only the directories are held in
+ * memory, so archives can be merged tile by tile.
+ *
+ * @author mkalender
+ */
+public final class PMTilesReader implements Closeable
+{
+    private static final int OFFSET_ROOT = 8;
+    private static final int OFFSET_INTERNAL_COMPRESSION = 97;
+    private static final int OFFSET_TILE_COMPRESSION = 98;
+
+    private final DataInputStream input;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Collection<String> layers = new ArrayList<>();
+    private final boolean compressedTiles;
+    private long position;
+    private int entryIndex;
+    private int run;
+    private Entry entry;
+    private byte[] tile;
+
+    /**
+     * Default constructor, reading the header and the directories of the archive
+     *
+     * @param input
+     *            {@link InputStream} of the archive, closed with the reader
+     */
+    public PMTilesReader(final InputStream input)
+    {
+        this.input = new DataInputStream(input);
+        final ByteBuffer header = ByteBuffer.wrap(this.read(PMTilesWriter.HEADER_BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (!Arrays.equals(PMTilesWriter.MAGIC,
+                Arrays.copyOf(header.array(), PMTilesWriter.MAGIC.length))
+                || header.get(PMTilesWriter.MAGIC.length) != PMTilesWriter.VERSION)
+        {
+            throw new CoreException("Not a version {} PMTiles archive", PMTilesWriter.VERSION);
+        }
+        header.position(OFFSET_ROOT);
+        final long rootOffset = header.getLong();
+        final long rootBytes = header.getLong();
+        final long metadataOffset = header.getLong();
+        final long metadataBytes = header.getLong();
+        final long leafOffset = header.getLong();
+        final long leafBytes = header.getLong();
+        final long tileDataOffset = header.getLong();
+        final boolean compressedDirectories = header
+                .get(OFFSET_INTERNAL_COMPRESSION) == PMTilesWriter.GZIP;
+        this.compressedTiles = header.get(OFFSET_TILE_COMPRESSION) == PMTilesWriter.GZIP;
+        if (rootOffset > metadataOffset || metadataOffset > leafOffset
+                || leafOffset > tileDataOffset)
+        {
+            throw new CoreException("PMTiles sections are not in order, it cannot be streamed");
+        }
+
+        this.skipTo(rootOffset);
+        final List<Entry> root = parse(
+                this.internal(this.read((int) rootBytes), compressedDirectories));
+        this.skipTo(metadataOffset);
+        this.readLayers(
+                this.internal(this.read((int) metadataBytes), compressedDirectories));
+        this.skipTo(leafOffset);
+        final byte[] leaves = this.read((int) leafBytes);
+        for (final Entry rootEntry : root)
+        {
+            if (rootEntry.getRunLength() > 0)
+            {
+                this.entries.add(rootEntry);
+            }
+            else
+            {
+                this.entries.addAll(parse(this.internal(
+                        Arrays.copyOfRange(leaves, (int) rootEntry.getOffset(),
+                                (int) rootEntry.getOffset() + rootEntry.getLength()),
+                        compressedDirectories)));
+            }
+        }
+        this.skipTo(tileDataOffset);
+        // Tile offsets are relative to the tile data
+        this.position = 0;
+    }
+
+    static byte[] gunzip(final byte[] bytes)
+    {
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes)))
+        {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 4);
+            input.transferTo(output);
+            return output.toByteArray();
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to decompress {} bytes", bytes.length, e);
+        }
+    }
+
+    private static List<Entry> parse(final byte[] directory)
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(directory);
+        final int count = (int) readVarint(buffer);
+        final long[] identifiers = new long[count];
+        final int[] runLengths = new int[count];
+        final int[] lengths = new int[count];
+        long lastIdentifier = 0;
+        for (int index = 0; index < count; index++)
+        {
+            lastIdentifier += readVarint(buffer);
+            identifiers[index] = lastIdentifier;
+        }
+        for (int index = 0; index < count; index++)
+        {
+            runLengths[index] = (int) readVarint(buffer);
+        }
+        for (int index = 0; index < count; index++)
+        {
+            lengths[index] = (int) readVarint(buffer);
+        }
+        final List<Entry> entries = new ArrayList<>(count);
+        for (int index = 0; index < count; index++)
+        {
+            final long offset = readVarint(buffer);
+            final long actualOffset = offset == 0 && index > 0
+                    ? entries.get(index - 1).getOffset() + lengths[index - 1]
+                    : offset - 1;
+            entries.add(new Entry(identifiers[index], actualOffset, lengths[index],
+                    runLengths[index]));
+        }
+        return entries;
+    }
+
+    private static long readVarint(final ByteBuffer buffer)
+    {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7)
+        {
+            final int current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            if ((current & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new CoreException("Malformed varint in PMTiles directory");
+    }
+
+    /**
+     * Moves to the next tile
+     *
+     * @return false when there are no more tiles
+     */
+    public boolean advance()
+    {
+        // Tiles with a run length repeat the same data for the following identifiers
+        if (this.entry != null && this.run + 1 < this.entry.getRunLength())
+        {
+            this.run++;
+            return true;
+        }
+        if (this.entryIndex >= this.entries.size())
+        {
+            this.entry = null;
+            this.tile = null;
+            return false;
+        }
+        final Entry next = this.entries.get(this.entryIndex++);
+        if (next.getOffset() < this.position)
+        {
+            throw new CoreException("PMTiles archive is not clustered, it cannot be streamed");
+        }
+        this.skipTo(next.getOffset());
+        this.tile = this.read(next.getLength());
+        this.entry = next;
+        this.run = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.input.close();
+    }
+
+    /**
+     * @return the current tile, gzipped
+     */
+    public byte[] getCompressedTile()
+    {
+        return this.compressedTiles ? this.tile : PMTilesWriter.gzip(this.tile);
+    }
+
+    /**
+     * @return the names of the layers declared in the metadata of the archive
+     */
+    public Collection<String> getLayers()
+    {
+        return this.layers;
+    }
+
+    /**
+     * @return the current tile, decoded
+     */
+    public VectorTile getTile()
+    {
+        return VectorTile.from(this.compressedTiles ? gunzip(this.tile) : this.tile);
+    }
+
+    /**
+     * @return the identifier of the current tile
+     */
+    public long getTileIdentifier()
+    {
+        return this.entry.getTileIdentifier() + this.run;
+    }
+
+    private byte[] internal(final byte[] bytes, final boolean compressed)
+    {
+        return compressed ? gunzip(bytes) : bytes;
+    }
+
+    private byte[] read(final int length)
+    {
+        final byte[] bytes = new byte[length];
+        try
+        {
+            this.input.readFully(bytes);
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to read {} bytes of the PMTiles archive", length, e);
+        }
+        this.position += length;
+        return bytes;
+    }
+
+    private void readLayers(final byte[] metadata)
+    {
+        final JsonElement vectorLayers = new JsonParser()
+                .parse(new String(metadata, StandardCharsets.UTF_8)).getAsJsonObject()
+                .get("vector_layers");
+        if (vectorLayers != null && vectorLayers.isJsonArray())
+        {
+            for (final JsonElement layer : vectorLayers.getAsJsonArray())
+            {
+                this.layers.add(((JsonObject) layer).get("id").getAsString());
+            }
+        }
+    }
+
+    private void skipTo(final long offset)
+    {
+        try
+        {
+            long remaining = offset - this.position;
+            while (remaining > 0)
+            {
+                final long skipped = this.input.skip(remaining);
+                if (skipped > 0)
+                {
+                    remaining -= skipped;
+                }
+                else
+                {
+                    // Skip may give up before the end of the stream, reading tells them apart
+                    this.input.readFully(new byte[1]);
+                    remaining--;
+                }
+            }
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to skip to {} in the PMTiles archive", offset, e);
+        }
+        this.position = offset;
+    }
+}
@@ -0,0 +1,454 @@
+package org.openstreetmap.atlas.checks.vectortiles;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.openstreetmap.atlas.exception.CoreException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Writes a PMTiles (version 3) archive of gzipped vector tiles. Tiles have to be added in
+ * increasing tile identifier order, which is the order of the zooms and of a Hilbert curve within
+ * each zoom, so that the archive is clustered and can be read back in a single pass. Tile data is
+ * spooled to a local temporary file until the archive is written, as the directories, which come
+ * first in the archive, are only known once all tiles are added.
+ *
+ * @author mkalender
+ */
+public final class PMTilesWriter implements Closeable
+{
+    /**
+     * A directory entry, pointing to a tile or to a leaf directory
+     */
+    static final class Entry
+    {
+        private final long tileIdentifier;
+        private final long offset;
+        private final int length;
+        private final int runLength;
+
+        Entry(final long tileIdentifier, final long offset, final int length,
+                final int runLength)
+        {
+            this.tileIdentifier = tileIdentifier;
+            this.offset = offset;
+            this.length = length;
+            this.runLength = runLength;
+        }
+
+        int getLength()
+        {
+            return this.length;
+        }
+
+        long getOffset()
+        {
+            return this.offset;
+        }
+
+        int getRunLength()
+        {
+            return this.runLength;
+        }
+
+        long getTileIdentifier()
+        {
+            return this.tileIdentifier;
+        }
+    }
+
+    public static final String FILE_EXTENSION = ".pmtiles";
+
+    static final int HEADER_BYTES = 127;
+    static final byte[] MAGIC = "PMTiles".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 3;
+    static final int GZIP = 2;
+    static final int MVT = 1;
+    // The header and the root directory have to fit in the first 16 KiB of the archive
+    private static final int ROOT_DIRECTORY_BYTES = 16_384 - HEADER_BYTES;
+    private static final int LEAF_ENTRIES = 4096;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAXIMUM_ZOOM = 31;
+    private static final double DEGREES_TO_E7 = 10_000_000.0;
+
+    private final File tileData;
+    private final OutputStream tileOutput;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Collection<String> layers = new TreeSet<>();
+    private long tileDataBytes;
+    private int minimumZoom = Integer.MAX_VALUE;
+    private int maximumZoom = -1;
+    private double west = Double.MAX_VALUE;
+    private double south = Double.MAX_VALUE;
+    private double east = -Double.MAX_VALUE;
+    private double north = -Double.MAX_VALUE;
+
+    /**
+     * Converts the zoom, x and y of a tile to its PMTiles tile identifier
+     *
+     * @param zoom
+     *            zoom of the tile
+     * @param tileX
+     *            x of the tile
+     * @param tileY
+     *            y of the tile, from the top
+     * @return the tile identifier
+     */
+    public static long tileIdentifier(final int zoom, final int tileX, final int tileY)
+    {
+        long identifier = zoomStart(zoom);
+        final long size = 1L << zoom;
+        long xValue = tileX;
+        long yValue = tileY;
+        for (long half = size / 2; half > 0; half /= 2)
+        {
+            final long rotateX = (xValue & half) > 0 ? 1 : 0;
+            final long rotateY = (yValue & half) > 0 ? 1 : 0;
+            identifier += half * half * (3 * rotateX ^ rotateY);
+            if (rotateY == 0)
+            {
+                if (rotateX == 1)
+                {
+                    xValue = size - 1 - xValue;
+                    yValue = size - 1 - yValue;
+                }
+                final long swap = xValue;
+                xValue = yValue;
+                yValue = swap;
+            }
+        }
+        return identifier;
+    }
+
+    /**
+     * Converts a PMTiles tile identifier back to the zoom, x and y of its tile
+     *
+     * @param tileIdentifier
+     *            the tile identifier
+     * @return the zoom, x and y of the tile
+     */
+    public static int[] tileCoordinates(final long tileIdentifier)
+    {
+        int zoom = 0;
+        while (zoom < MAXIMUM_ZOOM && zoomStart(zoom + 1) <= tileIdentifier)
+        {
+            zoom++;
+        }
+        long position = tileIdentifier - zoomStart(zoom);
+        long xValue = 0;
+        long yValue = 0;
+        for (long size = 1; size < 1L << zoom; size *= 2)
+        {
+            final long rotateX = 1 & position / 2;
+            final long rotateY = 1 & (position ^ rotateX);
+            if (rotateY == 0)
+            {
+                if (rotateX == 1)
+                {
+                    xValue = size - 1 - xValue;
+                    yValue = size - 1 - yValue;
+                }
+                final long swap = xValue;
+                xValue = yValue;
+                yValue = swap;
+            }
+            xValue += size * rotateX;
+            yValue += size * rotateY;
+            position /= 4;
+        }
+        return new int[] { zoom, (int) xValue, (int) yValue };
+    }
+
+    static byte[] gzip(final byte[] bytes)
+    {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 32);
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed))
+        {
+            output.write(bytes);
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to compress {} bytes", bytes.length, e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream output, final long value)
+    {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0)
+        {
+            output.write((int) (remaining & 0x7F | 0x80));
+            remaining >>>= 7;
+        }
+        output.write((int) remaining);
+    }
+
+    /**
+     * @return the tile identifier of the first tile of a zoom, which is the number of tiles of the
+     *         zooms below it
+     */
+    private static long zoomStart(final int zoom)
+    {
+        return ((1L << 2 * zoom) - 1) / 3;
+    }
+
+    /**
+     * Default constructor
+     */
+    public PMTilesWriter()
+    {
+        try
+        {
+            this.tileData = Files.createTempFile("tiles", FILE_EXTENSION).toFile();
+            this.tileOutput = new BufferedOutputStream(
+                    Files.newOutputStream(this.tileData.toPath()), BUFFER_BYTES);
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to create the tile data file", e);
+        }
+    }
+
+    /**
+     * Adds a tile that is already gzipped
+     *
+     * @param tileIdentifier
+     *            identifier of the tile, greater than the one of the last added tile
+     * @param compressedTile
+     *            the gzipped tile
+     */
+    public void add(final long tileIdentifier, final byte[] compressedTile)
+    {
+        if (!this.entries.isEmpty() && tileIdentifier <= this.entries
+                .get(this.entries.size() - 1).getTileIdentifier())
+        {
+            throw new CoreException("Tile {} is not added in tile identifier order",
+                    tileIdentifier);
+        }
+        try
+        {
+            this.tileOutput.write(compressedTile);
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to spool tile {}", tileIdentifier, e);
+        }
+        this.entries.add(
+                new Entry(tileIdentifier, this.tileDataBytes, compressedTile.length, 1));
+        this.tileDataBytes += compressedTile.length;
+        this.expand(tileCoordinates(tileIdentifier));
+    }
+
+    /**
+     * Adds a vector tile
+     *
+     * @param tileIdentifier
+     *            identifier of the tile, greater than the one of the last added tile
+     * @param tile
+     *            the {@link VectorTile}
+     */
+    public void add(final long tileIdentifier, final VectorTile tile)
+    {
+        this.layers.addAll(tile.getLayerNames());
+        this.add(tileIdentifier, gzip(tile.toByteArray()));
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            this.tileOutput.close();
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to close the tile data file", e);
+        }
+        finally
+        {
+            this.tileData.delete();
+        }
+    }
+
+    /**
+     * @return the number of tiles added
+     */
+    public int getTileCount()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Declares layers of the archive, for tiles added already gzipped
+     *
+     * @param layers
+     *            names of the layers
+     * @return the {@link PMTilesWriter}
+     */
+    public PMTilesWriter withLayers(final Collection<String> layers)
+    {
+        this.layers.addAll(layers);
+        return this;
+    }
+
+    /**
+     * Writes the archive, with all tiles added so far
+     *
+     * @param output
+     *            {@link OutputStream} to write the archive to
+     */
+    public void writeTo(final OutputStream output)
+    {
+        try
+        {
+            this.tileOutput.flush();
+            byte[] root = gzip(serialize(this.entries));
+            final ByteArrayOutputStream leaves = new ByteArrayOutputStream();
+            // Split the entries into leaf directories until the root directory is small enough
+            int leafEntries = LEAF_ENTRIES;
+            while (root.length > ROOT_DIRECTORY_BYTES)
+            {
+                leaves.reset();
+                final List<Entry> rootEntries = new ArrayList<>();
+                for (int start = 0; start < this.entries.size(); start += leafEntries)
+                {
+                    final byte[] leaf = gzip(serialize(this.entries.subList(start,
+                            Math.min(start + leafEntries, this.entries.size()))));
+                    rootEntries.add(new Entry(this.entries.get(start).getTileIdentifier(),
+                            leaves.size(), leaf.length, 0));
+                    leaves.writeBytes(leaf);
+                }
+                root = gzip(serialize(rootEntries));
+                leafEntries *= 2;
+            }
+            final byte[] metadata = gzip(this.metadata().getBytes(StandardCharsets.UTF_8));
+
+            output.write(this.header(root.length, metadata.length, leaves.size()));
+            output.write(root);
+            output.write(metadata);
+            leaves.writeTo(output);
+            Files.copy(this.tileData.toPath(), output);
+            output.flush();
+        }
+        catch (final IOException e)
+        {
+            throw new CoreException("Unable to write the PMTiles archive", e);
+        }
+    }
+
+    private static byte[] serialize(final List<Entry> entries)
+    {
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        writeVarint(directory, entries.size());
+        long lastIdentifier = 0;
+        for (final Entry entry : entries)
+        {
+            writeVarint(directory, entry.getTileIdentifier() - lastIdentifier);
+            lastIdentifier = entry.getTileIdentifier();
+        }
+        for (final Entry entry : entries)
+        {
+            writeVarint(directory, entry.getRunLength());
+        }
+        for (final Entry entry : entries)
+        {
+            writeVarint(directory, entry.getLength());
+        }
+        Entry previous = null;
+        for (final Entry entry : entries)
+        {
+            // Zero means the entry directly follows the previous one
+            if (previous != null
+                    && entry.getOffset() == previous.getOffset() + previous.getLength())
+            {
+                writeVarint(directory, 0);
+            }
+            else
+            {
+                writeVarint(directory, entry.getOffset() + 1);
+            }
+            previous = entry;
+        }
+        return directory.toByteArray();
+    }
+
+    private void expand(final int[] tile)
+    {
+        final int zoom = tile[0];
+        this.minimumZoom = Math.min(this.minimumZoom, zoom);
+        this.maximumZoom = Math.max(this.maximumZoom, zoom);
+        final double tiles = 1L << zoom;
+        this.west = Math.min(this.west, tile[1] / tiles * 360.0 - 180.0);
+        this.east = Math.max(this.east, (tile[1] + 1) / tiles * 360.0 - 180.0);
+        this.north = Math.max(this.north, latitude(tile[2] / tiles));
+        this.south = Math.min(this.south, latitude((tile[2] + 1) / tiles));
+    }
+
+    private byte[] header(final int rootBytes, final int metadataBytes, final int leafBytes)
+    {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).put((byte) VERSION);
+        final long metadataOffset = HEADER_BYTES + (long) rootBytes;
+        final long leafOffset = metadataOffset + metadataBytes;
+        final long tileDataOffset = leafOffset + leafBytes;
+        header.putLong(HEADER_BYTES).putLong(rootBytes);
+        header.putLong(metadataOffset).putLong(metadataBytes);
+        header.putLong(leafOffset).putLong(leafBytes);
+        header.putLong(tileDataOffset).putLong(this.tileDataBytes);
+        // Addressed tiles, tile entries and tile contents are the same, without deduplication
+        header.putLong(this.entries.size()).putLong(this.entries.size())
+                .putLong(this.entries.size());
+        // Clustered, internal compression, tile compression and tile type
+        header.put((byte) 1).put((byte) GZIP).put((byte) GZIP).put((byte) MVT);
+        final boolean empty = this.entries.isEmpty();
+        header.put((byte) (empty ? 0 : this.minimumZoom))
+                .put((byte) (empty ? 0 : this.maximumZoom));
+        header.putInt(e7(empty ? 0 : this.west)).putInt(e7(empty ? 0 : this.south))
+                .putInt(e7(empty ? 0 : this.east)).putInt(e7(empty ? 0 : this.north));
+        header.put((byte) (empty ? 0 : this.minimumZoom));
+        header.putInt(e7(empty ? 0 : (this.west + this.east) / 2))
+                .putInt(e7(empty ? 0 : (this.south + this.north) / 2));
+        return header.array();
+    }
+
+    private static int e7(final double degrees)
+    {
+        return (int) Math.round(degrees * DEGREES_TO_E7);
+    }
+
+    private static double latitude(final double mercatorY)
+    {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * mercatorY))));
+    }
+
+    private String metadata()
+    {
+        final JsonArray vectorLayers = new JsonArray();
+        for (final String layer : this.layers)
+        {
+            final JsonObject vectorLayer = new JsonObject();
+            vectorLayer.addProperty("id", layer);
+            vectorLayer.add("fields", new JsonObject());
+            vectorLayers.add(vectorLayer);
+        }
+        final JsonObject metadata = new JsonObject();
+        metadata.add("vector_layers", vectorLayers);
+        return metadata.toString();
+    }
+}
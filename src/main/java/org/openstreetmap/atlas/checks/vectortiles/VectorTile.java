@@ -0,0 +1,746 @@
+package org.openstreetmap.atlas.checks.vectortiles;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Puntal;
+import org.openstreetmap.atlas.exception.CoreException;
+
+/**
+ * A Mapbox vector tile (MVT 2.1), encoded to and decoded from its protocol buffer form without a
+ * protocol buffer library. Features are added with geometries in tile coordinates, from 0 to
+ * {@link #EXTENT} with y going down, and are rounded to whole tile coordinates when added. Tiles
+ * of the same zoom, x and y built from different flags can be merged layer by layer.
+ *
+ * @author mkalender
+ */
+public final class VectorTile
+{
+    /**
+     * A layer of the tile, with its own key and value tables
+     */
+    private static final class Layer
+    {
+        private final String name;
+        private final Map<String, Integer> keys = new LinkedHashMap<>();
+        private final Map<Object, Integer> values = new LinkedHashMap<>();
+        private final List<Feature> features = new ArrayList<>();
+
+        Layer(final String name)
+        {
+            this.name = name;
+        }
+
+        int key(final String key)
+        {
+            return this.keys.computeIfAbsent(key, ignored -> this.keys.size());
+        }
+
+        int value(final Object value)
+        {
+            return this.values.computeIfAbsent(value, ignored -> this.values.size());
+        }
+    }
+
+    /**
+     * An encoded feature; tags index the key and value tables of its layer
+     */
+    private static final class Feature
+    {
+        private final int type;
+        private final int[] tags;
+        private final int[] geometry;
+
+        Feature(final int type, final int[] tags, final int[] geometry)
+        {
+            this.type = type;
+            this.tags = tags;
+            this.geometry = geometry;
+        }
+    }
+
+    /**
+     * Builds the command integers of a feature geometry, keeping the cursor across its parts
+     */
+    private static final class GeometryCommands
+    {
+        private final int offsetX;
+        private final int offsetY;
+        private final List<Integer> commands = new ArrayList<>();
+        private int cursorX;
+        private int cursorY;
+
+        GeometryCommands(final int offsetX, final int offsetY)
+        {
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+
+        void addLine(final LineString line)
+        {
+            final List<int[]> points = this.round(line.getCoordinates());
+            if (points.size() < 2)
+            {
+                return;
+            }
+            this.moveTo(points.subList(0, 1));
+            this.lineTo(points.subList(1, points.size()));
+        }
+
+        void addPoints(final Geometry points)
+        {
+            final List<int[]> rounded = this.round(points.getCoordinates());
+            if (!rounded.isEmpty())
+            {
+                this.moveTo(rounded);
+            }
+        }
+
+        void addPolygon(final Polygon polygon)
+        {
+            if (this.addRing(polygon.getExteriorRing(), true))
+            {
+                for (int index = 0; index < polygon.getNumInteriorRing(); index++)
+                {
+                    this.addRing(polygon.getInteriorRingN(index), false);
+                }
+            }
+        }
+
+        int[] toArray()
+        {
+            return this.commands.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private boolean addRing(final LineString ring, final boolean exterior)
+        {
+            final List<int[]> points = this.round(ring.getCoordinates());
+            // The closing point is implied by the close path command
+            if (points.size() > 1 && Arrays.equals(points.get(0), points.get(points.size() - 1)))
+            {
+                points.remove(points.size() - 1);
+            }
+            final long area = area(points);
+            if (points.size() < 3 || area == 0)
+            {
+                return false;
+            }
+            // Exterior rings have a positive area with y going down, interior rings a negative one
+            if (area > 0 != exterior)
+            {
+                Collections.reverse(points);
+            }
+            this.moveTo(points.subList(0, 1));
+            this.lineTo(points.subList(1, points.size()));
+            this.commands.add(command(CLOSE_PATH, 1));
+            return true;
+        }
+
+        private void lineTo(final List<int[]> points)
+        {
+            this.commands.add(command(LINE_TO, points.size()));
+            this.parameters(points);
+        }
+
+        private void moveTo(final List<int[]> points)
+        {
+            this.commands.add(command(MOVE_TO, points.size()));
+            this.parameters(points);
+        }
+
+        private void parameters(final List<int[]> points)
+        {
+            for (final int[] point : points)
+            {
+                this.commands.add(zigZag(point[0] - this.cursorX));
+                this.commands.add(zigZag(point[1] - this.cursorY));
+                this.cursorX = point[0];
+                this.cursorY = point[1];
+            }
+        }
+
+        /**
+         * Rounds coordinates to the tile grid, dropping repeated points
+         */
+        private List<int[]> round(final Coordinate[] coordinates)
+        {
+            final List<int[]> points = new ArrayList<>(coordinates.length);
+            for (final Coordinate coordinate : coordinates)
+            {
+                final int[] point = { (int) Math.round(coordinate.x) - this.offsetX,
+                        (int) Math.round(coordinate.y) - this.offsetY };
+                if (points.isEmpty() || !Arrays.equals(points.get(points.size() - 1), point))
+                {
+                    points.add(point);
+                }
+            }
+            return points;
+        }
+    }
+
+    /**
+     * Writes protocol buffer fields
+     */
+    private static final class Writer
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Writer fixed32(final int value)
+        {
+            for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE)
+            {
+                this.bytes.write(value >>> shift);
+            }
+            return this;
+        }
+
+        Writer fixed64(final long value)
+        {
+            for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE)
+            {
+                this.bytes.write((int) (value >>> shift));
+            }
+            return this;
+        }
+
+        Writer message(final Writer message)
+        {
+            this.varint(message.bytes.size());
+            this.bytes.writeBytes(message.bytes.toByteArray());
+            return this;
+        }
+
+        Writer packed(final int[] values)
+        {
+            final Writer packed = new Writer();
+            for (final int value : values)
+            {
+                packed.varint(value & 0xFFFFFFFFL);
+            }
+            return this.message(packed);
+        }
+
+        Writer string(final String value)
+        {
+            final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            this.varint(encoded.length);
+            this.bytes.write(encoded, 0, encoded.length);
+            return this;
+        }
+
+        Writer tag(final int field, final int wireType)
+        {
+            return this.varint(field << 3 | wireType);
+        }
+
+        byte[] toByteArray()
+        {
+            return this.bytes.toByteArray();
+        }
+
+        Writer varint(final long value)
+        {
+            long remaining = value;
+            while ((remaining & ~SEVEN_BITS) != 0)
+            {
+                this.bytes.write((int) (remaining & SEVEN_BITS | CONTINUATION));
+                remaining >>>= 7;
+            }
+            this.bytes.write((int) remaining);
+            return this;
+        }
+    }
+
+    /**
+     * Reads protocol buffer fields from a range of bytes
+     */
+    private static final class Reader
+    {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        Reader(final byte[] bytes, final int start, final int end)
+        {
+            this.bytes = bytes;
+            this.position = start;
+            this.end = end;
+        }
+
+        int fixed32()
+        {
+            int value = 0;
+            for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE)
+            {
+                value |= (this.bytes[this.position++] & 0xFF) << shift;
+            }
+            return value;
+        }
+
+        long fixed64()
+        {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE)
+            {
+                value |= (this.bytes[this.position++] & 0xFFL) << shift;
+            }
+            return value;
+        }
+
+        boolean hasMore()
+        {
+            return this.position < this.end;
+        }
+
+        Reader message()
+        {
+            final int length = this.varintInt();
+            final Reader message = new Reader(this.bytes, this.position, this.position + length);
+            this.position += length;
+            if (this.position > this.end)
+            {
+                throw new CoreException("Truncated vector tile");
+            }
+            return message;
+        }
+
+        int[] packed()
+        {
+            final List<Integer> values = new ArrayList<>();
+            while (this.hasMore())
+            {
+                values.add(this.varintInt());
+            }
+            return values.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        void skip(final int tag)
+        {
+            switch (tag & 0x7)
+            {
+                case VARINT:
+                    this.varint();
+                    break;
+                case FIXED_64:
+                    this.position += Long.BYTES;
+                    break;
+                case LENGTH_DELIMITED:
+                    this.message();
+                    break;
+                case FIXED_32:
+                    this.position += Integer.BYTES;
+                    break;
+                default:
+                    throw new CoreException("Unsupported wire type in tag {}", tag);
+            }
+        }
+
+        String string()
+        {
+            final int length = this.varintInt();
+            final String value = new String(this.bytes, this.position, length,
+                    StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
+
+        long varint()
+        {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7)
+            {
+                final int current = this.bytes[this.position++];
+                value |= (long) (current & SEVEN_BITS) << shift;
+                if ((current & CONTINUATION) == 0)
+                {
+                    return value;
+                }
+            }
+            throw new CoreException("Malformed varint in vector tile");
+        }
+
+        int varintInt()
+        {
+            return (int) this.varint();
+        }
+    }
+    public static final int EXTENT = 4096;
+
+    // Geometry types
+    private static final int POINT = 1;
+    private static final int LINESTRING = 2;
+    private static final int POLYGON = 3;
+    // Geometry commands
+    private static final int MOVE_TO = 1;
+    private static final int LINE_TO = 2;
+    private static final int CLOSE_PATH = 7;
+    // Wire types
+    private static final int VARINT = 0;
+    private static final int FIXED_64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED_32 = 5;
+    // Fields of a tile, a layer, a feature and a value
+    private static final int TILE_LAYERS = 3;
+    private static final int LAYER_NAME = 1;
+    private static final int LAYER_FEATURES = 2;
+    private static final int LAYER_KEYS = 3;
+    private static final int LAYER_VALUES = 4;
+    private static final int LAYER_EXTENT = 5;
+    private static final int LAYER_VERSION = 15;
+    private static final int FEATURE_TAGS = 2;
+    private static final int FEATURE_TYPE = 3;
+    private static final int FEATURE_GEOMETRY = 4;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_FLOAT = 2;
+    private static final int VALUE_DOUBLE = 3;
+    private static final int VALUE_INT = 4;
+    private static final int VALUE_UINT = 5;
+    private static final int VALUE_SINT = 6;
+    private static final int VALUE_BOOLEAN = 7;
+    private static final int VERSION = 2;
+    private static final int SEVEN_BITS = 0x7F;
+    private static final int CONTINUATION = 0x80;
+
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+    private int featureCount;
+
+    /**
+     * Decodes an uncompressed vector tile
+     *
+     * @param bytes
+     *            the protocol buffer bytes of the tile
+     * @return the decoded {@link VectorTile}
+     */
+    public static VectorTile from(final byte[] bytes)
+    {
+        final VectorTile tile = new VectorTile();
+        final Reader reader = new Reader(bytes, 0, bytes.length);
+        while (reader.hasMore())
+        {
+            final int tag = reader.varintInt();
+            if (tag >>> 3 == TILE_LAYERS && (tag & 0x7) == LENGTH_DELIMITED)
+            {
+                tile.readLayer(reader.message());
+            }
+            else
+            {
+                reader.skip(tag);
+            }
+        }
+        return tile;
+    }
+
+    private static long area(final List<int[]> ring)
+    {
+        long area = 0;
+        for (int index = 0; index < ring.size(); index++)
+        {
+            final int[] current = ring.get(index);
+            final int[] next = ring.get((index + 1) % ring.size());
+            area += (long) current[0] * next[1] - (long) next[0] * current[1];
+        }
+        return area;
+    }
+
+    private static int command(final int identifier, final int count)
+    {
+        return identifier & 0x7 | count << 3;
+    }
+
+    private static long unZigZag(final long value)
+    {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    private static int zigZag(final int value)
+    {
+        return value << 1 ^ value >> 31;
+    }
+
+    /**
+     * Adds a feature to a layer of the tile. Geometries that have nothing left once rounded to
+     * the tile grid are dropped.
+     *
+     * @param layerName
+     *            name of the layer
+     * @param geometry
+     *            the geometry in tile coordinates, shifted by the offsets
+     * @param offsetX
+     *            subtracted from the x coordinates of the geometry
+     * @param offsetY
+     *            subtracted from the y coordinates of the geometry
+     * @param properties
+     *            the properties of the feature; values are strings, numbers or booleans
+     * @return true if the feature was added
+     */
+    public boolean addFeature(final String layerName, final Geometry geometry, final int offsetX,
+            final int offsetY, final Map<String, Object> properties)
+    {
+        final GeometryCommands commands = new GeometryCommands(offsetX, offsetY);
+        final int type;
+        if (geometry instanceof Puntal)
+        {
+            type = POINT;
+            commands.addPoints(geometry);
+        }
+        else
+        {
+            type = geometry.getDimension() == 1 ? LINESTRING : POLYGON;
+            for (int index = 0; index < geometry.getNumGeometries(); index++)
+            {
+                final Geometry part = geometry.getGeometryN(index);
+                if (type == LINESTRING && part instanceof LineString)
+                {
+                    commands.addLine((LineString) part);
+                }
+                else if (type == POLYGON && part instanceof Polygon)
+                {
+                    commands.addPolygon((Polygon) part);
+                }
+            }
+        }
+        final int[] encoded = commands.toArray();
+        if (encoded.length == 0)
+        {
+            return false;
+        }
+        final Layer layer = this.layers.computeIfAbsent(layerName, Layer::new);
+        final int[] tags = new int[properties.size() * 2];
+        int index = 0;
+        for (final Map.Entry<String, Object> property : properties.entrySet())
+        {
+            tags[index++] = layer.key(property.getKey());
+            tags[index++] = layer.value(property.getValue());
+        }
+        layer.features.add(new Feature(type, tags, encoded));
+        this.featureCount++;
+        return true;
+    }
+
+    /**
+     * @return the number of features in all layers of the tile
+     */
+    public int getFeatureCount()
+    {
+        return this.featureCount;
+    }
+
+    /**
+     * @return the names of the layers of the tile
+     */
+    public Collection<String> getLayerNames()
+    {
+        return this.layers.keySet();
+    }
+
+    /**
+     * @return true if the tile has no features
+     */
+    public boolean isEmpty()
+    {
+        return this.featureCount == 0;
+    }
+
+    /**
+     * Adds all features of another tile to this one, merging the layers with the same name
+     *
+     * @param other
+     *            the {@link VectorTile} to add
+     * @return this {@link VectorTile}
+     */
+    public VectorTile merge(final VectorTile other)
+    {
+        for (final Layer otherLayer : other.layers.values())
+        {
+            final Layer layer = this.layers.computeIfAbsent(otherLayer.name, Layer::new);
+            final List<String> otherKeys = new ArrayList<>(otherLayer.keys.keySet());
+            final List<Object> otherValues = new ArrayList<>(otherLayer.values.keySet());
+            for (final Feature feature : otherLayer.features)
+            {
+                final int[] tags = new int[feature.tags.length];
+                for (int index = 0; index + 1 < tags.length; index += 2)
+                {
+                    tags[index] = layer.key(otherKeys.get(feature.tags[index]));
+                    tags[index + 1] = layer.value(otherValues.get(feature.tags[index + 1]));
+                }
+                layer.features.add(new Feature(feature.type, tags, feature.geometry));
+                this.featureCount++;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the protocol buffer bytes of the tile, uncompressed
+     */
+    public byte[] toByteArray()
+    {
+        final Writer tile = new Writer();
+        for (final Layer layer : this.layers.values())
+        {
+            final Writer encoded = new Writer();
+            encoded.tag(LAYER_VERSION, VARINT).varint(VERSION);
+            encoded.tag(LAYER_NAME, LENGTH_DELIMITED).string(layer.name);
+            for (final Feature feature : layer.features)
+            {
+                final Writer encodedFeature = new Writer();
+                if (feature.tags.length > 0)
+                {
+                    encodedFeature.tag(FEATURE_TAGS, LENGTH_DELIMITED).packed(feature.tags);
+                }
+                encodedFeature.tag(FEATURE_TYPE, VARINT).varint(feature.type);
+                encodedFeature.tag(FEATURE_GEOMETRY, LENGTH_DELIMITED).packed(feature.geometry);
+                encoded.tag(LAYER_FEATURES, LENGTH_DELIMITED).message(encodedFeature);
+            }
+            for (final String key : layer.keys.keySet())
+            {
+                encoded.tag(LAYER_KEYS, LENGTH_DELIMITED).string(key);
+            }
+            for (final Object value : layer.values.keySet())
+            {
+                encoded.tag(LAYER_VALUES, LENGTH_DELIMITED).message(value(value));
+            }
+            encoded.tag(LAYER_EXTENT, VARINT).varint(EXTENT);
+            tile.tag(TILE_LAYERS, LENGTH_DELIMITED).message(encoded);
+        }
+        return tile.toByteArray();
+    }
+
+    private static Writer value(final Object value)
+    {
+        final Writer encoded = new Writer();
+        if (value instanceof Boolean)
+        {
+            encoded.tag(VALUE_BOOLEAN, VARINT).varint((Boolean) value ? 1 : 0);
+        }
+        else if (value instanceof Float)
+        {
+            encoded.tag(VALUE_FLOAT, FIXED_32).fixed32(Float.floatToIntBits((Float) value));
+        }
+        else if (value instanceof Double)
+        {
+            encoded.tag(VALUE_DOUBLE, FIXED_64).fixed64(Double.doubleToLongBits((Double) value));
+        }
+        else if (value instanceof Long || value instanceof Integer)
+        {
+            final long number = ((Number) value).longValue();
+            encoded.tag(VALUE_SINT, VARINT).varint(number << 1 ^ number >> 63);
+        }
+        else
+        {
+            encoded.tag(VALUE_STRING, LENGTH_DELIMITED).string(String.valueOf(value));
+        }
+        return encoded;
+    }
+
+    private void readLayer(final Reader reader)
+    {
+        String name = null;
+        final List<Reader> features = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
+        final List<Object> values = new ArrayList<>();
+        while (reader.hasMore())
+        {
+            final int tag = reader.varintInt();
+            switch (tag >>> 3)
+            {
+                case LAYER_NAME:
+                    name = reader.string();
+                    break;
+                case LAYER_FEATURES:
+                    features.add(reader.message());
+                    break;
+                case LAYER_KEYS:
+                    keys.add(reader.string());
+                    break;
+                case LAYER_VALUES:
+                    values.add(readValue(reader.message()));
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        if (name == null)
+        {
+            throw new CoreException("Vector tile layer without a name");
+        }
+        final Layer layer = this.layers.computeIfAbsent(name, Layer::new);
+        for (final Reader feature : features)
+        {
+            int type = 0;
+            int[] tags = new int[0];
+            int[] geometry = new int[0];
+            while (feature.hasMore())
+            {
+                final int tag = feature.varintInt();
+                switch (tag >>> 3)
+                {
+                    case FEATURE_TAGS:
+                        tags = feature.message().packed();
+                        break;
+                    case FEATURE_TYPE:
+                        type = feature.varintInt();
+                        break;
+                    case FEATURE_GEOMETRY:
+                        geometry = feature.message().packed();
+                        break;
+                    default:
+                        feature.skip(tag);
+                }
+            }
+            // Re-index the tags, in case this layer was already in the tile
+            for (int index = 0; index + 1 < tags.length; index += 2)
+            {
+                tags[index] = layer.key(keys.get(tags[index]));
+                tags[index + 1] = layer.value(values.get(tags[index + 1]));
+            }
+            layer.features.add(new Feature(type, tags, geometry));
+            this.featureCount++;
+        }
+    }
+
+    private static Object readValue(final Reader reader)
+    {
+        Object value = null;
+        while (reader.hasMore())
+        {
+            final int tag = reader.varintInt();
+            switch (tag >>> 3)
+            {
+                case VALUE_STRING:
+                    value = reader.string();
+                    break;
+                case VALUE_FLOAT:
+                    value = Float.intBitsToFloat(reader.fixed32());
+                    break;
+                case VALUE_DOUBLE:
+                    value = Double.longBitsToDouble(reader.fixed64());
+                    break;
+                case VALUE_INT:
+                case VALUE_UINT:
+                    value = reader.varint();
+                    break;
+                case VALUE_SINT:
+                    value = unZigZag(reader.varint());
+                    break;
+                case VALUE_BOOLEAN:
+                    value = reader.varint() != 0;
+                    break;
+                default:
+                    reader.skip(tag);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,435 @@
+package org.openstreetmap.atlas.checks.vectortiles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Puntal;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.openstreetmap.atlas.exception.CoreException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Cuts GeoJson features into {@link VectorTile}s, one zoom at a time. Features are read the way
+ * tippecanoe reads them, including the layer and zoom range of their tippecanoe extension (see
+ * {@link TippecanoeCheckSettings}). At each zoom, geometries are simplified, and clipped to the
+ * tiles they cross with a small buffer. Features smaller than a pixel become points. Below the
+ * maximum zoom, only one of those is kept per pixel and layer, so that low zoom tiles of dense
+ * areas stay small.
+ *
+ * @author mkalender
+ */
+public final class VectorTileBuilder
+{
+    /**
+     * A feature, with its geometry in web mercator coordinates scaled to the unit square
+     */
+    private static final class TileFeature
+    {
+        private final String layer;
+        private final int minimumZoom;
+        private final int maximumZoom;
+        private final Geometry geometry;
+        private final Map<String, Object> properties;
+
+        TileFeature(final String layer, final int minimumZoom, final int maximumZoom,
+                final Geometry geometry, final Map<String, Object> properties)
+        {
+            this.layer = layer;
+            this.minimumZoom = minimumZoom;
+            this.maximumZoom = maximumZoom;
+            this.geometry = geometry;
+            this.properties = properties;
+        }
+    }
+
+    public static final int MAXIMUM_ZOOM = 14;
+    public static final String DEFAULT_LAYER = "flags";
+
+    private static final String TIPPECANOE = "tippecanoe";
+    private static final String LAYER = "layer";
+    private static final String MINIMUM_ZOOM = "minzoom";
+    private static final String MAXIMUM_ZOOM_PROPERTY = "maxzoom";
+    // Tile coordinates, in a tile of 4096 by 4096
+    private static final double BUFFER = 64;
+    private static final double SIMPLIFICATION_TOLERANCE = 4;
+    private static final int PIXELS_PER_TILE = 256;
+    private static final double PIXEL = (double) VectorTile.EXTENT / PIXELS_PER_TILE;
+    private static final double MAXIMUM_LATITUDE = 85.0511287798;
+    private static final int MINIMUM_RING_POINTS = 4;
+    // Smallest number of tile keys a zoom grows to
+    private static final int KEYS = 1024;
+
+    private final GeometryFactory factory = new GeometryFactory();
+    private final List<TileFeature> features = new ArrayList<>();
+    private int minimumZoom = MAXIMUM_ZOOM;
+
+    private static double mercatorX(final double longitude)
+    {
+        return (longitude + 180.0) / 360.0;
+    }
+
+    private static double mercatorY(final double latitude)
+    {
+        final double radians = Math.toRadians(
+                Math.max(-MAXIMUM_LATITUDE, Math.min(MAXIMUM_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+    }
+
+    private static Object propertyValue(final JsonPrimitive primitive)
+    {
+        if (primitive.isBoolean())
+        {
+            return primitive.getAsBoolean();
+        }
+        if (primitive.isNumber())
+        {
+            final double number = primitive.getAsDouble();
+            if (number == Math.rint(number) && Math.abs(number) < Long.MAX_VALUE)
+            {
+                return (long) number;
+            }
+            return number;
+        }
+        return primitive.getAsString();
+    }
+
+    /**
+     * Adds a GeoJson feature
+     *
+     * @param feature
+     *            the feature, with a geometry, properties and optionally a tippecanoe extension
+     */
+    public synchronized void add(final JsonObject feature)
+    {
+        final JsonElement geometry = feature.get("geometry");
+        if (geometry == null || !geometry.isJsonObject())
+        {
+            return;
+        }
+        String layer = DEFAULT_LAYER;
+        int featureMinimumZoom = 0;
+        int featureMaximumZoom = Integer.MAX_VALUE;
+        final JsonElement tippecanoe = feature.get(TIPPECANOE);
+        if (tippecanoe != null && tippecanoe.isJsonObject())
+        {
+            final JsonObject settings = tippecanoe.getAsJsonObject();
+            if (settings.has(LAYER))
+            {
+                layer = settings.get(LAYER).getAsString();
+            }
+            if (settings.has(MINIMUM_ZOOM))
+            {
+                featureMinimumZoom = settings.get(MINIMUM_ZOOM).getAsInt();
+            }
+            if (settings.has(MAXIMUM_ZOOM_PROPERTY))
+            {
+                featureMaximumZoom = settings.get(MAXIMUM_ZOOM_PROPERTY).getAsInt();
+            }
+        }
+        final Map<String, Object> properties = new LinkedHashMap<>();
+        final JsonElement featureProperties = feature.get("properties");
+        if (featureProperties != null && featureProperties.isJsonObject())
+        {
+            for (final Map.Entry<String, JsonElement> property : featureProperties
+                    .getAsJsonObject().entrySet())
+            {
+                if (property.getValue().isJsonPrimitive())
+                {
+                    properties.put(property.getKey(),
+                            propertyValue(property.getValue().getAsJsonPrimitive()));
+                }
+                else if (!property.getValue().isJsonNull())
+                {
+                    properties.put(property.getKey(), property.getValue().toString());
+                }
+            }
+        }
+        this.features.add(new TileFeature(layer, featureMinimumZoom, featureMaximumZoom,
+                this.geometry(geometry.getAsJsonObject()), properties));
+        this.minimumZoom = Math.min(this.minimumZoom, featureMinimumZoom);
+    }
+
+    /**
+     * Builds the tiles of a zoom, handing each tile over as soon as it is complete, in tile
+     * identifier order. Rather than every tile of the zoom, only the geometries of the features at
+     * the zoom and the tiles each of them crosses are held at once.
+     *
+     * @param zoom
+     *            the zoom
+     * @param dropDensest
+     *            true to keep only one feature smaller than a pixel per pixel and layer
+     * @param consumer
+     *            receives the identifier and the tile of each tile with features
+     */
+    public synchronized void build(final int zoom, final boolean dropDensest,
+            final BiConsumer<Long, VectorTile> consumer)
+    {
+        final int tiles = 1 << zoom;
+        final double scale = (double) tiles * VectorTile.EXTENT;
+        final AffineTransformation transformation = AffineTransformation.scaleInstance(scale,
+                scale);
+        // Each tile a feature crosses is a key of the position of the tile in the zoom, followed
+        // by the index of the feature, so that sorting the keys groups the features of each tile
+        final int featureBits = Integer.SIZE - Integer.numberOfLeadingZeros(this.features.size());
+        if (2 * zoom + featureBits >= Long.SIZE)
+        {
+            throw new CoreException("Unable to tile {} features at zoom {}",
+                    this.features.size(), zoom);
+        }
+        final long firstTile = PMTilesWriter.tileIdentifier(zoom, 0, 0);
+        final Geometry[] geometries = new Geometry[this.features.size()];
+        long[] keys = new long[this.features.size()];
+        int keyCount = 0;
+        final Map<String, Set<Long>> occupiedPixels = new HashMap<>();
+        for (int index = 0; index < geometries.length; index++)
+        {
+            final TileFeature feature = this.features.get(index);
+            if (zoom < feature.minimumZoom || zoom > feature.maximumZoom)
+            {
+                continue;
+            }
+            Geometry geometry = transformation.transform(feature.geometry);
+            final Envelope envelope = geometry.getEnvelopeInternal();
+            if (envelope.getWidth() < PIXEL && envelope.getHeight() < PIXEL)
+            {
+                final Coordinate centre = envelope.centre();
+                final long pixel = (long) Math.floor(centre.y / PIXEL) * tiles * PIXELS_PER_TILE
+                        + (long) Math.floor(centre.x / PIXEL);
+                if (dropDensest && !occupiedPixels
+                        .computeIfAbsent(feature.layer, layer -> new HashSet<>()).add(pixel))
+                {
+                    continue;
+                }
+                geometry = this.factory.createPoint(centre);
+            }
+            else if (!(geometry instanceof Puntal))
+            {
+                geometry = DouglasPeuckerSimplifier.simplify(geometry, SIMPLIFICATION_TOLERANCE);
+            }
+            if (geometry.isEmpty())
+            {
+                continue;
+            }
+            geometries[index] = geometry;
+
+            final int lastTile = tiles - 1;
+            final Envelope bounds = geometry.getEnvelopeInternal();
+            final int minimumX = tileIndex(bounds.getMinX() - BUFFER, lastTile);
+            final int maximumX = tileIndex(bounds.getMaxX() + BUFFER, lastTile);
+            final int minimumY = tileIndex(bounds.getMinY() - BUFFER, lastTile);
+            final int maximumY = tileIndex(bounds.getMaxY() + BUFFER, lastTile);
+            for (int tileX = minimumX; tileX <= maximumX; tileX++)
+            {
+                for (int tileY = minimumY; tileY <= maximumY; tileY++)
+                {
+                    if (keyCount == keys.length)
+                    {
+                        keys = Arrays.copyOf(keys, Math.max(KEYS, keys.length * 2));
+                    }
+                    keys[keyCount++] = (PMTilesWriter.tileIdentifier(zoom, tileX, tileY)
+                            - firstTile) << featureBits | index;
+                }
+            }
+        }
+        Arrays.sort(keys, 0, keyCount);
+
+        final long featureMask = (1L << featureBits) - 1;
+        int key = 0;
+        while (key < keyCount)
+        {
+            final long position = keys[key] >>> featureBits;
+            final int[] coordinates = PMTilesWriter.tileCoordinates(firstTile + position);
+            final VectorTile tile = new VectorTile();
+            for (; key < keyCount && keys[key] >>> featureBits == position; key++)
+            {
+                final int index = (int) (keys[key] & featureMask);
+                this.addToTile(tile, coordinates[1], coordinates[2], geometries[index],
+                        this.features.get(index));
+            }
+            if (!tile.isEmpty())
+            {
+                consumer.accept(firstTile + position, tile);
+            }
+        }
+    }
+
+    /**
+     * @return the number of features added
+     */
+    public synchronized int getFeatureCount()
+    {
+        return this.features.size();
+    }
+
+    /**
+     * @return the lowest zoom any feature is shown at
+     */
+    public synchronized int getMinimumZoom()
+    {
+        return this.minimumZoom;
+    }
+
+    private void addToTile(final VectorTile tile, final int tileX, final int tileY,
+            final Geometry geometry, final TileFeature feature)
+    {
+        final int offsetX = tileX * VectorTile.EXTENT;
+        final int offsetY = tileY * VectorTile.EXTENT;
+        final Envelope tileEnvelope = new Envelope(offsetX - BUFFER,
+                offsetX + VectorTile.EXTENT + BUFFER, offsetY - BUFFER,
+                offsetY + VectorTile.EXTENT + BUFFER);
+        final Geometry clipped = tileEnvelope.contains(geometry.getEnvelopeInternal()) ? geometry
+                : this.clip(geometry, tileEnvelope);
+        if (!clipped.isEmpty())
+        {
+            tile.addFeature(feature.layer, clipped, offsetX, offsetY, feature.properties);
+        }
+    }
+
+    private Geometry clip(final Geometry geometry, final Envelope envelope)
+    {
+        final Geometry tile = this.factory.toGeometry(envelope);
+        try
+        {
+            return geometry.intersection(tile);
+        }
+        catch (final TopologyException e)
+        {
+            // Simplification can leave polygons self intersecting
+            return geometry.buffer(0).intersection(tile);
+        }
+    }
+
+    private Coordinate coordinate(final JsonElement position)
+    {
+        final JsonArray values = position.getAsJsonArray();
+        return new Coordinate(mercatorX(values.get(0).getAsDouble()),
+                mercatorY(values.get(1).getAsDouble()));
+    }
+
+    private Coordinate[] coordinates(final JsonElement positions)
+    {
+        final JsonArray array = positions.getAsJsonArray();
+        final Coordinate[] coordinates = new Coordinate[array.size()];
+        for (int index = 0; index < coordinates.length; index++)
+        {
+            coordinates[index] = this.coordinate(array.get(index));
+        }
+        return coordinates;
+    }
+
+    private Geometry geometry(final JsonObject geometry)
+    {
+        final String type = geometry.get("type").getAsString();
+        if ("GeometryCollection".equals(type))
+        {
+            final JsonArray members = geometry.getAsJsonArray("geometries");
+            final Geometry[] geometries = new Geometry[members.size()];
+            for (int index = 0; index < geometries.length; index++)
+            {
+                geometries[index] = this.geometry(members.get(index).getAsJsonObject());
+            }
+            return this.factory.createGeometryCollection(geometries);
+        }
+        final JsonArray coordinates = geometry.getAsJsonArray("coordinates");
+        switch (type)
+        {
+            case "Point":
+                return this.factory.createPoint(this.coordinate(coordinates));
+            case "MultiPoint":
+                return this.factory.createMultiPointFromCoords(this.coordinates(coordinates));
+            case "LineString":
+                return this.factory.createLineString(this.coordinates(coordinates));
+            case "MultiLineString":
+                return this.multiLineString(coordinates);
+            case "Polygon":
+                return this.polygon(coordinates);
+            case "MultiPolygon":
+                return this.multiPolygon(coordinates);
+            default:
+                throw new CoreException("Unsupported GeoJson geometry type {}", type);
+        }
+    }
+
+    private Geometry multiLineString(final JsonArray coordinates)
+    {
+        final LineString[] lines = new LineString[coordinates.size()];
+        for (int index = 0; index < lines.length; index++)
+        {
+            lines[index] = this.factory.createLineString(this.coordinates(coordinates.get(index)));
+        }
+        return this.factory.createMultiLineString(lines);
+    }
+
+    private Geometry multiPolygon(final JsonArray coordinates)
+    {
+        final Polygon[] polygons = new Polygon[coordinates.size()];
+        for (int index = 0; index < polygons.length; index++)
+        {
+            polygons[index] = this.polygon(coordinates.get(index).getAsJsonArray());
+        }
+        return this.factory.createMultiPolygon(polygons);
+    }
+
+    private Polygon polygon(final JsonArray rings)
+    {
+        final LinearRing shell = this.ring(rings.get(0));
+        if (shell.isEmpty())
+        {
+            return this.factory.createPolygon();
+        }
+        final List<LinearRing> holes = new ArrayList<>();
+        for (int index = 1; index < rings.size(); index++)
+        {
+            final LinearRing hole = this.ring(rings.get(index));
+            if (!hole.isEmpty())
+            {
+                holes.add(hole);
+            }
+        }
+        return this.factory.createPolygon(shell, holes.toArray(new LinearRing[0]));
+    }
+
+    private LinearRing ring(final JsonElement positions)
+    {
+        Coordinate[] coordinates = this.coordinates(positions);
+        // Close rings that were written open
+        if (coordinates.length > 0 && !coordinates[0].equals2D(coordinates[coordinates.length - 1]))
+        {
+            final Coordinate[] closed = new Coordinate[coordinates.length + 1];
+            System.arraycopy(coordinates, 0, closed, 0, coordinates.length);
+            closed[coordinates.length] = coordinates[0];
+            coordinates = closed;
+        }
+        // Degenerate rings have no area to show
+        if (coordinates.length < MINIMUM_RING_POINTS)
+        {
+            return this.factory.createLinearRing();
+        }
+        return this.factory.createLinearRing(coordinates);
+    }
+
+    private static int tileIndex(final double coordinate, final int lastTile)
+    {
+        return Math.max(0, Math.min(lastTile, (int) Math.floor(coordinate / VectorTile.EXTENT)));
+    }
+}
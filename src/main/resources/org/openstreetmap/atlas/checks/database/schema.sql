@@ -11,9 +11,16 @@ CREATE TABLE IF NOT EXISTS flag (
 	instructions text not null,
 	run_uri text,
 	software_version text,
-	date_created timestamp
+	date_created timestamp,
+	date_resolved timestamp
 );
 
+ALTER TABLE flag ADD COLUMN IF NOT EXISTS date_resolved timestamp;
+
+CREATE INDEX IF NOT EXISTS flag_open_idx
+  ON flag (check_name, flag_id)
+  WHERE date_resolved IS NULL;
+
 CREATE TABLE IF NOT EXISTS feature (
   id serial primary key,
   flag_id integer references flag(id),
@@ -29,3 +36,6 @@ CREATE TABLE IF NOT EXISTS feature (
 CREATE INDEX IF NOT EXISTS feature_geom_idx
   ON feature
   USING GIST (geom);
+
+CREATE INDEX IF NOT EXISTS feature_flag_idx
+  ON feature (flag_id);
@@ -0,0 +1,531 @@
+package org.openstreetmap.atlas.checks.atlas;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.geography.Latitude;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.Longitude;
+import org.openstreetmap.atlas.geography.PolyLine;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.openstreetmap.atlas.geography.atlas.Atlas;
+import org.openstreetmap.atlas.geography.atlas.AtlasMetaData;
+import org.openstreetmap.atlas.geography.atlas.builder.AtlasSize;
+import org.openstreetmap.atlas.geography.atlas.builder.RelationBean;
+import org.openstreetmap.atlas.geography.atlas.items.ItemType;
+import org.openstreetmap.atlas.geography.atlas.packed.PackedAtlasBuilder;
+import org.openstreetmap.atlas.geography.sharding.Shard;
+import org.openstreetmap.atlas.tags.BuildingTag;
+import org.openstreetmap.atlas.tags.HighwayTag;
+import org.openstreetmap.atlas.tags.ISOCountryTag;
+import org.openstreetmap.atlas.tags.NaturalTag;
+import org.openstreetmap.atlas.tags.RelationTypeTag;
+
+/**
+ * Generates synthetic {@link Atlas} shards of arbitrary size for scale testing checks. Unlike the
+ * {@code *TestRule} atlases, which hold a handful of hand placed entities, this builds
+ * {@link org.openstreetmap.atlas.geography.atlas.packed.PackedAtlas}es with up to millions of
+ * entities and a controllable mix of:
+ * <ul>
+ * <li>a road grid of {@link HighwayTag} edges with a configurable node valence</li>
+ * <li>square building areas, a given ratio of which overlap a neighbouring building</li>
+ * <li>long zig-zagging {@link NaturalTag#COASTLINE} lines</li>
+ * <li>multipolygon relations with many closed outer line members</li>
+ * </ul>
+ * Tag values are drawn from weighted distributions per {@link ItemType}. Generation is seeded, so
+ * the same configuration always produces the same atlas. Entities are written straight into the
+ * {@link PackedAtlasBuilder} so the generator itself holds no per-entity state, which makes it
+ * usable for benchmark fixtures as well as regression tests.
+ *
+ * @author jklamer
+ */
+public final class SyntheticAtlasGenerator
+{
+    private static final long DEFAULT_SEED = 42L;
+    private static final String DEFAULT_COUNTRY = "AAA";
+    private static final int MINIMUM_VALENCE = 2;
+    private static final int MAXIMUM_VALENCE = 8;
+    private static final int RING_SIZE = 5;
+    // Fraction of a grid cell taken by a building or relation member, so they do not collide
+    private static final double FOOTPRINT_RATIO = 0.3;
+    private static final String OUTER = "outer";
+    // Grid neighbour offsets (row, column), ordered by how the valence is built up
+    private static final int[][] DIRECTIONS = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+
+    private long seed = DEFAULT_SEED;
+    private String country = DEFAULT_COUNTRY;
+    private long identifierOffset = 1L;
+    private int roadGridSize;
+    private int roadValence = 4;
+    private int buildingCount;
+    private double buildingOverlapRatio;
+    private int coastlineCount;
+    private int coastlineLength;
+    private int relationCount;
+    private int relationMemberCount;
+    private final Map<ItemType, Map<String, Map<String, Double>>> tagDistributions = new EnumMap<>(
+            ItemType.class);
+
+    /**
+     * Default constructor. The default configuration generates an empty atlas, and only draws
+     * {@link HighwayTag} values from a residential heavy distribution.
+     */
+    public SyntheticAtlasGenerator()
+    {
+        final Map<String, Double> highways = new LinkedHashMap<>();
+        highways.put(HighwayTag.RESIDENTIAL.getTagValue(), 0.6);
+        highways.put(HighwayTag.TERTIARY.getTagValue(), 0.2);
+        highways.put(HighwayTag.SECONDARY.getTagValue(), 0.1);
+        highways.put(HighwayTag.PRIMARY.getTagValue(), 0.1);
+        this.withTagDistribution(ItemType.EDGE, HighwayTag.KEY, highways);
+    }
+
+    /**
+     * Generate an {@link Atlas} covering the bounds of a {@link Shard}, named after the shard.
+     *
+     * @param shard
+     *            {@link Shard} to generate
+     * @return the generated {@link Atlas}
+     */
+    public Atlas generate(final Shard shard)
+    {
+        return this.generate(shard.bounds(), shard.getName());
+    }
+
+    /**
+     * Generate an {@link Atlas} covering a {@link Rectangle}.
+     *
+     * @param bounds
+     *            {@link Rectangle} in which all entities are placed
+     * @param shardName
+     *            name recorded in the {@link AtlasMetaData}
+     * @return the generated {@link Atlas}
+     */
+    public Atlas generate(final Rectangle bounds, final String shardName)
+    {
+        final Random random = new Random(this.seed);
+        final PackedAtlasBuilder builder = new PackedAtlasBuilder()
+                .withSizeEstimates(this.sizeEstimate())
+                .withMetaData(new AtlasMetaData(this.sizeEstimate(), true, "unknown",
+                        "synthetic", this.country, shardName, new HashMap<>()));
+        final Grid grid = new Grid(bounds);
+        long identifier = this.identifierOffset;
+
+        identifier = this.addRoads(builder, grid, random, identifier);
+        identifier = this.addBuildings(builder, grid, random, identifier);
+        identifier = this.addCoastlines(builder, grid, random, identifier);
+        this.addRelations(builder, grid, random, identifier);
+
+        return builder.get();
+    }
+
+    /**
+     * @return the number of entities (excluding relations members) the current configuration
+     *         generates
+     */
+    public long getEntityCount()
+    {
+        final AtlasSize size = this.sizeEstimate();
+        return size.getNodeNumber() + size.getEdgeNumber() + size.getAreaNumber()
+                + size.getLineNumber() + size.getRelationNumber();
+    }
+
+    /**
+     * Add square buildings. Each building has a {@code overlapRatio} chance of getting a second
+     * building shifted by half its width, so it overlaps the first.
+     *
+     * @param count
+     *            number of base buildings
+     * @param overlapRatio
+     *            ratio, between 0 and 1, of buildings that get an overlapping neighbour
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withBuildings(final int count, final double overlapRatio)
+    {
+        if (count < 0 || overlapRatio < 0 || overlapRatio > 1)
+        {
+            throw new CoreException("Invalid building configuration {} with overlap {}", count,
+                    overlapRatio);
+        }
+        this.buildingCount = count;
+        this.buildingOverlapRatio = overlapRatio;
+        return this;
+    }
+
+    /**
+     * Add zig-zagging coastline lines spanning the width of the bounds.
+     *
+     * @param count
+     *            number of coastlines
+     * @param length
+     *            number of vertices per coastline
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withCoastlines(final int count, final int length)
+    {
+        if (count < 0 || count > 0 && length < 2)
+        {
+            throw new CoreException("Invalid coastline configuration {} of length {}", count,
+                    length);
+        }
+        this.coastlineCount = count;
+        this.coastlineLength = length;
+        return this;
+    }
+
+    /**
+     * @param country
+     *            ISO3 country code tagged on every entity
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withCountry(final String country)
+    {
+        this.country = country;
+        return this;
+    }
+
+    /**
+     * Identifiers are assigned sequentially from this value. Use distinct offsets when generating
+     * neighbouring shards that are loaded together.
+     *
+     * @param identifierOffset
+     *            first identifier to use
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withIdentifierOffset(final long identifierOffset)
+    {
+        this.identifierOffset = identifierOffset;
+        return this;
+    }
+
+    /**
+     * Add multipolygon relations, each made of closed outer {@link ItemType#LINE} members.
+     *
+     * @param count
+     *            number of relations
+     * @param membersPerRelation
+     *            number of members per relation
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withMultipolygonRelations(final int count,
+            final int membersPerRelation)
+    {
+        if (count < 0 || count > 0 && membersPerRelation < 1)
+        {
+            throw new CoreException("Invalid relation configuration {} with {} members", count,
+                    membersPerRelation);
+        }
+        this.relationCount = count;
+        this.relationMemberCount = membersPerRelation;
+        return this;
+    }
+
+    /**
+     * Add a square road grid of {@code size * size} nodes. Nodes are joined to their neighbours
+     * east and north for a valence of 4, and additionally along the diagonals for valences of 6
+     * and 8. Odd valences are rounded down.
+     *
+     * @param size
+     *            number of nodes along each side of the grid
+     * @param valence
+     *            target number of edges connected to an interior node, between 2 and 8
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withRoadGrid(final int size, final int valence)
+    {
+        if (size < 0 || valence < MINIMUM_VALENCE || valence > MAXIMUM_VALENCE)
+        {
+            throw new CoreException("Invalid road grid configuration {} with valence {}", size,
+                    valence);
+        }
+        this.roadGridSize = size;
+        this.roadValence = valence;
+        return this;
+    }
+
+    /**
+     * @param seed
+     *            seed for all random choices
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withSeed(final long seed)
+    {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Set the weighted distribution of values for a tag on a type of generated entity. Weights do
+     * not need to sum to 1. An empty distribution removes the tag.
+     *
+     * @param type
+     *            {@link ItemType} the tag is applied to
+     * @param key
+     *            tag key
+     * @param valueWeights
+     *            tag values mapped to their relative weights
+     * @return this generator
+     */
+    public SyntheticAtlasGenerator withTagDistribution(final ItemType type, final String key,
+            final Map<String, Double> valueWeights)
+    {
+        final Map<String, Map<String, Double>> distributions = this.tagDistributions
+                .computeIfAbsent(type, ignore -> new LinkedHashMap<>());
+        if (valueWeights.isEmpty())
+        {
+            distributions.remove(key);
+        }
+        else
+        {
+            distributions.put(key, new LinkedHashMap<>(valueWeights));
+        }
+        return this;
+    }
+
+    private long addBuildings(final PackedAtlasBuilder builder, final Grid grid,
+            final Random random, final long firstIdentifier)
+    {
+        long identifier = firstIdentifier;
+        final int side = sideFor(this.buildingCount);
+        for (int index = 0; index < this.buildingCount; index++)
+        {
+            final Rectangle footprint = grid.footprint(index / side, index % side, side);
+            final Map<String, String> tags = this.tags(ItemType.AREA, random);
+            tags.putIfAbsent(BuildingTag.KEY, BuildingTag.YES.name().toLowerCase());
+            builder.addArea(identifier++, footprint, tags);
+
+            if (random.nextDouble() < this.buildingOverlapRatio)
+            {
+                final long halfWidth = (footprint.upperRight().getLongitude().asDm7()
+                        - footprint.lowerLeft().getLongitude().asDm7()) / 2;
+                final Rectangle overlapping = Rectangle.forCorners(
+                        grid.shift(footprint.lowerLeft(), 0, halfWidth),
+                        grid.shift(footprint.upperRight(), 0, halfWidth));
+                final Map<String, String> overlappingTags = this.tags(ItemType.AREA, random);
+                overlappingTags.putIfAbsent(BuildingTag.KEY, BuildingTag.YES.name().toLowerCase());
+                builder.addArea(identifier++, overlapping, overlappingTags);
+            }
+        }
+        return identifier;
+    }
+
+    private long addCoastlines(final PackedAtlasBuilder builder, final Grid grid,
+            final Random random, final long firstIdentifier)
+    {
+        long identifier = firstIdentifier;
+        for (int index = 0; index < this.coastlineCount; index++)
+        {
+            final List<Location> shape = new ArrayList<>(this.coastlineLength);
+            for (int vertex = 0; vertex < this.coastlineLength; vertex++)
+            {
+                shape.add(grid.coastlineVertex(index, this.coastlineCount, vertex,
+                        this.coastlineLength));
+            }
+            final Map<String, String> tags = this.tags(ItemType.LINE, random);
+            tags.put(NaturalTag.KEY, NaturalTag.COASTLINE.name().toLowerCase());
+            builder.addLine(identifier++, new PolyLine(shape), tags);
+        }
+        return identifier;
+    }
+
+    private long addRelations(final PackedAtlasBuilder builder, final Grid grid,
+            final Random random, final long firstIdentifier)
+    {
+        long identifier = firstIdentifier;
+        final int side = sideFor(this.relationCount * this.relationMemberCount);
+        int cell = 0;
+        for (int index = 0; index < this.relationCount; index++)
+        {
+            final RelationBean members = new RelationBean();
+            for (int member = 0; member < this.relationMemberCount; member++)
+            {
+                // Each ring is the footprint of its cell, shifted diagonally by half its height
+                final Rectangle footprint = grid.footprint(cell / side, cell % side, side);
+                final long halfHeight = (footprint.upperRight().getLatitude().asDm7()
+                        - footprint.lowerLeft().getLatitude().asDm7()) / 2;
+                final List<Location> ring = new ArrayList<>(RING_SIZE);
+                footprint.forEach(location -> ring.add(grid.shift(location,
+                        halfHeight, halfHeight)));
+                ring.add(ring.get(0));
+                builder.addLine(identifier, new PolyLine(ring),
+                        Collections.singletonMap(ISOCountryTag.KEY, this.country));
+                members.addItem(identifier++, OUTER, ItemType.LINE);
+                cell++;
+            }
+            final Map<String, String> tags = this.tags(ItemType.RELATION, random);
+            tags.put(RelationTypeTag.KEY,
+                    RelationTypeTag.MULTIPOLYGON.name().toLowerCase());
+            builder.addRelation(identifier, identifier, members, tags);
+            identifier++;
+        }
+        return identifier;
+    }
+
+    private long addRoads(final PackedAtlasBuilder builder, final Grid grid, final Random random,
+            final long firstIdentifier)
+    {
+        long identifier = firstIdentifier;
+        final int size = this.roadGridSize;
+        // Node identifiers are laid out row by row so neighbours can be found by offset
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                builder.addNode(identifier++, grid.vertex(row, column, size),
+                        this.tags(ItemType.NODE, random));
+            }
+        }
+
+        final int directions = Math.min(this.roadValence / 2, DIRECTIONS.length);
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                for (int direction = 0; direction < directions; direction++)
+                {
+                    final int toRow = row + DIRECTIONS[direction][0];
+                    final int toColumn = column + DIRECTIONS[direction][1];
+                    if (toRow < size && toColumn >= 0 && toColumn < size)
+                    {
+                        final Location start = grid.vertex(row, column, size);
+                        final Location end = grid.vertex(toRow, toColumn, size);
+                        final Map<String, String> tags = this.tags(ItemType.EDGE, random);
+                        builder.addEdge(identifier, new PolyLine(start, end), tags);
+                        builder.addEdge(-identifier, new PolyLine(end, start), tags);
+                        identifier++;
+                    }
+                }
+            }
+        }
+        return identifier;
+    }
+
+    /**
+     * @return the number of main edges (excluding reversed edges) in the road grid
+     */
+    private long roadEdgeCount()
+    {
+        final long size = this.roadGridSize;
+        if (size < 2)
+        {
+            return 0;
+        }
+        final long straight = size * (size - 1);
+        final long diagonal = (size - 1) * (size - 1);
+        final int directions = Math.min(this.roadValence / 2, DIRECTIONS.length);
+        long count = 0;
+        for (int direction = 0; direction < directions; direction++)
+        {
+            count += direction < 2 ? straight : diagonal;
+        }
+        return count;
+    }
+
+    private AtlasSize sizeEstimate()
+    {
+        final long buildings = Math.round(this.buildingCount * (1 + this.buildingOverlapRatio));
+        return new AtlasSize(this.roadEdgeCount() * 2,
+                (long) this.roadGridSize * this.roadGridSize, buildings,
+                this.coastlineCount + (long) this.relationCount * this.relationMemberCount, 0,
+                this.relationCount);
+    }
+
+    private static int sideFor(final int count)
+    {
+        return Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+    }
+
+    private Map<String, String> tags(final ItemType type, final Random random)
+    {
+        final Map<String, String> tags = new HashMap<>();
+        tags.put(ISOCountryTag.KEY, this.country);
+        this.tagDistributions.getOrDefault(type, Collections.emptyMap())
+                .forEach((key, weights) -> tags.put(key, pick(weights, random)));
+        return tags;
+    }
+
+    private static String pick(final Map<String, Double> weights, final Random random)
+    {
+        final double total = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+        double target = random.nextDouble() * total;
+        String last = null;
+        for (final Map.Entry<String, Double> entry : weights.entrySet())
+        {
+            last = entry.getKey();
+            target -= entry.getValue();
+            if (target < 0)
+            {
+                break;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Maps grid coordinates onto a {@link Rectangle} using dm7 arithmetic, so that vertices shared
+     * between entities land on exactly the same {@link Location}.
+     */
+    private static final class Grid
+    {
+        private final long minimumLatitude;
+        private final long minimumLongitude;
+        private final long height;
+        private final long width;
+
+        Grid(final Rectangle bounds)
+        {
+            this.minimumLatitude = bounds.lowerLeft().getLatitude().asDm7();
+            this.minimumLongitude = bounds.lowerLeft().getLongitude().asDm7();
+            this.height = bounds.upperRight().getLatitude().asDm7() - this.minimumLatitude;
+            this.width = bounds.upperRight().getLongitude().asDm7() - this.minimumLongitude;
+        }
+
+        Location coastlineVertex(final int index, final int count, final int vertex,
+                final int length)
+        {
+            final long band = this.height / (count + 1);
+            final long amplitude = band / 4;
+            final long latitude = this.minimumLatitude + band * (index + 1)
+                    + (vertex % 2 == 0 ? amplitude : -amplitude);
+            final long longitude = this.minimumLongitude + this.width * vertex / (length - 1);
+            return location(latitude, longitude);
+        }
+
+        Rectangle footprint(final int row, final int column, final int side)
+        {
+            final long cellHeight = this.height / side;
+            final long cellWidth = this.width / side;
+            final long latitude = this.minimumLatitude + cellHeight * row;
+            final long longitude = this.minimumLongitude + cellWidth * column;
+            return Rectangle.forCorners(location(latitude, longitude),
+                    location(latitude + Math.max(1, (long) (cellHeight * FOOTPRINT_RATIO)),
+                            longitude + Math.max(1, (long) (cellWidth * FOOTPRINT_RATIO))));
+        }
+
+        Location shift(final Location location, final long latitudeOffset,
+                final long longitudeOffset)
+        {
+            return location(location.getLatitude().asDm7() + latitudeOffset,
+                    location.getLongitude().asDm7() + longitudeOffset);
+        }
+
+        Location vertex(final int row, final int column, final int size)
+        {
+            final long divisions = Math.max(1, size - 1);
+            return location(this.minimumLatitude + this.height * row / divisions,
+                    this.minimumLongitude + this.width * column / divisions);
+        }
+
+        private static Location location(final long latitude, final long longitude)
+        {
+            return new Location(Latitude.dm7(latitude), Longitude.dm7(longitude));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.openstreetmap.atlas.checks.atlas;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.openstreetmap.atlas.geography.atlas.Atlas;
+import org.openstreetmap.atlas.geography.atlas.items.ItemType;
+import org.openstreetmap.atlas.tags.HighwayTag;
+import org.openstreetmap.atlas.tags.NaturalTag;
+import org.openstreetmap.atlas.utilities.collections.Iterables;
+
+/**
+ * Tests for {@link SyntheticAtlasGenerator}.
+ *
+ * @author jklamer
+ */
+public class SyntheticAtlasGeneratorTest
+{
+    private static final String SHARD_NAME = "synthetic";
+
+    @Test
+    public void testBuildingOverlapRatio()
+    {
+        final Atlas none = new SyntheticAtlasGenerator().withBuildings(50, 0)
+                .generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        final Atlas all = new SyntheticAtlasGenerator().withBuildings(50, 1)
+                .generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        Assert.assertEquals(50, none.numberOfAreas());
+        Assert.assertEquals(100, all.numberOfAreas());
+    }
+
+    @Test
+    public void testCoastlinesAndRelations()
+    {
+        final Atlas atlas = new SyntheticAtlasGenerator().withCoastlines(3, 100)
+                .withMultipolygonRelations(4, 25).generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        Assert.assertEquals(3 + 4 * 25, atlas.numberOfLines());
+        Assert.assertEquals(4, atlas.numberOfRelations());
+        Assert.assertEquals(3, Iterables
+                .size(atlas.lines(line -> line.getTag(NaturalTag.KEY).isPresent())));
+        atlas.relations().forEach(relation -> Assert.assertEquals(25, relation.members().size()));
+    }
+
+    @Test
+    public void testDeterministic()
+    {
+        final SyntheticAtlasGenerator generator = new SyntheticAtlasGenerator().withRoadGrid(8, 6)
+                .withBuildings(20, 0.5).withSeed(7);
+        final Atlas first = generator.generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        final Atlas second = generator.generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        Assert.assertEquals(first.numberOfAreas(), second.numberOfAreas());
+        first.edges().forEach(edge -> Assert.assertEquals(edge.getTags(),
+                second.edge(edge.getIdentifier()).getTags()));
+    }
+
+    @Test(expected = CoreException.class)
+    public void testInvalidValence()
+    {
+        new SyntheticAtlasGenerator().withRoadGrid(10, 9);
+    }
+
+    @Test
+    public void testRoadGridValence()
+    {
+        final Atlas four = new SyntheticAtlasGenerator().withRoadGrid(10, 4)
+                .generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        Assert.assertEquals(100, four.numberOfNodes());
+        // 2 directions * 10 rows * 9 edges, plus their reverse edges
+        Assert.assertEquals(360, four.numberOfEdges());
+
+        final Atlas eight = new SyntheticAtlasGenerator().withRoadGrid(10, 8)
+                .generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        // Interior nodes are connected to 8 main edges
+        Assert.assertEquals(16, eight.node(1 + 5 * 10 + 5).connectedEdges().size());
+    }
+
+    @Test
+    public void testTagDistribution()
+    {
+        final Atlas atlas = new SyntheticAtlasGenerator().withRoadGrid(5, 4)
+                .withTagDistribution(ItemType.EDGE, HighwayTag.KEY,
+                        Collections.singletonMap("motorway", 1.0))
+                .generate(Rectangle.TEST_RECTANGLE, SHARD_NAME);
+        atlas.edges().forEach(edge -> Assert.assertEquals(HighwayTag.MOTORWAY,
+                edge.highwayTag()));
+    }
+}
@@ -1,5 +1,9 @@
 package org.openstreetmap.atlas.checks.commands;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +19,9 @@ import org.openstreetmap.atlas.event.ShutdownEvent;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
 import org.openstreetmap.atlas.streaming.resource.File;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
 /**
  * Unit tests for {@link AtlasChecksGeoJSONDiffSubCommand}.
  *
@@ -48,6 +55,35 @@ public class AtlasChecksGeoJSONDiffSubCommandTest
         GZ_TARGET_DIRECTORY.deleteRecursively();
     }
 
+    @Test
+    public void changesTest() throws IOException
+    {
+        final File reference = File.temporaryFolder();
+        final File input = File.temporaryFolder();
+        final File temp = File.temporaryFolder();
+        this.generateChangeFiles(reference, input);
+
+        final String[] args = { "geojson-diff", String.format("-reference=%s", reference),
+                String.format("-input=%s", input),
+                String.format("-output=%s", temp.getPathString()) };
+        new AtlasChecksCommand(args).runWithoutQuitting(args);
+
+        // Only the flag with a new instruction changed, not the one with a new timestamp
+        final File changes = temp.listFilesRecursively().stream()
+                .filter(file -> file.getName().matches("changes-\\d+-1.geojson")).findFirst()
+                .orElseThrow(AssertionError::new);
+        final JsonArray features = new JsonParser()
+                .parse(new String(Files.readAllBytes(Paths.get(changes.getAbsolutePathString())),
+                        StandardCharsets.UTF_8))
+                .getAsJsonObject().getAsJsonArray("features");
+        Assert.assertEquals(1, features.size());
+        Assert.assertTrue(features.get(0).toString().contains("New instruction"));
+
+        reference.deleteRecursively();
+        input.deleteRecursively();
+        temp.deleteRecursively();
+    }
+
     @Test
     public void fileCreationFromDirectoryTest()
     {
@@ -170,6 +206,27 @@ public class AtlasChecksGeoJSONDiffSubCommandTest
         temp.deleteRecursively();
     }
 
+    /**
+     * Generate a reference and an input GeoJson file, with a flag that is the same but for its
+     * timestamp, and a flag whose instruction changed.
+     */
+    private void generateChangeFiles(final File referenceDirectory, final File inputDirectory)
+    {
+        final CheckFlagGeoJsonProcessor referenceProcessor = new CheckFlagGeoJsonProcessor(
+                new SparkFileHelper(FILE_SYSTEM_CONFIG), referenceDirectory.getAbsolutePathString())
+                        .withCompression(false);
+        referenceProcessor.process(this.setup.getConstantCheckFlagEvent());
+        referenceProcessor.process(this.setup.getChangeCheckFlagEvent("Old instruction"));
+        referenceProcessor.process(new ShutdownEvent());
+
+        final CheckFlagGeoJsonProcessor inputProcessor = new CheckFlagGeoJsonProcessor(
+                new SparkFileHelper(FILE_SYSTEM_CONFIG), inputDirectory.getAbsolutePathString())
+                        .withCompression(false);
+        inputProcessor.process(this.setup.getConstantCheckFlagEvent());
+        inputProcessor.process(this.setup.getChangeCheckFlagEvent("New instruction"));
+        inputProcessor.process(new ShutdownEvent());
+    }
+
     /**
      * Generate flag files from {@link CheckFlagEvent}s, into source and target directories. The
      * files can be compressed.
@@ -1,5 +1,10 @@
 package org.openstreetmap.atlas.checks.commands;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -91,6 +96,12 @@ public class AtlasChecksLogDiffSubCommandTest
         temp.deleteRecursively();
     }
 
+    @Test
+    public void changesTest() throws IOException
+    {
+        this.assertOneChange("log-diff");
+    }
+
     /**
      * Generate directories of flag files and gather the path to the first file in each.
      */
@@ -171,6 +182,91 @@ public class AtlasChecksLogDiffSubCommandTest
         temp.deleteRecursively();
     }
 
+    @Test
+    public void testPartitionedChanges() throws IOException
+    {
+        this.assertOneChange("log-diff", "-partitions=2");
+    }
+
+    @Test
+    public void testPartitionedFileCreationFromDirectory() throws IOException
+    {
+        this.populateTestData();
+        final File temp = File.temporaryFolder();
+
+        final String[] args = { "log-diff", String.format("-reference=%s", SOURCE_DIRECTORY),
+                String.format("-input=%s", TARGET_DIRECTORY),
+                String.format("-output=%s", temp.getPathString()), "-partitions=3",
+                "-threads=2" };
+        new AtlasChecksCommand(args).runWithoutQuitting(args);
+
+        final List<File> outputFiles = temp.listFilesRecursively();
+        final File additions = outputFiles.stream()
+                .filter(file -> file.getName().matches("additions-\\d+-2.log")).findFirst()
+                .orElseThrow(AssertionError::new);
+        Assert.assertTrue(outputFiles.stream()
+                .anyMatch(file -> file.getName().matches("subtractions-\\d+-2.log")));
+        Assert.assertEquals(2,
+                Files.readAllLines(Paths.get(additions.getAbsolutePathString())).size());
+
+        temp.deleteRecursively();
+    }
+
+    /**
+     * Diff a flag that is the same but for its timestamp, and a flag whose instruction changed, and
+     * check that only the latter is written to the changes output.
+     *
+     * @param arguments
+     *            the command and its extra arguments
+     */
+    private void assertOneChange(final String... arguments) throws IOException
+    {
+        final File reference = File.temporaryFolder();
+        final File input = File.temporaryFolder();
+        final File temp = File.temporaryFolder();
+        this.generateChangeLogFiles(reference, input);
+
+        final List<String> args = new ArrayList<>(Arrays.asList(arguments));
+        args.add(String.format("-reference=%s", reference));
+        args.add(String.format("-input=%s", input));
+        args.add(String.format("-output=%s", temp.getPathString()));
+        new AtlasChecksCommand(args.toArray(new String[0]))
+                .runWithoutQuitting(args.toArray(new String[0]));
+
+        final File changes = temp.listFilesRecursively().stream()
+                .filter(file -> file.getName().matches("changes-\\d+-1.log")).findFirst()
+                .orElseThrow(AssertionError::new);
+        final List<String> lines = Files.readAllLines(Paths.get(changes.getAbsolutePathString()));
+        Assert.assertEquals(1, lines.size());
+        Assert.assertTrue(lines.get(0).contains("New instruction"));
+
+        reference.deleteRecursively();
+        input.deleteRecursively();
+        temp.deleteRecursively();
+    }
+
+    /**
+     * Generate a reference and an input log file, with a flag that is the same but for its
+     * timestamp, and a flag whose instruction changed.
+     */
+    private void generateChangeLogFiles(final File referenceDirectory,
+            final File inputDirectory)
+    {
+        final FileProcessor<CheckFlagEvent> referenceProcessor = new CheckFlagFileProcessor(
+                new SparkFileHelper(FILE_SYSTEM_CONFIG), referenceDirectory.getAbsolutePathString())
+                        .withCompression(false);
+        referenceProcessor.process(this.setup.getConstantCheckFlagEvent());
+        referenceProcessor.process(this.setup.getChangeCheckFlagEvent("Old instruction"));
+        referenceProcessor.process(new ShutdownEvent());
+
+        final FileProcessor<CheckFlagEvent> inputProcessor = new CheckFlagFileProcessor(
+                new SparkFileHelper(FILE_SYSTEM_CONFIG), inputDirectory.getAbsolutePathString())
+                        .withCompression(false);
+        inputProcessor.process(this.setup.getConstantCheckFlagEvent());
+        inputProcessor.process(this.setup.getChangeCheckFlagEvent("New instruction"));
+        inputProcessor.process(new ShutdownEvent());
+    }
+
     /**
      * Generate flag files from {@link CheckFlagEvent}s, into source and target directories. The
      * files can be compressed.
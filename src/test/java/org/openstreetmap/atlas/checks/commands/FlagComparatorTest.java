@@ -0,0 +1,120 @@
+package org.openstreetmap.atlas.checks.commands;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Tests for {@link FlagComparator}
+ *
+ * @author mkalender
+ */
+public class FlagComparatorTest
+{
+    private static final String FLAG = "{\"type\":\"FeatureCollection\",\"features\":[1,2],"
+            + "\"properties\":{\"generator\":\"Check\",\"timestamp\":\"Mon\"}}";
+    private static final String RERUN = "{\"properties\":{\"timestamp\":\"Tue\","
+            + "\"generator\":\"Check\"},\"features\":[1,2],\"type\":\"FeatureCollection\"}";
+    private static final String CHANGED = "{\"type\":\"FeatureCollection\",\"features\":[2,1],"
+            + "\"properties\":{\"generator\":\"Check\",\"timestamp\":\"Mon\"}}";
+
+    @Test
+    public void testFingerprintIgnoresOrderAndTimestamp()
+    {
+        final JsonObject flag = parse(FLAG);
+        final JsonObject reordered = parse(RERUN);
+        final JsonObject changed = parse(CHANGED);
+
+        Assert.assertEquals(FlagComparator.fingerprint(flag),
+                FlagComparator.fingerprint(reordered));
+        Assert.assertNotEquals(FlagComparator.fingerprint(flag),
+                FlagComparator.fingerprint(changed));
+
+        final FlagComparator comparator = new FlagComparator();
+        Assert.assertFalse(comparator.isChanged(FlagComparator.fingerprint(flag),
+                FlagComparator.fingerprint(reordered), () -> flag, () -> reordered));
+        Assert.assertTrue(comparator.isChanged(FlagComparator.fingerprint(flag),
+                FlagComparator.fingerprint(changed), () -> flag, () -> changed));
+        Assert.assertEquals(2, comparator.getFingerprintComparisons());
+        Assert.assertEquals(1, comparator.getPayloadComparisons());
+    }
+
+    @Test
+    public void testOnlyChangedFlagsAreParsed() throws IOException
+    {
+        final FlagDigest flag = FlagDigest.of(FLAG);
+        final FlagDigest rerun = FlagDigest.of(RERUN);
+        final FlagDigest changed = FlagDigest.of(CHANGED);
+        final AtomicInteger parsed = new AtomicInteger();
+
+        final FlagComparator comparator = new FlagComparator();
+        Assert.assertFalse(comparator.isChanged(flag.getFingerprint(), rerun.getFingerprint(),
+                () -> this.parse(flag, parsed), () -> this.parse(rerun, parsed)));
+        Assert.assertEquals(0, parsed.get());
+        Assert.assertTrue(comparator.isChanged(flag.getFingerprint(), changed.getFingerprint(),
+                () -> this.parse(flag, parsed), () -> this.parse(changed, parsed)));
+        Assert.assertEquals(2, parsed.get());
+        Assert.assertEquals(1, comparator.getPayloadComparisons());
+    }
+
+    @Test
+    public void testPayloadComparisonOfEqualJson() throws IOException
+    {
+        // Equal numbers written differently have different fingerprints
+        final FlagDigest flag = FlagDigest.of("{\"properties\":{\"value\":1.0}}");
+        final FlagDigest rerun = FlagDigest.of("{\"properties\":{\"value\":1}}");
+        Assert.assertNotEquals(flag.getFingerprint(), rerun.getFingerprint());
+
+        final FlagComparator comparator = new FlagComparator();
+        Assert.assertFalse(comparator.isChanged(flag.getFingerprint(), rerun.getFingerprint(),
+                flag::parse, rerun::parse));
+        Assert.assertEquals(1, comparator.getPayloadComparisons());
+    }
+
+    @Test
+    public void testStreamedFingerprintMatchesParsed() throws IOException
+    {
+        final String feature = "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\","
+                + "\"coordinates\":[-122.4,37.8]},\"properties\":{\"name\":\"Check flag\","
+                + "\"identifiers\":[\"1\",\"2\"],\"timestamp\":\"Mon\"},\"visible\":true,"
+                + "\"bbox\":null,\"nested\":{\"b\":[{\"c\":-1.5e3}],\"a\":\"\\\"text\\\"\"}}";
+        for (final String flag : new String[] { FLAG, RERUN, CHANGED, feature })
+        {
+            final FlagDigest digest = FlagDigest.of(flag);
+            Assert.assertEquals(FlagComparator.fingerprint(parse(flag)), digest.getFingerprint());
+            Assert.assertEquals(parse(flag), digest.parse());
+        }
+
+        // Features streamed out of a collection are copied whole, with their properties
+        final JsonReader reader = new JsonReader(
+                new StringReader("[" + feature + "," + feature + "]"));
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+            final FlagDigest digest = FlagDigest.read(reader);
+            Assert.assertEquals(FlagComparator.fingerprint(parse(feature)),
+                    digest.getFingerprint());
+            Assert.assertEquals(parse(feature), parse(digest.getText()));
+            Assert.assertEquals("Check flag", digest.getProperties().get("name").getAsString());
+        }
+        reader.endArray();
+    }
+
+    private static JsonObject parse(final String json)
+    {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+
+    private JsonObject parse(final FlagDigest flag, final AtomicInteger parsed)
+    {
+        parsed.incrementAndGet();
+        return flag.parse();
+    }
+}
@@ -0,0 +1,144 @@
+package org.openstreetmap.atlas.checks.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.atlas.checks.event.CheckFlagBinaryProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagEvent;
+import org.openstreetmap.atlas.checks.event.CheckFlagFileProcessor;
+import org.openstreetmap.atlas.checks.event.CheckFlagGeoJsonProcessor;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Location;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for {@link FlagSpatialQuerySubCommand}.
+ *
+ * @author agent
+ */
+public class FlagSpatialQuerySubCommandTest
+{
+    private static final Map<String, String> FILE_SYSTEM_CONFIG = new HashMap<>();
+    private static final int FLAG_COUNT = 100;
+    private static final String BOUNDS = "1,1:2.05,2.05";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testDirectoryQuery() throws IOException
+    {
+        final File input = this.generateFlagFiles();
+        final File output = new File(this.tempFolder.getRoot(), "flags.json");
+
+        Assert.assertEquals(0, this.query(input, BOUNDS, output));
+
+        // The flags in the box, from the log, GeoJson and binary files, but not from the file
+        // without an index
+        final List<JsonObject> flags = Files.readAllLines(output.toPath()).stream()
+                .map(line -> new JsonParser().parse(line).getAsJsonObject())
+                .collect(Collectors.toList());
+        Assert.assertEquals(33, flags.size());
+        Assert.assertEquals(11, flags.stream()
+                .filter(flag -> "Feature".equals(flag.get("type").getAsString())).count());
+        for (int identifier = 10; identifier <= 20; identifier++)
+        {
+            final String flagIdentifier = String.valueOf(identifier);
+            Assert.assertEquals(3, flags.stream()
+                    .filter(flag -> flagIdentifier.equals(identifier(flag))).count());
+        }
+    }
+
+    @Test
+    public void testEmptyQuery() throws IOException
+    {
+        final File input = this.generateFlagFiles();
+        final File output = new File(this.tempFolder.getRoot(), "flags.json");
+
+        Assert.assertEquals(0, this.query(input, "-2,-2:-1,-1", output));
+        Assert.assertTrue(Files.readAllLines(output.toPath()).isEmpty());
+    }
+
+    @Test
+    public void testFileQuery() throws IOException
+    {
+        final File input = this.generateFlagFiles();
+        final File output = new File(this.tempFolder.getRoot(), "flags.json");
+        final File[] logFiles = new File(input, "flag").listFiles(
+                (directory, name) -> name.endsWith(".log"));
+        Assert.assertEquals(1, logFiles.length);
+
+        Assert.assertEquals(0, this.query(logFiles[0], BOUNDS, output));
+        final List<String> identifiers = Files.readAllLines(output.toPath()).stream()
+                .map(line -> identifier(new JsonParser().parse(line).getAsJsonObject()))
+                .collect(Collectors.toList());
+        Assert.assertEquals(11, identifiers.size());
+        for (int identifier = 0; identifier < identifiers.size(); identifier++)
+        {
+            Assert.assertEquals(String.valueOf(10 + identifier), identifiers.get(identifier));
+        }
+    }
+
+    /**
+     * @return the identifier of a flag, either a FeatureCollection or a Feature
+     */
+    private static String identifier(final JsonObject flag)
+    {
+        return "Feature".equals(flag.get("type").getAsString()) ? flag.get("id").getAsString()
+                : flag.getAsJsonObject("properties").get("id").getAsString();
+    }
+
+    /**
+     * Writes flags with points from 0,0 to 9.9,9.9 to a spatially indexed log file, GeoJson file
+     * and binary file, and to a log file without an index
+     *
+     * @return the folder of the flag files
+     */
+    private File generateFlagFiles() throws IOException
+    {
+        final File input = this.tempFolder.newFolder();
+        this.process(new CheckFlagFileProcessor(new SparkFileHelper(FILE_SYSTEM_CONFIG),
+                new File(input, "flag").getAbsolutePath()).withCompression(false)
+                        .withSpatialIndex(true));
+        this.process(new CheckFlagGeoJsonProcessor(new SparkFileHelper(FILE_SYSTEM_CONFIG),
+                new File(input, "geojson").getAbsolutePath()).withSpatialIndex(true));
+        this.process(new CheckFlagBinaryProcessor(FILE_SYSTEM_CONFIG,
+                new File(input, "binary").getAbsolutePath()).withSpatialIndex(true));
+        this.process(new CheckFlagFileProcessor(new SparkFileHelper(FILE_SYSTEM_CONFIG),
+                new File(input, "unindexed").getAbsolutePath()).withCompression(false));
+        return input;
+    }
+
+    private void process(final Processor<CheckFlagEvent> processor)
+    {
+        for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+        {
+            final CheckFlag flag = new CheckFlag(String.valueOf(identifier));
+            flag.addPoint(Location.forString(
+                    String.format("%s,%s", identifier / 10.0, identifier / 10.0)));
+            processor.process(new CheckFlagEvent("SpatialCheck", flag));
+        }
+        processor.process(new ShutdownEvent());
+    }
+
+    private int query(final File input, final String bounds, final File output)
+    {
+        final String[] arguments = { "--input=" + input.getAbsolutePath(), "--bounds=" + bounds,
+                "--output=" + output.getAbsolutePath() };
+        return new FlagSpatialQuerySubCommand().runSubcommand(arguments);
+    }
+}
@@ -3,9 +3,15 @@ package org.openstreetmap.atlas.checks.commands;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FilenameUtils;
 import org.junit.AfterClass;
@@ -126,6 +132,48 @@ public class FlagStatisticsSubCommandTest
         outputFolder.deleteRecursively();
     }
 
+    @Test
+    public void skipMalformedLinesTest() throws IOException
+    {
+        final File inputFolder = File.temporaryFolder();
+        final File outputFolder = File.temporaryFolder();
+        final String countryFolderPath = FilenameUtils.concat(inputFolder.getAbsolutePathString(),
+                COUNTRY_1);
+        final FileProcessor<CheckFlagEvent> fileProcessor = new CheckFlagFileProcessor(
+                new SparkFileHelper(FILE_SYSTEM_CONFIG), countryFolderPath).withCompression(false);
+        fileProcessor.process(this.setup.getOneNodeCheckFlagEvent(CHECK_1));
+        fileProcessor.process(this.setup.getOneNodeCheckFlagEvent(CHECK_1));
+        fileProcessor.process(new ShutdownEvent());
+
+        // A blank line, a line cut short and a line that is not json, among the flags
+        final Path logFile;
+        try (Stream<Path> files = Files.list(Paths.get(countryFolderPath)))
+        {
+            logFile = files.findFirst().orElseThrow();
+        }
+        final List<String> lines = new ArrayList<>(Files.readAllLines(logFile));
+        lines.add(1, "");
+        lines.add(2, lines.get(0).substring(0, 20));
+        lines.add("not a flag");
+        lines.add(this.setup.getOneNodeCheckFlagEvent(CHECK_2).toString());
+        Files.write(logFile, lines);
+
+        final String[] arguments = { "--input=" + inputFolder.getAbsolutePathString(),
+                "--output=" + outputFolder.getAbsolutePathString(),
+                "--output-types=check_summary", "--threads=2" };
+        new FlagStatisticsSubCommand().runSubcommand(arguments);
+
+        // The flags after the malformed lines are still counted
+        final String expectedTextTotals = "Check,Input(sum)Check1,2Check2,1";
+        final String actualTextTotals = new BufferedReader(
+                new FileReader(outputFolder.getAbsolutePathString() + "/checkSummary.csv")).lines()
+                        .collect(Collectors.joining());
+        Assert.assertEquals(expectedTextTotals, actualTextTotals);
+
+        inputFolder.deleteRecursively();
+        outputFolder.deleteRecursively();
+    }
+
     /**
      * Generate flag files from {@link CheckFlagEvent}s, into source and target directories. The
      * files can be compressed.
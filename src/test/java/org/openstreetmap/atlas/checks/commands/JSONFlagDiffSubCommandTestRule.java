@@ -36,6 +36,15 @@ public class JSONFlagDiffSubCommandTestRule extends CoreTestRule
         return this.getSimpleCheckFlagEvent(this.atlas.node(2000000L), TEST_CHECK_1);
     }
 
+    public CheckFlagEvent getChangeCheckFlagEvent(final String instruction)
+    {
+        final AtlasObject node = this.atlas.node(4000000L);
+        final CheckFlag flag = new CheckFlag(String.valueOf(node.getIdentifier()));
+        flag.addObject(node);
+        flag.addInstruction(instruction);
+        return new CheckFlagEvent(TEST_CHECK_1, flag);
+    }
+
     public CheckFlagEvent getConstantCheckFlagEvent()
     {
         final CheckFlagEvent event = this.getSimpleCheckFlagEvent(this.atlas.node(1000000L),
@@ -2,6 +2,7 @@ package org.openstreetmap.atlas.checks.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Map;
 
 import org.junit.After;
@@ -92,6 +93,53 @@ public class DatabaseConnectionTest
         Assert.assertEquals("testschema", databaseConnection.getSchema());
     }
 
+    @Test
+    public void pooledConnectionTest() throws SQLException
+    {
+        final DatabaseConnection database = Mockito
+                .spy(new DatabaseConnection("localhost/testdb?currentSchema=flags"));
+        final Connection connection = Mockito.mock(Connection.class);
+        final Connection otherConnection = Mockito.mock(Connection.class);
+        final Connection newConnection = Mockito.mock(Connection.class);
+        final Statement statement = Mockito.mock(Statement.class);
+        Mockito.doReturn(connection, otherConnection, newConnection).when(database)
+                .getConnection();
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+        Mockito.when(otherConnection.createStatement()).thenReturn(statement);
+        Mockito.when(newConnection.createStatement()).thenReturn(statement);
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(true);
+
+        // A new connection searches the schema of the url
+        final Connection first = database.getPooledConnection();
+        Mockito.verify(statement).execute("SET search_path TO flags,public;");
+        first.setAutoCommit(false);
+        first.close();
+        first.close();
+        Assert.assertTrue(first.isClosed());
+        // Closing returns the connection to the pool, with its transaction rolled back
+        Mockito.verify(connection).rollback();
+        Mockito.verify(connection).setAutoCommit(true);
+        Mockito.verify(connection, Mockito.never()).close();
+
+        // The idle connection is reused, and a second one opened while it is in use
+        final Connection second = database.getPooledConnection();
+        final Connection third = database.getPooledConnection();
+        Mockito.verify(database, Mockito.times(2)).getConnection();
+        Assert.assertNotNull(third);
+        second.close();
+
+        // An idle connection that is no longer valid is discarded
+        Mockito.when(connection.isValid(Mockito.anyInt())).thenReturn(false);
+        database.getPooledConnection();
+        Mockito.verify(connection).close();
+        Mockito.verify(database, Mockito.times(3)).getConnection();
+
+        // Closing the pool closes the connections in use too
+        database.close();
+        Mockito.verify(otherConnection).close();
+        Mockito.verify(newConnection).close();
+    }
+
     @Test
     public void schemaConnectionStringParserTest()
     {
@@ -0,0 +1,219 @@
+package org.openstreetmap.atlas.checks.database;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.openstreetmap.atlas.checks.flag.CheckFlagTest;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.streaming.resource.File;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Tests for {@link FlagCopyLoader}
+ *
+ * @author danielbaah
+ */
+public class FlagCopyLoaderTest
+{
+    private final ByteArrayOutputStream flagRows = new ByteArrayOutputStream();
+    private final List<String> featureRows = new ArrayList<>();
+    private Connection connection;
+    private Statement statement;
+    private CopyManager copyManager;
+
+    @Test
+    public void copyTextTest()
+    {
+        Assert.assertEquals("\\N", FlagCopyLoader.copyText(null));
+        Assert.assertEquals("a\\tb\\nc\\\\d\\re", FlagCopyLoader.copyText("a\tb\nc\\d\re"));
+
+        final Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("name", "\"Main\" St");
+        tags.put("highway", "service");
+        Assert.assertEquals("\"name\"=>\"\\\"Main\\\" St\", \"highway\"=>\"service\"",
+                FlagCopyLoader.hstore(tags));
+    }
+
+    @Test
+    public void deferredIndexesTest() throws SQLException
+    {
+        Assert.assertEquals(2, this.getLoader().withDeferredIndexes(true)
+                .load(this.connection, this.getFiles()));
+
+        final InOrder order = Mockito.inOrder(this.statement, this.connection);
+        order.verify(this.statement).execute(FlagCopyLoader.DROP_INDEX_SQL);
+        order.verify(this.statement).execute(FlagCopyLoader.INSERT_SQL);
+        order.verify(this.statement).execute(FlagCopyLoader.CREATE_INDEX_SQL);
+        order.verify(this.connection).commit();
+    }
+
+    @Test
+    public void incrementalLoadTest() throws SQLException
+    {
+        final PreparedStatement resolve = Mockito.mock(PreparedStatement.class);
+        Mockito.when(this.connection.prepareStatement(FlagCopyLoader.RESOLVE_SQL))
+                .thenReturn(resolve);
+        Mockito.when(resolve.executeUpdate()).thenReturn(3);
+        Mockito.when(this.statement.executeUpdate(FlagCopyLoader.UPDATE_SQL)).thenReturn(1);
+        Mockito.when(this.statement.executeUpdate(FlagCopyLoader.DELETE_OPEN_SQL)).thenReturn(1);
+
+        // One of the two flags is still open, so only the other one is new
+        Assert.assertEquals(1,
+                this.getLoader().withIncremental(true).load(this.connection, this.getFiles()));
+
+        // Open flags are resolved within the checks and countries of the load, then updated,
+        // before the new flags are inserted
+        final InOrder order = Mockito.inOrder(this.statement, this.connection, resolve);
+        order.verify(this.statement).execute(FlagCopyLoader.INDEX_STAGING_SQL);
+        order.verify(this.statement).executeUpdate(FlagCopyLoader.DEDUPLICATE_SQL);
+        order.verify(this.statement).execute(FlagCopyLoader.SCOPE_SQL);
+        order.verify(resolve).setTimestamp(Mockito.eq(1), Mockito.any(Timestamp.class));
+        order.verify(resolve).executeUpdate();
+        order.verify(this.statement).executeUpdate(FlagCopyLoader.UPDATE_SQL);
+        order.verify(this.statement).executeUpdate(FlagCopyLoader.DELETE_OPEN_SQL);
+        order.verify(this.statement).execute(FlagCopyLoader.INSERT_SQL);
+        order.verify(this.connection).commit();
+        // The staged features carry the countries the load is scoped to
+        Assert.assertTrue(this.featureRows.stream()
+                .noneMatch(row -> row.split("\t", -1)[4].isEmpty()));
+    }
+
+    @Test
+    public void loadTest() throws IOException, SQLException
+    {
+        Assert.assertEquals(2, this.getLoader().load(this.connection, this.getFiles()));
+
+        // Flags are streamed into their staging table, then features, then both are inserted
+        final InOrder order = Mockito.inOrder(this.statement, this.copyManager, this.connection);
+        order.verify(this.connection).setAutoCommit(false);
+        order.verify(this.statement).execute(FlagCopyLoader.CREATE_STAGING_SQL);
+        order.verify(this.copyManager).copyIn(FlagCopyLoader.COPY_FLAG_SQL);
+        order.verify(this.copyManager).copyIn(Mockito.eq(FlagCopyLoader.COPY_FEATURE_SQL),
+                Mockito.any(Reader.class));
+        order.verify(this.statement).execute(FlagCopyLoader.INSERT_SQL);
+        order.verify(this.connection).commit();
+        Mockito.verify(this.statement, Mockito.never())
+                .execute(FlagCopyLoader.DROP_INDEX_SQL);
+        Mockito.verify(this.connection, Mockito.never()).prepareStatement(Mockito.anyString());
+
+        final String[] flagColumns = new String(this.flagRows.toByteArray(),
+                StandardCharsets.UTF_8).split("\n")[1].split("\t", -1);
+        Assert.assertEquals(7, flagColumns.length);
+        Assert.assertEquals("2", flagColumns[0]);
+        Assert.assertEquals("run", flagColumns[4]);
+        Assert.assertFalse(this.featureRows.isEmpty());
+        Assert.assertTrue(this.featureRows.stream()
+                .allMatch(row -> row.startsWith("1\t") || row.startsWith("2\t")));
+    }
+
+    @Test
+    public void rollbackTest() throws SQLException
+    {
+        Mockito.when(this.statement.execute(FlagCopyLoader.INSERT_SQL))
+                .thenThrow(new SQLException("insert failed"));
+        try
+        {
+            this.getLoader().load(this.connection, this.getFiles());
+            Assert.fail("The load should fail");
+        }
+        catch (final CoreException error)
+        {
+            Assert.assertTrue(error.getCause() instanceof SQLException);
+        }
+        Mockito.verify(this.connection).rollback();
+        Mockito.verify(this.connection, Mockito.never()).commit();
+    }
+
+    @Before
+    public void setUp() throws IOException, SQLException
+    {
+        this.connection = Mockito.mock(Connection.class);
+        this.statement = Mockito.mock(Statement.class);
+        this.copyManager = Mockito.mock(CopyManager.class);
+        final PGConnection postgresConnection = Mockito.mock(PGConnection.class);
+        final CopyIn copyIn = Mockito.mock(CopyIn.class);
+        Mockito.when(this.connection.unwrap(PGConnection.class)).thenReturn(postgresConnection);
+        Mockito.when(this.connection.createStatement()).thenReturn(this.statement);
+        Mockito.when(postgresConnection.getCopyAPI()).thenReturn(this.copyManager);
+
+        // Keep what is copied into the staging tables
+        Mockito.when(this.copyManager.copyIn(FlagCopyLoader.COPY_FLAG_SQL)).thenReturn(copyIn);
+        Mockito.when(copyIn.isActive()).thenReturn(true);
+        Mockito.doAnswer(invocation ->
+        {
+            final byte[] bytes = invocation.getArgument(0);
+            final int offset = invocation.getArgument(1);
+            final int length = invocation.getArgument(2);
+            this.flagRows.write(bytes, offset, length);
+            return null;
+        }).when(copyIn).writeToCopy(Mockito.any(byte[].class), Mockito.anyInt(),
+                Mockito.anyInt());
+        Mockito.when(this.copyManager.copyIn(Mockito.eq(FlagCopyLoader.COPY_FEATURE_SQL),
+                Mockito.any(Reader.class))).thenAnswer(invocation ->
+                {
+                    final Reader reader = invocation.getArgument(1);
+                    this.featureRows.addAll(new BufferedReader(reader).lines()
+                            .collect(Collectors.toList()));
+                    return (long) this.featureRows.size();
+                });
+    }
+
+    @Test
+    public void writeRowsTest() throws IOException
+    {
+        final StringWriter flags = new StringWriter();
+        final StringWriter features = new StringWriter();
+
+        Assert.assertEquals(2, this.getLoader().writeRows(this.getFiles(), flags, features));
+
+        final String[] flagRows = flags.toString().split("\n");
+        Assert.assertEquals(2, flagRows.length);
+        final String[] flagColumns = flagRows[0].split("\t", -1);
+        Assert.assertEquals(7, flagColumns.length);
+        Assert.assertEquals("1", flagColumns[0]);
+        Assert.assertTrue(flagColumns[3].startsWith("1. Duplicate Highway"));
+        Assert.assertEquals("run", flagColumns[4]);
+
+        for (final String featureRow : features.toString().split("\n"))
+        {
+            final String[] featureColumns = featureRow.split("\t", -1);
+            Assert.assertEquals(8, featureColumns.length);
+            Assert.assertTrue("1".equals(featureColumns[0]) || "2".equals(featureColumns[0]));
+        }
+    }
+
+    private List<File> getFiles()
+    {
+        return Collections.singletonList(
+                new File(CheckFlagTest.class.getResource("checkflags1.log").getPath()));
+    }
+
+    private FlagCopyLoader getLoader()
+    {
+        return new FlagCopyLoader(new FlagDatabaseSubCommand(), "run", "1.0",
+                new Timestamp(Instant.now().toEpochMilli()));
+    }
+}
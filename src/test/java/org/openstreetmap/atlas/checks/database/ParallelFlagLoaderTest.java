@@ -0,0 +1,112 @@
+package org.openstreetmap.atlas.checks.database;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.openstreetmap.atlas.checks.flag.CheckFlagTest;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.streaming.resource.File;
+
+/**
+ * Tests for {@link ParallelFlagLoader}
+ *
+ * @author danielbaah
+ */
+public class ParallelFlagLoaderTest
+{
+    @Test
+    public void insertFailureTest() throws SQLException
+    {
+        final FlagDatabaseSubCommand command = Mockito.mock(FlagDatabaseSubCommand.class);
+        final DatabaseConnection database = Mockito.mock(DatabaseConnection.class);
+        final Connection connection = Mockito.mock(Connection.class);
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(database.getPooledConnection()).thenReturn(connection);
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(statement);
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.anyInt()))
+                .thenReturn(statement);
+        Mockito.doThrow(new SQLException("insert failed")).when(command)
+                .insertParsedCheckFlags(Mockito.anyList(), Mockito.any(), Mockito.any());
+
+        try
+        {
+            new ParallelFlagLoader(command, database).load(Arrays.asList(
+                    new File(CheckFlagTest.class.getResource("checkflags1.log").getPath())));
+            Assert.fail("The load should fail");
+        }
+        catch (final CoreException error)
+        {
+            Assert.assertTrue(error.getCause() instanceof SQLException);
+        }
+        Mockito.verify(connection).rollback();
+        Mockito.verify(connection, Mockito.never()).commit();
+        Mockito.verify(connection).close();
+    }
+
+    @Test
+    public void loadTest() throws SQLException
+    {
+        final FlagDatabaseSubCommand command = Mockito.mock(FlagDatabaseSubCommand.class);
+        final DatabaseConnection database = Mockito.mock(DatabaseConnection.class);
+        final Connection connection = Mockito.mock(Connection.class);
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(database.getPooledConnection()).thenReturn(connection);
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(statement);
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.anyInt()))
+                .thenReturn(statement);
+
+        final List<File> files = Arrays.asList(
+                new File(CheckFlagTest.class.getResource("checkflags1.log").getPath()),
+                new File(CheckFlagTest.class.getResource("checkflags2.log").getPath()),
+                new File(CheckFlagTest.class.getResource("checkflags3.log").getPath()));
+        final long flags = new ParallelFlagLoader(command, database).withReaders(2).withWriters(2)
+                .withCommitInterval(2).withQueueSize(1).load(files);
+
+        Assert.assertEquals(5, flags);
+        // Each writer commits every two flags, and whatever is left at the end
+        Mockito.verify(connection, Mockito.atLeast(3)).commit();
+        Mockito.verify(connection, Mockito.times(2)).close();
+    }
+
+    @Test
+    public void readFailureTest() throws IOException, SQLException
+    {
+        final DatabaseConnection database = Mockito.mock(DatabaseConnection.class);
+        final Connection connection = Mockito.mock(Connection.class);
+        final PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(database.getPooledConnection()).thenReturn(connection);
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(statement);
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.anyInt()))
+                .thenReturn(statement);
+        final File directory = File.temporaryFolder();
+        final File notGzipped = directory.child("flags.log.gz");
+        // Written as is, as a File named .gz would compress what it writes
+        Files.write(Paths.get(notGzipped.getAbsolutePathString()),
+                "not gzipped".getBytes(StandardCharsets.UTF_8));
+
+        try
+        {
+            new ParallelFlagLoader(new FlagDatabaseSubCommand(), database)
+                    .load(Arrays.asList(notGzipped));
+            Assert.fail("The load should fail");
+        }
+        catch (final CoreException error)
+        {
+            Assert.assertTrue(error.getCause().getMessage().contains("Unable to read"));
+        }
+        finally
+        {
+            directory.deleteRecursively();
+        }
+    }
+}
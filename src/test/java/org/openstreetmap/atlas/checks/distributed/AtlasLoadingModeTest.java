@@ -0,0 +1,48 @@
+package org.openstreetmap.atlas.checks.distributed;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.exception.CoreException;
+
+/**
+ * Unit tests for {@link AtlasLoadingMode}.
+ *
+ * @author jklamer
+ */
+public class AtlasLoadingModeTest
+{
+    private static final long HEADROOM = 1000L;
+    private static final double FRACTION = 0.3;
+
+    @Test
+    public void testAutoResolvesBySize()
+    {
+        // 100 bytes of files take roughly 300 bytes in memory, which fits in 30% of 1000
+        Assert.assertEquals(AtlasLoadingMode.MULTI,
+                AtlasLoadingMode.AUTO.resolve(100L, HEADROOM, FRACTION));
+        Assert.assertEquals(AtlasLoadingMode.DYNAMIC,
+                AtlasLoadingMode.AUTO.resolve(101L, HEADROOM, FRACTION));
+    }
+
+    @Test
+    public void testFixedModesDoNotResolve()
+    {
+        Assert.assertEquals(AtlasLoadingMode.MULTI,
+                AtlasLoadingMode.MULTI.resolve(Long.MAX_VALUE / 4, HEADROOM, FRACTION));
+        Assert.assertEquals(AtlasLoadingMode.DYNAMIC,
+                AtlasLoadingMode.DYNAMIC.resolve(0L, HEADROOM, FRACTION));
+    }
+
+    @Test
+    public void testForString()
+    {
+        Assert.assertEquals(AtlasLoadingMode.AUTO, AtlasLoadingMode.forString(" Auto"));
+        Assert.assertEquals(AtlasLoadingMode.MULTI, AtlasLoadingMode.forString("multi"));
+    }
+
+    @Test(expected = CoreException.class)
+    public void testUnknownMode()
+    {
+        AtlasLoadingMode.forString("packed");
+    }
+}
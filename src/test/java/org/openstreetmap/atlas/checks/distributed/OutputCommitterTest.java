@@ -0,0 +1,162 @@
+package org.openstreetmap.atlas.checks.distributed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFilePath;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for {@link OutputCommitter}
+ *
+ * @author mkalender
+ */
+public class OutputCommitterTest
+{
+    private static final long TARGET_BYTES = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCommitWithoutCompaction() throws IOException
+    {
+        final Path temporary = this.folder.newFolder("temporary", "UNK").toPath();
+        final Path target = this.folder.getRoot().toPath().resolve("target").resolve("UNK");
+        write(temporary.resolve("1P0-0.log"), "one\n", false);
+        write(temporary.resolve("check=A").resolve("2P0-0.log"), "two\n", false);
+
+        new OutputCommitter(Collections.emptyMap(), 2, 0).commit(
+                new SparkFilePath(temporary.toString(), target.toString()),
+                OutputCommitter.Compaction.LINES);
+
+        Assert.assertEquals("one\n", read(target.resolve("1P0-0.log")));
+        Assert.assertEquals("two\n", read(target.resolve("check=A").resolve("2P0-0.log")));
+        // Files are renamed rather than copied
+        Assert.assertFalse(Files.exists(temporary.resolve("1P0-0.log")));
+    }
+
+    @Test
+    public void testCompactFeatureCollections() throws IOException
+    {
+        final Path temporary = this.folder.newFolder("temporary", "UNK").toPath();
+        final Path target = this.folder.getRoot().toPath().resolve("target").resolve("UNK");
+        write(temporary.resolve("ChallengeA-1P0-0.geojson.gz"),
+                "{\"type\":\"FeatureCollection\",\"features\":[{\"id\":1},{\"id\":2}]}", true);
+        write(temporary.resolve("ChallengeA-1P1-0.geojson.gz"),
+                "{\"type\":\"FeatureCollection\",\"features\":[{\"id\":3}]}", true);
+        write(temporary.resolve("ChallengeB-1P1-1.geojson.gz"),
+                "{\"type\":\"FeatureCollection\",\"features\":[{\"id\":4}]}", true);
+        write(temporary.resolve("empty.geojson.gz"), "", false);
+
+        new OutputCommitter(Collections.emptyMap(), 2, TARGET_BYTES).commit(
+                new SparkFilePath(temporary.toString(), target.toString()),
+                OutputCommitter.Compaction.FEATURE_COLLECTIONS);
+
+        Assert.assertEquals(List.of("ChallengeA-compacted-1P0-0.geojson.gz",
+                "ChallengeB-1P1-1.geojson.gz", "empty.geojson.gz"), list(target));
+        Assert.assertEquals(3,
+                new JsonParser().parse(read(target.resolve("ChallengeA-compacted-1P0-0.geojson.gz")))
+                        .getAsJsonObject().getAsJsonArray("features").size());
+    }
+
+    @Test
+    public void testCompactLinesInPlace() throws IOException
+    {
+        final Path country = this.folder.newFolder("flag", "UNK").toPath();
+        write(country.resolve("1P0-0.log.gz"), "one\ntwo\n", true);
+        write(country.resolve("1P1-0.log.gz"), "three\n", true);
+        write(country.resolve("check=A").resolve("1P0-0.log.gz"), "four\n", true);
+        write(country.resolve("check=A").resolve("1P1-0.log.gz"), "five\n", true);
+
+        new OutputCommitter(Collections.emptyMap(), 2, TARGET_BYTES).commit(
+                new SparkFilePath(country.toString(), country.toString()),
+                OutputCommitter.Compaction.LINES);
+
+        Assert.assertEquals(List.of("check=A", "compacted-1P0-0.log.gz"), list(country));
+        Assert.assertEquals("one\ntwo\nthree\n", read(country.resolve("compacted-1P0-0.log.gz")));
+        Assert.assertEquals(List.of("compacted-1P0-0.log.gz"), list(country.resolve("check=A")));
+        Assert.assertEquals("four\nfive\n",
+                read(country.resolve("check=A").resolve("compacted-1P0-0.log.gz")));
+    }
+
+    @Test
+    public void testCompactionDoesNotOverwrite() throws IOException
+    {
+        final Path country = this.folder.newFolder("flag", "UNK").toPath();
+        write(country.resolve("1P0-0.log"), "one\n", false);
+        write(country.resolve("1P1-0.log"), "two\n", false);
+        // Left by a commit that failed after compacting, before deleting the files
+        write(country.resolve("compacted-1P0-0.log"), "one\ntwo\n", false);
+
+        try
+        {
+            new OutputCommitter(Collections.emptyMap(), 2, TARGET_BYTES).commit(
+                    new SparkFilePath(country.toString(), country.toString()),
+                    OutputCommitter.Compaction.LINES);
+            Assert.fail("The compacted file was overwritten");
+        }
+        catch (final CoreException e)
+        {
+            // The files are not compacted a second time
+        }
+        Assert.assertEquals(List.of("1P0-0.log", "1P1-0.log", "compacted-1P0-0.log"),
+                list(country));
+        Assert.assertEquals("one\ntwo\n", read(country.resolve("compacted-1P0-0.log")));
+    }
+
+    private static List<String> list(final Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> !name.startsWith(".")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String read(final Path file) throws IOException
+    {
+        try (InputStream input = file.toString().endsWith(".gz")
+                ? new GZIPInputStream(Files.newInputStream(file))
+                : Files.newInputStream(file))
+        {
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void write(final Path file, final String content, final boolean compress)
+            throws IOException
+    {
+        Files.createDirectories(file.getParent());
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (compress)
+        {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+            {
+                gzip.write(bytes);
+            }
+            Files.write(file, compressed.toByteArray());
+        }
+        else
+        {
+            Files.write(file, bytes);
+        }
+    }
+}
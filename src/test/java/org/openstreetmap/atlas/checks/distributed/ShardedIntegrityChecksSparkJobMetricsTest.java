@@ -0,0 +1,78 @@
+package org.openstreetmap.atlas.checks.distributed;
+
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.openstreetmap.atlas.geography.atlas.Atlas;
+import org.openstreetmap.atlas.geography.sharding.SlippyTileSharding;
+import org.openstreetmap.atlas.streaming.resource.File;
+
+/**
+ * Tests for the check metrics of {@link ShardedIntegrityChecksSparkJob} by default, without the
+ * metric files per shard, where only the summaries summed up in accumulators are written.
+ *
+ * @author agent
+ */
+public class ShardedIntegrityChecksSparkJobMetricsTest
+{
+    private static final String COUNTRY_CODE = "UNK";
+    private static final String SUMMARY = "check-run-summary.csv";
+    private static final int ZOOM_LEVEL = 4;
+    private static final File INPUT = File.temporaryFolder();
+    private static final File OUTPUT = File.temporaryFolder();
+
+    @Rule
+    public ShardedIntegrityChecksSparkJobTestRule setup = new ShardedIntegrityChecksSparkJobTestRule();
+
+    @AfterClass
+    public static void cleanUp()
+    {
+        INPUT.deleteRecursively();
+        OUTPUT.deleteRecursively();
+    }
+
+    @Test
+    public void summaryOnlyTest()
+    {
+        this.saveAtlas(this.setup.bcAtlas());
+        this.saveAtlas(this.setup.nzAtlas());
+        final String[] arguments = { String.format("-input=%s", INPUT.getAbsolutePathString()),
+                String.format("-startedFolder=%s", INPUT.getAbsolutePathString()),
+                String.format("-output=%s", OUTPUT.getAbsolutePathString()),
+                String.format("-sharding=slippy@%s", ZOOM_LEVEL), "-maxShardLoad=1",
+                "-outputFormats=metrics", "-compressOutput=false",
+                String.format("-countries=%s", COUNTRY_CODE), "-cluster=local",
+                String.format("-configFiles=file:%s",
+                        ShardedIntegrityChecksSparkJobMetricsTest.class
+                                .getResource("test_configuration.json").getPath()),
+                "-sparkOptions=spark.executor.memory->4g,spark.driver.memory->16g,spark.rdd.compress->true" };
+        new ShardedIntegrityChecksSparkJob().runWithoutQuitting(arguments);
+
+        // Only the summaries are written by default, no file per shard
+        Assert.assertFalse(OUTPUT.child("metric").child(COUNTRY_CODE).exists());
+        final List<String> lines = OUTPUT.child("metric").child(COUNTRY_CODE + "_" + SUMMARY)
+                .linesList();
+        Assert.assertEquals("name,runs,total duration (ms),maximum duration (ms),objects,flags",
+                lines.get(0));
+        Assert.assertTrue(lines.size() > 1);
+        // Each check ran on both shards
+        Assert.assertTrue(lines.stream().skip(1).allMatch(line -> line.split(",")[1].equals("2")));
+        // The run has a single country
+        Assert.assertEquals(lines, OUTPUT.child("metric").child(SUMMARY).linesList());
+    }
+
+    private void saveAtlas(final Atlas atlas)
+    {
+        final File countryFolder = new File(
+                FilenameUtils.concat(INPUT.getAbsolutePathString(), COUNTRY_CODE));
+        countryFolder.mkdirs();
+        final String shard = new SlippyTileSharding(ZOOM_LEVEL).shards(atlas.bounds()).iterator()
+                .next().getName();
+        atlas.save(new File(FilenameUtils.concat(countryFolder.getAbsolutePathString(),
+                String.format("UNK_%s.atlas", shard))));
+    }
+}
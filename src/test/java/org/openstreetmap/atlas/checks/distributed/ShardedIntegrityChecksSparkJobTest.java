@@ -127,7 +127,8 @@ public class ShardedIntegrityChecksSparkJobTest
                 String.format("-output=%s", OUTPUT.getAbsolutePathString()),
                 String.format("-sharding=slippy@%s", ZOOM_LEVEL), "-maxShardLoad=1",
                 "-outputFormats=flags,geojson,metrics,tippecanoe", "-compressOutput=false",
-                String.format("-countries=%s", COUNTRY_CODE), "-saveCheckOutput=true",
+                "-shardMetrics=true", String.format("-countries=%s", COUNTRY_CODE),
+                "-saveCheckOutput=true",
                 "-cluster=local",
                 String.format("-configFiles=file:%s",
                         ShardedIntegrityChecksSparkJobTest.class
@@ -0,0 +1,119 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.event.Processor;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+
+/**
+ * Tests for {@link AsynchronousProcessor}.
+ *
+ * @author mkalender
+ */
+public class AsynchronousProcessorTest
+{
+    private static final int QUEUE_SIZE = 4;
+    private static final int EVENTS = 50;
+    private static final long BLOCKED_MILLISECONDS = 10;
+
+    /**
+     * Records the flags it processes, and what it had processed at shutdown. Processing blocks
+     * until the processor is released.
+     */
+    private static final class RecordingProcessor implements Processor<CheckFlagEvent>
+    {
+        private final List<String> identifiers = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> identifiersAtShutdown = new ArrayList<>();
+        private final CountDownLatch processing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void process(final CheckFlagEvent event)
+        {
+            this.processing.countDown();
+            try
+            {
+                this.release.await();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            this.identifiers.add(event.getCheckFlag().getIdentifier());
+        }
+
+        @Override
+        public void process(final ShutdownEvent event)
+        {
+            this.identifiersAtShutdown.addAll(this.identifiers);
+        }
+    }
+
+    private static CheckFlagEvent event(final int index)
+    {
+        return new CheckFlagEvent("check", new CheckFlag(String.valueOf(index)));
+    }
+
+    @Test
+    public void testDrainBeforeShutdown() throws InterruptedException
+    {
+        final RecordingProcessor recorder = new RecordingProcessor();
+        final AsynchronousProcessor<CheckFlagEvent> processor = new AsynchronousProcessor<>(
+                recorder, CheckFlagEvent.class, QUEUE_SIZE);
+        final List<String> expected = new ArrayList<>();
+        for (int index = 0; index < EVENTS; index++)
+        {
+            expected.add(String.valueOf(index));
+        }
+
+        // The writer takes the first event and blocks on it, then the queue fills up
+        processor.process(event(0));
+        recorder.processing.await();
+        for (int index = 1; index <= QUEUE_SIZE; index++)
+        {
+            processor.process(event(index));
+        }
+        Assert.assertEquals(QUEUE_SIZE, processor.getQueueDepth());
+
+        // The next event waits for room in the queue until the writer is released
+        final Thread poster = new Thread(() -> processor.process(event(QUEUE_SIZE + 1)));
+        poster.start();
+        while (poster.getState() != Thread.State.WAITING)
+        {
+            Thread.yield();
+        }
+        Thread.sleep(BLOCKED_MILLISECONDS);
+        recorder.release.countDown();
+        poster.join();
+        for (int index = QUEUE_SIZE + 2; index < EVENTS; index++)
+        {
+            processor.process(event(index));
+        }
+        processor.process(new ShutdownEvent());
+
+        // A single writer keeps the order, and every flag is written before the shutdown
+        Assert.assertEquals(expected, recorder.identifiersAtShutdown);
+        Assert.assertEquals(EVENTS, processor.getEventCount());
+        Assert.assertEquals(0, processor.getQueueDepth());
+        Assert.assertEquals(0, processor.getFailureCount());
+        Assert.assertEquals(QUEUE_SIZE, processor.getMaximumQueueDepth());
+        Assert.assertTrue(processor.getWaitMilliseconds() >= BLOCKED_MILLISECONDS);
+    }
+
+    @Test
+    public void testShutdownWithoutEvents()
+    {
+        final RecordingProcessor recorder = new RecordingProcessor();
+        final AsynchronousProcessor<CheckFlagEvent> processor = new AsynchronousProcessor<>(
+                recorder, CheckFlagEvent.class, AsynchronousProcessor.QUEUE_SIZE);
+        processor.process(new ShutdownEvent());
+        Assert.assertTrue(recorder.identifiersAtShutdown.isEmpty());
+        Assert.assertEquals(0, processor.getEventCount());
+    }
+}
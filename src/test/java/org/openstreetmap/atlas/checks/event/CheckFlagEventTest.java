@@ -321,4 +321,28 @@ public class CheckFlagEventTest
         Assert.assertEquals("2", firstDescriptor.get("value").getAsString());
         Assert.assertEquals("1", firstDescriptor.get("originalValue").getAsString());
     }
+
+    @Test
+    public void memoizedSerializationTest()
+    {
+        final Atlas atlas = this.rule.getAtlas();
+        final CheckFlag flag = new CheckFlag("1");
+        flag.addObject(atlas.node(1));
+        flag.addObject(atlas.relation(123));
+        final CheckFlagEvent event = new CheckFlagEvent("check", flag);
+
+        // Mutating the line delimited features must not leak into the other representations
+        final String featureCollection = event.toString();
+        final String feature = event.toGeoJsonFeatureString();
+        event.asLineDelimitedGeoJsonFeatures(json -> json.addProperty("mutated", true));
+
+        Assert.assertSame(featureCollection, event.toString());
+        Assert.assertEquals(event.toGeoJsonFeatureCollection().toString(), featureCollection);
+        Assert.assertEquals(event.toGeoJsonFeature().toString(), feature);
+        Assert.assertFalse(featureCollection.contains("mutated"));
+        Assert.assertEquals(
+                CheckFlagEvent.flagToJson(flag, Collections.emptyMap()).get("features"),
+                event.toGeoJsonFeatureCollection().get("features"));
+        Assert.assertEquals(3, event.asLineDelimitedGeoJsonFeatures().split("\n").length);
+    }
 }
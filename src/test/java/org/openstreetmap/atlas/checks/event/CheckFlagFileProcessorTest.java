@@ -9,10 +9,16 @@ import java.util.Map;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.checks.flag.index.IndexedFlagFile;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexFormat;
+import org.openstreetmap.atlas.checks.utility.FileUtility;
 import org.openstreetmap.atlas.event.ShutdownEvent;
 import org.openstreetmap.atlas.generator.tools.filesystem.FileSystemHelper;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.Rectangle;
 import org.openstreetmap.atlas.streaming.resource.Resource;
+import org.openstreetmap.atlas.utilities.collections.Iterables;
 
 import com.google.common.io.Files;
 import com.google.gson.Gson;
@@ -55,12 +61,140 @@ public class CheckFlagFileProcessorTest
         this.processCompleteAndValidate(BATCH_SIZE + 1);
     }
 
+    @Test
+    public void testCompressedMaximumFileBytes()
+    {
+        final int eventCount = 2000;
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagFileProcessor processor = new CheckFlagFileProcessor(FILE_SYSTEM_CONFIG,
+                tempDirectory.getAbsolutePath());
+        processor.withMaximumFileBytes(10_000);
+        for (int index = 0; index < eventCount; index++)
+        {
+            final CheckFlag flag = new CheckFlag(String.valueOf(index));
+            flag.addInstruction(String.format("Instruction %s", index));
+            flag.addPoint(Location.forString(String.format("%s,%s", index / 100.0, index / 50.0)));
+            processor.process(new CheckFlagEvent("sample-name", flag));
+        }
+        processor.process(new ShutdownEvent());
+
+        // Files compressed as a single gzip member still roll over once they are large enough
+        final List<Resource> files = FileSystemHelper.resources(tempDirectory.getAbsolutePath(),
+                FILE_SYSTEM_CONFIG);
+        Assert.assertTrue(files.size() > 1);
+        Assert.assertEquals(eventCount,
+                files.stream().mapToLong(file -> Iterables.size(file.lines())).sum());
+
+        tempDirectory.delete();
+    }
+
+    @Test
+    public void testMaximumFileBytes()
+    {
+        final int eventCount = 2000;
+        final long maximumFileBytes = 10_000;
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagFileProcessor processor = new CheckFlagFileProcessor(FILE_SYSTEM_CONFIG,
+                tempDirectory.getAbsolutePath());
+        processor.withCompression(false).withMaximumFileBytes(maximumFileBytes);
+        for (int index = 0; index < eventCount; index++)
+        {
+            processor.process(SAMPLE_EVENT);
+        }
+        processor.process(new ShutdownEvent());
+
+        final List<Resource> files = FileSystemHelper.resources(tempDirectory.getAbsolutePath(),
+                FILE_SYSTEM_CONFIG);
+        final long totalBytes = files.stream().mapToLong(Resource::length).sum();
+        Assert.assertTrue(files.size() >= totalBytes / maximumFileBytes);
+        for (final Resource file : files)
+        {
+            // A file ends with the line that crossed the maximum, and all lines are alike
+            final long lineBytes = file.length() / Iterables.size(file.lines());
+            Assert.assertTrue(file.length() < maximumFileBytes + lineBytes);
+        }
+        Assert.assertEquals(eventCount,
+                files.stream().mapToLong(file -> Iterables.size(file.lines())).sum());
+
+        tempDirectory.delete();
+    }
+
     @Test
     public void testOneEvent() throws IOException
     {
         this.processCompleteAndValidate(1);
     }
 
+    @Test
+    public void testPartitionByCheck()
+    {
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagFileProcessor processor = new CheckFlagFileProcessor(FILE_SYSTEM_CONFIG,
+                tempDirectory.getAbsolutePath())
+                        .withPartitionByCheck(true);
+        processor.withCompression(false);
+        for (int index = 0; index < 10; index++)
+        {
+            processor.process(SAMPLE_EVENT);
+        }
+        processor.process(new CheckFlagEvent("other-name", new CheckFlag("another check flag")));
+        processor.process(new ShutdownEvent());
+
+        // Only the check folders are written, with a file each
+        Assert.assertEquals(2, tempDirectory.list().length);
+        final List<Resource> sampleFiles = FileSystemHelper.resources(
+                new File(tempDirectory, FileUtility.CHECK_PARTITION + "sample-name")
+                        .getAbsolutePath(),
+                FILE_SYSTEM_CONFIG);
+        Assert.assertEquals(1, sampleFiles.size());
+        Assert.assertEquals(10, Iterables.size(sampleFiles.get(0).lines()));
+        final List<Resource> otherFiles = FileSystemHelper.resources(
+                new File(tempDirectory, FileUtility.CHECK_PARTITION + "other-name")
+                        .getAbsolutePath(),
+                FILE_SYSTEM_CONFIG);
+        Assert.assertEquals(1, Iterables.size(otherFiles.get(0).lines()));
+
+        tempDirectory.delete();
+    }
+
+    @Test
+    public void testSpatialIndex() throws IOException
+    {
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagFileProcessor processor = new CheckFlagFileProcessor(FILE_SYSTEM_CONFIG,
+                tempDirectory.getAbsolutePath());
+        processor.withSpatialIndex(true);
+        for (int index = 0; index < 100; index++)
+        {
+            final CheckFlag flag = new CheckFlag(String.valueOf(index));
+            flag.addPoint(Location.forString(String.format("%s,%s", index / 10.0, index / 10.0)));
+            processor.process(new CheckFlagEvent("sample-name", flag));
+        }
+        // Flags without geometry are written, but not indexed
+        processor.process(SAMPLE_EVENT);
+        processor.process(new ShutdownEvent());
+
+        final File[] flagFiles = tempDirectory
+                .listFiles((directory, name) -> !SpatialIndexFormat.isSpatialIndexFile(name));
+        Assert.assertEquals(1, flagFiles.length);
+        Assert.assertTrue(IndexedFlagFile.hasIndex(flagFiles[0].toPath()));
+        try (IndexedFlagFile indexedFile = new IndexedFlagFile(flagFiles[0].toPath()))
+        {
+            Assert.assertEquals(100, indexedFile.getCount());
+            final List<JsonObject> flags = indexedFile.query(Rectangle
+                    .forCorners(Location.forString("1,1"), Location.forString("2.05,2.05")));
+            Assert.assertEquals(11, flags.size());
+            Assert.assertEquals("10",
+                    flags.get(0).getAsJsonObject("properties").get("id").getAsString());
+            Assert.assertTrue(indexedFile
+                    .query(Rectangle.forCorners(Location.forString("-2,-2"),
+                            Location.forString("-1,-1")))
+                    .isEmpty());
+        }
+
+        tempDirectory.delete();
+    }
+
     @Test
     public void testTenEvent() throws IOException
     {
@@ -39,6 +39,40 @@ public class CheckFlagGeoJsonProcessorTest
         this.processCompleteAndValidate(100);
     }
 
+    @Test
+    public void testMaximumFileBytes()
+    {
+        final int eventCount = 500;
+        final long maximumFileBytes = 10_000;
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagGeoJsonProcessor processor = new CheckFlagGeoJsonProcessor(
+                FILE_SYSTEM_CONFIG, tempDirectory.getAbsolutePath()).withCompression(false)
+                        .withMaximumFileBytes(maximumFileBytes);
+        for (int index = 0; index < eventCount; index++)
+        {
+            processor.process(this.setup.getCheckFlagEvent());
+        }
+        processor.process(new ShutdownEvent());
+
+        final List<Resource> files = FileSystemHelper.resources(tempDirectory.getAbsolutePath(),
+                FILE_SYSTEM_CONFIG);
+        Assert.assertTrue(files.size() > 1);
+        int actualEventCount = 0;
+        for (final Resource file : files)
+        {
+            final int features = GSON_BUILDER
+                    .fromJson(new InputStreamReader(file.read()), JsonObject.class)
+                    .getAsJsonArray("features").size();
+            // A file ends with the feature that crossed the maximum, then the collection footer
+            final long featureBytes = file.length() / features;
+            Assert.assertTrue(file.length() < maximumFileBytes + 2 * featureBytes);
+            actualEventCount += features;
+        }
+        Assert.assertEquals(eventCount, actualEventCount);
+
+        tempDirectory.delete();
+    }
+
     @Test
     public void testOneEvent() throws IOException
     {
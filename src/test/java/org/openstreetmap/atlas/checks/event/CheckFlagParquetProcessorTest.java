@@ -0,0 +1,96 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests for {@link CheckFlagParquetProcessor}.
+ *
+ * @author mkalender
+ */
+public class CheckFlagParquetProcessorTest
+{
+    private static final Map<String, String> FILE_SYSTEM_CONFIG = new HashMap<>();
+
+    @Test
+    public void testCheckPartitions() throws IOException
+    {
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagParquetProcessor processor = new CheckFlagParquetProcessor(
+                FILE_SYSTEM_CONFIG, tempDirectory.getAbsolutePath());
+        for (int index = 0; index < 10; index++)
+        {
+            processor.process(this.event("FirstCheck", "flag" + index));
+        }
+        processor.process(this.event("SecondCheck", "flag"));
+        processor.process(new ShutdownEvent());
+
+        Assert.assertEquals(10, this.countRows(new File(tempDirectory,
+                CheckFlagParquetProcessor.CHECK_PARTITION + "FirstCheck")));
+        Assert.assertEquals(1, this.countRows(new File(tempDirectory,
+                CheckFlagParquetProcessor.CHECK_PARTITION + "SecondCheck")));
+    }
+
+    @Test
+    public void testInstructions() throws IOException
+    {
+        final File tempDirectory = Files.createTempDir();
+        final CheckFlagParquetProcessor processor = new CheckFlagParquetProcessor(
+                FILE_SYSTEM_CONFIG, tempDirectory.getAbsolutePath());
+        processor.process(this.event("FirstCheck", "flag"));
+        processor.process(new ShutdownEvent());
+
+        final File[] files = new File(tempDirectory,
+                CheckFlagParquetProcessor.CHECK_PARTITION + "FirstCheck")
+                        .listFiles((directory, name) -> name
+                                .endsWith(CheckFlagParquetProcessor.FILE_EXTENSION));
+        Assert.assertEquals(1, files.length);
+        try (ParquetReader<Group> reader = ParquetReader
+                .builder(new GroupReadSupport(), new Path(files[0].getAbsolutePath())).build())
+        {
+            final Group row = reader.read();
+            Assert.assertEquals("1. First instruction\n2. Second instruction",
+                    row.getString("instructions", 0));
+            Assert.assertNull(reader.read());
+        }
+    }
+
+    private long countRows(final File partition) throws IOException
+    {
+        long rows = 0;
+        for (final File file : partition.listFiles(
+                (directory, name) -> name.endsWith(CheckFlagParquetProcessor.FILE_EXTENSION)))
+        {
+            try (ParquetReader<Group> reader = ParquetReader
+                    .builder(new GroupReadSupport(), new Path(file.getAbsolutePath())).build())
+            {
+                while (reader.read() != null)
+                {
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private CheckFlagEvent event(final String checkName, final String identifier)
+    {
+        final CheckFlag flag = new CheckFlag(identifier);
+        flag.addInstruction("First instruction");
+        flag.addInstruction("Second instruction");
+        return new CheckFlagEvent(checkName, flag);
+    }
+}
@@ -0,0 +1,152 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
+import org.openstreetmap.atlas.checks.vectortiles.PMTilesReader;
+import org.openstreetmap.atlas.checks.vectortiles.PMTilesWriter;
+import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Location;
+
+/**
+ * Tests for {@link CheckFlagVectorTileProcessor}.
+ *
+ * @author mkalender
+ */
+public class CheckFlagVectorTileProcessorTest
+{
+    private static final Map<String, String> FILE_SYSTEM_CONFIG = new HashMap<>();
+    private static final int MAXIMUM_ZOOM = 10;
+
+    @Test
+    public void testMaximumFeatures() throws IOException
+    {
+        final File tempDirectory = com.google.common.io.Files.createTempDir();
+        final File single = new File(tempDirectory, "single");
+        final File parts = new File(tempDirectory, "parts");
+        this.writeArchive(single, Integer.MAX_VALUE);
+        // Every flag is tiled into a part of its own, and the parts are merged at shutdown
+        this.writeArchive(parts, 1);
+
+        final File[] archives = parts.listFiles();
+        Assert.assertEquals(1, archives.length);
+        Assert.assertEquals(this.countTiles(single.listFiles()[0]),
+                this.countTiles(archives[0]));
+    }
+
+    @Test
+    public void testMergeArchives() throws IOException
+    {
+        final File tempDirectory = com.google.common.io.Files.createTempDir();
+        final File parts = new File(tempDirectory, "parts");
+        final SparkFileHelper fileHelper = new SparkFileHelper(FILE_SYSTEM_CONFIG);
+        // Two tasks flag the same place, so their archives share all tiles
+        this.writeArchive(parts, "1", Location.forString("37.66,-121.0094"));
+        this.writeArchive(parts, "2", Location.forString("37.66,-121.0094"));
+        final long partTiles = this.countTiles(parts.listFiles()[0]);
+
+        final int tileCount = CheckFlagVectorTileProcessor.mergeArchives(fileHelper,
+                FILE_SYSTEM_CONFIG, parts.getAbsolutePath(), tempDirectory.getAbsolutePath(),
+                "USA" + PMTilesWriter.FILE_EXTENSION);
+
+        Assert.assertEquals(partTiles, tileCount);
+        Assert.assertFalse(parts.exists());
+        try (InputStream input = Files
+                .newInputStream(new File(tempDirectory, "USA.pmtiles").toPath());
+                PMTilesReader reader = new PMTilesReader(input))
+        {
+            Assert.assertTrue(reader.advance());
+            // The first tile is at the lowest zoom, with both flags and none of their points
+            Assert.assertEquals(2, reader.getTile().getFeatureCount());
+        }
+    }
+
+    @Test
+    public void testZooms() throws IOException
+    {
+        final File tempDirectory = com.google.common.io.Files.createTempDir();
+        this.writeArchive(tempDirectory, "1", Location.forString("37.66,-121.0094"));
+
+        final File[] archives = tempDirectory.listFiles();
+        Assert.assertEquals(1, archives.length);
+        try (InputStream input = Files.newInputStream(archives[0].toPath());
+                PMTilesReader reader = new PMTilesReader(input))
+        {
+            Assert.assertTrue(reader.getLayers().contains(CheckFlag.class.getSimpleName()));
+            int minimumZoom = Integer.MAX_VALUE;
+            int maximumZoom = -1;
+            while (reader.advance())
+            {
+                final int zoom = PMTilesWriter.tileCoordinates(reader.getTileIdentifier())[0];
+                minimumZoom = Math.min(minimumZoom, zoom);
+                maximumZoom = Math.max(maximumZoom, zoom);
+            }
+            // Flags start at zoom 1, as they do with the tippecanoe settings
+            Assert.assertEquals(1, minimumZoom);
+            Assert.assertEquals(MAXIMUM_ZOOM, maximumZoom);
+        }
+    }
+
+    private long countTiles(final File archive) throws IOException
+    {
+        long tiles = 0;
+        try (InputStream input = Files.newInputStream(archive.toPath());
+                PMTilesReader reader = new PMTilesReader(input))
+        {
+            while (reader.advance())
+            {
+                tiles++;
+            }
+        }
+        return tiles;
+    }
+
+    private void writeArchive(final File directory, final int maximumFeatures)
+    {
+        final CheckFlagVectorTileProcessor processor = new CheckFlagVectorTileProcessor(
+                FILE_SYSTEM_CONFIG, directory.getAbsolutePath())
+        {
+            @Override
+            protected String getFilename()
+            {
+                return "USA" + PMTilesWriter.FILE_EXTENSION;
+            }
+        }.withMaximumZoom(MAXIMUM_ZOOM).withMaximumFeatures(maximumFeatures);
+        final String[] locations = { "37.66,-121.0094", "48.85,2.35", "-33.86,151.2" };
+        for (int index = 0; index < locations.length; index++)
+        {
+            final CheckFlag flag = new CheckFlag(String.valueOf(index));
+            flag.addInstruction("Fix it");
+            flag.addPoint(Location.forString(locations[index]));
+            processor.process(new CheckFlagEvent("SampleCheck", flag));
+        }
+        processor.process(new ShutdownEvent());
+    }
+
+    private void writeArchive(final File directory, final String identifier,
+            final Location location)
+    {
+        final CheckFlagVectorTileProcessor processor = new CheckFlagVectorTileProcessor(
+                FILE_SYSTEM_CONFIG, directory.getAbsolutePath())
+        {
+            @Override
+            protected String getFilename()
+            {
+                return identifier + PMTilesWriter.FILE_EXTENSION;
+            }
+        }.withMaximumZoom(MAXIMUM_ZOOM);
+        final CheckFlag flag = new CheckFlag(identifier);
+        flag.addInstruction("Fix it");
+        flag.addPoint(location);
+        processor.process(new CheckFlagEvent("SampleCheck", flag));
+        processor.process(new ShutdownEvent());
+    }
+}
@@ -44,7 +44,7 @@ public class MetricFileGeneratorTest
 
         final String filename = generator.getFilename();
 
-        Assert.assertTrue(filename.matches("^some\\.metrics-\\d+\\.txt$"));
+        Assert.assertTrue(filename.matches("^some\\.metrics-\\d+P\\d+-\\d+\\.txt$"));
     }
 
     @Test
@@ -56,7 +56,7 @@ public class MetricFileGeneratorTest
 
         final String filename = generator.getFilename();
 
-        Assert.assertTrue(filename.matches("^some\\.metrics\\.out-\\d+\\.csv$"));
+        Assert.assertTrue(filename.matches("^some\\.metrics\\.out-\\d+P\\d+-\\d+\\.csv$"));
     }
 
     @Test
@@ -68,7 +68,7 @@ public class MetricFileGeneratorTest
 
         final String filename = generator.getFilename();
 
-        Assert.assertTrue(filename.matches("^some-metrics-log-\\d+.csv$"));
+        Assert.assertTrue(filename.matches("^some-metrics-log-\\d+P\\d+-\\d+\\.csv$"));
     }
 
     @Test
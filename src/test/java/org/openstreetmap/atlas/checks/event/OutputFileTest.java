@@ -0,0 +1,143 @@
+package org.openstreetmap.atlas.checks.event;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.atlas.checks.flag.index.IndexedFlagFile;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexFormat;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.Rectangle;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Tests for the spatial index of {@link OutputFile}, whose records in gzipped files are placed by
+ * the offset of their gzip member and their position within it.
+ *
+ * @author agent
+ */
+public class OutputFileTest
+{
+    private static final int FLAG_COUNT = 100;
+    // Flags of a few kilobytes, so that some start in one gzip member and end in the next
+    private static final int PADDING = 3_000;
+    private static final Rectangle ALL = Rectangle.forCorners(Location.forString("-1,-1"),
+            Location.forString("11,11"));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testCompressedRecords() throws IOException
+    {
+        this.assertRecords("flags.log.gz", 0);
+    }
+
+    @Test
+    public void testParallelCompressedRecords() throws IOException
+    {
+        this.assertRecords("flags.log.gz", 2);
+    }
+
+    @Test
+    public void testRecords() throws IOException
+    {
+        this.assertRecords("flags.log", 0);
+    }
+
+    @Test
+    public void testRecordsWithoutBounds() throws IOException
+    {
+        final Path directory = this.tempFolder.newFolder().toPath();
+        try (OutputFile output = OutputFile.open(Collections.emptyMap(), directory.toString(),
+                "flags.log.gz", 0, true))
+        {
+            output.getWriter().write(flag(0));
+        }
+        // Files without indexed records get no index
+        Assert.assertFalse(IndexedFlagFile.hasIndex(directory.resolve("flags.log.gz")));
+    }
+
+    private static String flag(final int identifier)
+    {
+        final JsonObject properties = new JsonObject();
+        properties.addProperty("id", String.valueOf(identifier));
+        properties.addProperty("padding", "é".repeat(PADDING / 2));
+        final JsonObject flag = new JsonObject();
+        flag.addProperty("type", "FeatureCollection");
+        flag.add("properties", properties);
+        return flag.toString();
+    }
+
+    private static Location location(final int identifier)
+    {
+        return Location.forString(String.format("%s,%s", identifier / 10.0, identifier / 10.0));
+    }
+
+    private void assertRecords(final String filename, final int compressionThreads)
+            throws IOException
+    {
+        final Path directory = this.tempFolder.newFolder().toPath();
+        long contentBytes = 0;
+        int spanning = 0;
+        try (OutputFile output = OutputFile.open(Collections.emptyMap(), directory.toString(),
+                filename, compressionThreads, true))
+        {
+            Assert.assertTrue(output.isSpatiallyIndexed());
+            for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+            {
+                final String flag = flag(identifier);
+                output.startRecord();
+                output.getWriter().write(flag);
+                output.endRecord(location(identifier).bounds());
+                output.getWriter().write('\n');
+
+                final long recordStart = contentBytes;
+                final long recordEnd = recordStart + flag.getBytes(StandardCharsets.UTF_8).length;
+                final long lastByte = recordEnd - 1;
+                if (recordStart >>> SpatialIndexFormat.BLOCK_SHIFT
+                        != lastByte >>> SpatialIndexFormat.BLOCK_SHIFT)
+                {
+                    spanning++;
+                }
+                contentBytes = recordEnd + 1;
+            }
+        }
+        Assert.assertTrue(spanning > 0);
+
+        final Path file = directory.resolve(filename);
+        Assert.assertTrue(IndexedFlagFile.hasIndex(file));
+        if (filename.endsWith(".gz"))
+        {
+            // The file is still a valid gzip file, made of several members
+            try (InputStream input = new GZIPInputStream(Files.newInputStream(file)))
+            {
+                Assert.assertEquals(contentBytes, input.readAllBytes().length);
+            }
+        }
+        try (IndexedFlagFile indexedFile = new IndexedFlagFile(file))
+        {
+            Assert.assertEquals(FLAG_COUNT, indexedFile.getCount());
+            final List<JsonObject> flags = indexedFile.query(ALL);
+            Assert.assertEquals(FLAG_COUNT, flags.size());
+            for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+            {
+                Assert.assertEquals(String.valueOf(identifier), flags.get(identifier)
+                        .getAsJsonObject("properties").get("id").getAsString());
+            }
+            Assert.assertEquals(11, indexedFile.query(Rectangle
+                    .forCorners(Location.forString("1,1"), Location.forString("2.05,2.05")))
+                    .size());
+        }
+    }
+}
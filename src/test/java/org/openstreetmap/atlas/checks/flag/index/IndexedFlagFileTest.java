@@ -0,0 +1,265 @@
+package org.openstreetmap.atlas.checks.flag.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagFormat;
+import org.openstreetmap.atlas.checks.flag.serializer.BinaryFlagWriter;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.Rectangle;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Tests for {@link IndexedFlagFile}, on flag files and spatial indexes written the way the flag
+ * processors write them.
+ *
+ * @author agent
+ */
+public class IndexedFlagFileTest
+{
+    private static final int FLAG_COUNT = 100;
+    private static final Rectangle QUERY = Rectangle.forCorners(Location.forString("1,1"),
+            Location.forString("2.05,2.05"));
+    private static final Rectangle EMPTY_QUERY = Rectangle
+            .forCorners(Location.forString("-2,-2"), Location.forString("-1,-1"));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testBinaryFile() throws IOException
+    {
+        final Path file = this.tempFolder.getRoot().toPath()
+                .resolve("flags" + BinaryFlagFormat.FILE_EXTENSION);
+        final SpatialIndexWriter index = new SpatialIndexWriter(false);
+        final BinaryFlagWriter.Block block = new BinaryFlagWriter.Block();
+        try (BinaryFlagWriter writer = new BinaryFlagWriter(Files.newOutputStream(file)))
+        {
+            for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+            {
+                block.add("Check", "USA", flag(identifier, 0));
+            }
+            final int[] lengths = new int[block.getCount()];
+            for (int record = 0; record < lengths.length; record++)
+            {
+                lengths[record] = block.getRecordLength(record);
+            }
+            final long[] offsets = writer.write(block);
+            for (int record = 0; record < offsets.length; record++)
+            {
+                index.add(bounds(record), offsets[record], lengths[record]);
+            }
+        }
+        writeIndex(file, index);
+
+        this.assertQueries(file, "FeatureCollection");
+    }
+
+    @Test
+    public void testGeoJsonFile() throws IOException
+    {
+        // Features are separated by a comma, which starts the record of each feature but the first
+        final Path file = this.tempFolder.getRoot().toPath().resolve("flags.geojson");
+        final SpatialIndexWriter index = new SpatialIndexWriter(false);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write("{\"type\":\"FeatureCollection\",\"features\":["
+                .getBytes(StandardCharsets.UTF_8));
+        for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+        {
+            final JsonObject feature = flag(identifier, 0).getAsJsonArray("features").get(0)
+                    .getAsJsonObject();
+            feature.add("properties", flag(identifier, 0).getAsJsonObject("properties"));
+            final byte[] record = ((identifier > 0 ? "," : "") + feature)
+                    .getBytes(StandardCharsets.UTF_8);
+            index.add(bounds(identifier), content.size(), record.length);
+            content.write(record);
+        }
+        content.write("]}".getBytes(StandardCharsets.UTF_8));
+        Files.write(file, content.toByteArray());
+        writeIndex(file, index);
+
+        this.assertQueries(file, "Feature");
+    }
+
+    @Test
+    public void testGzipMembers() throws IOException
+    {
+        // Flags of a few kilobytes, so that gzip members hold a few of them and some flags start
+        // in one member and end in the next
+        final Path file = this.tempFolder.getRoot().toPath().resolve("flags.log.gz");
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final long[] starts = new long[FLAG_COUNT];
+        final int[] lengths = new int[FLAG_COUNT];
+        for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+        {
+            final byte[] record = flag(identifier, 3_000).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            starts[identifier] = content.size();
+            lengths[identifier] = record.length;
+            content.write(record);
+            content.write('\n');
+        }
+
+        // Each member inflates to a block of the content
+        final byte[] bytes = content.toByteArray();
+        final int memberCount = (bytes.length + SpatialIndexFormat.BLOCK_BYTES - 1)
+                / SpatialIndexFormat.BLOCK_BYTES;
+        final long[] memberOffsets = new long[memberCount];
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (int member = 0; member < memberCount; member++)
+        {
+            memberOffsets[member] = compressed.size();
+            final int start = member * SpatialIndexFormat.BLOCK_BYTES;
+            final ByteArrayOutputStream memberBytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(memberBytes))
+            {
+                gzip.write(bytes, start,
+                        Math.min(SpatialIndexFormat.BLOCK_BYTES, bytes.length - start));
+            }
+            memberBytes.writeTo(compressed);
+        }
+        Files.write(file, compressed.toByteArray());
+
+        final SpatialIndexWriter index = new SpatialIndexWriter(true);
+        int spanning = 0;
+        for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+        {
+            final int member = (int) (starts[identifier] >>> SpatialIndexFormat.BLOCK_SHIFT);
+            index.add(bounds(identifier),
+                    memberOffsets[member] << SpatialIndexFormat.BLOCK_SHIFT
+                            | starts[identifier] & SpatialIndexFormat.BLOCK_MASK,
+                    lengths[identifier]);
+            if (starts[identifier] + lengths[identifier] > (member + 1L)
+                    * SpatialIndexFormat.BLOCK_BYTES)
+            {
+                spanning++;
+            }
+        }
+        writeIndex(file, index);
+        Assert.assertTrue(memberCount > 1);
+        Assert.assertTrue(spanning > 0);
+
+        this.assertQueries(file, "FeatureCollection");
+        // Every flag can be read, including the ones spanning two members
+        try (IndexedFlagFile indexedFile = new IndexedFlagFile(file))
+        {
+            final List<String> identifiers = indexedFile
+                    .query(Rectangle.forCorners(Location.forString("-1,-1"),
+                            Location.forString("11,11")))
+                    .stream().map(IndexedFlagFileTest::identifier)
+                    .collect(Collectors.toList());
+            Assert.assertEquals(FLAG_COUNT, identifiers.size());
+            for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+            {
+                Assert.assertEquals(String.valueOf(identifier), identifiers.get(identifier));
+            }
+        }
+    }
+
+    @Test
+    public void testLineDelimitedFile() throws IOException
+    {
+        final Path file = this.tempFolder.getRoot().toPath().resolve("flags.log");
+        final SpatialIndexWriter index = new SpatialIndexWriter(false);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (int identifier = 0; identifier < FLAG_COUNT; identifier++)
+        {
+            final byte[] record = flag(identifier, 0).toString().getBytes(StandardCharsets.UTF_8);
+            index.add(bounds(identifier), content.size(), record.length);
+            content.write(record);
+            content.write('\n');
+        }
+        Files.write(file, content.toByteArray());
+        writeIndex(file, index);
+
+        Assert.assertTrue(IndexedFlagFile.hasIndex(file));
+        Assert.assertFalse(IndexedFlagFile.hasIndex(file.resolveSibling("other.log")));
+        this.assertQueries(file, "FeatureCollection");
+    }
+
+    /**
+     * @return the bounds of the flag of an identifier, a point from 0,0 to 9.9,9.9
+     */
+    private static Rectangle bounds(final int identifier)
+    {
+        return location(identifier).bounds();
+    }
+
+    /**
+     * @return a FeatureCollection of a point flag, padded with some text
+     */
+    private static JsonObject flag(final int identifier, final int padding)
+    {
+        final Location location = location(identifier);
+        final JsonArray coordinates = new JsonArray();
+        coordinates.add(location.getLongitude().asDegrees());
+        coordinates.add(location.getLatitude().asDegrees());
+        final JsonObject geometry = new JsonObject();
+        geometry.addProperty("type", "Point");
+        geometry.add("coordinates", coordinates);
+        final JsonObject feature = new JsonObject();
+        feature.addProperty("type", "Feature");
+        feature.add("geometry", geometry);
+        feature.add("properties", new JsonObject());
+        final JsonArray features = new JsonArray();
+        features.add(feature);
+
+        final JsonObject properties = new JsonObject();
+        properties.addProperty("id", String.valueOf(identifier));
+        properties.addProperty("padding", "é".repeat(padding / 2));
+        final JsonObject flag = new JsonObject();
+        flag.addProperty("type", "FeatureCollection");
+        flag.add("features", features);
+        flag.add("properties", properties);
+        return flag;
+    }
+
+    private static String identifier(final JsonObject flag)
+    {
+        return flag.getAsJsonObject("properties").get("id").getAsString();
+    }
+
+    private static Location location(final int identifier)
+    {
+        return Location.forString(String.format("%s,%s", identifier / 10.0, identifier / 10.0));
+    }
+
+    private static void writeIndex(final Path file, final SpatialIndexWriter index)
+            throws IOException
+    {
+        try (OutputStream output = Files.newOutputStream(file.resolveSibling(
+                SpatialIndexFormat.indexFileName(file.getFileName().toString()))))
+        {
+            index.writeTo(output);
+        }
+    }
+
+    private void assertQueries(final Path file, final String type) throws IOException
+    {
+        try (IndexedFlagFile indexedFile = new IndexedFlagFile(file))
+        {
+            Assert.assertEquals(FLAG_COUNT, indexedFile.getCount());
+            final List<JsonObject> flags = indexedFile.query(QUERY);
+            Assert.assertEquals(11, flags.size());
+            for (int flag = 0; flag < flags.size(); flag++)
+            {
+                Assert.assertEquals(type, flags.get(flag).get("type").getAsString());
+                Assert.assertEquals(String.valueOf(10 + flag), identifier(flags.get(flag)));
+            }
+            Assert.assertTrue(indexedFile.query(EMPTY_QUERY).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.openstreetmap.atlas.checks.flag.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.checks.flag.index.SpatialIndexReader.FlagReference;
+import org.openstreetmap.atlas.exception.CoreException;
+import org.openstreetmap.atlas.geography.Latitude;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.Longitude;
+import org.openstreetmap.atlas.geography.Rectangle;
+
+/**
+ * Tests for {@link SpatialIndexWriter} and {@link SpatialIndexReader}.
+ *
+ * @author agent
+ */
+public class SpatialIndexFormatTest
+{
+    // Enough flags for a tree of four levels
+    private static final int FLAG_COUNT = 5_000;
+    private static final int QUERY_COUNT = 200;
+    private static final int DEGREE = 10_000_000;
+
+    @Test
+    public void testEmptyIndex()
+    {
+        final SpatialIndexReader reader = read(new SpatialIndexWriter(false));
+        Assert.assertEquals(0, reader.getCount());
+        Assert.assertTrue(reader.search(bounds(-180, -90, 180, 90)).isEmpty());
+    }
+
+    @Test(expected = CoreException.class)
+    public void testInvalidIndex()
+    {
+        new SpatialIndexReader(ByteBuffer.wrap(new byte[SpatialIndexFormat.HEADER_BYTES]));
+    }
+
+    @Test
+    public void testMapOffsets()
+    {
+        final SpatialIndexWriter writer = new SpatialIndexWriter(true);
+        writer.add(bounds(0, 0, 1, 1), 10, 5);
+        writer.add(bounds(2, 2, 3, 3), 20, 6);
+        writer.mapOffsets(offset -> offset << SpatialIndexFormat.BLOCK_SHIFT | offset);
+
+        final SpatialIndexReader reader = read(writer);
+        Assert.assertTrue(reader.isCompressed());
+        final List<FlagReference> references = reader.search(bounds(-1, -1, 4, 4));
+        Assert.assertEquals(2, references.size());
+        Assert.assertEquals(10L << SpatialIndexFormat.BLOCK_SHIFT | 10,
+                references.get(0).getOffset());
+        Assert.assertEquals(5, references.get(0).getLength());
+        Assert.assertEquals(20L << SpatialIndexFormat.BLOCK_SHIFT | 20,
+                references.get(1).getOffset());
+        Assert.assertEquals(6, references.get(1).getLength());
+    }
+
+    @Test
+    public void testOpen() throws IOException
+    {
+        final SpatialIndexWriter writer = new SpatialIndexWriter(false);
+        writer.add(bounds(1, 1, 2, 2), 0, 100);
+        final File file = File.createTempFile("flags", SpatialIndexFormat.FILE_EXTENSION);
+        try
+        {
+            Files.write(file.toPath(), write(writer));
+            final SpatialIndexReader reader = SpatialIndexReader.open(file.toPath());
+            Assert.assertEquals(1, reader.getCount());
+            Assert.assertFalse(reader.isCompressed());
+            // Bounds touching the flag intersect it
+            Assert.assertEquals(1, reader.search(bounds(2, 2, 3, 3)).size());
+            Assert.assertTrue(reader.search(bounds(3, 3, 4, 4)).isEmpty());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSearchMatchesScan()
+    {
+        final Random random = new Random(1);
+        final int[][] flags = new int[FLAG_COUNT][];
+        final SpatialIndexWriter writer = new SpatialIndexWriter(false);
+        for (int flag = 0; flag < FLAG_COUNT; flag++)
+        {
+            flags[flag] = box(random, DEGREE / 10);
+            writer.add(bounds(flags[flag]), flag * 100L, flag);
+        }
+        final SpatialIndexReader reader = read(writer);
+        Assert.assertEquals(FLAG_COUNT, reader.getCount());
+
+        for (int query = 0; query < QUERY_COUNT; query++)
+        {
+            final int[] box = box(random, 5 * DEGREE);
+            final List<Long> expected = new ArrayList<>();
+            for (int flag = 0; flag < FLAG_COUNT; flag++)
+            {
+                if (intersects(flags[flag], box))
+                {
+                    expected.add(flag * 100L);
+                }
+            }
+            final List<FlagReference> references = reader.search(bounds(box));
+            // References come in the order of the flag file
+            Assert.assertEquals(expected, references.stream().map(FlagReference::getOffset)
+                    .collect(Collectors.toList()));
+            references.forEach(reference -> Assert.assertEquals(reference.getOffset() / 100,
+                    reference.getLength()));
+        }
+    }
+
+    @Test(expected = CoreException.class)
+    public void testTruncatedIndex()
+    {
+        final SpatialIndexWriter writer = new SpatialIndexWriter(false);
+        writer.add(bounds(1, 1, 2, 2), 0, 100);
+        final byte[] bytes = write(writer);
+        new SpatialIndexReader(ByteBuffer.wrap(bytes, 0, bytes.length - 1).slice());
+    }
+
+    private static Rectangle bounds(final int[] box)
+    {
+        return Rectangle.forCorners(new Location(Latitude.dm7(box[1]), Longitude.dm7(box[0])),
+                new Location(Latitude.dm7(box[3]), Longitude.dm7(box[2])));
+    }
+
+    private static Rectangle bounds(final int west, final int south, final int east,
+            final int north)
+    {
+        return bounds(new int[] { west * DEGREE, south * DEGREE, east * DEGREE, north * DEGREE });
+    }
+
+    /**
+     * @return a box of at most the given size within 0 to 10 degrees, as west, south, east and
+     *         north in dm7
+     */
+    private static int[] box(final Random random, final int size)
+    {
+        final int west = random.nextInt(10 * DEGREE);
+        final int south = random.nextInt(10 * DEGREE);
+        return new int[] { west, south, west + random.nextInt(size),
+                south + random.nextInt(size) };
+    }
+
+    private static boolean intersects(final int[] flag, final int[] box)
+    {
+        return flag[0] <= box[2] && flag[2] >= box[0] && flag[1] <= box[3] && flag[3] >= box[1];
+    }
+
+    private static SpatialIndexReader read(final SpatialIndexWriter writer)
+    {
+        return new SpatialIndexReader(ByteBuffer.wrap(write(writer)));
+    }
+
+    private static byte[] write(final SpatialIndexWriter writer)
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try
+        {
+            writer.writeTo(output);
+        }
+        catch (final IOException error)
+        {
+            throw new CoreException("Unable to write the spatial index", error);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,214 @@
+package org.openstreetmap.atlas.checks.flag.serializer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for {@link BinaryFlagWriter} and {@link BinaryFlagReader}.
+ *
+ * @author mkalender
+ */
+public class BinaryFlagFormatTest
+{
+    private static final String LINE_FLAG = "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\","
+            + "\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[-121.009566,37.6591743],[-121.0094,37.66]]},"
+            + "\"properties\":{\"highway\":\"primary\",\"identifier\":123000000,\"osmIdentifier\":123,\"itemType\":\"Edge\"}}],"
+            + "\"properties\":{\"generator\":\"LineCheck\",\"id\":\"Edge123\",\"instructions\":\"1. Fix it\","
+            + "\"identifiers\":[\"Edge123\"],\"score\":0.25,\"valid\":true,\"missing\":null}}";
+    private static final String POLYGON_FLAG = "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\","
+            + "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[1.0,1.0],[1.0,2.0],[2.0,2.0],[1.0,1.0]]]},"
+            + "\"properties\":{\"building\":\"yes\"}},{\"type\":\"Feature\","
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[1.123456789,-1.5]},\"properties\":{}}],"
+            + "\"properties\":{\"generator\":\"AreaCheck\",\"id\":\"Area1\"}}";
+
+    @Test
+    public void testCheckFilter() throws IOException
+    {
+        final File file = this.write();
+        try (BinaryFlagReader reader = new BinaryFlagReader(file.toPath()))
+        {
+            final List<JsonObject> flags = new ArrayList<>();
+            reader.read("AreaCheck"::equals).forEachRemaining(flags::add);
+            Assert.assertEquals(1, flags.size());
+            Assert.assertEquals(new JsonParser().parse(POLYGON_FLAG), flags.get(0));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBlocks() throws IOException
+    {
+        final File file = File.createTempFile("flags", BinaryFlagFormat.FILE_EXTENSION);
+        final JsonObject flag = new JsonParser().parse(LINE_FLAG).getAsJsonObject();
+        final BinaryFlagWriter.Block block = new BinaryFlagWriter.Block();
+        final List<long[]> offsets = new ArrayList<>();
+        try (BinaryFlagWriter writer = new BinaryFlagWriter(new FileOutputStream(file)))
+        {
+            // Enough flags to fill several blocks, some written one at a time in between
+            while (writer.getCount() < 5_000)
+            {
+                block.add("LineCheck", "USA", flag);
+                if (block.isFull())
+                {
+                    final int lastRecord = block.getCount() - 1;
+                    final int length = block.getRecordLength(lastRecord);
+                    final long[] blockOffsets = writer.write(block);
+                    offsets.add(new long[] { blockOffsets[lastRecord], length });
+                    writer.write("AreaCheck", "CAN",
+                            new JsonParser().parse(POLYGON_FLAG).getAsJsonObject());
+                }
+            }
+            writer.write(block);
+        }
+        try (BinaryFlagReader reader = new BinaryFlagReader(file.toPath()))
+        {
+            final Map<String, Map<String, Long>> counts = reader.getCountryCheckCounts();
+            Assert.assertEquals(offsets.size(), counts.get("CAN").get("AreaCheck").longValue());
+            Assert.assertTrue(offsets.size() > 1);
+            for (final long[] offset : offsets)
+            {
+                Assert.assertEquals(flag, reader.read(offset[0], (int) offset[1]));
+            }
+            final List<JsonObject> flags = new ArrayList<>();
+            reader.read("AreaCheck"::equals).forEachRemaining(flags::add);
+            Assert.assertEquals(offsets.size(), flags.size());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCounts() throws IOException
+    {
+        final File file = this.write();
+        try (BinaryFlagReader reader = new BinaryFlagReader(file.toPath()))
+        {
+            final Map<String, Map<String, Long>> counts = reader.getCountryCheckCounts();
+            Assert.assertEquals(2L, counts.get("USA").get("LineCheck").longValue());
+            Assert.assertEquals(1L, counts.get("CAN").get("AreaCheck").longValue());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNumberTypes() throws IOException
+    {
+        final File file = File.createTempFile("flags", BinaryFlagFormat.FILE_EXTENSION);
+        final String properties = "{\"double\":3.0,\"long\":3,\"exponent\":1.0E20,"
+                + "\"large\":12345678901234567890}";
+        try (BinaryFlagWriter writer = new BinaryFlagWriter(new FileOutputStream(file)))
+        {
+            writer.write("NumberCheck", "USA", new JsonParser().parse(
+                    "{\"type\":\"FeatureCollection\",\"properties\":" + properties + "}")
+                    .getAsJsonObject());
+        }
+        try (BinaryFlagReader reader = new BinaryFlagReader(file.toPath()))
+        {
+            Assert.assertEquals("{\"double\":3.0,\"long\":3,\"exponent\":1.0E20,"
+                    + "\"large\":1.2345678901234567E19}",
+                    reader.read().next().get("properties").toString());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final File file = this.write();
+        try (BinaryFlagReader reader = new BinaryFlagReader(file.toPath()))
+        {
+            final List<JsonObject> flags = new ArrayList<>();
+            reader.read().forEachRemaining(flags::add);
+            Assert.assertEquals(3, flags.size());
+            Assert.assertEquals(new JsonParser().parse(LINE_FLAG), flags.get(0));
+            Assert.assertEquals(new JsonParser().parse(POLYGON_FLAG), flags.get(1));
+            Assert.assertEquals(new JsonParser().parse(LINE_FLAG), flags.get(2));
+            // Coordinates that fit dm7 come back with the same text
+            Assert.assertEquals(
+                    "[[-121.009566,37.6591743],[-121.0094,37.66]]", flags.get(0)
+                            .get("features").getAsJsonArray().get(0).getAsJsonObject()
+                            .get("geometry").getAsJsonObject().get("coordinates").toString());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException
+    {
+        final File file = File.createTempFile("flags", BinaryFlagFormat.FILE_EXTENSION);
+        final JsonObject flag = new JsonParser().parse(LINE_FLAG).getAsJsonObject();
+        final BinaryFlagWriter.Block block = new BinaryFlagWriter.Block();
+        final long cut;
+        try (BinaryFlagWriter writer = new BinaryFlagWriter(new FileOutputStream(file)))
+        {
+            for (int index = 0; index < 10; index++)
+            {
+                block.add("LineCheck", "USA", flag);
+            }
+            writer.write(block);
+            block.add("AreaCheck", "CAN", new JsonParser().parse(POLYGON_FLAG).getAsJsonObject());
+            block.add("AreaCheck", "CAN", new JsonParser().parse(POLYGON_FLAG).getAsJsonObject());
+            final long[] offsets = writer.write(block);
+            // Cut the file in the middle of the last record
+            cut = offsets[1] + 10;
+        }
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw"))
+        {
+            truncated.setLength(cut);
+        }
+        try (BinaryFlagReader reader = new BinaryFlagReader(file.toPath()))
+        {
+            final Map<String, Map<String, Long>> counts = reader.getCountryCheckCounts();
+            Assert.assertEquals(10L, counts.get("USA").get("LineCheck").longValue());
+            Assert.assertEquals(1L, counts.get("CAN").get("AreaCheck").longValue());
+            final List<JsonObject> flags = new ArrayList<>();
+            reader.read().forEachRemaining(flags::add);
+            Assert.assertEquals(11, flags.size());
+            Assert.assertEquals(flag, flags.get(0));
+            Assert.assertEquals(new JsonParser().parse(POLYGON_FLAG), flags.get(10));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private File write() throws IOException
+    {
+        final File file = File.createTempFile("flags", BinaryFlagFormat.FILE_EXTENSION);
+        final JsonParser parser = new JsonParser();
+        try (BinaryFlagWriter writer = new BinaryFlagWriter(new FileOutputStream(file)))
+        {
+            writer.write("LineCheck", "USA", parser.parse(LINE_FLAG).getAsJsonObject());
+            writer.write("AreaCheck", "CAN", parser.parse(POLYGON_FLAG).getAsJsonObject());
+            writer.write("LineCheck", "USA", parser.parse(LINE_FLAG).getAsJsonObject());
+            Assert.assertEquals(3, writer.getCount());
+        }
+        return file;
+    }
+}
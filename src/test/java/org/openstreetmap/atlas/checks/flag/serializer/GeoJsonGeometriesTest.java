@@ -0,0 +1,106 @@
+package org.openstreetmap.atlas.checks.flag.serializer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.atlas.geography.Location;
+import org.openstreetmap.atlas.geography.MultiPolygon;
+import org.openstreetmap.atlas.geography.PolyLine;
+import org.openstreetmap.atlas.geography.Polygon;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.openstreetmap.atlas.utilities.maps.MultiMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Tests for {@link GeoJsonGeometries}.
+ *
+ * @author agent
+ */
+public class GeoJsonGeometriesTest
+{
+    private static final Gson GSON = new Gson();
+
+    @Test
+    public void testAppendDegrees()
+    {
+        Assert.assertEquals("-121.009566", this.degrees(-1_210_095_660L));
+        Assert.assertEquals("31.33531", this.degrees(313_353_100L));
+        Assert.assertEquals("180.0", this.degrees(1_800_000_000L));
+        Assert.assertEquals("0.0", this.degrees(0L));
+        Assert.assertEquals("0.0000005", this.degrees(5L));
+        Assert.assertEquals("-0.0000005", this.degrees(-5L));
+        Assert.assertEquals("1.005", this.degrees(10_050_000L));
+    }
+
+    @Test
+    public void testBounds()
+    {
+        final JsonObject geometry = GeoJsonGeometries.bounds(
+                Rectangle.forCorners(Location.forString("1,2"), Location.forString("3,4")));
+        Assert.assertEquals("{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[2.0,1.0],[2.0,3.0],[4.0,3.0],[4.0,1.0],[2.0,1.0]]]}", GSON.toJson(geometry));
+        // The ring is closed with an equal position of its own
+        final JsonArray ring = geometry.getAsJsonArray("coordinates").get(0).getAsJsonArray();
+        Assert.assertEquals(ring.get(0), ring.get(4));
+        Assert.assertNotSame(ring.get(0), ring.get(4));
+    }
+
+    @Test
+    public void testLineString()
+    {
+        final PolyLine line = new PolyLine(Location.forString("37.6591743,-121.009566"),
+                Location.forString("37.66,-121.0094"));
+        final JsonObject geometry = GeoJsonGeometries.lineString(line);
+        Assert.assertEquals("{\"type\":\"LineString\",\"coordinates\":"
+                + "[[-121.009566,37.6591743],[-121.0094,37.66]]}", GSON.toJson(geometry));
+        // The written coordinates read back as the same tree
+        Assert.assertEquals(geometry, new JsonParser().parse(GSON.toJson(geometry)));
+    }
+
+    @Test
+    public void testMultiPolygon()
+    {
+        final Polygon outer = new Polygon(Location.forString("0,0"), Location.forString("0,3"),
+                Location.forString("3,3"), Location.forString("3,0"));
+        final Polygon inner = new Polygon(Location.forString("1,1"), Location.forString("1,2"),
+                Location.forString("2,2"), Location.forString("2,1"));
+        final MultiMap<Polygon, Polygon> outerToInners = new MultiMap<>();
+        outerToInners.add(outer, inner);
+        final JsonObject geometry = GeoJsonGeometries
+                .multiPolygon(new MultiPolygon(outerToInners));
+        Assert.assertEquals("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0.0,0.0],[3.0,0.0],"
+                + "[3.0,3.0],[0.0,3.0],[0.0,0.0]],[[1.0,1.0],[2.0,1.0],[2.0,2.0],[1.0,2.0],"
+                + "[1.0,1.0]]]]}", GSON.toJson(geometry));
+        Assert.assertEquals(geometry, new JsonParser().parse(GSON.toJson(geometry)));
+    }
+
+    @Test
+    public void testPoint()
+    {
+        Assert.assertEquals("{\"type\":\"Point\",\"coordinates\":[0.0,0.0]}",
+                GSON.toJson(GeoJsonGeometries.point(Location.CENTER)));
+    }
+
+    @Test
+    public void testPolygon()
+    {
+        final Polygon polygon = new Polygon(Location.forString("1,1"), Location.forString("1,2"),
+                Location.forString("2,2"));
+        final JsonObject geometry = GeoJsonGeometries.polygon(polygon.closedLoop());
+        Assert.assertEquals("{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[1.0,1.0],[2.0,1.0],[2.0,2.0],[1.0,1.0]]]}", GSON.toJson(geometry));
+        // Changing a position leaves the equal one closing the ring as it was
+        final JsonArray ring = geometry.getAsJsonArray("coordinates").get(0).getAsJsonArray();
+        ring.get(0).getAsJsonArray().set(0, new JsonPrimitive(5.0));
+        Assert.assertEquals("[1.0,1.0]", GSON.toJson(ring.get(3)));
+    }
+
+    private String degrees(final long dm7)
+    {
+        return GeoJsonGeometries.appendDegrees(new StringBuilder(), dm7).toString();
+    }
+}
@@ -3,10 +3,17 @@ package org.openstreetmap.atlas.checks.maproulette;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -18,6 +25,7 @@ import org.openstreetmap.atlas.checks.maproulette.data.ChallengeDifficulty;
 import org.openstreetmap.atlas.checks.maproulette.data.Project;
 import org.openstreetmap.atlas.checks.maproulette.data.ProjectConfiguration;
 import org.openstreetmap.atlas.checks.maproulette.data.Task;
+import org.openstreetmap.atlas.utilities.tuples.Tuple;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -93,6 +101,101 @@ public class MapRouletteClientTest
         Assert.assertEquals(1, this.mockConnection.tasksForChallenge(TEST_CHALLENGE).size());
     }
 
+    @Test
+    public void testConcurrentAddTask() throws InterruptedException
+    {
+        final int threads = 4;
+        final int tasks = 1000;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int thread = 0; thread < threads; thread++)
+        {
+            pool.execute(() -> IntStream.range(0, tasks).forEach(identifier ->
+            {
+                final Task task = new Task();
+                task.setTaskIdentifier(String.valueOf(identifier));
+                task.setInstruction("Dud instruction");
+                task.setGeoJson(GEOJSON);
+                this.client.addTask(TEST_CHALLENGE, task);
+            }));
+        }
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        // Every thread adds the same tasks, which are only batched once
+        Assert.assertEquals(tasks, this.client.getCurrentBatchSize());
+        this.client.uploadTasks();
+        Assert.assertEquals(0, this.client.getCurrentBatchSize());
+        Assert.assertEquals(tasks, this.mockConnection.tasksForChallenge(TEST_CHALLENGE).size());
+    }
+
+    @Test
+    public void testJournalRecreatedChallenge() throws IOException
+    {
+        final Path journalPath = this.challengesDir.getRoot().toPath().resolve("journal.tsv");
+        final Tuple<String, String> challengeKey = new Tuple<>("project",
+                TEST_CHALLENGE.getName());
+        try (UploadJournal journal = new UploadJournal(journalPath))
+        {
+            // The task was uploaded to a challenge that has since been deleted
+            journal.addChallenge(challengeKey, 1L);
+            journal.acknowledgeTasks(1L, Collections.singletonList(this.testTaskOne));
+        }
+
+        try (UploadJournal journal = new UploadJournal(journalPath))
+        {
+            this.client.setJournal(Optional.of(journal));
+            this.client.addTask(TEST_CHALLENGE, this.testTaskOne);
+            Assert.assertEquals(1, this.client.getCurrentBatchSize());
+            this.client.uploadTasks();
+            Assert.assertTrue(journal.isAcknowledged(challengeKey, "1"));
+        }
+        Assert.assertEquals(1, this.mockConnection.tasksForChallenge(TEST_CHALLENGE).size());
+
+        // With all of its tasks skipped, the challenge is still created again
+        final TestMapRouletteConnection rerunConnection = new TestMapRouletteConnection();
+        final MapRouletteClient rerunClient = new MapRouletteClient(
+                MapRouletteConfiguration.parse(CONFIGURATION), rerunConnection);
+        try (UploadJournal journal = new UploadJournal(journalPath))
+        {
+            rerunClient.setJournal(Optional.of(journal));
+            rerunClient.addTask(TEST_CHALLENGE, this.testTaskOne);
+            Assert.assertEquals(0, rerunClient.getCurrentBatchSize());
+        }
+        Assert.assertEquals(1, rerunConnection.uploadedProjects().size());
+    }
+
+    @Test
+    public void testJournalSkipsUploadedTasks() throws IOException
+    {
+        final Path journalPath = this.challengesDir.getRoot().toPath().resolve("journal.tsv");
+        try (UploadJournal journal = new UploadJournal(journalPath))
+        {
+            this.client.setJournal(Optional.of(journal));
+            this.client.addTask(TEST_CHALLENGE, this.testTaskOne);
+            this.client.uploadTasks();
+        }
+
+        // Rerun the upload with another task
+        final Task testTaskTwo = new Task();
+        testTaskTwo.setTaskIdentifier("2");
+        testTaskTwo.setInstruction("Dud instruction");
+        testTaskTwo.setGeoJson(GEOJSON);
+        final TestMapRouletteConnection rerunConnection = new TestMapRouletteConnection();
+        final MapRouletteClient rerunClient = new MapRouletteClient(
+                MapRouletteConfiguration.parse(CONFIGURATION), rerunConnection);
+        try (UploadJournal journal = new UploadJournal(journalPath))
+        {
+            rerunClient.setJournal(Optional.of(journal));
+            rerunClient.addTask(TEST_CHALLENGE, this.testTaskOne);
+            rerunClient.addTask(TEST_CHALLENGE, testTaskTwo);
+            Assert.assertEquals(1, rerunClient.getCurrentBatchSize());
+            rerunClient.uploadTasks();
+            Assert.assertEquals(2, journal.getAcknowledgedTaskCount());
+        }
+        Assert.assertEquals(1, rerunConnection.tasksForChallenge(TEST_CHALLENGE).size());
+        Assert.assertTrue(rerunConnection.tasksForChallenge(TEST_CHALLENGE).contains(testTaskTwo));
+    }
+
     @Test
     public void testProjectConfiguration()
     {
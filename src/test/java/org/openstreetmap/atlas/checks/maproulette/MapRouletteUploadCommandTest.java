@@ -1,9 +1,21 @@
 package org.openstreetmap.atlas.checks.maproulette;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -15,12 +27,19 @@ import org.junit.Test;
 import org.openstreetmap.atlas.checks.event.CheckFlagEvent;
 import org.openstreetmap.atlas.checks.event.CheckFlagFileProcessor;
 import org.openstreetmap.atlas.checks.event.FileProcessor;
+import org.openstreetmap.atlas.checks.flag.CheckFlag;
 import org.openstreetmap.atlas.checks.maproulette.data.Challenge;
+import org.openstreetmap.atlas.checks.maproulette.data.ChallengeDifficulty;
 import org.openstreetmap.atlas.checks.maproulette.data.Project;
+import org.openstreetmap.atlas.checks.maproulette.data.Task;
+import org.openstreetmap.atlas.checks.utility.FileUtility;
 import org.openstreetmap.atlas.event.ShutdownEvent;
+import org.openstreetmap.atlas.exception.CoreException;
 import org.openstreetmap.atlas.generator.tools.spark.utilities.SparkFileHelper;
+import org.openstreetmap.atlas.geography.Location;
 import org.openstreetmap.atlas.streaming.resource.File;
 import org.openstreetmap.atlas.utilities.runtime.CommandMap;
+import org.openstreetmap.atlas.utilities.tuples.Tuple;
 
 /**
  * Unit tests for MapRouletteUploadCommand.
@@ -32,6 +51,11 @@ public class MapRouletteUploadCommandTest
 {
     private static final String MAPROULETTE_CONFIG = "-maproulette=host:2222:project:api";
     private static final File FOLDER = File.temporaryFolder();
+    private static final int FILE_COUNT = 6;
+    private static final int FLAGS_PER_FILE = 500;
+    private static final int THREADS = 3;
+    private static final Challenge CHALLENGE = new Challenge("challenge", "", "", "",
+            ChallengeDifficulty.EASY, "", false);
     @Rule
     public final MapRouletteUploadCommandTestRule setup = new MapRouletteUploadCommandTestRule();
     private boolean filesCreated = false;
@@ -124,6 +148,135 @@ public class MapRouletteUploadCommandTest
                 Arrays.asList("SomeOtherCheck", "AnotherCheck"));
     }
 
+    @Test
+    public void testUploadTasksFromSeveralFiles()
+    {
+        final File folder = File.temporaryFolder();
+        try
+        {
+            final List<File> logFiles = writeFlagFiles(folder);
+            final Map<String, Integer> uploaded = new ConcurrentHashMap<>();
+
+            countingCommand(uploaded).uploadTasks(logFiles,
+                    flag -> Optional.of(new Tuple<>(CHALLENGE, task(flag))), THREADS);
+
+            // Every task of every file was taken from the queue once
+            Assert.assertEquals(FILE_COUNT * FLAGS_PER_FILE, uploaded.size());
+            Assert.assertTrue(uploaded.values().stream().allMatch(count -> count == 1));
+        }
+        finally
+        {
+            folder.deleteRecursively();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void testUploadTasksStopsReadersOnFailure() throws InterruptedException
+    {
+        final File folder = File.temporaryFolder();
+        try
+        {
+            final List<File> logFiles = writeFlagFiles(folder).subList(0, THREADS);
+            final AtomicBoolean firstFlag = new AtomicBoolean(true);
+            final CountDownLatch waiting = new CountDownLatch(THREADS);
+            final CountDownLatch stopped = new CountDownLatch(THREADS);
+            // The first flag goes through, then every reader waits until it is interrupted
+            final Function<CheckFlag, Optional<Tuple<Challenge, Task>>> converter = flag ->
+            {
+                if (!firstFlag.getAndSet(false))
+                {
+                    waiting.countDown();
+                    try
+                    {
+                        Thread.sleep(Long.MAX_VALUE);
+                    }
+                    catch (final InterruptedException error)
+                    {
+                        stopped.countDown();
+                        Thread.currentThread().interrupt();
+                        throw new CoreException("Reader stopped", error);
+                    }
+                }
+                return Optional.of(new Tuple<>(CHALLENGE, task(flag)));
+            };
+            // Fails on the first task, once all the readers are waiting
+            final MapRouletteUploadCommand command = new MapRouletteUploadCommand()
+            {
+                @Override
+                protected void addTask(final Challenge challenge, final Task task)
+                {
+                    try
+                    {
+                        waiting.await();
+                    }
+                    catch (final InterruptedException error)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new CoreException("Unable to add task {}", task.getTaskIdentifier());
+                }
+            };
+
+            try
+            {
+                command.uploadTasks(logFiles, converter, THREADS);
+                Assert.fail("The upload should fail");
+            }
+            catch (final CoreException error)
+            {
+                Assert.assertTrue(error.getMessage().startsWith("Unable to add task"));
+            }
+            Assert.assertTrue(stopped.await(30, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            folder.deleteRecursively();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void testUploadTasksWithFailingFiles() throws IOException
+    {
+        final File folder = File.temporaryFolder();
+        try
+        {
+            final List<File> logFiles = new ArrayList<>(writeFlagFiles(folder));
+            final Map<String, Integer> uploaded = new ConcurrentHashMap<>();
+            final Function<CheckFlag, Optional<Tuple<Challenge, Task>>> converter = flag -> Optional
+                    .of(new Tuple<>(CHALLENGE, task(flag)));
+
+            // A file that cannot be opened is skipped
+            final File notGzipped = folder.child("broken.log.gz");
+            // Not a gzip file, despite its name
+            Files.write(Paths.get(notGzipped.getAbsolutePathString()),
+                    "not gzipped".getBytes(StandardCharsets.UTF_8));
+            logFiles.add(0, notGzipped);
+            countingCommand(uploaded).uploadTasks(logFiles, converter, THREADS);
+            Assert.assertEquals(FILE_COUNT * FLAGS_PER_FILE, uploaded.size());
+
+            // A file failing halfway fails the upload, once the other files are uploaded
+            final File notJson = folder.child("broken.log");
+            Files.write(Paths.get(notJson.getAbsolutePathString()),
+                    "not json".getBytes(StandardCharsets.UTF_8));
+            logFiles.set(0, notJson);
+            uploaded.clear();
+            try
+            {
+                countingCommand(uploaded).uploadTasks(logFiles, converter, THREADS);
+                Assert.fail("The upload should fail");
+            }
+            catch (final CoreException error)
+            {
+                Assert.assertEquals("Unable to read tasks", error.getMessage());
+            }
+            Assert.assertEquals(FILE_COUNT * FLAGS_PER_FILE, uploaded.size());
+        }
+        finally
+        {
+            folder.deleteRecursively();
+        }
+    }
+
     @Before
     public void writeFiles()
     {
@@ -151,6 +304,68 @@ public class MapRouletteUploadCommandTest
         }
     }
 
+    /**
+     * @param uploaded
+     *            counts the tasks taken from the queue, by identifier
+     * @return a command counting its tasks instead of adding them to a {@link MapRouletteClient}
+     */
+    private static MapRouletteUploadCommand countingCommand(final Map<String, Integer> uploaded)
+    {
+        return new MapRouletteUploadCommand()
+        {
+            @Override
+            protected void addTask(final Challenge challenge, final Task task)
+            {
+                uploaded.merge(task.getTaskIdentifier(), 1, Integer::sum);
+            }
+
+            @Override
+            protected void checkUploadTasks(final int threshold)
+            {
+                // Nothing to upload
+            }
+        };
+    }
+
+    private static Task task(final CheckFlag flag)
+    {
+        final Task task = new Task();
+        task.setTaskIdentifier(flag.getIdentifier());
+        return task;
+    }
+
+    /**
+     * Writes {@link #FILE_COUNT} flag files of {@link #FLAGS_PER_FILE} flags each, half of them
+     * compressed
+     *
+     * @param folder
+     *            the folder to write the files to
+     * @return the flag files
+     */
+    private static List<File> writeFlagFiles(final File folder)
+    {
+        for (int file = 0; file < FILE_COUNT; file++)
+        {
+            final FileProcessor<CheckFlagEvent> processor = new CheckFlagFileProcessor(
+                    new SparkFileHelper(Collections.emptyMap()),
+                    folder.child("flags" + file).toString()).withCompression(file % 2 == 0);
+            for (int flag = 0; flag < FLAGS_PER_FILE; flag++)
+            {
+                final CheckFlag checkFlag = new CheckFlag(
+                        String.valueOf(file * FLAGS_PER_FILE + flag));
+                checkFlag.addInstruction("Check this point");
+                checkFlag.addPoint(Location.forString("1,1"));
+                processor.process(new CheckFlagEvent("SomeCheck", checkFlag));
+            }
+            processor.process(new ShutdownEvent());
+        }
+        final List<File> logFiles = folder.listFilesRecursively().stream()
+                .filter(logFile -> FileUtility.getOptionalLogOutputType(logFile).isPresent())
+                .collect(Collectors.toList());
+        Assert.assertEquals(FILE_COUNT, logFiles.size());
+        return logFiles;
+    }
+
     /**
      * Similar to runAndTest, however this function will return a {@link TestMapRouletteConnection}
      *
@@ -0,0 +1,215 @@
+package org.openstreetmap.atlas.checks.maproulette;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.atlas.checks.maproulette.data.Task;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for {@link TaskBatchUploader}, against a local HTTP stub of the task upload endpoint
+ *
+ * @author cuthbertm
+ */
+public class TaskBatchUploaderTest
+{
+    private static final String BAD_TASK = "bad";
+    private static final String ERROR_TASK = "error";
+    private static final String BAD_GATEWAY_TASK = "forwarded";
+    private static final String GATEWAY_TIMEOUT_TASK = "lapsed";
+    private static final String SLOW_TASK = "slow";
+    private static final long SLOW_RESPONSE_MILLISECONDS = 2000;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger uploadedTasks = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private TaskBatchUploader uploader;
+
+    private static List<Task> tasks(final String prefix, final int count)
+    {
+        final JsonArray features = new JsonArray();
+        final JsonObject properties = new JsonObject();
+        properties.add("identifier", new JsonPrimitive("123"));
+        properties.add("itemType", new JsonPrimitive("Area"));
+        final JsonObject feature = new JsonObject();
+        feature.add("properties", properties);
+        features.add(feature);
+
+        final List<Task> tasks = new ArrayList<>();
+        for (int index = 0; index < count; index++)
+        {
+            final Task task = new Task();
+            task.setTaskIdentifier(prefix + index);
+            task.setInstruction("Dud instruction");
+            task.setGeoJson(Optional.of(features));
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    @Before
+    public void start() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/api/v2/tasks", this::handle);
+        this.serverExecutor = Executors.newFixedThreadPool(2);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+        this.uploader = this.uploader(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @After
+    public void stop()
+    {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testNoRetryOfClientErrors()
+    {
+        // Skip the retryable failure the stub gives the first request
+        this.requests.set(1);
+        Assert.assertFalse(this.uploader.upload(1L,
+                Collections.singletonList(tasks(BAD_TASK, 1))));
+        Assert.assertEquals(2, this.requests.get());
+    }
+
+    @Test
+    public void testNoRetryOfGatewayErrors()
+    {
+        // A gateway answers once it forwarded the tasks, which might have been created
+        this.requests.set(1);
+        Assert.assertFalse(this.uploader.upload(1L,
+                Collections.singletonList(tasks(BAD_GATEWAY_TASK, 1))));
+        Assert.assertEquals(2, this.requests.get());
+        Assert.assertFalse(this.uploader.upload(1L,
+                Collections.singletonList(tasks(GATEWAY_TIMEOUT_TASK, 1))));
+        Assert.assertEquals(3, this.requests.get());
+    }
+
+    @Test
+    public void testNoRetryOfServerErrors()
+    {
+        this.requests.set(1);
+        Assert.assertFalse(this.uploader.upload(1L,
+                Collections.singletonList(tasks(ERROR_TASK, 1))));
+        // The tasks might have been created, so the request is not sent again
+        Assert.assertEquals(2, this.requests.get());
+    }
+
+    @Test
+    public void testRateLimitHeaders()
+    {
+        Assert.assertEquals(Optional.of(30_000L), TaskBatchUploader.retryAfterDelay("30", 0));
+        Assert.assertEquals(Optional.of(5_000L), TaskBatchUploader.resetDelay("5", 0));
+        Assert.assertEquals(Optional.of(5_000L),
+                TaskBatchUploader.resetDelay("1600000005", 1_600_000_000_000L));
+        Assert.assertEquals(Optional.empty(), TaskBatchUploader.resetDelay("soon", 0));
+    }
+
+    @Test
+    public void testUploadTimeLimit()
+    {
+        this.requests.set(1);
+        final long start = System.currentTimeMillis();
+        Assert.assertFalse(
+                this.uploader(100).upload(1L, Collections.singletonList(tasks(SLOW_TASK, 1))));
+        Assert.assertTrue(System.currentTimeMillis() - start < SLOW_RESPONSE_MILLISECONDS);
+    }
+
+    @Test
+    public void testUploadWithRetry()
+    {
+        final List<List<Task>> batches = new ArrayList<>();
+        batches.add(tasks("a", 10));
+        batches.add(tasks("b", 10));
+        batches.add(tasks("c", 5));
+
+        Assert.assertTrue(this.uploader.upload(1L, batches));
+        // One request per batch, and a retry of the first one
+        Assert.assertEquals(4, this.requests.get());
+        Assert.assertEquals(25, this.uploadedTasks.get());
+    }
+
+    /**
+     * Fails the first request with a retryable status, tasks named {@link #BAD_TASK} with a client
+     * error, tasks named {@link #ERROR_TASK} with a server error and tasks named
+     * {@link #BAD_GATEWAY_TASK} and {@link #GATEWAY_TIMEOUT_TASK} with a gateway error, answers
+     * tasks named {@link #SLOW_TASK} late, and accepts everything else
+     */
+    private void handle(final HttpExchange exchange) throws IOException
+    {
+        final String body = new String(exchange.getRequestBody().readAllBytes(),
+                StandardCharsets.UTF_8);
+        if (this.requests.incrementAndGet() == 1)
+        {
+            exchange.getResponseHeaders().add("Retry-After", "0");
+            exchange.sendResponseHeaders(HttpStatus.SC_SERVICE_UNAVAILABLE, -1);
+        }
+        else if (body.contains(BAD_GATEWAY_TASK))
+        {
+            exchange.sendResponseHeaders(HttpStatus.SC_BAD_GATEWAY, -1);
+        }
+        else if (body.contains(GATEWAY_TIMEOUT_TASK))
+        {
+            exchange.sendResponseHeaders(HttpStatus.SC_GATEWAY_TIMEOUT, -1);
+        }
+        else if (body.contains(BAD_TASK))
+        {
+            exchange.sendResponseHeaders(HttpStatus.SC_BAD_REQUEST, -1);
+        }
+        else if (body.contains(ERROR_TASK))
+        {
+            exchange.sendResponseHeaders(HttpStatus.SC_INTERNAL_SERVER_ERROR, -1);
+        }
+        else if (body.contains(SLOW_TASK))
+        {
+            try
+            {
+                Thread.sleep(SLOW_RESPONSE_MILLISECONDS);
+            }
+            catch (final InterruptedException error)
+            {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(HttpStatus.SC_CREATED, -1);
+        }
+        else
+        {
+            this.uploadedTasks.addAndGet(new JsonParser().parse(body).getAsJsonArray().size());
+            exchange.sendResponseHeaders(HttpStatus.SC_CREATED, -1);
+        }
+        exchange.close();
+    }
+
+    private TaskBatchUploader uploader(final long maximumUploadMilliseconds)
+    {
+        return new TaskBatchUploader(
+                URI.create(String.format("http://localhost:%d/api/v2/tasks",
+                        this.server.getAddress().getPort())),
+                "key", 2, 3, 10, 100, maximumUploadMilliseconds);
+    }
+}
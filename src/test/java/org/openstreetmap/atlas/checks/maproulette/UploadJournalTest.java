@@ -0,0 +1,87 @@
+package org.openstreetmap.atlas.checks.maproulette;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.atlas.checks.maproulette.data.Task;
+import org.openstreetmap.atlas.utilities.tuples.Tuple;
+
+/**
+ * Tests for {@link UploadJournal}
+ *
+ * @author nachtm
+ */
+public class UploadJournalTest
+{
+    private static final Tuple<String, String> CHALLENGE = new Tuple<>("project", "challenge");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Task task(final String identifier)
+    {
+        final Task task = new Task();
+        task.setTaskIdentifier(identifier);
+        return task;
+    }
+
+    @Test
+    public void testChangedChallengeId() throws IOException
+    {
+        final Path path = this.folder.getRoot().toPath().resolve("journal.tsv");
+        try (UploadJournal journal = new UploadJournal(path))
+        {
+            journal.addChallenge(CHALLENGE, 1L);
+            journal.acknowledgeTasks(1L, Arrays.asList(task("a"), task("b")));
+        }
+        try (UploadJournal journal = new UploadJournal(path))
+        {
+            Assert.assertTrue(journal.isAcknowledged(CHALLENGE, "a"));
+            // The challenge was created again, so its tasks have to be uploaded again
+            journal.addChallenge(CHALLENGE, 2L);
+            Assert.assertFalse(journal.isAcknowledged(CHALLENGE, "a"));
+        }
+        try (UploadJournal journal = new UploadJournal(path))
+        {
+            Assert.assertEquals(0, journal.getAcknowledgedTaskCount());
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException
+    {
+        final Path path = this.folder.getRoot().toPath().resolve("journal.tsv");
+        try (UploadJournal journal = new UploadJournal(path))
+        {
+            Assert.assertEquals(0, journal.getAcknowledgedTaskCount());
+            journal.addChallenge(CHALLENGE, 1L);
+            journal.acknowledgeTasks(1L, Arrays.asList(task("a"), task("b")));
+            journal.acknowledgeTasks(1L, Arrays.asList(task("b"), task("c")));
+        }
+        // A crash in the middle of a line
+        Files.write(path, "task\t1\td".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (UploadJournal journal = new UploadJournal(path))
+        {
+            Assert.assertEquals(3, journal.getAcknowledgedTaskCount());
+            Assert.assertTrue(journal.isAcknowledged(CHALLENGE, "a"));
+            Assert.assertTrue(journal.isAcknowledged(CHALLENGE, "c"));
+            Assert.assertFalse(journal.isAcknowledged(CHALLENGE, "d"));
+            Assert.assertFalse(journal.isAcknowledged(new Tuple<>("project", "other"), "a"));
+            journal.acknowledgeTasks(1L, Arrays.asList(task("d")));
+        }
+        try (UploadJournal journal = new UploadJournal(path))
+        {
+            Assert.assertEquals(4, journal.getAcknowledgedTaskCount());
+        }
+    }
+}
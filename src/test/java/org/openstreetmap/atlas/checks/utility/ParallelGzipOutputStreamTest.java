@@ -0,0 +1,140 @@
+package org.openstreetmap.atlas.checks.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParallelGzipOutputStream}
+ *
+ * @author mkalender
+ */
+public class ParallelGzipOutputStreamTest
+{
+    private static final int BLOCK_BYTES = 1024;
+
+    @Test
+    public void testEmptyStream() throws IOException
+    {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CompressionUtilities.getParallelGzipOutputStream(compressed, BLOCK_BYTES, 2).close();
+        assertArrayEquals(new byte[0], inflate(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws IOException
+    {
+        final byte[] content = content(50_000);
+        final byte[] serial = compress(content, 0);
+        final byte[] parallel = compress(content, 4);
+        assertArrayEquals(content, inflate(serial));
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void testFlush() throws IOException
+    {
+        final byte[] content = content(2 * BLOCK_BYTES + 100);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final ParallelGzipOutputStream gzip = CompressionUtilities
+                .getParallelGzipOutputStream(compressed, BLOCK_BYTES, 2);
+        gzip.write(content);
+        gzip.flush();
+
+        // The full blocks are written, the last one stays buffered
+        final byte[] expected = new byte[2 * BLOCK_BYTES];
+        System.arraycopy(content, 0, expected, 0, expected.length);
+        assertArrayEquals(expected, inflate(compressed.toByteArray()));
+        gzip.close();
+        assertArrayEquals(content, inflate(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testPoolShutdown() throws IOException
+    {
+        final int threads = 7;
+        final OutputStream first = CompressionUtilities
+                .getParallelGzipOutputStream(new ByteArrayOutputStream(), BLOCK_BYTES, threads);
+        final OutputStream second = CompressionUtilities
+                .getParallelGzipOutputStream(new ByteArrayOutputStream(), BLOCK_BYTES, threads);
+        first.close();
+        first.close();
+        assertTrue(CompressionUtilities.isCompressionPoolRunning(threads));
+        second.close();
+        assertFalse(CompressionUtilities.isCompressionPoolRunning(threads));
+    }
+
+    @Test
+    public void testMemberOffsets() throws IOException
+    {
+        final byte[] content = content(10 * BLOCK_BYTES + 7);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final ParallelGzipOutputStream gzip = CompressionUtilities
+                .getParallelGzipOutputStream(compressed, BLOCK_BYTES, 3);
+        gzip.write(content);
+        gzip.close();
+        assertEquals(content.length, gzip.getContentBytes());
+
+        // Every block can be inflated on its own from the offset of its member
+        final byte[] bytes = compressed.toByteArray();
+        for (int block = 0; block < 11; block++)
+        {
+            final long offset = gzip.getMemberOffset(block);
+            final byte[] inflated = inflate(bytes, (int) offset);
+            final byte[] expected = new byte[content.length - block * BLOCK_BYTES];
+            System.arraycopy(content, block * BLOCK_BYTES, expected, 0, expected.length);
+            assertArrayEquals(expected, inflated);
+        }
+    }
+
+    private static byte[] compress(final byte[] content, final int threads) throws IOException
+    {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream gzip = CompressionUtilities.getParallelGzipOutputStream(compressed,
+                BLOCK_BYTES, threads))
+        {
+            // Odd sized writes, so that they straddle blocks
+            for (int offset = 0; offset < content.length; offset += 333)
+            {
+                gzip.write(content, offset, Math.min(333, content.length - offset));
+                gzip.flush();
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] content(final int length)
+    {
+        final StringBuilder builder = new StringBuilder();
+        for (int line = 0; builder.length() < length; line++)
+        {
+            builder.append("{\"id\":").append(line).append(",\"checkName\":\"Check")
+                    .append(line % 13).append("\"}\n");
+        }
+        return builder.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] inflate(final byte[] compressed) throws IOException
+    {
+        return inflate(compressed, 0);
+    }
+
+    private static byte[] inflate(final byte[] compressed, final int offset) throws IOException
+    {
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed,
+                offset, compressed.length - offset)))
+        {
+            return input.readAllBytes();
+        }
+    }
+}
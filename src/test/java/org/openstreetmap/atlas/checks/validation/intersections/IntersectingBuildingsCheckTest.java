@@ -3,9 +3,12 @@ package org.openstreetmap.atlas.checks.validation.intersections;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.openstreetmap.atlas.checks.atlas.SyntheticAtlasGenerator;
 import org.openstreetmap.atlas.checks.configuration.ConfigurationResolver;
 import org.openstreetmap.atlas.checks.flag.CheckFlag;
 import org.openstreetmap.atlas.checks.validation.verifier.ConsumerBasedExpectedCheckVerifier;
+import org.openstreetmap.atlas.geography.Rectangle;
+import org.openstreetmap.atlas.geography.atlas.Atlas;
 
 /**
  * {@link IntersectingBuildingsCheck} unit test
@@ -115,4 +118,17 @@ public class IntersectingBuildingsCheckTest
                         "{\"IntersectingBuildingsCheck\": {\"intersection.lower.limit\": 0.15}}")));
         this.verifier.verifyEmpty();
     }
+
+    @Test
+    public void testSyntheticOverlappingBuildingsAtlas()
+    {
+        final int buildings = 400;
+        final Atlas atlas = new SyntheticAtlasGenerator().withBuildings(buildings, 0.5)
+                .generate(Rectangle.TEST_RECTANGLE, "synthetic");
+        this.verifier.actual(atlas,
+                new IntersectingBuildingsCheck(ConfigurationResolver.emptyConfiguration()));
+        // Each overlapping building is shifted by half its width, so every pair is flagged once
+        this.verifier.verifyExpectedSize((int) atlas.numberOfAreas() - buildings);
+        this.verifier.verify(flag -> Assert.assertEquals(2, flag.getFlaggedObjects().size()));
+    }
 }
@@ -0,0 +1,85 @@
+package org.openstreetmap.atlas.checks.vectortiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ * Tests for {@link PMTilesWriter} and {@link PMTilesReader}.
+ *
+ * @author mkalender
+ */
+public class PMTilesWriterTest
+{
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    @Test
+    public void testRoundTripWithLeafDirectories() throws IOException
+    {
+        final VectorTile tile = new VectorTile();
+        tile.addFeature("flags", FACTORY.createPoint(new Coordinate(10, 20)), 0, 0,
+                Map.of("flag:id", "1"));
+        // Enough tiles for the root directory to spill into leaf directories
+        final int tileCount = 30_000;
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (PMTilesWriter writer = new PMTilesWriter())
+        {
+            for (long identifier = 0; identifier < tileCount; identifier++)
+            {
+                writer.add(identifier, tile);
+            }
+            writer.writeTo(archive);
+        }
+
+        try (PMTilesReader reader = new PMTilesReader(
+                new ByteArrayInputStream(archive.toByteArray())))
+        {
+            Assert.assertEquals("[flags]", reader.getLayers().toString());
+            long expected = 0;
+            while (reader.advance())
+            {
+                Assert.assertEquals(expected++, reader.getTileIdentifier());
+            }
+            Assert.assertEquals(tileCount, expected);
+        }
+    }
+
+    @Test
+    public void testTileIdentifiers()
+    {
+        Assert.assertEquals(0, PMTilesWriter.tileIdentifier(0, 0, 0));
+        Assert.assertEquals(1, PMTilesWriter.tileIdentifier(1, 0, 0));
+        Assert.assertEquals(2, PMTilesWriter.tileIdentifier(1, 0, 1));
+        Assert.assertEquals(3, PMTilesWriter.tileIdentifier(1, 1, 1));
+        Assert.assertEquals(4, PMTilesWriter.tileIdentifier(1, 1, 0));
+        Assert.assertEquals(19_078_479, PMTilesWriter.tileIdentifier(12, 3423, 1763));
+        Assert.assertArrayEquals(new int[] { 12, 3423, 1763 },
+                PMTilesWriter.tileCoordinates(19_078_479));
+    }
+
+    @Test
+    public void testVectorTileMerge()
+    {
+        final VectorTile first = new VectorTile();
+        first.addFeature("flags", FACTORY.createPoint(new Coordinate(10, 20)), 0, 0,
+                Map.of("flag:id", "1"));
+        final VectorTile second = new VectorTile();
+        second.addFeature("flags", FACTORY.createLineString(
+                new Coordinate[] { new Coordinate(0, 0), new Coordinate(100, 100) }), 0, 0,
+                Map.of("flag:id", "2"));
+        second.addFeature("Edge", FACTORY.createPoint(new Coordinate(1, 1)), 0, 0, Map.of());
+
+        final VectorTile merged = VectorTile.from(first.toByteArray())
+                .merge(VectorTile.from(second.toByteArray()));
+        Assert.assertEquals(3, merged.getFeatureCount());
+        // Layers of the same name are merged
+        Assert.assertEquals("[flags, Edge]", merged.getLayerNames().toString());
+        Assert.assertEquals(3, VectorTile.from(merged.toByteArray()).getFeatureCount());
+    }
+}